@@ -16,8 +16,8 @@
 
 package com.google.android.apps.mytracks;
 
+import com.google.android.apps.mytracks.content.AggregatedStatsColumns;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.StatsUtils;
@@ -25,8 +25,6 @@ import com.google.android.maps.mytracks.R;
 
 import android.os.Bundle;
 
-import java.util.List;
-
 /**
  * An activity to view aggregated stats from all recorded tracks.
  *
@@ -52,14 +50,7 @@ public class AggregatedStatsActivity extends AbstractMyTracksActivity {
    * there is no track.
    */
   private TripStatistics getTripStatistics() {
-    List<Track> tracks = MyTracksProviderUtils.Factory.get(this).getAllTracks();
-    TripStatistics tripStatistics = null;
-    if (!tracks.isEmpty()) {
-      tripStatistics = new TripStatistics(tracks.iterator().next().getTripStatistics());
-      for (int i = 1; i < tracks.size(); i++) {
-        tripStatistics.merge(tracks.get(i).getTripStatistics());
-      }
-    }
-    return tripStatistics;
+    return MyTracksProviderUtils.Factory.get(this).getAggregatedTripStatistics(
+        null, AggregatedStatsColumns.PERIOD_ALL, 0L);
   }
 }
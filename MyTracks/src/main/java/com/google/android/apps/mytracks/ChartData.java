@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import java.util.Arrays;
+
+/**
+ * The data points of the chart, stored in a primitive array per series. A data
+ * point is added as an array of the x value followed by the value of each
+ * series, NaN if the series has no value.
+ */
+class ChartData {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final int numSeries;
+  private double[] xValues = new double[INITIAL_CAPACITY];
+  private final float[][] values;
+
+  // The index of the first data point with a value for each series, -1 if none
+  private final int[] firstIndexes;
+  private int size = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param numSeries the number of series
+   */
+  ChartData(int numSeries) {
+    this.numSeries = numSeries;
+    values = new float[numSeries][INITIAL_CAPACITY];
+    firstIndexes = new int[numSeries];
+    Arrays.fill(firstIndexes, -1);
+  }
+
+  /**
+   * Adds a data point.
+   *
+   * @param dataPoint the x value followed by the series values
+   */
+  void add(double[] dataPoint) {
+    if (size == xValues.length) {
+      int capacity = size * 2;
+      xValues = Arrays.copyOf(xValues, capacity);
+      for (int i = 0; i < numSeries; i++) {
+        values[i] = Arrays.copyOf(values[i], capacity);
+      }
+    }
+    xValues[size] = dataPoint[0];
+    for (int i = 0; i < numSeries; i++) {
+      float value = (float) dataPoint[i + 1];
+      values[i][size] = value;
+      if (firstIndexes[i] == -1 && !Float.isNaN(value)) {
+        firstIndexes[i] = size;
+      }
+    }
+    size++;
+  }
+
+  /**
+   * Drops every other data point, keeping the first and the last data points.
+   */
+  void decimate() {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (i % 2 == 0 || i == size - 1) {
+        xValues[count] = xValues[i];
+        for (int j = 0; j < numSeries; j++) {
+          values[j][count] = values[j][i];
+        }
+        count++;
+      }
+    }
+    size = count;
+    updateFirstIndexes();
+  }
+
+  /**
+   * Clears all the data points.
+   */
+  void clear() {
+    size = 0;
+    Arrays.fill(firstIndexes, -1);
+  }
+
+  /**
+   * Gets the number of data points.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if there is no data point.
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the x value of a data point.
+   *
+   * @param index the data point index
+   */
+  double getX(int index) {
+    return xValues[index];
+  }
+
+  /**
+   * Gets the value of a series at a data point, NaN if none.
+   *
+   * @param series the series index
+   * @param index the data point index
+   */
+  float getValue(int series, int index) {
+    return values[series][index];
+  }
+
+  /**
+   * Gets the index of the first data point with a value for a series. Returns
+   * -1 if no data point has a value for the series.
+   *
+   * @param series the series index
+   */
+  int getFirstIndex(int series) {
+    return firstIndexes[series];
+  }
+
+  /**
+   * Updates the first indexes.
+   */
+  private void updateFirstIndexes() {
+    for (int i = 0; i < numSeries; i++) {
+      firstIndexes[i] = -1;
+      for (int j = 0; j < size; j++) {
+        if (!Float.isNaN(values[i][j])) {
+          firstIndexes[i] = j;
+          break;
+        }
+      }
+    }
+  }
+}
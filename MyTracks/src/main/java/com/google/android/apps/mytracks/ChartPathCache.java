@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import android.graphics.Matrix;
+import android.graphics.Path;
+
+import java.util.Arrays;
+
+/**
+ * The decimated polylines of the chart series for a zoom level.
+ * <p>
+ * The data points are reduced to pixel columns. A column keeps the first, the
+ * min, the max, and the last y position of its data points, so a polyline has
+ * at most four vertices per pixel whatever the number of data points. New data
+ * points are appended to the polylines without revisiting the previous ones.
+ * <p>
+ * The x positions are computed with the max x value at the time the cache was
+ * reset. As the max x value grows while recording, the polylines are scaled
+ * down horizontally when copied into the series paths. Once they are scaled
+ * below {@link #MIN_X_SCALE}, the cache must be reset. The cache must also be
+ * reset if the y scale or the chart dimensions change.
+ */
+class ChartPathCache {
+
+  /**
+   * The min horizontal scale of the polylines. At that scale, there are at
+   * most two columns per pixel.
+   */
+  static final double MIN_X_SCALE = 0.5;
+
+  private final int numSeries;
+  private final Path[] linePaths;
+
+  // The open column of each series, not yet in the line paths
+  private final boolean[] hasColumn;
+  private final int[] columns;
+  private final float[] firstYs;
+  private final float[] minYs;
+  private final float[] maxYs;
+  private final float[] lastYs;
+
+  // True if the line path of a series has a first vertex
+  private final boolean[] hasMoved;
+
+  private final Matrix matrix = new Matrix();
+
+  // The number of data points in the polylines
+  private int size = 0;
+
+  // The scale of the polylines
+  private double maxX = 1.0;
+  private int left = 0;
+  private int xRange = 0;
+  private int[] yScale = new int[0];
+
+  /**
+   * Constructor.
+   *
+   * @param numSeries the number of series
+   */
+  ChartPathCache(int numSeries) {
+    this.numSeries = numSeries;
+    linePaths = new Path[numSeries];
+    for (int i = 0; i < numSeries; i++) {
+      linePaths[i] = new Path();
+    }
+    hasColumn = new boolean[numSeries];
+    columns = new int[numSeries];
+    firstYs = new float[numSeries];
+    minYs = new float[numSeries];
+    maxYs = new float[numSeries];
+    lastYs = new float[numSeries];
+    hasMoved = new boolean[numSeries];
+  }
+
+  /**
+   * Resets the cache.
+   *
+   * @param newMaxX the max x value
+   * @param newLeft the x position of the x value 0
+   * @param newXRange the x position range of the x values from 0 to the max x
+   *          value
+   * @param newYScale the y scale. The y position of the first data point, the
+   *          y position range, then the min value and the value range of each
+   *          series
+   */
+  void reset(double newMaxX, int newLeft, int newXRange, int[] newYScale) {
+    maxX = newMaxX;
+    left = newLeft;
+    xRange = newXRange;
+    yScale = newYScale.clone();
+    size = 0;
+    for (int i = 0; i < numSeries; i++) {
+      linePaths[i].rewind();
+    }
+    Arrays.fill(hasColumn, false);
+    Arrays.fill(hasMoved, false);
+  }
+
+  /**
+   * Returns true if the polylines can be used for a scale.
+   *
+   * @param newMaxX the max x value
+   * @param newLeft the x position of the x value 0
+   * @param newXRange the x position range
+   * @param newYScale the y scale
+   */
+  boolean isValid(double newMaxX, int newLeft, int newXRange, int[] newYScale) {
+    return left == newLeft && xRange == newXRange && Arrays.equals(yScale, newYScale)
+        && maxX <= newMaxX && maxX / newMaxX >= MIN_X_SCALE;
+  }
+
+  /**
+   * Gets the number of data points in the polylines.
+   */
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * Appends the data points not yet in the polylines.
+   *
+   * @param chartData the chart data
+   */
+  void append(ChartData chartData) {
+    int dataSize = chartData.size();
+    for (int i = size; i < dataSize; i++) {
+      int column = left + (int) (chartData.getX(i) / maxX * xRange);
+      for (int j = 0; j < numSeries; j++) {
+        float value = chartData.getValue(j, i);
+        if (Float.isNaN(value)) {
+          continue;
+        }
+        float y = getY(j, value);
+        if (hasColumn[j] && columns[j] == column) {
+          minYs[j] = Math.min(minYs[j], y);
+          maxYs[j] = Math.max(maxYs[j], y);
+          lastYs[j] = y;
+          continue;
+        }
+        if (hasColumn[j]) {
+          addColumn(linePaths[j], j, columns[j]);
+          hasMoved[j] = true;
+        }
+        hasColumn[j] = true;
+        columns[j] = column;
+        firstYs[j] = y;
+        minYs[j] = y;
+        maxYs[j] = y;
+        lastYs[j] = y;
+      }
+    }
+    size = dataSize;
+  }
+
+  /**
+   * Copies the closed polyline of a series into a path, scaled to a max x
+   * value.
+   *
+   * @param series the series index
+   * @param newMaxX the max x value
+   * @param chartData the chart data
+   * @param bottom the y position of the x axis
+   * @param path the path
+   */
+  void getPath(int series, double newMaxX, ChartData chartData, int bottom, Path path) {
+    int first = chartData.getFirstIndex(series);
+    if (first == -1 || first >= size) {
+      path.rewind();
+      return;
+    }
+    double scale = maxX / newMaxX;
+    if (scale == 1.0) {
+      path.set(linePaths[series]);
+    } else {
+      matrix.setScale((float) scale, 1f, left, 0f);
+      linePaths[series].transform(matrix, path);
+    }
+    if (hasColumn[series]) {
+      addColumn(path, series, (float) (left + (columns[series] - left) * scale));
+    }
+
+    float xCorner = left + (int) (chartData.getX(first) / newMaxX * xRange);
+    // Bottom right corner
+    path.lineTo(left + (int) (chartData.getX(size - 1) / newMaxX * xRange), bottom);
+    // Bottom left corner
+    path.lineTo(xCorner, bottom);
+    // Top right corner
+    path.lineTo(xCorner, getY(series, chartData.getValue(series, first)));
+  }
+
+  /**
+   * Gets the y position of a value.
+   *
+   * @param series the series index
+   * @param value the value
+   */
+  private float getY(int series, float value) {
+    double percentage = (value - yScale[2 + 2 * series]) / yScale[3 + 2 * series];
+    return yScale[0] + (int) ((1 - percentage) * yScale[1]);
+  }
+
+  /**
+   * Adds the open column of a series to a path.
+   *
+   * @param path the path
+   * @param series the series index
+   * @param x the x position of the column
+   */
+  private void addColumn(Path path, int series, float x) {
+    if (hasMoved[series]) {
+      path.lineTo(x, firstYs[series]);
+    } else {
+      path.moveTo(x, firstYs[series]);
+    }
+    if (minYs[series] != maxYs[series]) {
+      path.lineTo(x, minYs[series]);
+      path.lineTo(x, maxYs[series]);
+    }
+    if (lastYs[series] != maxYs[series]) {
+      path.lineTo(x, lastYs[series]);
+    }
+  }
+}
@@ -44,6 +44,7 @@ import android.widget.Scroller;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Visualization of the chart.
@@ -83,7 +84,10 @@ public class ChartView extends View {
   private static final int Y_AXIS_OFFSET = 16;
 
   private final ChartValueSeries[] series = new ChartValueSeries[NUM_SERIES];
-  private final ArrayList<double[]> chartData = new ArrayList<double[]>();
+  private final ChartData chartData = new ChartData(NUM_SERIES);
+
+  // The decimated polylines of each zoom level, null if not built
+  private final ChartPathCache[] pathCaches = new ChartPathCache[MAX_ZOOM_LEVEL + 1];
   private final ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
   private final ExtremityMonitor xExtremityMonitor = new ExtremityMonitor();
   private double maxX = 1.0;
@@ -275,9 +279,9 @@ public class ChartView extends View {
    */
   public void addDataPoints(ArrayList<double[]> dataPoints) {
     synchronized (chartData) {
-      chartData.addAll(dataPoints);
       for (int i = 0; i < dataPoints.size(); i++) {
         double[] dataPoint = dataPoints.get(i);
+        chartData.add(dataPoint);
         xExtremityMonitor.update(dataPoint[0]);
         for (int j = 0; j < series.length; j++) {
           if (!Double.isNaN(dataPoint[j + 1])) {
@@ -290,12 +294,25 @@ public class ChartView extends View {
     }
   }
 
+  /**
+   * Drops every other data point, keeping the first and the last data points.
+   * The extremities are kept since the remaining data points are a subset.
+   */
+  public void decimateDataPoints() {
+    synchronized (chartData) {
+      chartData.decimate();
+      Arrays.fill(pathCaches, null);
+      updatePaths();
+    }
+  }
+
   /**
    * Clears all data.
    */
   public void reset() {
     synchronized (chartData) {
       chartData.clear();
+      Arrays.fill(pathCaches, null);
       xExtremityMonitor.reset();
       zoomLevel = 1;
       updateDimensions();
@@ -320,6 +337,39 @@ public class ChartView extends View {
     }
   }
 
+  /**
+   * Updates a waypoint, or adds it if there is no waypoint with its id.
+   * 
+   * @param waypoint the waypoint
+   */
+  public void updateWaypoint(Waypoint waypoint) {
+    synchronized (waypoints) {
+      for (int i = 0; i < waypoints.size(); i++) {
+        if (waypoints.get(i).getId() == waypoint.getId()) {
+          waypoints.set(i, waypoint);
+          return;
+        }
+      }
+      waypoints.add(waypoint);
+    }
+  }
+
+  /**
+   * Removes a waypoint.
+   * 
+   * @param waypointId the waypoint id
+   */
+  public void removeWaypoint(long waypointId) {
+    synchronized (waypoints) {
+      for (int i = 0; i < waypoints.size(); i++) {
+        if (waypoints.get(i).getId() == waypointId) {
+          waypoints.remove(i);
+          return;
+        }
+      }
+    }
+  }
+
   /**
    * Clears the waypoints.
    */
@@ -805,7 +855,7 @@ public class ChartView extends View {
     }
     if (index != -1 && chartData.size() > 0) {
       int dx = getX(maxX) - pointer.getIntrinsicWidth() / 2;
-      int dy = getY(series[index], chartData.get(chartData.size() - 1)[index + 1])
+      int dy = getY(series[index], chartData.getValue(index, chartData.size() - 1))
           - pointer.getIntrinsicHeight();
       canvas.translate(dx, dy);
       pointer.draw(canvas);
@@ -814,80 +864,42 @@ public class ChartView extends View {
 
   /**
    * Updates paths. The path needs to be updated any time after the data or the
-   * dimensions change.
+   * dimensions change. Only the new data points are added to the decimated
+   * polylines of the zoom level, unless the scale changed.
    */
   private void updatePaths() {
     synchronized (chartData) {
-      for (ChartValueSeries chartValueSeries : series) {
-        chartValueSeries.getPath().reset();
+      int xRange = effectiveWidth * zoomLevel;
+      int[] yScale = getYScale();
+      ChartPathCache pathCache = pathCaches[zoomLevel];
+      if (pathCache == null) {
+        pathCache = new ChartPathCache(series.length);
+        pathCaches[zoomLevel] = pathCache;
+        pathCache.reset(maxX, leftBorder, xRange, yScale);
+      } else if (!pathCache.isValid(maxX, leftBorder, xRange, yScale)) {
+        pathCache.reset(maxX, leftBorder, xRange, yScale);
       }
-      drawPaths();
-      closePaths();
-    }
-  }
-
-  /**
-   * Draws all paths.
-   */
-  private void drawPaths() {
-    boolean[] hasMoved = new boolean[series.length];
-    
-    for (int i = 0; i < chartData.size(); i++) {
-      double[] dataPoint = chartData.get(i);
-      for (int j = 0; j < series.length; j++) {
-        double value = dataPoint[j + 1];
-        if (Double.isNaN(value)) {
-          continue;
-        }
-        ChartValueSeries chartValueSeries = series[j];
-        Path path = chartValueSeries.getPath();
-        int x = getX(dataPoint[0]);
-        int y = getY(chartValueSeries, value);
-        if (!hasMoved[j]) {
-          hasMoved[j] = true;
-          path.moveTo(x, y);
-        } else {
-          path.lineTo(x, y);
-        }
+      pathCache.append(chartData);
+      for (int i = 0; i < series.length; i++) {
+        pathCache.getPath(
+            i, maxX, chartData, topBorder + effectiveHeight, series[i].getPath());
       }
     }
   }
 
   /**
-   * Closes all paths.
+   * Gets the y scale of the paths, see
+   * {@link ChartPathCache#reset(double, int, int, int[])}.
    */
-  private void closePaths() {
+  private int[] getYScale() {
+    int[] yScale = new int[2 + 2 * series.length];
+    yScale[0] = topBorder + yAxisOffset;
+    yScale[1] = effectiveHeight - 2 * yAxisOffset;
     for (int i = 0; i < series.length; i++) {
-      int first = getFirstPopulatedChartDataIndex(i);
-
-      if (first != -1) {
-        int xCorner = getX(chartData.get(first)[0]);
-        int yCorner = topBorder + effectiveHeight;
-        ChartValueSeries chartValueSeries = series[i];
-        Path path = chartValueSeries.getPath();
-        // Bottom right corner
-        path.lineTo(getX(chartData.get(chartData.size() - 1)[0]), yCorner);
-        // Bottom left corner
-        path.lineTo(xCorner, yCorner);
-        // Top right corner
-        path.lineTo(xCorner, getY(chartValueSeries, chartData.get(first)[i + 1]));
-      }
+      yScale[2 + 2 * i] = series[i].getMinMarkerValue();
+      yScale[3 + 2 * i] = series[i].getInterval() * Y_AXIS_INTERVALS;
     }
-  }
-
-  /**
-   * Finds the index of the first data point containing data for a series.
-   * Returns -1 if no data point contains data for the series.
-   * 
-   * @param seriesIndex the series's index
-   */
-  private int getFirstPopulatedChartDataIndex(int seriesIndex) {
-    for (int i = 0; i < chartData.size(); i++) {
-      if (!Double.isNaN(chartData.get(i)[seriesIndex + 1])) {
-        return i;
-      }
-    }
-    return -1;
+    return yScale;
   }
 
   /**
@@ -1027,4 +1039,14 @@ public class ChartView extends View {
   public boolean isMetricUnits() {
     return metricUnits;
   }
+
+  /**
+   * Gets the path of a chart value series.
+   * 
+   * @param index the chart value series index
+   */
+  @VisibleForTesting
+  Path getPath(int index) {
+    return series[index].getPath();
+  }
 }
@@ -16,19 +16,20 @@
 
 package com.google.android.apps.mytracks;
 
-import static com.google.android.apps.mytracks.content.TrackDataHub.TARGET_DISPLAYED_TRACK_POINTS;
-
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.maps.LocationArray;
+import com.google.android.apps.mytracks.maps.LocationBuffer;
+import com.google.android.apps.mytracks.maps.PathLevelOfDetail;
 import com.google.android.apps.mytracks.maps.TrackPath;
 import com.google.android.apps.mytracks.maps.TrackPathFactory;
 import com.google.android.apps.mytracks.stats.TripStatistics;
-import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
-import com.google.android.apps.mytracks.util.UnitConversions;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
@@ -37,12 +38,13 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.location.Location;
-import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A map overlay that displays my location arrow, error circle, and track info.
@@ -53,8 +55,6 @@ public class MapOverlay {
 
   public static final float WAYPOINT_X_ANCHOR = 13f / 48f;
 
-  private static final String TAG = MapOverlay.class.getSimpleName();
-  
   private static final float WAYPOINT_Y_ANCHOR = 43f / 48f;
   private static final float MARKER_X_ANCHOR = 50f / 96f;
   private static final float MARKER_Y_ANCHOR = 90f / 96f;
@@ -74,74 +74,45 @@ public class MapOverlay {
       };
 
   private final Context context;
-  private final List<CachedLocation> locations;
-  private final BlockingQueue<CachedLocation> pendingLocations;
-  private final List<Waypoint> waypoints;
 
-  private String trackColorMode = PreferencesUtils.TRACK_COLOR_MODE_DEFAULT;
+  // The locations, only accessed by the UI thread
+  private final LocationArray locations;
 
-  private boolean showEndMarker = true;
-  private TrackPath trackPath;
+  // The locations added by the track data hub thread, not yet in locations
+  private final LocationBuffer pendingLocations;
 
-  /**
-   * A pre-processed {@link Location} to speed up drawing.
-   * 
-   * @author Jimmy Shih
-   */
-  public static class CachedLocation {
-
-    private final boolean valid;
-    private final LatLng latLng;
-    private final double speed;
-
-    /**
-     * Constructor for an invalid cached location.
-     */
-    public CachedLocation() {
-      this.valid = false;
-      this.latLng = null;
-      this.speed = -1.0;
-    }
+  private final Map<Long, Waypoint> waypoints;
 
-    /**
-     * Constructor for a potentially valid cached location.
-     */
-    public CachedLocation(Location location) {
-      this.valid = LocationUtils.isValidLocation(location);
-      this.latLng = valid ? new LatLng(location.getLatitude(), location.getLongitude()) : null;
-      this.speed = location.hasSpeed() ? location.getSpeed() * UnitConversions.MS_TO_KMH : -1.0;
-    }
+  // The waypoint markers on the map, by waypoint id
+  private final Map<Long, Marker> waypointMarkers;
 
-    /**
-     * Returns true if the location is valid.
-     */
-    public boolean isValid() {
-      return valid;
-    }
+  // The ids of the waypoints added, updated, or removed since the last update
+  private final Set<Long> changedWaypointIds;
 
-    /**
-     * Gets the speed in kilometers per hour.
-     */
-    public double getSpeed() {
-      return speed;
-    }
+  private final PathLevelOfDetail pathLevelOfDetail;
 
-    /**
-     * Gets the LatLng.
-     */
-    public LatLng getLatLng() {
-      return latLng;
-    }
-  }
+  // The zoom level of the drawn paths, -1 if not drawn
+  private int drawnZoomLevel = -1;
+
+  // The bounds of the drawn paths. Null if the paths are not culled
+  private LatLngBounds drawnBounds;
+
+  // Index of the last drawn location, -1 if none
+  private int lastDrawnIndex = -1;
+
+  private String trackColorMode = PreferencesUtils.TRACK_COLOR_MODE_DEFAULT;
+
+  private boolean showEndMarker = true;
+  private TrackPath trackPath;
 
     public MapOverlay(Context context) {
     this.context = context;
-    this.waypoints = new ArrayList<Waypoint>();
-    this.locations = new ArrayList<CachedLocation>(INITIAL_LOCATIONS_SIZE);
-
-    // Set the number of points to be 2x the TARGET_DISPLAYED_TRACK_POINTS
-    this.pendingLocations = new ArrayBlockingQueue<CachedLocation>(
-        2 * TARGET_DISPLAYED_TRACK_POINTS, true);
+    this.waypoints = new LinkedHashMap<Long, Waypoint>();
+    this.waypointMarkers = new HashMap<Long, Marker>();
+    this.changedWaypointIds = new HashSet<Long>();
+    this.pathLevelOfDetail = new PathLevelOfDetail();
+    this.locations = new LocationArray(INITIAL_LOCATIONS_SIZE);
+    this.pendingLocations = new LocationBuffer();
 
     context.getSharedPreferences(Constants.SETTINGS_NAME, Context.MODE_PRIVATE)
         .registerOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
@@ -155,9 +126,7 @@ public class MapOverlay {
    */
   public void addLocation(Location location) {
     // Queue up in the pendingLocations until it's merged with locations
-    if (!pendingLocations.offer(new CachedLocation(location))) {
-      Log.e(TAG, "Unable to add to pendingLocations.");
-    }
+    pendingLocations.add(location);
   }
 
   /**
@@ -165,19 +134,24 @@ public class MapOverlay {
    */
   public void addSegmentSplit() {
     // Queue up in the pendingLocations until it's merged with locations
-    if (!pendingLocations.offer(new CachedLocation())) {
-      Log.e(TAG, "Unable to add to pendingLocations.");
-    }
+    pendingLocations.addSegmentSplit();
+  }
+
+  /**
+   * Drops every other valid location, keeping the first and the last valid
+   * locations and all the segment splits. The track is reloaded in the next
+   * {@link #update(GoogleMap, ArrayList, TripStatistics, boolean)}.
+   */
+  public void decimatePoints() {
+    pendingLocations.decimate();
   }
 
   /**
-   * Clears the locations.
+   * Clears the locations. The track is reloaded in the next
+   * {@link #update(GoogleMap, ArrayList, TripStatistics, boolean)}.
    */
   public void clearPoints() {
-    synchronized (locations) {
-      locations.clear();
-      pendingLocations.clear();
-    }
+    pendingLocations.clear();
   }
 
   /**
@@ -186,8 +160,31 @@ public class MapOverlay {
    * @param waypoint the waypoint
    */
   public void addWaypoint(Waypoint waypoint) {
+    updateWaypoint(waypoint);
+  }
+
+  /**
+   * Updates a waypoint, or adds it if there is no waypoint with its id.
+   * 
+   * @param waypoint the waypoint
+   */
+  public void updateWaypoint(Waypoint waypoint) {
     synchronized (waypoints) {
-      waypoints.add(waypoint);
+      waypoints.put(waypoint.getId(), waypoint);
+      changedWaypointIds.add(waypoint.getId());
+    }
+  }
+
+  /**
+   * Removes a waypoint.
+   * 
+   * @param waypointId the waypoint id
+   */
+  public void removeWaypoint(long waypointId) {
+    synchronized (waypoints) {
+      if (waypoints.remove(waypointId) != null) {
+        changedWaypointIds.add(waypointId);
+      }
     }
   }
 
@@ -196,6 +193,7 @@ public class MapOverlay {
    */
   public void clearWaypoints() {
     synchronized (waypoints) {
+      changedWaypointIds.addAll(waypoints.keySet());
       waypoints.clear();
     }
   }
@@ -220,26 +218,115 @@ public class MapOverlay {
    */
   public boolean update(GoogleMap googleMap, ArrayList<Polyline> paths,
       TripStatistics tripStatistics, boolean reload) {
-    synchronized (locations) {
-      boolean hasStartMarker = false;
-      // Merge pendingLocations with locations
-      int newLocations = pendingLocations.drainTo(locations);
-      // Call updateState first because we want to update its state each time
-      // (for dynamic coloring)
-      if (trackPath.updateState(tripStatistics) || reload) {
-        googleMap.clear();
-        paths.clear();
-        trackPath.updatePath(googleMap, paths, 0, locations);
-        hasStartMarker = updateStartAndEndMarkers(googleMap);
-        updateWaypoints(googleMap);
-      } else {
-        if (newLocations != 0) {
-          int numLocations = locations.size();
-          trackPath.updatePath(googleMap, paths, numLocations - newLocations, locations);
+    boolean hasStartMarker = false;
+    // Merge pendingLocations with locations
+    int startIndex = locations.size();
+    boolean changed = pendingLocations.drainTo(locations);
+    // Call updateState first because we want to update its state each time
+    // (for dynamic coloring)
+    if (trackPath.updateState(tripStatistics) || reload || changed) {
+      googleMap.clear();
+      paths.clear();
+      pathLevelOfDetail.invalidate();
+      drawPaths(googleMap, paths);
+      hasStartMarker = updateStartAndEndMarkers(googleMap);
+      synchronized (waypoints) {
+        waypointMarkers.clear();
+        changedWaypointIds.clear();
+        for (Waypoint waypoint : waypoints.values()) {
+          addWaypointMarker(googleMap, waypoint);
+        }
+      }
+    } else {
+      if (startIndex != locations.size()) {
+        if (startIndex == 0 || !locations.isValid(startIndex - 1)
+            || startIndex - 1 == lastDrawnIndex) {
+          // The drawn paths end with the last location, append the new locations
+          trackPath.updatePath(googleMap, paths, startIndex, locations);
+          lastDrawnIndex = locations.size() - 1;
+        } else if (isInDrawnBounds(startIndex)) {
+          removePaths(paths);
+          drawPaths(googleMap, paths);
+        }
+      }
+    }
+    return hasStartMarker;
+  }
+
+  /**
+   * Updates the paths after the camera changes, if the zoom level changes or if
+   * the visible region is no longer within the drawn bounds. The markers are
+   * kept.
+   * 
+   * @param googleMap the google map
+   * @param paths the paths
+   */
+  public void updatePaths(GoogleMap googleMap, ArrayList<Polyline> paths) {
+    if (drawnZoomLevel == -1) {
+      return;
+    }
+    LatLngBounds visibleBounds = googleMap.getProjection().getVisibleRegion().latLngBounds;
+    if ((int) googleMap.getCameraPosition().zoom == drawnZoomLevel && (drawnBounds == null
+        || (drawnBounds.contains(visibleBounds.southwest)
+            && drawnBounds.contains(visibleBounds.northeast)))) {
+      return;
+    }
+    removePaths(paths);
+    drawPaths(googleMap, paths);
+  }
+
+  /**
+   * Draws the paths simplified for the camera zoom level and culled to the
+   * camera visible region.
+   * 
+   * @param googleMap the google map
+   * @param paths the paths
+   */
+  private void drawPaths(GoogleMap googleMap, ArrayList<Polyline> paths) {
+    drawnZoomLevel = (int) googleMap.getCameraPosition().zoom;
+    drawnBounds = PathLevelOfDetail.getRenderBounds(
+        googleMap.getProjection().getVisibleRegion().latLngBounds);
+    LocationArray pathLocations = pathLevelOfDetail.getLocations(
+        locations, trackPath, drawnZoomLevel, drawnBounds);
+    trackPath.updatePath(googleMap, paths, 0, pathLocations);
+    lastDrawnIndex = pathLevelOfDetail.getLastIndex();
+  }
+
+  /**
+   * Removes the paths from the map.
+   * 
+   * @param paths the paths
+   */
+  private void removePaths(ArrayList<Polyline> paths) {
+    for (Polyline polyline : paths) {
+      polyline.remove();
+    }
+    paths.clear();
+  }
+
+  /**
+   * Returns true if a valid location from a start index is within the drawn
+   * bounds.
+   * 
+   * @param startIndex the start index
+   */
+  private boolean isInDrawnBounds(int startIndex) {
+    if (drawnBounds == null) {
+      return true;
+    }
+    for (int i = startIndex; i < locations.size(); i++) {
+      if (locations.isValid(i)) {
+        double latitude = locations.getLatitude(i);
+        double longitude = locations.getLongitude(i);
+        if (latitude >= drawnBounds.southwest.latitude
+            && latitude <= drawnBounds.northeast.latitude
+            && longitude >= drawnBounds.southwest.longitude
+            && longitude <= drawnBounds.northeast.longitude) {
+          return true;
         }
       }
-      return hasStartMarker;
     }
+    return false;
   }
 
   /**
@@ -252,9 +339,8 @@ public class MapOverlay {
     // Add the end marker
     if (showEndMarker) {
       for (int i = locations.size() - 1; i >= 0; i--) {
-        CachedLocation cachedLocation = locations.get(i);
-        if (cachedLocation.valid) {
-          MarkerOptions markerOptions = new MarkerOptions().position(cachedLocation.getLatLng())
+        if (locations.isValid(i)) {
+          MarkerOptions markerOptions = new MarkerOptions().position(locations.getLatLng(i))
               .anchor(MARKER_X_ANCHOR, MARKER_Y_ANCHOR).draggable(false).visible(true)
               .icon(BitmapDescriptorFactory.fromResource(R.drawable.ic_marker_red_paddle));
           googleMap.addMarker(markerOptions);
@@ -266,9 +352,8 @@ public class MapOverlay {
     // Add the start marker
     boolean hasStartMarker = false;
     for (int i = 0; i < locations.size(); i++) {
-      CachedLocation cachedLocation = locations.get(i);
-      if (cachedLocation.valid) {
-        MarkerOptions markerOptions = new MarkerOptions().position(cachedLocation.getLatLng())
+      if (locations.isValid(i)) {
+        MarkerOptions markerOptions = new MarkerOptions().position(locations.getLatLng(i))
             .anchor(MARKER_X_ANCHOR, MARKER_Y_ANCHOR).draggable(false).visible(true)
             .icon(BitmapDescriptorFactory.fromResource(R.drawable.ic_marker_green_paddle));
         googleMap.addMarker(markerOptions);
@@ -280,23 +365,42 @@ public class MapOverlay {
   }
 
   /**
-   * Updates the waypoints.
+   * Updates the markers of the waypoints added, updated, or removed since the
+   * last update. The other markers are kept.
    * 
    * @param googleMap the google map.
    */
-  private void updateWaypoints(GoogleMap googleMap) {
+  public void updateWaypoints(GoogleMap googleMap) {
     synchronized (waypoints) {
-      for (Waypoint waypoint : waypoints) {
-        Location location = waypoint.getLocation();
-        LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
-        int drawableId = waypoint.getType() == WaypointType.STATISTICS 
-            ? R.drawable.ic_marker_yellow_pushpin : R.drawable.ic_marker_blue_pushpin;
-        MarkerOptions markerOptions = new MarkerOptions().position(latLng)
-            .anchor(WAYPOINT_X_ANCHOR, WAYPOINT_Y_ANCHOR).draggable(false).visible(true)
-            .icon(BitmapDescriptorFactory.fromResource(drawableId))
-            .title(String.valueOf(waypoint.getId()));
-        googleMap.addMarker(markerOptions);
+      for (long id : changedWaypointIds) {
+        Marker marker = waypointMarkers.remove(id);
+        if (marker != null) {
+          marker.remove();
+        }
+        Waypoint waypoint = waypoints.get(id);
+        if (waypoint != null) {
+          addWaypointMarker(googleMap, waypoint);
+        }
       }
+      changedWaypointIds.clear();
     }
   }
+
+  /**
+   * Adds the marker of a waypoint.
+   * 
+   * @param googleMap the google map
+   * @param waypoint the waypoint
+   */
+  private void addWaypointMarker(GoogleMap googleMap, Waypoint waypoint) {
+    Location location = waypoint.getLocation();
+    LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
+    int drawableId = waypoint.getType() == WaypointType.STATISTICS 
+        ? R.drawable.ic_marker_yellow_pushpin : R.drawable.ic_marker_blue_pushpin;
+    MarkerOptions markerOptions = new MarkerOptions().position(latLng)
+        .anchor(WAYPOINT_X_ANCHOR, WAYPOINT_Y_ANCHOR).draggable(false).visible(true)
+        .icon(BitmapDescriptorFactory.fromResource(drawableId))
+        .title(String.valueOf(waypoint.getId()));
+    waypointMarkers.put(waypoint.getId(), googleMap.addMarker(markerOptions));
+  }
 }
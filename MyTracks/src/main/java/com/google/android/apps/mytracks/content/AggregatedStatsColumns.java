@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the aggregated stats table. Each row holds the merged trip
+ * statistics of the tracks of a category, or of all the categories if
+ * {@link #CATEGORY} is null, starting in a period. The table is maintained by
+ * {@link MyTracksProvider} when tracks are inserted, updated, or deleted and is
+ * read only for the clients.
+ */
+public interface AggregatedStatsColumns extends BaseColumns {
+
+  String TABLE_NAME = "aggregatedstats";
+  Uri CONTENT_URI = Uri.parse("content://com.google.android.maps.mytracks/aggregatedstats");
+  String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.aggregatedstats";
+  String CONTENT_ITEMTYPE = "vnd.android.cursor.item/vnd.google.aggregatedstats";
+  String DEFAULT_SORT_ORDER = "period, periodstart";
+
+  // Periods. The period start of a track is in the local time zone.
+  int PERIOD_ALL = 0; // all the tracks, period start is 0
+  int PERIOD_YEAR = 1;
+  int PERIOD_MONTH = 2;
+  int PERIOD_WEEK = 3;
+
+  // Columns
+  String CATEGORY = "category"; // track category, null for all the categories
+  String PERIOD = "period"; // period
+  String PERIODSTART = "periodstart"; // period start time
+  String NUMTRACKS = "numtracks"; // number of tracks
+  String STARTTIME = "starttime"; // min start time
+  String STOPTIME = "stoptime"; // max stop time
+  String TOTALDISTANCE = "totaldistance"; // total distance
+  String TOTALTIME = "totaltime"; // total time
+  String MOVINGTIME = "movingtime"; // moving time
+  String MINLAT = "minlat"; // minimum latitude
+  String MAXLAT = "maxlat"; // maximum latitude
+  String MINLON = "minlon"; // minimum longitude
+  String MAXLON = "maxlon"; // maximum longitude
+  String MAXSPEED = "maxspeed"; // maximum speed
+  String MINELEVATION = "minelevation"; // minimum elevation
+  String MAXELEVATION = "maxelevation"; // maximum elevation
+  String ELEVATIONGAIN = "elevationgain"; // elevation gain
+  String MINGRADE = "mingrade"; // minimum grade
+  String MAXGRADE = "maxgrade"; // maximum grade
+  String CALORIE = "calorie"; // calorie
+
+  String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + CATEGORY + " STRING, "
+      + PERIOD + " INTEGER, "
+      + PERIODSTART + " INTEGER, "
+      + NUMTRACKS + " INTEGER, "
+      + STARTTIME + " INTEGER, "
+      + STOPTIME + " INTEGER, "
+      + TOTALDISTANCE + " FLOAT, "
+      + TOTALTIME + " INTEGER, "
+      + MOVINGTIME + " INTEGER, "
+      + MINLAT + " INTEGER, "
+      + MAXLAT + " INTEGER, "
+      + MINLON + " INTEGER, "
+      + MAXLON + " INTEGER, "
+      + MAXSPEED + " FLOAT, "
+      + MINELEVATION + " FLOAT, "
+      + MAXELEVATION + " FLOAT, "
+      + ELEVATIONGAIN + " FLOAT, "
+      + MINGRADE + " FLOAT, "
+      + MAXGRADE + " FLOAT, "
+      + CALORIE + " FLOAT"
+      + ");";
+
+  // Indexes
+  String PERIOD_CATEGORY_INDEX = "aggregatedstats_period_category_index";
+
+  String CREATE_PERIOD_CATEGORY_INDEX = "CREATE INDEX IF NOT EXISTS " + PERIOD_CATEGORY_INDEX
+      + " ON " + TABLE_NAME + " (" + PERIOD + ", " + PERIODSTART + ", " + CATEGORY + ");";
+}
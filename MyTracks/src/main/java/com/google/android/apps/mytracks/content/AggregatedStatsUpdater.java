@@ -0,0 +1,617 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains the {@link AggregatedStatsColumns} table. Must be called by
+ * {@link MyTracksProvider} within the transaction changing the tracks table.
+ * <p>
+ * A track contributes to a row for its category and a row for all the
+ * categories, for each period. When a track changes, its old values are
+ * subtracted from and its new values are added to the affected rows. The sums
+ * are doubles, so they can drift from the sums of the tracks by rounding
+ * errors until the next rebuild. A minimum or a maximum can't be subtracted,
+ * so a row is recomputed from the tracks table only when a removed value was
+ * its extreme and the new value of the track doesn't reach it. While
+ * recording, the statistics of a track only grow, so its updates never
+ * recompute.
+ */
+class AggregatedStatsUpdater {
+
+  /**
+   * The values of a track used by the aggregated stats.
+   */
+  static class TrackValues {
+    final String category;
+    final double[] sums = new double[SUM_COLUMNS.length];
+    final double[] mins = new double[MIN_COLUMNS.length];
+    final double[] maxs = new double[MAX_COLUMNS.length];
+
+    TrackValues(String category) {
+      this.category = category == null ? "" : category;
+    }
+
+    /**
+     * Gets the start time, NaN if unknown.
+     */
+    double getStartTime() {
+      return mins[0];
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof TrackValues)) {
+        return false;
+      }
+      TrackValues other = (TrackValues) object;
+      return category.equals(other.category) && Arrays.equals(sums, other.sums)
+          && Arrays.equals(mins, other.mins) && Arrays.equals(maxs, other.maxs);
+    }
+
+    @Override
+    public int hashCode() {
+      return category.hashCode();
+    }
+  }
+
+  /**
+   * The key of a row.
+   */
+  private static class GroupKey {
+    final String category;
+    final int period;
+    final long periodStart;
+
+    GroupKey(String category, int period, long periodStart) {
+      this.category = category;
+      this.period = period;
+      this.periodStart = periodStart;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof GroupKey)) {
+        return false;
+      }
+      GroupKey other = (GroupKey) object;
+      return period == other.period && periodStart == other.periodStart
+          && (category == null ? other.category == null : category.equals(other.category));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * period + (int) (periodStart ^ (periodStart >>> 32)))
+          + (category == null ? 0 : category.hashCode());
+    }
+  }
+
+  /**
+   * A row being updated.
+   */
+  private static class Group {
+    final GroupKey key;
+    long rowId = -1L;
+    int numTracks = 0;
+    final double[] sums = new double[SUM_COLUMNS.length];
+    final double[] mins = new double[MIN_COLUMNS.length];
+    final double[] maxs = new double[MAX_COLUMNS.length];
+
+    // True if a min or a max must be recomputed from the tracks table
+    boolean stale = false;
+
+    Group(GroupKey key) {
+      this.key = key;
+      Arrays.fill(mins, Double.NaN);
+      Arrays.fill(maxs, Double.NaN);
+    }
+
+    /**
+     * Adds the values of a track.
+     *
+     * @param trackValues the track values
+     */
+    void add(TrackValues trackValues) {
+      numTracks++;
+      for (int i = 0; i < sums.length; i++) {
+        if (!Double.isNaN(trackValues.sums[i])) {
+          sums[i] += trackValues.sums[i];
+        }
+      }
+      for (int i = 0; i < mins.length; i++) {
+        double value = trackValues.mins[i];
+        if (!Double.isNaN(value) && (Double.isNaN(mins[i]) || value < mins[i])) {
+          mins[i] = value;
+        }
+      }
+      for (int i = 0; i < maxs.length; i++) {
+        double value = trackValues.maxs[i];
+        if (!Double.isNaN(value) && (Double.isNaN(maxs[i]) || value > maxs[i])) {
+          maxs[i] = value;
+        }
+      }
+    }
+
+    /**
+     * Removes the values of a track.
+     *
+     * @param trackValues the track values
+     * @param replacement the new values of the track if they are added to this
+     *          group, else null
+     */
+    void remove(TrackValues trackValues, TrackValues replacement) {
+      numTracks--;
+      for (int i = 0; i < sums.length; i++) {
+        if (!Double.isNaN(trackValues.sums[i])) {
+          sums[i] -= trackValues.sums[i];
+        }
+      }
+      for (int i = 0; i < mins.length; i++) {
+        double value = trackValues.mins[i];
+        if (!Double.isNaN(value) && !(value > mins[i])
+            && !(replacement != null && replacement.mins[i] <= value)) {
+          stale = true;
+        }
+      }
+      for (int i = 0; i < maxs.length; i++) {
+        double value = trackValues.maxs[i];
+        if (!Double.isNaN(value) && !(value < maxs[i])
+            && !(replacement != null && replacement.maxs[i] >= value)) {
+          stale = true;
+        }
+      }
+    }
+  }
+
+  // The columns are named the same in the tracks table
+  private static final String[] SUM_COLUMNS = { AggregatedStatsColumns.TOTALDISTANCE,
+      AggregatedStatsColumns.TOTALTIME, AggregatedStatsColumns.MOVINGTIME,
+      AggregatedStatsColumns.ELEVATIONGAIN, AggregatedStatsColumns.CALORIE };
+  private static final String[] MIN_COLUMNS = { AggregatedStatsColumns.STARTTIME,
+      AggregatedStatsColumns.MINLAT, AggregatedStatsColumns.MINLON,
+      AggregatedStatsColumns.MINELEVATION, AggregatedStatsColumns.MINGRADE };
+  private static final String[] MAX_COLUMNS = { AggregatedStatsColumns.STOPTIME,
+      AggregatedStatsColumns.MAXLAT, AggregatedStatsColumns.MAXLON,
+      AggregatedStatsColumns.MAXSPEED, AggregatedStatsColumns.MAXELEVATION,
+      AggregatedStatsColumns.MAXGRADE };
+
+  private static final int[] PERIODS = { AggregatedStatsColumns.PERIOD_ALL,
+      AggregatedStatsColumns.PERIOD_YEAR, AggregatedStatsColumns.PERIOD_MONTH,
+      AggregatedStatsColumns.PERIOD_WEEK };
+
+  private static final String TAG = AggregatedStatsUpdater.class.getSimpleName();
+
+  private final SQLiteDatabase db;
+
+  AggregatedStatsUpdater(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Returns true if updating the content values of a track can change the
+   * aggregated stats.
+   *
+   * @param values the content values
+   */
+  static boolean isAggregated(ContentValues values) {
+    if (values.containsKey(TracksColumns.CATEGORY)) {
+      return true;
+    }
+    for (String[] columns : new String[][] { SUM_COLUMNS, MIN_COLUMNS, MAX_COLUMNS }) {
+      for (String column : columns) {
+        if (values.containsKey(column)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the calendar settings the period starts depend on, the local time
+   * zone and the first day of the week. The aggregated stats must be rebuilt
+   * when they change.
+   */
+  static String getCalendarSettings() {
+    Calendar calendar = Calendar.getInstance();
+    return calendar.getTimeZone().getID() + "," + calendar.getFirstDayOfWeek();
+  }
+
+  /**
+   * Gets the start of the period containing a time, in the local time zone.
+   *
+   * @param period the period
+   * @param time the time
+   */
+  static long getPeriodStart(int period, long time) {
+    if (period == AggregatedStatsColumns.PERIOD_ALL) {
+      return 0L;
+    }
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    switch (period) {
+      case AggregatedStatsColumns.PERIOD_YEAR:
+        calendar.set(Calendar.DAY_OF_YEAR, 1);
+        break;
+      case AggregatedStatsColumns.PERIOD_MONTH:
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        break;
+      case AggregatedStatsColumns.PERIOD_WEEK:
+        int days = (calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek() + 7) % 7;
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown period " + period);
+    }
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Gets the end, exclusive, of a period.
+   *
+   * @param period the period, not {@link AggregatedStatsColumns#PERIOD_ALL}
+   * @param periodStart the period start
+   */
+  static long getPeriodEnd(int period, long periodStart) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(periodStart);
+    switch (period) {
+      case AggregatedStatsColumns.PERIOD_YEAR:
+        calendar.add(Calendar.YEAR, 1);
+        break;
+      case AggregatedStatsColumns.PERIOD_MONTH:
+        calendar.add(Calendar.MONTH, 1);
+        break;
+      case AggregatedStatsColumns.PERIOD_WEEK:
+        calendar.add(Calendar.WEEK_OF_YEAR, 1);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown period " + period);
+    }
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Gets the values of the tracks matching a where clause, keyed by track id.
+   *
+   * @param where the where clause. Can be null
+   * @param whereArgs the where arguments. Can be null
+   */
+  Map<Long, TrackValues> getTrackValues(String where, String[] whereArgs) {
+    Map<Long, TrackValues> map = new HashMap<Long, TrackValues>();
+    String[] projection = new String[2 + SUM_COLUMNS.length + MIN_COLUMNS.length
+        + MAX_COLUMNS.length];
+    projection[0] = TracksColumns._ID;
+    projection[1] = TracksColumns.CATEGORY;
+    copyColumns(projection, 2);
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TracksColumns.TABLE_NAME, projection, where, whereArgs, null, null, null);
+      while (cursor.moveToNext()) {
+        TrackValues trackValues = new TrackValues(cursor.getString(1));
+        readValues(cursor, 2, trackValues.sums, trackValues.mins, trackValues.maxs);
+        map.put(cursor.getLong(0), trackValues);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Gets the values of some tracks, keyed by track id.
+   *
+   * @param trackIds the track ids
+   */
+  Map<Long, TrackValues> getTrackValues(Set<Long> trackIds) {
+    if (trackIds.isEmpty()) {
+      return new HashMap<Long, TrackValues>();
+    }
+    StringBuilder where = new StringBuilder(TracksColumns._ID).append(" IN (");
+    boolean first = true;
+    for (long trackId : trackIds) {
+      if (!first) {
+        where.append(',');
+      }
+      where.append(trackId);
+      first = false;
+    }
+    return getTrackValues(where.append(')').toString(), null);
+  }
+
+  /**
+   * Updates the aggregated stats for tracks changing from their old values to
+   * their new values.
+   *
+   * @param oldValues the old values keyed by track id, missing for inserted
+   *          tracks
+   * @param newValues the new values keyed by track id, missing for deleted
+   *          tracks
+   */
+  void update(Map<Long, TrackValues> oldValues, Map<Long, TrackValues> newValues) {
+    Map<GroupKey, Group> groups = new LinkedHashMap<GroupKey, Group>();
+    Set<Long> trackIds = new HashSet<Long>(oldValues.keySet());
+    trackIds.addAll(newValues.keySet());
+    for (long trackId : trackIds) {
+      TrackValues oldTrackValues = oldValues.get(trackId);
+      TrackValues newTrackValues = newValues.get(trackId);
+      if (oldTrackValues != null && oldTrackValues.equals(newTrackValues)) {
+        continue;
+      }
+      List<GroupKey> newKeys = newTrackValues != null ? getGroupKeys(newTrackValues)
+          : new ArrayList<GroupKey>();
+      if (oldTrackValues != null) {
+        for (GroupKey key : getGroupKeys(oldTrackValues)) {
+          getGroup(groups, key).remove(
+              oldTrackValues, newKeys.contains(key) ? newTrackValues : null);
+        }
+      }
+      for (GroupKey key : newKeys) {
+        getGroup(groups, key).add(newTrackValues);
+      }
+    }
+    for (Group group : groups.values()) {
+      save(group);
+    }
+  }
+
+  /**
+   * Deletes all the aggregated stats.
+   */
+  void clear() {
+    db.delete(AggregatedStatsColumns.TABLE_NAME, null, null);
+  }
+
+  /**
+   * Rebuilds the aggregated stats from the tracks table.
+   */
+  void rebuild() {
+    clear();
+    Map<Long, TrackValues> trackValues = getTrackValues(null, null);
+    update(new HashMap<Long, TrackValues>(), trackValues);
+    Log.d(TAG, "Rebuilt the aggregated stats of " + trackValues.size() + " tracks.");
+  }
+
+  /**
+   * Gets the keys of the rows a track contributes to.
+   *
+   * @param trackValues the track values
+   */
+  private List<GroupKey> getGroupKeys(TrackValues trackValues) {
+    List<GroupKey> keys = new ArrayList<GroupKey>();
+    double startTime = trackValues.getStartTime();
+    for (int period : PERIODS) {
+      long periodStart = 0L;
+      if (period != AggregatedStatsColumns.PERIOD_ALL) {
+        if (Double.isNaN(startTime) || startTime < 0) {
+          continue;
+        }
+        periodStart = getPeriodStart(period, (long) startTime);
+      }
+      keys.add(new GroupKey(trackValues.category, period, periodStart));
+      keys.add(new GroupKey(null, period, periodStart));
+    }
+    return keys;
+  }
+
+  /**
+   * Gets a group, loading it from the database if needed.
+   *
+   * @param groups the loaded groups
+   * @param key the group key
+   */
+  private Group getGroup(Map<GroupKey, Group> groups, GroupKey key) {
+    Group group = groups.get(key);
+    if (group != null) {
+      return group;
+    }
+    group = new Group(key);
+    String[] projection = new String[2 + SUM_COLUMNS.length + MIN_COLUMNS.length
+        + MAX_COLUMNS.length];
+    projection[0] = AggregatedStatsColumns._ID;
+    projection[1] = AggregatedStatsColumns.NUMTRACKS;
+    copyColumns(projection, 2);
+    Cursor cursor = null;
+    try {
+      String selection = AggregatedStatsColumns.PERIOD + "=? AND "
+          + AggregatedStatsColumns.PERIODSTART + "=? AND " + AggregatedStatsColumns.CATEGORY;
+      String[] selectionArgs;
+      if (key.category == null) {
+        selection += " IS NULL";
+        selectionArgs = new String[] {
+            Integer.toString(key.period), Long.toString(key.periodStart) };
+      } else {
+        selection += "=?";
+        selectionArgs = new String[] {
+            Integer.toString(key.period), Long.toString(key.periodStart), key.category };
+      }
+      cursor = db.query(AggregatedStatsColumns.TABLE_NAME, projection, selection, selectionArgs,
+          null, null, null);
+      if (cursor.moveToNext()) {
+        group.rowId = cursor.getLong(0);
+        group.numTracks = cursor.getInt(1);
+        readValues(cursor, 2, group.sums, group.mins, group.maxs);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    groups.put(key, group);
+    return group;
+  }
+
+  /**
+   * Recomputes a group from the tracks table.
+   *
+   * @param group the group
+   */
+  private void recompute(Group group) {
+    String[] projection = new String[1 + SUM_COLUMNS.length + MIN_COLUMNS.length
+        + MAX_COLUMNS.length];
+    projection[0] = "COUNT(*)";
+    int index = 1;
+    for (String column : SUM_COLUMNS) {
+      projection[index++] = "SUM(" + column + ")";
+    }
+    for (String column : MIN_COLUMNS) {
+      projection[index++] = "MIN(" + column + ")";
+    }
+    for (String column : MAX_COLUMNS) {
+      projection[index++] = "MAX(" + column + ")";
+    }
+
+    List<String> selectionArgs = new ArrayList<String>();
+    StringBuilder selection = new StringBuilder();
+    if (group.key.category != null) {
+      selection.append("IFNULL(" + TracksColumns.CATEGORY + ", '')=?");
+      selectionArgs.add(group.key.category);
+    }
+    if (group.key.period != AggregatedStatsColumns.PERIOD_ALL) {
+      if (selection.length() != 0) {
+        selection.append(" AND ");
+      }
+      selection.append(TracksColumns.STARTTIME + ">=? AND " + TracksColumns.STARTTIME + "<?");
+      selectionArgs.add(Long.toString(group.key.periodStart));
+      selectionArgs.add(Long.toString(getPeriodEnd(group.key.period, group.key.periodStart)));
+    }
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TracksColumns.TABLE_NAME, projection,
+          selection.length() != 0 ? selection.toString() : null,
+          selectionArgs.toArray(new String[selectionArgs.size()]), null, null, null);
+      if (cursor.moveToNext()) {
+        group.numTracks = cursor.getInt(0);
+        readValues(cursor, 1, group.sums, group.mins, group.maxs);
+        for (int i = 0; i < group.sums.length; i++) {
+          if (Double.isNaN(group.sums[i])) {
+            group.sums[i] = 0.0;
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    group.stale = false;
+  }
+
+  /**
+   * Saves a group, deleting its row if it has no track.
+   *
+   * @param group the group
+   */
+  private void save(Group group) {
+    if (group.numTracks > 0 && group.stale) {
+      recompute(group);
+    }
+    if (group.numTracks <= 0) {
+      if (group.rowId != -1L) {
+        db.delete(AggregatedStatsColumns.TABLE_NAME, AggregatedStatsColumns._ID + "=?",
+            new String[] { Long.toString(group.rowId) });
+      }
+      return;
+    }
+    ContentValues values = new ContentValues();
+    values.put(AggregatedStatsColumns.CATEGORY, group.key.category);
+    values.put(AggregatedStatsColumns.PERIOD, group.key.period);
+    values.put(AggregatedStatsColumns.PERIODSTART, group.key.periodStart);
+    values.put(AggregatedStatsColumns.NUMTRACKS, group.numTracks);
+    putValues(values, SUM_COLUMNS, group.sums);
+    putValues(values, MIN_COLUMNS, group.mins);
+    putValues(values, MAX_COLUMNS, group.maxs);
+    if (group.rowId == -1L) {
+      group.rowId = db.insert(AggregatedStatsColumns.TABLE_NAME, AggregatedStatsColumns._ID,
+          values);
+    } else {
+      db.update(AggregatedStatsColumns.TABLE_NAME, values, AggregatedStatsColumns._ID + "=?",
+          new String[] { Long.toString(group.rowId) });
+    }
+  }
+
+  /**
+   * Copies the sum, min, and max columns into a projection.
+   *
+   * @param projection the projection
+   * @param start the start index in the projection
+   */
+  private static void copyColumns(String[] projection, int start) {
+    System.arraycopy(SUM_COLUMNS, 0, projection, start, SUM_COLUMNS.length);
+    start += SUM_COLUMNS.length;
+    System.arraycopy(MIN_COLUMNS, 0, projection, start, MIN_COLUMNS.length);
+    start += MIN_COLUMNS.length;
+    System.arraycopy(MAX_COLUMNS, 0, projection, start, MAX_COLUMNS.length);
+  }
+
+  /**
+   * Reads the sum, min, and max values from a cursor. Null values are read as
+   * NaN.
+   *
+   * @param cursor the cursor
+   * @param start the start column index
+   * @param sums the sums
+   * @param mins the mins
+   * @param maxs the maxs
+   */
+  private static void readValues(
+      Cursor cursor, int start, double[] sums, double[] mins, double[] maxs) {
+    for (double[] values : new double[][] { sums, mins, maxs }) {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = cursor.isNull(start) ? Double.NaN : cursor.getDouble(start);
+        start++;
+      }
+    }
+  }
+
+  /**
+   * Puts values into content values. NaN values are put as null.
+   *
+   * @param contentValues the content values
+   * @param columns the columns
+   * @param values the values
+   */
+  private static void putValues(ContentValues contentValues, String[] columns, double[] values) {
+    for (int i = 0; i < columns.length; i++) {
+      if (Double.isNaN(values[i])) {
+        contentValues.putNull(columns[i]);
+      } else {
+        contentValues.put(columns[i], values[i]);
+      }
+    }
+  }
+}
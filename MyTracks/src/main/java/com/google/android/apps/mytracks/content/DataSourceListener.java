@@ -26,18 +26,24 @@ public interface DataSourceListener {
 
   /**
    * Notifies when the tracks table is updated.
+   * 
+   * @param tableChange the changed rows. Null if not known
    */
-  void notifyTracksTableUpdated();
+  void notifyTracksTableUpdated(TableChange tableChange);
 
   /**
    * Notifies when the waypoints table is updated.
+   * 
+   * @param tableChange the changed rows. Null if not known
    */
-  void notifyWaypointsTableUpdated();
+  void notifyWaypointsTableUpdated(TableChange tableChange);
 
   /**
    * Notifies when the track points table is updated.
+   * 
+   * @param tableChange the changed rows. Null if not known
    */
-  void notifyTrackPointsTableUpdated();
+  void notifyTrackPointsTableUpdated(TableChange tableChange);
 
   /**
    * Notifies when a preference changes.
@@ -19,6 +19,7 @@ package com.google.android.apps.mytracks.content;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Handler;
 import android.util.Log;
 
@@ -29,6 +30,8 @@ import java.util.Set;
  * Data source manager. Creates observers/listeners and manages their
  * registration with {@link DataSource}. The observers/listeners calls
  * {@link DataSourceListener} when data changes.
+ * The table observers pass the {@link TableChange} of the change uri notified
+ * by {@link MyTracksProvider}, if any.
  * 
  * @author Rodrigo Damazio
  */
@@ -49,7 +52,12 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyTracksTableUpdated();
+      onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+      dataSourceListener.notifyTracksTableUpdated(TableChange.fromUri(uri));
     }
   }
 
@@ -66,7 +74,12 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyWaypointsTableUpdated();
+      onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+      dataSourceListener.notifyWaypointsTableUpdated(TableChange.fromUri(uri));
     }
   }
 
@@ -83,7 +96,12 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyTrackPointsTableUpdated();
+      onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+      dataSourceListener.notifyTrackPointsTableUpdated(TableChange.fromUri(uri));
     }
   }
 
@@ -16,8 +16,10 @@
 package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 import android.location.Location;
+import android.util.Log;
 
 /**
  * This class extends the standard Android location with extra information.
@@ -26,12 +28,17 @@ import android.location.Location;
  */
 public class MyTracksLocation extends Location {
 
+  private static final String TAG = MyTracksLocation.class.getSimpleName();
+
   private SensorDataSet sensorDataSet = null;
 
+  // The serialized sensor data set, parsed on the first read
+  private byte[] sensorData = null;
+
   /**
    * The id of this location from the provider.
    */
-  private int id = -1;
+  private long id = -1L;
 
   public MyTracksLocation(Location location, Sensor.SensorDataSet sd) {
     super(location);
@@ -43,24 +50,45 @@ public class MyTracksLocation extends Location {
   }
 
   public SensorDataSet getSensorDataSet() {
+    if (sensorData != null) {
+      try {
+        sensorDataSet = SensorDataSet.parseFrom(sensorData);
+      } catch (InvalidProtocolBufferException e) {
+        Log.w(TAG, "Failed to parse sensor data.", e);
+      }
+      sensorData = null;
+    }
     return sensorDataSet;
   }
 
   public void setSensorDataSet(SensorDataSet sensorDataSet) {
     this.sensorDataSet = sensorDataSet;
+    sensorData = null;
+  }
+
+  /**
+   * Sets the serialized sensor data set. It is only parsed by
+   * {@link #getSensorDataSet()}.
+   * 
+   * @param sensorData the serialized sensor data set
+   */
+  public void setSensorData(byte[] sensorData) {
+    this.sensorData = sensorData;
+    sensorDataSet = null;
   }
 
-  public int getId() {
+  public long getId() {
     return id;
   }
 
-  public void setId(int id) {
+  public void setId(long id) {
     this.id = id;
   }
   
   public void reset() {
     super.reset();
     sensorDataSet = null;
-    id = -1;
+    sensorData = null;
+    id = -1L;
   }
 }
@@ -16,16 +16,20 @@
 
 package com.google.android.apps.mytracks.content;
 
+import com.google.android.apps.mytracks.content.AggregatedStatsUpdater.TrackValues;
 import com.google.android.apps.mytracks.util.FileUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -35,17 +39,27 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
 import android.os.Process;
+import android.provider.BaseColumns;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A {@link ContentProvider} that handles access to track points, tracks, and
- * waypoints tables.
+ * waypoints tables. Maintains the aggregated stats table with the tracks table,
+ * and the search index table with the tracks and the waypoints tables.
  * 
  * @author Leif Hendrik Wilden
  */
@@ -53,11 +67,34 @@ public class MyTracksProvider extends ContentProvider {
 
   private static final String TAG = MyTracksProvider.class.getSimpleName();
   @VisibleForTesting
-  static final int DATABASE_VERSION = 22;
+  static final int DATABASE_VERSION = 28;
 
   @VisibleForTesting
   static final String DATABASE_NAME = "mytracks.db";
 
+  /**
+   * The {@link #call(String, String, Bundle)} method rebuilding the aggregated
+   * stats if the calendar settings changed since they were built.
+   */
+  public static final String REBUILD_AGGREGATED_STATS_METHOD = "rebuildAggregatedStats";
+
+  /**
+   * The {@link #call(String, String, Bundle)} method inserting track points and
+   * the derived values of some of them in one transaction. The extras hold the
+   * {@link ContentValues} arrays {@link #TRACK_POINTS_EXTRA} and optionally
+   * {@link #TRACK_POINT_SERIES_EXTRA}. The result holds the track point ids in
+   * {@link #TRACK_POINT_IDS_EXTRA}.
+   */
+  public static final String BULK_INSERT_TRACK_POINTS_METHOD = "bulkInsertTrackPoints";
+  public static final String TRACK_POINTS_EXTRA = "trackPoints";
+
+  /**
+   * The derived values. The {@link TrackPointSeriesColumns#_ID} of each is the
+   * index of its track point in {@link #TRACK_POINTS_EXTRA}.
+   */
+  public static final String TRACK_POINT_SERIES_EXTRA = "trackPointSeries";
+  public static final String TRACK_POINT_IDS_EXTRA = "trackPointIds";
+
   /**
    * Database helper for creating and upgrading the database.
    */
@@ -76,8 +113,18 @@ public class MyTracksProvider extends ContentProvider {
     @Override
     public void onCreate(SQLiteDatabase db) {
       db.execSQL(TrackPointsColumns.CREATE_TABLE);
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+      db.execSQL(TrackPointBlocksColumns.CREATE_TABLE);
+      db.execSQL(TrackPointBlocksColumns.CREATE_TRACKID_STARTID_INDEX);
+      db.execSQL(TrackPointBlocksColumns.CREATE_LASTVALIDID_INDEX);
       db.execSQL(TracksColumns.CREATE_TABLE);
       db.execSQL(WaypointsColumns.CREATE_TABLE);
+      db.execSQL(AggregatedStatsColumns.CREATE_TABLE);
+      db.execSQL(AggregatedStatsColumns.CREATE_PERIOD_CATEGORY_INDEX);
+      db.execSQL(SearchIndexColumns.CREATE_TABLE);
+      db.execSQL(TrackPointSeriesColumns.CREATE_TABLE);
+      db.execSQL(TrackPointSeriesColumns.CREATE_TRACKID_INDEX);
     }
 
     @Override
@@ -86,8 +133,12 @@ public class MyTracksProvider extends ContentProvider {
       if (oldVersion < 17) {
         Log.w(TAG, "Deleting all old data.");
         db.execSQL("DROP TABLE IF EXISTS " + TrackPointsColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TrackPointBlocksColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + TracksColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + WaypointsColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + AggregatedStatsColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SearchIndexColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TrackPointSeriesColumns.TABLE_NAME);
         onCreate(db);
       } else {
         // Incremental upgrades. One if statement per DB version.
@@ -145,6 +196,96 @@ public class MyTracksProvider extends ContentProvider {
           db.execSQL("ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD " + TracksColumns.CALORIE
               + " FLOAT");
         }
+
+        // Add track point TRACKID/_ID and TRACKID/TIME indexes
+        if (oldVersion <= 22) {
+          Log.w(TAG, "Upgrade DB: Adding track point trackid/id index.");
+          db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+
+          Log.w(TAG, "Upgrade DB: Adding track point trackid/time index.");
+          db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+        }
+
+        // Add track point blocks table
+        if (oldVersion <= 23) {
+          Log.w(TAG, "Upgrade DB: Adding track point blocks table.");
+          db.execSQL(TrackPointBlocksColumns.CREATE_TABLE);
+          db.execSQL(TrackPointBlocksColumns.CREATE_TRACKID_STARTID_INDEX);
+        }
+
+        // Add aggregated stats table. Filled by the AggregatedStatsService.
+        if (oldVersion <= 24) {
+          Log.w(TAG, "Upgrade DB: Adding aggregated stats table.");
+          db.execSQL(AggregatedStatsColumns.CREATE_TABLE);
+          db.execSQL(AggregatedStatsColumns.CREATE_PERIOD_CATEGORY_INDEX);
+        }
+
+        // Add search index table, filled from the tracks and waypoints tables
+        if (oldVersion <= 25) {
+          Log.w(TAG, "Upgrade DB: Adding search index table.");
+          db.execSQL(SearchIndexColumns.CREATE_TABLE);
+          new SearchIndexUpdater(db).rebuild();
+        }
+
+        // Add track point series table. Not filled for the existing tracks.
+        if (oldVersion <= 26) {
+          Log.w(TAG, "Upgrade DB: Adding track point series table.");
+          db.execSQL(TrackPointSeriesColumns.CREATE_TABLE);
+          db.execSQL(TrackPointSeriesColumns.CREATE_TRACKID_INDEX);
+        }
+
+        /*
+         * Add track point block MINTIME, MAXTIME, FIRSTVALIDID, and LASTVALIDID
+         * columns. A track point blocks table added above already has them.
+         */
+        if (oldVersion <= 27) {
+          if (oldVersion > 23) {
+            Log.w(TAG, "Upgrade DB: Adding track point block time and valid id columns.");
+            for (String column : new String[] { TrackPointBlocksColumns.MINTIME,
+                TrackPointBlocksColumns.MAXTIME, TrackPointBlocksColumns.FIRSTVALIDID,
+                TrackPointBlocksColumns.LASTVALIDID }) {
+              db.execSQL("ALTER TABLE " + TrackPointBlocksColumns.TABLE_NAME + " ADD " + column
+                  + " INTEGER");
+            }
+          }
+          db.execSQL(TrackPointBlocksColumns.CREATE_LASTVALIDID_INDEX);
+          updateTrackPointBlockColumns(db);
+        }
+      }
+    }
+
+    /**
+     * Fills the columns describing the track points of the existing track
+     * point blocks.
+     * 
+     * @param db the database
+     */
+    private void updateTrackPointBlockColumns(SQLiteDatabase db) {
+      Cursor cursor = null;
+      try {
+        cursor = db.query(TrackPointBlocksColumns.TABLE_NAME, new String[] {
+            TrackPointBlocksColumns._ID, TrackPointBlocksColumns.DATA }, null, null, null, null,
+            null);
+        while (cursor.moveToNext()) {
+          TrackPointBlock block;
+          try {
+            block = TrackPointBlock.decode(cursor.getBlob(1));
+          } catch (IOException e) {
+            Log.e(TAG, "Unable to decode track point block " + cursor.getLong(0), e);
+            continue;
+          }
+          if (block.getSize() == 0) {
+            continue;
+          }
+          ContentValues values = new ContentValues();
+          block.putColumns(values);
+          db.update(TrackPointBlocksColumns.TABLE_NAME, values,
+              TrackPointBlocksColumns._ID + "=?", new String[] { Long.toString(cursor.getLong(0)) });
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
       }
     }
   }
@@ -156,11 +297,27 @@ public class MyTracksProvider extends ContentProvider {
    */
   @VisibleForTesting
   enum UrlType {
-    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID
+    TRACKPOINTS,
+    TRACKPOINTS_ID,
+    TRACKS,
+    TRACKS_ID,
+    WAYPOINTS,
+    WAYPOINTS_ID,
+    TRACKPOINTBLOCKS,
+    TRACKPOINTBLOCKS_ID,
+    AGGREGATEDSTATS,
+    SEARCHINDEX,
+    TRACKPOINTSERIES
   }
 
   private final UriMatcher uriMatcher;
   private SQLiteDatabase db;
+  private AggregatedStatsUpdater aggregatedStatsUpdater;
+  private SearchIndexUpdater searchIndexUpdater;
+
+  // The changes of the batch applied by the current thread, null if none
+  private final ThreadLocal<Map<Uri, TableChange>> batchChanges =
+      new ThreadLocal<Map<Uri, TableChange>>();
 
   public MyTracksProvider() {
     uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -176,6 +333,16 @@ public class MyTracksProvider extends ContentProvider {
         MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME, UrlType.WAYPOINTS.ordinal());
     uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME + "/#",
         UrlType.WAYPOINTS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointBlocksColumns.TABLE_NAME,
+        UrlType.TRACKPOINTBLOCKS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointBlocksColumns.TABLE_NAME + "/#",
+        UrlType.TRACKPOINTBLOCKS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, AggregatedStatsColumns.TABLE_NAME,
+        UrlType.AGGREGATEDSTATS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, SearchIndexColumns.TABLE_NAME,
+        UrlType.SEARCHINDEX.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointSeriesColumns.TABLE_NAME,
+        UrlType.TRACKPOINTSERIES.ordinal());
   }
 
   @Override
@@ -200,6 +367,10 @@ public class MyTracksProvider extends ContentProvider {
     } catch (SQLiteException e) {
       Log.e(TAG, "Unable to open database for writing.", e);
     }
+    if (db != null) {
+      aggregatedStatsUpdater = new AggregatedStatsUpdater(db);
+      searchIndexUpdater = new SearchIndexUpdater(db);
+    }
     return db != null;
   }
 
@@ -210,7 +381,8 @@ public class MyTracksProvider extends ContentProvider {
     }
     String table;
     boolean shouldVacuum = false;
-    switch (getUrlType(url)) {
+    UrlType urlType = getUrlType(url);
+    switch (urlType) {
       case TRACKPOINTS:
         table = TrackPointsColumns.TABLE_NAME;
         break;
@@ -221,20 +393,53 @@ public class MyTracksProvider extends ContentProvider {
       case WAYPOINTS:
         table = WaypointsColumns.TABLE_NAME;
         break;
+      case TRACKPOINTBLOCKS:
+        table = TrackPointBlocksColumns.TABLE_NAME;
+        break;
+      case TRACKPOINTSERIES:
+        table = TrackPointSeriesColumns.TABLE_NAME;
+        break;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
 
     Log.w(MyTracksProvider.TAG, "Deleting table " + table);
+    boolean isTracks = table.equals(TracksColumns.TABLE_NAME);
+    boolean isIndexed = SearchIndexUpdater.isIndexed(table);
     int count;
+    TableChange tableChange;
     try {
       db.beginTransaction();
-      count = db.delete(table, where, selectionArgs);
+      List<Long> ids = isIndexed && where != null
+          ? searchIndexUpdater.getIds(table, where, selectionArgs) : null;
+      tableChange = where != null ? getChange(urlType, url, table, where, selectionArgs) : null;
+      if (isTracks && where == null) {
+        count = db.delete(table, where, selectionArgs);
+        aggregatedStatsUpdater.clear();
+      } else if (isTracks) {
+        Map<Long, TrackValues> oldValues = aggregatedStatsUpdater.getTrackValues(
+            where, selectionArgs);
+        count = db.delete(table, where, selectionArgs);
+        aggregatedStatsUpdater.update(oldValues, new HashMap<Long, TrackValues>());
+      } else {
+        count = db.delete(table, where, selectionArgs);
+      }
+      if (isIndexed && where == null) {
+        searchIndexUpdater.clear(table);
+      } else if (isIndexed) {
+        searchIndexUpdater.delete(table, ids);
+      }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    // Nothing changed if no row matched
+    if (count > 0) {
+      notifyChange(url, tableChange);
+      if (isTracks) {
+        notifyAggregatedStatsChange();
+      }
+    }
 
     if (shouldVacuum) {
       // If a potentially large amount of data was deleted, reclaim its space.
@@ -262,6 +467,16 @@ public class MyTracksProvider extends ContentProvider {
         return WaypointsColumns.CONTENT_TYPE;
       case WAYPOINTS_ID:
         return WaypointsColumns.CONTENT_ITEMTYPE;
+      case TRACKPOINTBLOCKS:
+        return TrackPointBlocksColumns.CONTENT_TYPE;
+      case TRACKPOINTBLOCKS_ID:
+        return TrackPointBlocksColumns.CONTENT_ITEMTYPE;
+      case AGGREGATEDSTATS:
+        return AggregatedStatsColumns.CONTENT_TYPE;
+      case SEARCHINDEX:
+        return SearchIndexColumns.CONTENT_TYPE;
+      case TRACKPOINTSERIES:
+        return TrackPointSeriesColumns.CONTENT_TYPE;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -275,15 +490,22 @@ public class MyTracksProvider extends ContentProvider {
     if (initialValues == null) {
       initialValues = new ContentValues();
     }
+    UrlType urlType = getUrlType(url);
     Uri result = null;
     try {
       db.beginTransaction();
-      result = insertContentValues(url, getUrlType(url), initialValues);
+      result = insertContentValues(url, urlType, initialValues);
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    notifyChange(url, getInsertChange(urlType, result, initialValues));
+    if (urlType == UrlType.TRACKPOINTBLOCKS) {
+      notifyChange(TrackPointsColumns.CONTENT_URI, getPackedChange(initialValues));
+    }
+    if (urlType == UrlType.TRACKS) {
+      notifyAggregatedStatsChange();
+    }
     return result;
   }
 
@@ -293,26 +515,67 @@ public class MyTracksProvider extends ContentProvider {
       return 0;
     }
     int numInserted = 0;
+    UrlType urlType = getUrlType(url);
+    TableChange tableChange = null;
+    TableChange packedChange = null;
     try {
       // Use a transaction in order to make the insertions run as a single batch
       db.beginTransaction();
 
-      UrlType urlType = getUrlType(url);
       for (numInserted = 0; numInserted < valuesBulk.length; numInserted++) {
         ContentValues contentValues = valuesBulk[numInserted];
         if (contentValues == null) {
           contentValues = new ContentValues();
         }
-        insertContentValues(url, urlType, contentValues);
+        TableChange insertChange = getInsertChange(
+            urlType, insertContentValues(url, urlType, contentValues), contentValues);
+        tableChange = tableChange == null ? insertChange : tableChange.union(insertChange);
+        if (urlType == UrlType.TRACKPOINTBLOCKS) {
+          TableChange change = getPackedChange(contentValues);
+          packedChange = packedChange == null ? change : packedChange.union(change);
+        }
       }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    notifyChange(url, tableChange);
+    if (packedChange != null) {
+      notifyChange(TrackPointsColumns.CONTENT_URI, packedChange);
+    }
+    if (urlType == UrlType.TRACKS) {
+      notifyAggregatedStatsChange();
+    }
     return numInserted;
   }
 
+  /**
+   * Applies the operations in a single transaction. The observers are notified
+   * once per table after the transaction is committed.
+   */
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+      throws OperationApplicationException {
+    if (!canAccess()) {
+      return new ContentProviderResult[0];
+    }
+    ContentProviderResult[] results;
+    Map<Uri, TableChange> changes = new LinkedHashMap<Uri, TableChange>();
+    batchChanges.set(changes);
+    try {
+      db.beginTransaction();
+      results = super.applyBatch(operations);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      batchChanges.remove();
+    }
+    for (Map.Entry<Uri, TableChange> entry : changes.entrySet()) {
+      notifyChange(entry.getKey(), entry.getValue());
+    }
+    return results;
+  }
+
   @Override
   public Cursor query(
       Uri url, String[] projection, String selection, String[] selectionArgs, String sort) {
@@ -346,6 +609,26 @@ public class MyTracksProvider extends ContentProvider {
         queryBuilder.setTables(WaypointsColumns.TABLE_NAME);
         queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
         break;
+      case TRACKPOINTBLOCKS:
+        queryBuilder.setTables(TrackPointBlocksColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackPointBlocksColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACKPOINTBLOCKS_ID:
+        queryBuilder.setTables(TrackPointBlocksColumns.TABLE_NAME);
+        queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
+        break;
+      case AGGREGATEDSTATS:
+        queryBuilder.setTables(AggregatedStatsColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : AggregatedStatsColumns.DEFAULT_SORT_ORDER;
+        break;
+      case SEARCHINDEX:
+        queryBuilder.setTables(SearchIndexColumns.TABLE_NAME);
+        sortOrder = sort;
+        break;
+      case TRACKPOINTSERIES:
+        queryBuilder.setTables(TrackPointSeriesColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackPointSeriesColumns.DEFAULT_SORT_ORDER;
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -362,7 +645,8 @@ public class MyTracksProvider extends ContentProvider {
     }
     String table;
     String whereClause;
-    switch (getUrlType(url)) {
+    UrlType urlType = getUrlType(url);
+    switch (urlType) {
       case TRACKPOINTS:
         table = TrackPointsColumns.TABLE_NAME;
         whereClause = where;
@@ -399,18 +683,60 @@ public class MyTracksProvider extends ContentProvider {
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
+    boolean isAggregated = table.equals(TracksColumns.TABLE_NAME)
+        && AggregatedStatsUpdater.isAggregated(values);
+    boolean isIndexed = SearchIndexUpdater.isIndexed(table)
+        && SearchIndexUpdater.isIndexed(values);
     int count;
+    TableChange tableChange;
     try {
       db.beginTransaction();
-      count = db.update(table, values, whereClause, selectionArgs);
+      List<Long> ids = isIndexed
+          ? searchIndexUpdater.getIds(table, whereClause, selectionArgs) : null;
+      tableChange = getChange(urlType, url, table, whereClause, selectionArgs);
+      if (isAggregated) {
+        Map<Long, TrackValues> oldValues = aggregatedStatsUpdater.getTrackValues(
+            whereClause, selectionArgs);
+        count = db.update(table, values, whereClause, selectionArgs);
+        aggregatedStatsUpdater.update(
+            oldValues, aggregatedStatsUpdater.getTrackValues(oldValues.keySet()));
+      } else {
+        count = db.update(table, values, whereClause, selectionArgs);
+      }
+      if (isIndexed) {
+        searchIndexUpdater.update(table, ids);
+      }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    // Nothing changed if no row matched
+    if (count > 0) {
+      notifyChange(url, tableChange);
+      if (isAggregated) {
+        notifyAggregatedStatsChange();
+      }
+    }
     return count;
   }
 
+  @Override
+  public Bundle call(String method, String arg, Bundle extras) {
+    if (!canAccess()) {
+      return null;
+    }
+    if (REBUILD_AGGREGATED_STATS_METHOD.equals(method)) {
+      if (checkAggregatedStats()) {
+        notifyAggregatedStatsChange();
+      }
+      return null;
+    }
+    if (BULK_INSERT_TRACK_POINTS_METHOD.equals(method)) {
+      return bulkInsertTrackPoints(extras);
+    }
+    return super.call(method, arg, extras);
+  }
+
   @Override
   public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
     try {
@@ -435,6 +761,194 @@ public class MyTracksProvider extends ContentProvider {
     return Binder.getCallingPid() == Process.myPid();
   }
 
+  /**
+   * Rebuilds the aggregated stats if the calendar settings changed since they
+   * were built, e.g., after a time zone change, or if they were never built,
+   * e.g., after the upgrade adding them. Otherwise the period starts of the
+   * rows no longer match the period starts of the queries. Returns true if
+   * rebuilt.
+   */
+  private boolean checkAggregatedStats() {
+    String calendarSettings = AggregatedStatsUpdater.getCalendarSettings();
+    if (calendarSettings.equals(PreferencesUtils.getString(
+        getContext(), R.string.aggregated_stats_calendar_key, null))) {
+      return false;
+    }
+    Log.w(TAG, "Rebuilding the aggregated stats for " + calendarSettings);
+    try {
+      db.beginTransaction();
+      aggregatedStatsUpdater.rebuild();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    PreferencesUtils.setString(
+        getContext(), R.string.aggregated_stats_calendar_key, calendarSettings);
+    return true;
+  }
+
+  /**
+   * Gets the change of an update or a delete. Must be called before the rows
+   * are changed. The change of a track url is known from the url. Only the
+   * track points and the waypoints selections are queried for their range, the
+   * change of the other selections is not known. Returns null if not known.
+   * 
+   * @param urlType the url type
+   * @param url the url
+   * @param table the table
+   * @param where the selection
+   * @param selectionArgs the selection arguments
+   */
+  private TableChange getChange(
+      UrlType urlType, Uri url, String table, String where, String[] selectionArgs) {
+    switch (urlType) {
+      case TRACKS_ID:
+        long trackId = ContentUris.parseId(url);
+        return new TableChange(trackId, trackId, trackId);
+      case TRACKPOINTS:
+      case TRACKPOINTS_ID:
+      case WAYPOINTS:
+      case WAYPOINTS_ID:
+        return getTableChange(table, where, selectionArgs);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets the change of the rows of the track points or the waypoints table
+   * matching a selection. Must be called before the rows are changed. Returns
+   * null if no row matches, in which case nothing is notified.
+   * 
+   * @param table the table
+   * @param where the selection
+   * @param selectionArgs the selection arguments
+   */
+  private TableChange getTableChange(String table, String where, String[] selectionArgs) {
+    Cursor cursor = null;
+    try {
+      cursor = db.query(table, new String[] { "min(" + BaseColumns._ID + ")",
+          "max(" + BaseColumns._ID + ")", "min(" + TrackPointsColumns.TRACKID + ")",
+          "max(" + TrackPointsColumns.TRACKID + ")" }, where, selectionArgs, null, null, null);
+      if (!cursor.moveToFirst() || cursor.isNull(0)) {
+        return null;
+      }
+      long trackId = cursor.isNull(2) || cursor.getLong(2) != cursor.getLong(3) ? -1L
+          : cursor.getLong(2);
+      return new TableChange(trackId, cursor.getLong(0), cursor.getLong(1));
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Gets the change of an inserted row.
+   * 
+   * @param urlType the url type
+   * @param rowUrl the row url
+   * @param contentValues the content values
+   */
+  private static TableChange getInsertChange(
+      UrlType urlType, Uri rowUrl, ContentValues contentValues) {
+    long rowId = ContentUris.parseId(rowUrl);
+    Long trackId = urlType == UrlType.TRACKS ? Long.valueOf(rowId)
+        : contentValues.getAsLong(TrackPointsColumns.TRACKID);
+    return new TableChange(trackId != null ? trackId : -1L, rowId, rowId);
+  }
+
+  /**
+   * Gets the change of the track points table of an inserted track point
+   * block, whose track points are deleted from the table.
+   * 
+   * @param contentValues the track point block content values
+   */
+  private static TableChange getPackedChange(ContentValues contentValues) {
+    return new TableChange(contentValues.getAsLong(TrackPointBlocksColumns.TRACKID),
+        contentValues.getAsLong(TrackPointBlocksColumns.STARTID),
+        contentValues.getAsLong(TrackPointBlocksColumns.STOPID));
+  }
+
+  /**
+   * Notifies the observers of a table of a change, with the table change uri.
+   * The observers of the table uri and of the row uris are notified.
+   * 
+   * @param url the table or the row url
+   * @param tableChange the change. Null if not known
+   */
+  private void notifyChange(Uri url, TableChange tableChange) {
+    Uri tableUrl = new Uri.Builder().scheme(url.getScheme()).authority(url.getAuthority())
+        .appendPath(url.getPathSegments().get(0)).build();
+    Map<Uri, TableChange> changes = batchChanges.get();
+    if (changes != null) {
+      // Notified by applyBatch once the batch is committed
+      if (changes.containsKey(tableUrl)) {
+        TableChange change = changes.get(tableUrl);
+        tableChange = change != null && tableChange != null ? change.union(tableChange) : null;
+      }
+      changes.put(tableUrl, tableChange);
+      return;
+    }
+    getContext().getContentResolver().notifyChange(
+        tableChange != null ? tableChange.toUri(tableUrl) : tableUrl, null, false);
+  }
+
+  /**
+   * Notifies the observers of the aggregated stats, changed with the tracks.
+   * Within a batch, notified once the batch is committed.
+   */
+  private void notifyAggregatedStatsChange() {
+    notifyChange(AggregatedStatsColumns.CONTENT_URI, null);
+  }
+
+  /**
+   * Inserts track points and their derived values in one transaction, see
+   * {@link #BULK_INSERT_TRACK_POINTS_METHOD}. The observers are notified once
+   * per table after the transaction is committed.
+   * 
+   * @param extras the extras
+   */
+  private Bundle bulkInsertTrackPoints(Bundle extras) {
+    Parcelable[] trackPoints = extras.getParcelableArray(TRACK_POINTS_EXTRA);
+    Parcelable[] series = extras.getParcelableArray(TRACK_POINT_SERIES_EXTRA);
+    long[] trackPointIds = new long[trackPoints.length];
+    TableChange trackPointsChange = null;
+    TableChange seriesChange = null;
+    try {
+      db.beginTransaction();
+      for (int i = 0; i < trackPoints.length; i++) {
+        ContentValues contentValues = (ContentValues) trackPoints[i];
+        Uri uri = insertTrackPoint(TrackPointsColumns.CONTENT_URI, contentValues);
+        trackPointIds[i] = ContentUris.parseId(uri);
+        TableChange change = getInsertChange(UrlType.TRACKPOINTS, uri, contentValues);
+        trackPointsChange = trackPointsChange == null ? change : trackPointsChange.union(change);
+      }
+      if (series != null) {
+        for (Parcelable parcelable : series) {
+          ContentValues contentValues = new ContentValues((ContentValues) parcelable);
+          contentValues.put(TrackPointSeriesColumns._ID,
+              trackPointIds[contentValues.getAsInteger(TrackPointSeriesColumns._ID)]);
+          Uri uri = insertTrackPointSeries(TrackPointSeriesColumns.CONTENT_URI, contentValues);
+          TableChange change = getInsertChange(UrlType.TRACKPOINTSERIES, uri, contentValues);
+          seriesChange = seriesChange == null ? change : seriesChange.union(change);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (trackPointsChange != null) {
+      notifyChange(TrackPointsColumns.CONTENT_URI, trackPointsChange);
+    }
+    if (seriesChange != null) {
+      notifyChange(TrackPointSeriesColumns.CONTENT_URI, seriesChange);
+    }
+    Bundle result = new Bundle();
+    result.putLongArray(TRACK_POINT_IDS_EXTRA, trackPointIds);
+    return result;
+  }
+
   /**
    * Gets the {@link UrlType} for a url.
    * 
@@ -459,6 +973,10 @@ public class MyTracksProvider extends ContentProvider {
         return insertTrack(url, contentValues);
       case WAYPOINTS:
         return insertWaypoint(url, contentValues);
+      case TRACKPOINTBLOCKS:
+        return insertTrackPointBlock(url, contentValues);
+      case TRACKPOINTSERIES:
+        return insertTrackPointSeries(url, contentValues);
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -484,6 +1002,55 @@ public class MyTracksProvider extends ContentProvider {
     throw new SQLiteException("Failed to insert a track point " + url);
   }
 
+  /**
+   * Inserts a track point block and deletes the track points it packs.
+   * 
+   * @param url the content url
+   * @param contentValues the content values
+   */
+  private Uri insertTrackPointBlock(Uri url, ContentValues contentValues) {
+    boolean hasTrackId = contentValues.containsKey(TrackPointBlocksColumns.TRACKID);
+    boolean hasStartId = contentValues.containsKey(TrackPointBlocksColumns.STARTID);
+    boolean hasStopId = contentValues.containsKey(TrackPointBlocksColumns.STOPID);
+    boolean hasData = contentValues.containsKey(TrackPointBlocksColumns.DATA);
+    if (!hasTrackId || !hasStartId || !hasStopId || !hasData) {
+      throw new IllegalArgumentException(
+          "Track id, start id, stop id, and data values are required.");
+    }
+    long rowId = db.insert(
+        TrackPointBlocksColumns.TABLE_NAME, TrackPointBlocksColumns._ID, contentValues);
+    if (rowId >= 0) {
+      // Delete the packed track points in the same transaction
+      db.delete(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.TRACKID + "=? AND "
+          + TrackPointsColumns._ID + ">=? AND " + TrackPointsColumns._ID + "<=?",
+          new String[] { contentValues.getAsString(TrackPointBlocksColumns.TRACKID),
+              contentValues.getAsString(TrackPointBlocksColumns.STARTID),
+              contentValues.getAsString(TrackPointBlocksColumns.STOPID) });
+      return ContentUris.appendId(TrackPointBlocksColumns.CONTENT_URI.buildUpon(), rowId).build();
+    }
+    throw new SQLiteException("Failed to insert a track point block " + url);
+  }
+
+  /**
+   * Inserts the derived values of a track point.
+   * 
+   * @param url the content url
+   * @param contentValues the content values
+   */
+  private Uri insertTrackPointSeries(Uri url, ContentValues contentValues) {
+    boolean hasId = contentValues.containsKey(TrackPointSeriesColumns._ID);
+    boolean hasTrackId = contentValues.containsKey(TrackPointSeriesColumns.TRACKID);
+    if (!hasId || !hasTrackId) {
+      throw new IllegalArgumentException("Both id and track id values are required.");
+    }
+    long rowId = db.insertWithOnConflict(TrackPointSeriesColumns.TABLE_NAME, null, contentValues,
+        SQLiteDatabase.CONFLICT_REPLACE);
+    if (rowId >= 0) {
+      return ContentUris.appendId(TrackPointSeriesColumns.CONTENT_URI.buildUpon(), rowId).build();
+    }
+    throw new SQLiteException("Failed to insert a track point series " + url);
+  }
+
   /**
    * Inserts a track.
    * 
@@ -498,6 +1065,9 @@ public class MyTracksProvider extends ContentProvider {
     }
     long rowId = db.insert(TracksColumns.TABLE_NAME, TracksColumns._ID, contentValues);
     if (rowId >= 0) {
+      aggregatedStatsUpdater.update(new HashMap<Long, TrackValues>(),
+          aggregatedStatsUpdater.getTrackValues(TracksColumns._ID + "=" + rowId, null));
+      searchIndexUpdater.insert(TracksColumns.TABLE_NAME, rowId);
       return ContentUris.appendId(TracksColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
     throw new SQLException("Failed to insert a track " + url);
@@ -512,6 +1082,7 @@ public class MyTracksProvider extends ContentProvider {
   private Uri insertWaypoint(Uri url, ContentValues contentValues) {
     long rowId = db.insert(WaypointsColumns.TABLE_NAME, WaypointsColumns._ID, contentValues);
     if (rowId >= 0) {
+      searchIndexUpdater.insert(WaypointsColumns.TABLE_NAME, rowId);
       return ContentUris.appendId(WaypointsColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
     throw new SQLException("Failed to insert a waypoint " + url);
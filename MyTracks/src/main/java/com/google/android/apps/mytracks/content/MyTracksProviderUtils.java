@@ -17,6 +17,7 @@
 package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.stats.TripStatistics;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -40,6 +41,12 @@ public interface MyTracksProviderUtils {
    */
   String AUTHORITY = "com.google.android.maps.mytracks";
 
+  /**
+   * The default number of track points in a batch for
+   * {@link #readTrackPoints(long, long, TrackPointBlock)}.
+   */
+  int TRACK_POINTS_BATCH_SIZE = 512;
+
   /**
    * Clears a track. Removes waypoints and trackpoints. Only keeps the track id.
    * 
@@ -116,6 +123,49 @@ public interface MyTracksProviderUtils {
    */
   void updateTrack(Track track);
 
+  /**
+   * Updates the start id, the stop id, the number of points, and the trip
+   * statistics of a track. Leaves the other columns, e.g., the name and the
+   * category, unchanged.
+   * 
+   * @param track the track
+   */
+  void updateTrackStatistics(Track track);
+
+  /**
+   * Gets the aggregated trip statistics of the tracks of a category starting in
+   * a period. Returns null if there is no such track. Reads one row of the
+   * aggregated stats maintained by the content provider.
+   * 
+   * @param category the category. Null for all the categories
+   * @param period the period, one of the {@link AggregatedStatsColumns}
+   *          periods
+   * @param time a time in the period. Ignored for
+   *          {@link AggregatedStatsColumns#PERIOD_ALL}
+   */
+  TripStatistics getAggregatedTripStatistics(String category, int period, long time);
+
+  /**
+   * Gets an aggregated stats cursor, see {@link AggregatedStatsColumns}. The
+   * caller owns the returned cursor and is responsible for closing it.
+   * 
+   * @param selection the selection. Can be null
+   * @param selectionArgs the selection arguments. Can be null
+   * @param sortOrder the sort order. Can be null
+   */
+  Cursor getAggregatedStatsCursor(String selection, String[] selectionArgs, String sortOrder);
+
+  /**
+   * Gets a search index cursor of the tracks and the waypoints matching a full
+   * text query, see {@link SearchIndexColumns}. Each row has the
+   * {@link SearchIndexColumns#DOCID} and the {@link SearchIndexColumns#MATCHINFO}
+   * blob. The caller owns the returned cursor and is responsible for closing
+   * it.
+   * 
+   * @param match the FTS4 match query
+   */
+  Cursor getSearchIndexCursor(String match);
+
   /**
    * Creates a waypoint from a cursor.
    * 
@@ -223,6 +273,48 @@ public interface MyTracksProviderUtils {
    */
   int bulkInsertTrackPoint(Location[] locations, int length, long trackId);
 
+  /**
+   * Inserts multiple track points and the derived values of some of them, see
+   * {@link TrackPointSeriesColumns}, in one transaction. Gets the ids of the
+   * inserted track points.
+   * 
+   * @param locations an array of locations
+   * @param length the number of locations (from the beginning of the array) to
+   *          insert
+   * @param trackId the track id
+   * @param trackPointIds an array to receive the ids of the inserted track
+   *          points, at least length long
+   * @param series the derived values, with the index of their location in
+   *          locations as id. The ids are replaced by the track point ids. Null
+   *          if none
+   * @return the number of points inserted
+   * @throws android.database.sqlite.SQLiteException if the insert fails. Nothing
+   *           is inserted then
+   */
+  int bulkInsertTrackPoint(Location[] locations, int length, long trackId, long[] trackPointIds,
+      TrackPointSeries series);
+
+  /**
+   * Inserts multiple track points of several tracks and the derived values of
+   * some of them, in one transaction. Gets the ids of the inserted track
+   * points.
+   * 
+   * @param locations an array of locations
+   * @param trackIds the track id of each location
+   * @param length the number of locations (from the beginning of the array) to
+   *          insert
+   * @param trackPointIds an array to receive the ids of the inserted track
+   *          points, at least length long
+   * @param series the derived values, with the index of their location in
+   *          locations as id. The ids are replaced by the track point ids. Null
+   *          if none
+   * @return the number of points inserted
+   * @throws android.database.sqlite.SQLiteException if the insert fails. Nothing
+   *           is inserted then
+   */
+  int bulkInsertTrackPoint(Location[] locations, long[] trackIds, int length,
+      long[] trackPointIds, TrackPointSeries series);
+
   /**
    * Creates a location object from a cursor.
    * 
@@ -249,7 +341,8 @@ public interface MyTracksProviderUtils {
    * 
    * @param trackId the track id
    * @param location the location
-   * @return track point id if the location is in the track. -1L otherwise.
+   * @return track point id if the location is in the track and not packed into a
+   *         track point block. -1L otherwise.
    */
   long getTrackPointId(long trackId, Location location);
   
@@ -276,7 +369,9 @@ public interface MyTracksProviderUtils {
   
   /**
    * Creates a location cursor. The caller owns the returned cursor and is
-   * responsible for closing it.
+   * responsible for closing it. For a track with track point blocks, see
+   * {@link #compactTrackPoints(long)}, returns an in-memory cursor with the
+   * columns of the track points table.
    * 
    * @param trackId the track id
    * @param startTrackPointId the starting track point id. -1L to ignore
@@ -296,7 +391,9 @@ public interface MyTracksProviderUtils {
    * {@link LocationIterator#next()} may advance to the next DB record, and if
    * so, the iterator calls {@link LocationFactory#createLocation()} and
    * populates it with information retrieved from the record. When done with
-   * iteration, {@link LocationIterator#close()} must be called.
+   * iteration, {@link LocationIterator#close()} must be called. In ascending
+   * order, the iterator is a {@link ReadAheadLocationIterator}, reading the
+   * next batch in the background.
    * 
    * @param trackId the track id
    * @param startTrackPointId the starting track point id. -1L to ignore
@@ -307,6 +404,21 @@ public interface MyTracksProviderUtils {
   LocationIterator getTrackPointLocationIterator(
           long trackId, long startTrackPointId, boolean descending, LocationFactory locationFactory);
 
+  /**
+   * Reads a batch of track points into a reusable {@link TrackPointBlock}, in
+   * ascending order. Reads both the packed and the unpacked track points. Unlike
+   * {@link #getTrackPointLocationIterator(long, long, boolean, LocationFactory)},
+   * doesn't create a location per track point, and the sensor data are not
+   * parsed. To read a whole track, call again with the last track point id plus
+   * one until the block is not full.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param block the block to fill, cleared first. Reads up to its capacity
+   * @return the number of track points read
+   */
+  int readTrackPoints(long trackId, long startTrackPointId, TrackPointBlock block);
+
   /**
    * Inserts a track point.
    * 
@@ -316,6 +428,33 @@ public interface MyTracksProviderUtils {
    */
   Uri insertTrackPoint(Location location, long trackId);
 
+  /**
+   * Packs the track points of a track into compressed track point blocks, see
+   * {@link TrackPointBlock}. Should only be called on a track that is not
+   * recording. Each block is inserted and its track points deleted in a single
+   * transaction. The packed track points are still returned by all the track
+   * point readers. Altitude and accuracy are rounded to 0.1 m, speed to 0.01
+   * m/s, and bearing to 0.1 degree.
+   * 
+   * @param trackId the track id
+   * @return the number of track points packed
+   */
+  int compactTrackPoints(long trackId);
+
+  /**
+   * Reads a batch of the derived values of the track points of a track into a
+   * reusable {@link TrackPointSeries}, in ascending track point id order. To
+   * read a whole track, call again with the last track point id plus one until
+   * the series is not full. The track points without derived values, such as
+   * those of a track written before the values were stored, are skipped.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param series the series to fill, cleared first. Reads up to its capacity
+   * @return the number of track points read
+   */
+  int readTrackPointSeries(long trackId, long startTrackPointId, TrackPointSeries series);
+
   /**
    * A lightweight wrapper around the original {@link Cursor} with a method to
    * clean up.
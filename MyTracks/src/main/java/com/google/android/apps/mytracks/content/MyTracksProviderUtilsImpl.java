@@ -16,24 +16,29 @@
 
 package com.google.android.apps.mytracks.content;
 
-import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.FileUtils;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.AbstractCursor;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.location.Location;
 import android.net.Uri;
+import android.os.Bundle;
 import android.util.Log;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * {@link MyTracksProviderUtils} implementation.
@@ -46,6 +51,21 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
   private static final int MAX_LATITUDE = 90000000;
 
+  /**
+   * The maximum number of track points in a track point block.
+   */
+  @VisibleForTesting
+  static final int TRACK_POINTS_PER_BLOCK = 512;
+
+  /*
+   * True for the tracks with track point blocks, keyed by track id. Shared by
+   * all the instances since the blocks are only written and deleted by this
+   * class. A track is marked packed before its first block is written, so a
+   * reader never misses a block. A stale true only costs a block query.
+   */
+  private static final ConcurrentHashMap<Long, Boolean>
+      packedTracks = new ConcurrentHashMap<Long, Boolean>();
+
   private final ContentResolver contentResolver;
   private int defaultCursorBatchSize = 2000;
 
@@ -180,6 +200,9 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   @Override
   public void deleteAllTracks(Context context) {
     contentResolver.delete(TrackPointsColumns.CONTENT_URI, null, null);
+    contentResolver.delete(TrackPointBlocksColumns.CONTENT_URI, null, null);
+    packedTracks.clear();
+    contentResolver.delete(TrackPointSeriesColumns.CONTENT_URI, null, null);
     contentResolver.delete(WaypointsColumns.CONTENT_URI, null, null);
     // Delete tracks last since it triggers a database vaccum call
     contentResolver.delete(TracksColumns.CONTENT_URI, null, null);
@@ -212,6 +235,11 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
           Long.toString(track.getStartId()), Long.toString(track.getStopId()) };
       contentResolver.delete(TrackPointsColumns.CONTENT_URI, where, selectionArgs);
     }
+    contentResolver.delete(TrackPointBlocksColumns.CONTENT_URI,
+        TrackPointBlocksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) });
+    packedTracks.remove(trackId);
+    contentResolver.delete(TrackPointSeriesColumns.CONTENT_URI,
+        TrackPointSeriesColumns.TRACKID + "=?", new String[] { Long.toString(trackId) });
     contentResolver.delete(WaypointsColumns.CONTENT_URI, WaypointsColumns.TRACKID + "=?",
         new String[] { Long.toString(trackId) });    
     deleteDirectoryRecurse(context, FileUtils.getPhotoDir(trackId));  
@@ -304,13 +332,21 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
   @Override
   public void updateTrack(Track track) {
-    contentResolver.update(TracksColumns.CONTENT_URI, createContentValues(track),
-        TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) });
+    // The track url lets the provider notify the change without a query
+    contentResolver.update(ContentUris.withAppendedId(TracksColumns.CONTENT_URI, track.getId()),
+        createContentValues(track), null, null);
+  }
+
+  @Override
+  public void updateTrackStatistics(Track track) {
+    ContentValues values = new ContentValues();
+    putStatistics(values, track);
+    contentResolver.update(ContentUris.withAppendedId(TracksColumns.CONTENT_URI, track.getId()),
+        values, null, null);
   }
 
   private ContentValues createContentValues(Track track) {
     ContentValues values = new ContentValues();
-    TripStatistics tripStatistics = track.getTripStatistics();
 
     // Value < 0 indicates no id is available
     if (track.getId() >= 0) {
@@ -319,6 +355,24 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     values.put(TracksColumns.NAME, track.getName());
     values.put(TracksColumns.DESCRIPTION, track.getDescription());
     values.put(TracksColumns.CATEGORY, track.getCategory());
+    putStatistics(values, track);
+    values.put(TracksColumns.ICON, track.getIcon());
+    values.put(TracksColumns.DRIVEID, track.getDriveId());
+    values.put(TracksColumns.MODIFIEDTIME, track.getModifiedTime());
+    values.put(TracksColumns.SHAREDWITHME, track.isSharedWithMe());
+    values.put(TracksColumns.SHAREDOWNER, track.getSharedOwner());
+    return values;
+  }
+
+  /**
+   * Puts the track point ids, the number of points, and the trip statistics of
+   * a track into a {@link ContentValues}.
+   * 
+   * @param values the content values
+   * @param track the track
+   */
+  private void putStatistics(ContentValues values, Track track) {
+    TripStatistics tripStatistics = track.getTripStatistics();
     values.put(TracksColumns.STARTID, track.getStartId());
     values.put(TracksColumns.STOPID, track.getStopId());
     values.put(TracksColumns.STARTTIME, tripStatistics.getStartTime());
@@ -339,14 +393,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     values.put(TracksColumns.ELEVATIONGAIN, tripStatistics.getTotalElevationGain());
     values.put(TracksColumns.MINGRADE, tripStatistics.getMinGrade());
     values.put(TracksColumns.MAXGRADE, tripStatistics.getMaxGrade());
-    values.put(TracksColumns.ICON, track.getIcon());
-    values.put(TracksColumns.DRIVEID, track.getDriveId());
-    values.put(TracksColumns.MODIFIEDTIME, track.getModifiedTime());
-    values.put(TracksColumns.SHAREDWITHME, track.isSharedWithMe());
-    values.put(TracksColumns.SHAREDOWNER, track.getSharedOwner());
     values.put(TracksColumns.CALORIE, tripStatistics.getCalorie());
-    
-    return values;
   }
 
   /**
@@ -363,6 +410,118 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         TracksColumns.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
   }
 
+  @Override
+  public TripStatistics getAggregatedTripStatistics(String category, int period, long time) {
+    String selection = AggregatedStatsColumns.PERIOD + "=? AND "
+        + AggregatedStatsColumns.PERIODSTART + "=? AND " + AggregatedStatsColumns.CATEGORY;
+    String periodStart = Long.toString(AggregatedStatsUpdater.getPeriodStart(period, time));
+    String[] selectionArgs;
+    if (category == null) {
+      selection += " IS NULL";
+      selectionArgs = new String[] { Integer.toString(period), periodStart };
+    } else {
+      selection += "=?";
+      selectionArgs = new String[] { Integer.toString(period), periodStart, category };
+    }
+    Cursor cursor = null;
+    try {
+      cursor = getAggregatedStatsCursor(selection, selectionArgs, null);
+      if (cursor != null && cursor.moveToNext()) {
+        return createAggregatedTripStatistics(cursor);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Cursor getAggregatedStatsCursor(
+      String selection, String[] selectionArgs, String sortOrder) {
+    return contentResolver.query(
+        AggregatedStatsColumns.CONTENT_URI, null, selection, selectionArgs, sortOrder);
+  }
+
+  @Override
+  public Cursor getSearchIndexCursor(String match) {
+    return contentResolver.query(SearchIndexColumns.CONTENT_URI,
+        new String[] { SearchIndexColumns.DOCID, SearchIndexColumns.MATCHINFO },
+        SearchIndexColumns.TABLE_NAME + " MATCH ?", new String[] { match }, null);
+  }
+
+  /**
+   * Creates the trip statistics of an aggregated stats cursor.
+   * 
+   * @param cursor the cursor
+   */
+  private TripStatistics createAggregatedTripStatistics(Cursor cursor) {
+    int startTimeIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.STARTTIME);
+    int stopTimeIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.STOPTIME);
+    int totalDistanceIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.TOTALDISTANCE);
+    int totalTimeIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.TOTALTIME);
+    int movingTimeIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MOVINGTIME);
+    int minLatIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MINLAT);
+    int maxLatIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MAXLAT);
+    int minLonIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MINLON);
+    int maxLonIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MAXLON);
+    int maxSpeedIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MAXSPEED);
+    int minElevationIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MINELEVATION);
+    int maxElevationIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MAXELEVATION);
+    int elevationGainIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.ELEVATIONGAIN);
+    int minGradeIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MINGRADE);
+    int maxGradeIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.MAXGRADE);
+    int calorieIndex = cursor.getColumnIndexOrThrow(AggregatedStatsColumns.CALORIE);
+
+    TripStatistics tripStatistics = new TripStatistics();
+    if (!cursor.isNull(startTimeIndex)) {
+      tripStatistics.setStartTime(cursor.getLong(startTimeIndex));
+    }
+    if (!cursor.isNull(stopTimeIndex)) {
+      tripStatistics.setStopTime(cursor.getLong(stopTimeIndex));
+    }
+    if (!cursor.isNull(totalDistanceIndex)) {
+      tripStatistics.setTotalDistance(cursor.getDouble(totalDistanceIndex));
+    }
+    if (!cursor.isNull(totalTimeIndex)) {
+      tripStatistics.setTotalTime(cursor.getLong(totalTimeIndex));
+    }
+    if (!cursor.isNull(movingTimeIndex)) {
+      tripStatistics.setMovingTime(cursor.getLong(movingTimeIndex));
+    }
+    if (!cursor.isNull(minLatIndex) && !cursor.isNull(maxLatIndex) && !cursor.isNull(minLonIndex)
+        && !cursor.isNull(maxLonIndex)) {
+      int bottom = cursor.getInt(minLatIndex);
+      int top = cursor.getInt(maxLatIndex);
+      int left = cursor.getInt(minLonIndex);
+      int right = cursor.getInt(maxLonIndex);
+      tripStatistics.setBounds(left, top, right, bottom);
+    }
+    if (!cursor.isNull(maxSpeedIndex)) {
+      tripStatistics.setMaxSpeed(cursor.getFloat(maxSpeedIndex));
+    }
+    if (!cursor.isNull(minElevationIndex)) {
+      tripStatistics.setMinElevation(cursor.getFloat(minElevationIndex));
+    }
+    if (!cursor.isNull(maxElevationIndex)) {
+      tripStatistics.setMaxElevation(cursor.getFloat(maxElevationIndex));
+    }
+    if (!cursor.isNull(elevationGainIndex)) {
+      tripStatistics.setTotalElevationGain(cursor.getDouble(elevationGainIndex));
+    }
+    if (!cursor.isNull(minGradeIndex)) {
+      tripStatistics.setMinGrade(cursor.getFloat(minGradeIndex));
+    }
+    if (!cursor.isNull(maxGradeIndex)) {
+      tripStatistics.setMaxGrade(cursor.getFloat(maxGradeIndex));
+    }
+    if (!cursor.isNull(calorieIndex)) {
+      tripStatistics.setCalorie(cursor.getDouble(calorieIndex));
+    }
+    return tripStatistics;
+  }
+
   @Override
   public Waypoint createWaypoint(Cursor cursor) {
     int idIndex = cursor.getColumnIndexOrThrow(WaypointsColumns._ID);
@@ -802,6 +961,63 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
   }
 
+  @Override
+  public int bulkInsertTrackPoint(Location[] locations, int length, long trackId,
+      long[] trackPointIds, TrackPointSeries series) {
+    return insertTrackPointsAndSeries(locations, null, trackId, length, trackPointIds, series);
+  }
+
+  @Override
+  public int bulkInsertTrackPoint(Location[] locations, long[] trackIds, int length,
+      long[] trackPointIds, TrackPointSeries series) {
+    return insertTrackPointsAndSeries(locations, trackIds, -1L, length, trackPointIds, series);
+  }
+
+  /**
+   * Inserts track points and the derived values of some of them in one
+   * transaction, see {@link MyTracksProvider#BULK_INSERT_TRACK_POINTS_METHOD}.
+   * 
+   * @param locations an array of locations
+   * @param trackIds the track id of each location. Null to use trackId
+   * @param trackId the track id of all the locations if trackIds is null
+   * @param length the number of locations to insert
+   * @param trackPointIds an array to receive the ids of the inserted track
+   *          points
+   * @param series the derived values, with the index of their location as id.
+   *          Null if none
+   * @throws SQLiteException if the insert fails
+   */
+  private int insertTrackPointsAndSeries(Location[] locations, long[] trackIds, long trackId,
+      int length, long[] trackPointIds, TrackPointSeries series) {
+    ContentValues[] trackPointValues = new ContentValues[length];
+    for (int i = 0; i < length; i++) {
+      trackPointValues[i] = createContentValues(
+          locations[i], trackIds != null ? trackIds[i] : trackId);
+    }
+    int seriesSize = series != null ? series.getSize() : 0;
+    ContentValues[] seriesValues = new ContentValues[seriesSize];
+    for (int i = 0; i < seriesSize; i++) {
+      int index = (int) series.getId(i);
+      seriesValues[i] = createSeriesContentValues(
+          series, i, trackIds != null ? trackIds[index] : trackId);
+      seriesValues[i].put(TrackPointSeriesColumns._ID, index);
+    }
+    Bundle extras = new Bundle();
+    extras.putParcelableArray(MyTracksProvider.TRACK_POINTS_EXTRA, trackPointValues);
+    extras.putParcelableArray(MyTracksProvider.TRACK_POINT_SERIES_EXTRA, seriesValues);
+    Bundle result = contentResolver.call(TrackPointsColumns.CONTENT_URI,
+        MyTracksProvider.BULK_INSERT_TRACK_POINTS_METHOD, null, extras);
+    if (result == null) {
+      throw new SQLiteException("Unable to insert " + length + " track points");
+    }
+    System.arraycopy(
+        result.getLongArray(MyTracksProvider.TRACK_POINT_IDS_EXTRA), 0, trackPointIds, 0, length);
+    for (int i = 0; i < seriesSize; i++) {
+      series.setId(i, trackPointIds[(int) series.getId(i)]);
+    }
+    return length;
+  }
+
   @Override
   public Location createTrackPoint(Cursor cursor) {
     Location location = new MyTracksLocation("");
@@ -814,6 +1030,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
+    long trackPointId = -1L;
     Cursor cursor = null;
     try {
       String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID
@@ -823,14 +1040,21 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
       cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
           selectionArgs, TrackPointsColumns._ID);
       if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+        trackPointId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
       }
     } finally {
       if (cursor != null) {
         cursor.close();
       }
     }
-    return -1L;
+    if (!isPacked(trackId)) {
+      return trackPointId;
+    }
+    long blockTrackPointId = getTrackPointBlockBoundary(trackId, false);
+    if (trackPointId == -1L || blockTrackPointId == -1L) {
+      return Math.max(trackPointId, blockTrackPointId);
+    }
+    return Math.min(trackPointId, blockTrackPointId);
   }
 
   @Override
@@ -838,6 +1062,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
+    long trackPointId = -1L;
     Cursor cursor = null;
     try {
       String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID
@@ -847,14 +1072,17 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
       cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
           selectionArgs, TrackPointsColumns._ID);
       if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+        trackPointId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
       }
     } finally {
       if (cursor != null) {
         cursor.close();
       }
     }
-    return -1L;
+    if (!isPacked(trackId)) {
+      return trackPointId;
+    }
+    return Math.max(trackPointId, getTrackPointBlockBoundary(trackId, true));
   }
   
   @Override
@@ -862,6 +1090,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
+    long trackPointId = -1L;
     Cursor cursor = null;
     try {
       String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID
@@ -872,14 +1101,17 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
       cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
           selectionArgs, TrackPointsColumns._ID);
       if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+        trackPointId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
       }
     } finally {
       if (cursor != null) {
         cursor.close();
       }
     }
-    return -1L;
+    if (isPacked(trackId)) {
+      trackPointId = getPackedTrackPointId(trackId, location.getTime(), trackPointId);
+    }
+    return trackPointId;
   }
 
   @Override
@@ -887,11 +1119,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return null;
     }
-    String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
-        + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
-    String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    return getValidTrackPoint(trackId, false);
   }
 
   @Override
@@ -899,11 +1127,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return null;
     }
-    String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
-        + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
-    String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    return getValidTrackPoint(trackId, true);
   }
 
   @Override
@@ -911,26 +1135,217 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
         + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.LATITUDE + "<="
         + MAX_LATITUDE + ")";
-    return findTrackPointBy(selection, null);
+    Location location = null;
+    long trackPointId = -1L;
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(null, selection, null, TrackPointsColumns._ID);
+      if (cursor != null && cursor.moveToFirst()) {
+        trackPointId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+        location = createTrackPoint(cursor);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    // The last valid track point may be packed in a later track point block
+    Location packedLocation = getTrackPointBlockLocation(
+        TrackPointBlocksColumns.LASTVALIDID + ">?", new String[] { Long.toString(trackPointId) },
+        TrackPointBlocksColumns.LASTVALIDID, true);
+    return packedLocation != null ? packedLocation : location;
+  }
+
+  /**
+   * Gets the first or the last valid track point of a track.
+   * 
+   * @param trackId the track id
+   * @param last true to get the last valid track point
+   */
+  private Location getValidTrackPoint(long trackId, boolean last) {
+    String selection = TrackPointsColumns._ID + "=(select " + (last ? "max" : "min") + "("
+        + TrackPointsColumns._ID + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE "
+        + TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.LATITUDE + "<="
+        + MAX_LATITUDE + ")";
+    String[] selectionArgs = new String[] { Long.toString(trackId) };
+    if (!isPacked(trackId)) {
+      return findTrackPointBy(selection, selectionArgs);
+    }
+    Location location = null;
+    long trackPointId = -1L;
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(null, selection, selectionArgs, TrackPointsColumns._ID);
+      if (cursor != null && cursor.moveToFirst()) {
+        trackPointId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+        location = createTrackPoint(cursor);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    // Only a block with a valid track point before or after the row matches
+    String blockSelection;
+    long blockTrackPointId;
+    if (last) {
+      blockSelection = TrackPointBlocksColumns.TRACKID + "=? AND "
+          + TrackPointBlocksColumns.LASTVALIDID + ">?";
+      blockTrackPointId = trackPointId;
+    } else {
+      blockSelection = TrackPointBlocksColumns.TRACKID + "=? AND "
+          + TrackPointBlocksColumns.FIRSTVALIDID + ">=0 AND "
+          + TrackPointBlocksColumns.FIRSTVALIDID + "<?";
+      blockTrackPointId = trackPointId != -1L ? trackPointId : Long.MAX_VALUE;
+    }
+    Location packedLocation = getTrackPointBlockLocation(blockSelection,
+        new String[] { Long.toString(trackId), Long.toString(blockTrackPointId) },
+        last ? TrackPointBlocksColumns.LASTVALIDID : TrackPointBlocksColumns.FIRSTVALIDID, last);
+    return packedLocation != null ? packedLocation : location;
   }
   
   @Override
   public Cursor getTrackPointCursor(
       long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    if (trackId >= 0 && isPacked(trackId)) {
+      return getPackedTrackPointCursor(trackId, startTrackPointId, maxLocations, descending);
+    }
+    return getTrackPointCursor(trackId, startTrackPointId, -1L, maxLocations, descending);
+  }
+
+  /**
+   * Creates a location cursor over a track with track point blocks, with the
+   * columns of the track points table. The track points are read as the
+   * cursor moves.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param maxLocations maximum number of locations to return. -1 for no limit
+   * @param descending true to sort the result in descending order
+   */
+  private Cursor getPackedTrackPointCursor(
+      long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    int count = getPackedTrackPointCount(trackId, startTrackPointId, descending);
+    if (maxLocations >= 0) {
+      count = Math.min(count, maxLocations);
+    }
+    return new PackedTrackPointCursor(trackId, startTrackPointId, descending, count);
+  }
+
+  /**
+   * Gets the number of track points of a track with track point blocks from a
+   * starting track point id. Only decodes the block containing the starting
+   * track point id.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param descending true to count the track points up to the starting track
+   *          point id
+   */
+  private int getPackedTrackPointCount(
+      long trackId, long startTrackPointId, boolean descending) {
+    String trackIdArg = Long.toString(trackId);
+    String startArg = Long.toString(startTrackPointId);
+    String rowSelection = TrackPointsColumns.TRACKID + "=?";
+    String blockSelection = TrackPointBlocksColumns.TRACKID + "=?";
+    String[] selectionArgs = new String[] { trackIdArg };
+    if (startTrackPointId >= 0) {
+      rowSelection += " AND " + TrackPointsColumns._ID + (descending ? "<=?" : ">=?");
+      blockSelection += " AND " + (descending ? TrackPointBlocksColumns.STOPID + "<=?"
+          : TrackPointBlocksColumns.STARTID + ">=?");
+      selectionArgs = new String[] { trackIdArg, startArg };
+    }
+    int count = getInt(TrackPointsColumns.CONTENT_URI, "count(*)", rowSelection, selectionArgs)
+        + getInt(TrackPointBlocksColumns.CONTENT_URI,
+            "sum(" + TrackPointBlocksColumns.NUMPOINTS + ")", blockSelection, selectionArgs);
+    if (startTrackPointId < 0) {
+      return count;
+    }
+
+    // Count the track points of the block containing the starting track point
+    byte[] data = null;
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointBlocksColumns.CONTENT_URI,
+          new String[] { TrackPointBlocksColumns.DATA }, TrackPointBlocksColumns.TRACKID
+              + "=? AND " + TrackPointBlocksColumns.STARTID + (descending ? "<=?" : "<?")
+              + " AND " + TrackPointBlocksColumns.STOPID + (descending ? ">?" : ">=?"),
+          new String[] { trackIdArg, startArg, startArg }, null);
+      if (cursor != null && cursor.moveToFirst()) {
+        data = cursor.getBlob(0);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (data != null) {
+      try {
+        TrackPointBlock block = TrackPointBlock.decode(data);
+        for (int i = 0; i < block.getSize(); i++) {
+          if (descending ? block.getId(i) <= startTrackPointId
+              : block.getId(i) >= startTrackPointId) {
+            count++;
+          }
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to decode the track point block of " + startTrackPointId, e);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Gets the integer value of an aggregate query. Returns 0 if none.
+   * 
+   * @param uri the content uri
+   * @param column the aggregate column
+   * @param selection the selection
+   * @param selectionArgs the selection arguments
+   */
+  private int getInt(Uri uri, String column, String selection, String[] selectionArgs) {
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(
+          uri, new String[] { column }, selection, selectionArgs, null);
+      if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+        return cursor.getInt(0);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Creates a location cursor over the track points table.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param endTrackPointId the ending track point id, inclusive. -1L to ignore
+   * @param maxLocations maximum number of locations to return. -1 for no limit
+   * @param descending true to sort the result in descending order
+   */
+  private Cursor getTrackPointCursor(long trackId, long startTrackPointId, long endTrackPointId,
+      int maxLocations, boolean descending) {
     if (trackId < 0) {
       return null;
     }
 
-    String selection;
-    String[] selectionArgs;
+    String selection = TrackPointsColumns.TRACKID + "=?";
+    ArrayList<String> selectionArgs = new ArrayList<String>();
+    selectionArgs.add(Long.toString(trackId));
     if (startTrackPointId >= 0) {
-      String comparison = descending ? "<=" : ">=";
-      selection = TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns._ID + comparison
-          + "?";
-      selectionArgs = new String[] { Long.toString(trackId), Long.toString(startTrackPointId) };
-    } else {
-      selection = TrackPointsColumns.TRACKID + "=?";
-      selectionArgs = new String[] { Long.toString(trackId) };
+      selection += " AND " + TrackPointsColumns._ID + (descending ? "<=" : ">=") + "?";
+      selectionArgs.add(Long.toString(startTrackPointId));
+    }
+    if (endTrackPointId >= 0) {
+      selection += " AND " + TrackPointsColumns._ID + (descending ? ">=" : "<=") + "?";
+      selectionArgs.add(Long.toString(endTrackPointId));
     }
 
     String sortOrder = TrackPointsColumns._ID;
@@ -940,7 +1355,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (maxLocations >= 0) {
       sortOrder += " LIMIT " + maxLocations;
     }
-    return getTrackPointCursor(null, selection, selectionArgs, sortOrder);
+    return getTrackPointCursor(
+        null, selection, selectionArgs.toArray(new String[selectionArgs.size()]), sortOrder);
   }
 
   @Override
@@ -950,6 +1366,117 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (locationFactory == null) {
       throw new IllegalArgumentException("locationFactory is null");
     }
+    if (!descending) {
+      return new ReadAheadLocationIterator(this, trackId, startTrackPointId,
+          Math.min(defaultCursorBatchSize, ReadAheadLocationIterator.MIN_BATCH_SIZE),
+          locationFactory);
+    }
+    if (isPacked(trackId)) {
+      return new PackedLocationIterator(trackId, startTrackPointId, descending, locationFactory);
+    }
+    return getTrackPointRowIterator(trackId, startTrackPointId, -1L, descending, locationFactory);
+  }
+
+  @Override
+  public int readTrackPoints(long trackId, long startTrackPointId, TrackPointBlock block) {
+    block.clear();
+    if (trackId < 0) {
+      return 0;
+    }
+    long nextTrackPointId = startTrackPointId < 0 ? 0L : startTrackPointId;
+    if (!isPacked(trackId)) {
+      readTrackPointRows(trackId, nextTrackPointId, -1L, block);
+      return block.getSize();
+    }
+    while (!block.isFull()) {
+      long startId = -1L;
+      long stopId = -1L;
+      byte[] data = null;
+      Cursor cursor = null;
+      try {
+        cursor = getNextTrackPointBlockCursor(trackId, nextTrackPointId, false);
+        if (cursor != null && cursor.moveToFirst()) {
+          startId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointBlocksColumns.STARTID));
+          stopId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointBlocksColumns.STOPID));
+          data = cursor.getBlob(cursor.getColumnIndexOrThrow(TrackPointBlocksColumns.DATA));
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+
+      if (data == null) {
+        // No more blocks, read the remaining track points
+        readTrackPointRows(trackId, nextTrackPointId, -1L, block);
+        break;
+      }
+      if (startId > nextTrackPointId) {
+        // Read the track points before the block
+        readTrackPointRows(trackId, nextTrackPointId, startId - 1, block);
+        nextTrackPointId = startId;
+        continue;
+      }
+      try {
+        TrackPointBlock trackPointBlock = TrackPointBlock.decode(data);
+        for (int i = 0; i < trackPointBlock.getSize() && !block.isFull(); i++) {
+          long id = trackPointBlock.getId(i);
+          if (id >= nextTrackPointId) {
+            block.add(trackPointBlock, i);
+            nextTrackPointId = id + 1;
+          }
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to decode track point block " + startId + "-" + stopId, e);
+      }
+      if (!block.isFull()) {
+        nextTrackPointId = stopId + 1;
+      }
+    }
+    return block.getSize();
+  }
+
+  /**
+   * Reads track points from the track points table into a track point block,
+   * up to the block capacity.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id
+   * @param endTrackPointId the ending track point id, inclusive. -1L to ignore
+   * @param block the track point block
+   */
+  private void readTrackPointRows(
+      long trackId, long startTrackPointId, long endTrackPointId, TrackPointBlock block) {
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(trackId, startTrackPointId, endTrackPointId,
+          block.getCapacity() - block.getSize(), false);
+      if (cursor == null) {
+        return;
+      }
+      CachedTrackPointsIndexes indexes = new CachedTrackPointsIndexes(cursor);
+      while (cursor.moveToNext()) {
+        addTrackPoint(cursor, indexes, block);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Creates an iterator over the track points table.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param endTrackPointId the ending track point id, inclusive. -1L to ignore
+   * @param descending true to sort the result in descending order
+   * @param locationFactory the location factory
+   */
+  private LocationIterator getTrackPointRowIterator(final long trackId,
+      final long startTrackPointId, final long endTrackPointId, final boolean descending,
+      final LocationFactory locationFactory) {
     return new LocationIterator() {
       private long lastTrackPointId = -1L;
       private Cursor cursor = getCursor(startTrackPointId);
@@ -963,14 +1490,15 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
        * @param trackPointId the starting track point id
        */
       private Cursor getCursor(long trackPointId) {
-        return getTrackPointCursor(trackId, trackPointId, defaultCursorBatchSize, descending);
+        return getTrackPointCursor(
+            trackId, trackPointId, endTrackPointId, defaultCursorBatchSize, descending);
       }
 
       /**
        * Advances the cursor to the next batch. Returns true if successful.
        */
       private boolean advanceCursorToNextBatch() {
-        long trackPointId = lastTrackPointId == -1L ? -1L
+        long trackPointId = lastTrackPointId == -1L ? startTrackPointId
             : lastTrackPointId + (descending ? -1 : 1);
         Log.d(TAG, "Advancing track point id: " + trackPointId);
         cursor.close();
@@ -1037,6 +1565,95 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         TrackPointsColumns.CONTENT_URI, createContentValues(location, trackId));
   }
 
+  @Override
+  public int compactTrackPoints(long trackId) {
+    if (trackId < 0) {
+      return 0;
+    }
+    int count = 0;
+    long startTrackPointId = -1L;
+
+    // Mark the track before writing a block, see packedTracks
+    packedTracks.put(trackId, true);
+    while (true) {
+      TrackPointBlock block = new TrackPointBlock(TRACK_POINTS_PER_BLOCK);
+      readTrackPointRows(trackId, startTrackPointId, -1L, block);
+      int size = block.getSize();
+      if (size == 0) {
+        break;
+      }
+      long lastId = block.getId(size - 1);
+
+      // The provider deletes the packed track points in the same transaction
+      ContentValues values = new ContentValues();
+      values.put(TrackPointBlocksColumns.TRACKID, trackId);
+      block.putColumns(values);
+      values.put(TrackPointBlocksColumns.DATA, block.encode());
+      contentResolver.insert(TrackPointBlocksColumns.CONTENT_URI, values);
+
+      count += size;
+      if (size < TRACK_POINTS_PER_BLOCK) {
+        break;
+      }
+      startTrackPointId = lastId + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Creates the {@link ContentValues} of the derived values of a track point,
+   * without the track point id.
+   * 
+   * @param series the series
+   * @param index the index in the series
+   * @param trackId the track id
+   */
+  private ContentValues createSeriesContentValues(
+      TrackPointSeries series, int index, long trackId) {
+    ContentValues values = new ContentValues();
+    values.put(TrackPointSeriesColumns.TRACKID, trackId);
+    values.put(TrackPointSeriesColumns.DISTANCE, series.getDistance(index));
+    values.put(TrackPointSeriesColumns.TOTALTIME, series.getTotalTime(index));
+    values.put(TrackPointSeriesColumns.MOVINGTIME, series.getMovingTime(index));
+    values.put(TrackPointSeriesColumns.ELEVATION, series.getElevation(index));
+    values.put(TrackPointSeriesColumns.SPEED, series.getSpeed(index));
+    values.put(TrackPointSeriesColumns.GRADE, series.getGrade(index));
+    return values;
+  }
+
+  @Override
+  public int readTrackPointSeries(long trackId, long startTrackPointId, TrackPointSeries series) {
+    series.clear();
+    if (trackId < 0) {
+      return 0;
+    }
+    String selection = TrackPointSeriesColumns.TRACKID + "=? AND " + TrackPointSeriesColumns._ID
+        + ">=?";
+    String[] selectionArgs = new String[] {
+        Long.toString(trackId), Long.toString(startTrackPointId < 0 ? 0L : startTrackPointId) };
+    String sortOrder = TrackPointSeriesColumns._ID + " LIMIT " + series.getCapacity();
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointSeriesColumns.CONTENT_URI, new String[] {
+          TrackPointSeriesColumns._ID, TrackPointSeriesColumns.DISTANCE,
+          TrackPointSeriesColumns.TOTALTIME, TrackPointSeriesColumns.MOVINGTIME,
+          TrackPointSeriesColumns.ELEVATION, TrackPointSeriesColumns.SPEED,
+          TrackPointSeriesColumns.GRADE }, selection, selectionArgs, sortOrder);
+      if (cursor == null) {
+        return 0;
+      }
+      while (cursor.moveToNext()) {
+        series.add(cursor.getLong(0), cursor.getDouble(1), cursor.getLong(2), cursor.getLong(3),
+            cursor.getDouble(4), cursor.getDouble(5), cursor.getDouble(6));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return series.getSize();
+  }
+
   /**
    * Creates the {@link ContentValues} for a {@link Location}.
    * 
@@ -1109,14 +1726,213 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
       location.setBearing(cursor.getFloat(indexes.bearingIndex));
     }
     if (location instanceof MyTracksLocation && !cursor.isNull(indexes.sensorIndex)) {
-      MyTracksLocation myTracksLocation = (MyTracksLocation) location;
-      try {
-        myTracksLocation.setSensorDataSet(
-            SensorDataSet.parseFrom(cursor.getBlob(indexes.sensorIndex)));
-      } catch (InvalidProtocolBufferException e) {
-        Log.w(TAG, "Failed to parse sensor data.", e);
+      // Parsed when read
+      ((MyTracksLocation) location).setSensorData(cursor.getBlob(indexes.sensorIndex));
+    }
+  }
+
+  /**
+   * Adds the track point of a cursor to a track point block.
+   * 
+   * @param cursor the cursor pointing to a location
+   * @param indexes the cached track points indexes
+   * @param block the track point block
+   */
+  private void addTrackPoint(
+      Cursor cursor, CachedTrackPointsIndexes indexes, TrackPointBlock block) {
+    int flag = 0;
+    float altitude = 0f;
+    float accuracy = 0f;
+    float speed = 0f;
+    float bearing = 0f;
+    if (!cursor.isNull(indexes.altitudeIndex)) {
+      flag |= TrackPointBlock.FLAG_ALTITUDE;
+      altitude = cursor.getFloat(indexes.altitudeIndex);
+    }
+    if (!cursor.isNull(indexes.accuracyIndex)) {
+      flag |= TrackPointBlock.FLAG_ACCURACY;
+      accuracy = cursor.getFloat(indexes.accuracyIndex);
+    }
+    if (!cursor.isNull(indexes.speedIndex)) {
+      flag |= TrackPointBlock.FLAG_SPEED;
+      speed = cursor.getFloat(indexes.speedIndex);
+    }
+    if (!cursor.isNull(indexes.bearingIndex)) {
+      flag |= TrackPointBlock.FLAG_BEARING;
+      bearing = cursor.getFloat(indexes.bearingIndex);
+    }
+    byte[] sensor = cursor.isNull(indexes.sensorIndex) ? null
+        : cursor.getBlob(indexes.sensorIndex);
+    block.add(cursor.getLong(indexes.idIndex), cursor.getInt(indexes.latitudeIndex),
+        cursor.getInt(indexes.longitudeIndex), cursor.getLong(indexes.timeIndex), flag, altitude,
+        accuracy, speed, bearing, sensor);
+  }
+
+  /**
+   * Gets a cursor of the first track point block containing or following a
+   * track point id. The caller owns the returned cursor.
+   * 
+   * @param trackId the track id
+   * @param trackPointId the track point id
+   * @param descending true to get the block containing or preceding the track
+   *          point id
+   */
+  private Cursor getNextTrackPointBlockCursor(
+      long trackId, long trackPointId, boolean descending) {
+    String selection = TrackPointBlocksColumns.TRACKID + "=? AND " + (descending
+        ? TrackPointBlocksColumns.STARTID + "<=?" : TrackPointBlocksColumns.STOPID + ">=?");
+    String[] selectionArgs = new String[] { Long.toString(trackId), Long.toString(trackPointId) };
+    String sortOrder = TrackPointBlocksColumns.STARTID + (descending ? " DESC" : "") + " LIMIT 1";
+    return contentResolver.query(
+        TrackPointBlocksColumns.CONTENT_URI, null, selection, selectionArgs, sortOrder);
+  }
+
+  /**
+   * Returns true if the track has track point blocks. Only queries the track
+   * point blocks table the first time a track is checked.
+   * 
+   * @param trackId the track id
+   */
+  private boolean isPacked(long trackId) {
+    Boolean packed = packedTracks.get(trackId);
+    if (packed != null) {
+      return packed;
+    }
+    boolean hasBlocks = hasTrackPointBlocks(trackId);
+    packed = packedTracks.putIfAbsent(trackId, hasBlocks);
+    return packed != null ? packed : hasBlocks;
+  }
+
+  /**
+   * Returns true if the track has track point blocks.
+   * 
+   * @param trackId the track id
+   */
+  private boolean hasTrackPointBlocks(long trackId) {
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointBlocksColumns.CONTENT_URI,
+          new String[] { TrackPointBlocksColumns._ID }, TrackPointBlocksColumns.TRACKID + "=?",
+          new String[] { Long.toString(trackId) }, TrackPointBlocksColumns.STARTID + " LIMIT 1");
+      return cursor != null && cursor.moveToFirst();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Gets the first or the last track point id in the track point blocks of a
+   * track. Returns -1L if none.
+   * 
+   * @param trackId the track id
+   * @param last true to get the last track point id
+   */
+  private long getTrackPointBlockBoundary(long trackId, boolean last) {
+    String column = last ? "max(" + TrackPointBlocksColumns.STOPID + ")"
+        : "min(" + TrackPointBlocksColumns.STARTID + ")";
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointBlocksColumns.CONTENT_URI, new String[] { column },
+          TrackPointBlocksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+      if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+        return cursor.getLong(0);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Gets a track point of the first track point block matching a selection,
+   * ordered by a block column holding a track point id of the block. Only
+   * decodes that block. Returns null if no block matches.
+   * 
+   * @param selection the block selection
+   * @param selectionArgs the block selection arguments
+   * @param idColumn the block column with the track point id
+   * @param descending true to get the block with the largest track point id
+   */
+  private Location getTrackPointBlockLocation(
+      String selection, String[] selectionArgs, String idColumn, boolean descending) {
+    long trackPointId = -1L;
+    byte[] data = null;
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointBlocksColumns.CONTENT_URI,
+          new String[] { idColumn, TrackPointBlocksColumns.DATA }, selection, selectionArgs,
+          idColumn + (descending ? " DESC" : "") + " LIMIT 1");
+      if (cursor != null && cursor.moveToFirst()) {
+        trackPointId = cursor.getLong(0);
+        data = cursor.getBlob(1);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (data == null) {
+      return null;
+    }
+    try {
+      TrackPointBlock block = TrackPointBlock.decode(data);
+      int index = block.indexOf(trackPointId);
+      if (index != -1) {
+        Location location = DEFAULT_LOCATION_FACTORY.createLocation();
+        block.fillLocation(index, location);
+        return location;
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to decode the track point block of " + trackPointId, e);
+    }
+    return null;
+  }
+
+  /**
+   * Gets the last track point id of a packed track with a given time. Only
+   * decodes the track point blocks whose time range contains the time and with
+   * track points after the given track point id.
+   * 
+   * @param trackId the track id
+   * @param time the time
+   * @param trackPointId the last track point id with the time in the track
+   *          points table, -1L if none
+   */
+  private long getPackedTrackPointId(long trackId, long time, long trackPointId) {
+    String selection = TrackPointBlocksColumns.TRACKID + "=? AND "
+        + TrackPointBlocksColumns.MINTIME + "<=? AND " + TrackPointBlocksColumns.MAXTIME
+        + ">=? AND " + TrackPointBlocksColumns.STOPID + ">?";
+    String[] selectionArgs = new String[] { Long.toString(trackId), Long.toString(time),
+        Long.toString(time), Long.toString(trackPointId) };
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointBlocksColumns.CONTENT_URI,
+          new String[] { TrackPointBlocksColumns.DATA }, selection, selectionArgs,
+          TrackPointBlocksColumns.STARTID + " DESC");
+      while (cursor != null && cursor.moveToNext()) {
+        TrackPointBlock block;
+        try {
+          block = TrackPointBlock.decode(cursor.getBlob(0));
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to decode a track point block of track " + trackId, e);
+          continue;
+        }
+        for (int i = block.getSize() - 1; i >= 0 && block.getId(i) > trackPointId; i--) {
+          if (block.getTime(i) == time) {
+            return block.getId(i);
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
       }
     }
+    return trackPointId;
   }
 
   private Location findTrackPointBy(String selection, String[] selectionArgs) {
@@ -1148,6 +1964,336 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         TrackPointsColumns.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
   }
 
+  /**
+   * A {@link LocationIterator} over a track with track point blocks. Reads the
+   * track points in id order from the track point blocks, and from the track
+   * points table for the ids in between the blocks.
+   */
+  private class PackedLocationIterator implements LocationIterator {
+
+    private final long trackId;
+    private final boolean descending;
+    private final LocationFactory locationFactory;
+
+    // The next track point id to read
+    private long nextTrackPointId;
+    private boolean done = false;
+
+    // The current block and the index of the next track point in it
+    private TrackPointBlock block;
+    private int blockIndex;
+
+    // The iterator over the track points in between blocks
+    private LocationIterator rowIterator;
+
+    private long lastTrackPointId = -1L;
+
+    public PackedLocationIterator(long trackId, long startTrackPointId, boolean descending,
+        LocationFactory locationFactory) {
+      this.trackId = trackId;
+      this.descending = descending;
+      this.locationFactory = locationFactory;
+      if (startTrackPointId >= 0) {
+        nextTrackPointId = startTrackPointId;
+      } else {
+        nextTrackPointId = descending ? Long.MAX_VALUE : 0L;
+      }
+    }
+
+    /**
+     * Advances to the next block or to the next track points in between
+     * blocks. Returns true if there is a next track point.
+     */
+    private boolean advance() {
+      while (!done) {
+        if (block != null) {
+          if (blockIndex >= 0 && blockIndex < block.getSize()) {
+            return true;
+          }
+          block = null;
+        }
+        if (rowIterator != null) {
+          if (rowIterator.hasNext()) {
+            return true;
+          }
+          rowIterator.close();
+          rowIterator = null;
+        }
+        if (nextTrackPointId < 0) {
+          done = true;
+          break;
+        }
+        loadNext();
+      }
+      return false;
+    }
+
+    /**
+     * Loads the block containing {@link #nextTrackPointId} or creates an
+     * iterator for the track points before the next block.
+     */
+    private void loadNext() {
+      long startId = -1L;
+      long stopId = -1L;
+      byte[] data = null;
+      Cursor cursor = null;
+      try {
+        cursor = getNextTrackPointBlockCursor(trackId, nextTrackPointId, descending);
+        if (cursor != null && cursor.moveToFirst()) {
+          startId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointBlocksColumns.STARTID));
+          stopId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointBlocksColumns.STOPID));
+          data = cursor.getBlob(cursor.getColumnIndexOrThrow(TrackPointBlocksColumns.DATA));
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+
+      if (data == null) {
+        // No more blocks, read the remaining track points
+        rowIterator = getTrackPointRowIterator(
+            trackId, nextTrackPointId, -1L, descending, locationFactory);
+        nextTrackPointId = -1L;
+        return;
+      }
+
+      boolean inBlock = descending ? stopId >= nextTrackPointId : startId <= nextTrackPointId;
+      if (!inBlock) {
+        // Read the track points before the block
+        long endTrackPointId = descending ? stopId + 1 : startId - 1;
+        rowIterator = getTrackPointRowIterator(
+            trackId, nextTrackPointId, endTrackPointId, descending, locationFactory);
+        nextTrackPointId = descending ? stopId : startId;
+        return;
+      }
+
+      try {
+        block = TrackPointBlock.decode(data);
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to decode track point block " + startId + "-" + stopId, e);
+        block = null;
+      }
+      if (block != null) {
+        blockIndex = descending ? block.getSize() - 1 : 0;
+        while (blockIndex >= 0 && blockIndex < block.getSize()
+            && (descending ? block.getId(blockIndex) > nextTrackPointId
+                : block.getId(blockIndex) < nextTrackPointId)) {
+          blockIndex += descending ? -1 : 1;
+        }
+      }
+      nextTrackPointId = descending ? startId - 1 : stopId + 1;
+    }
+
+    @Override
+    public long getLocationId() {
+      return lastTrackPointId;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return advance();
+    }
+
+    @Override
+    public Location next() {
+      if (!advance()) {
+        throw new NoSuchElementException();
+      }
+      if (block != null) {
+        lastTrackPointId = block.getId(blockIndex);
+        Location location = locationFactory.createLocation();
+        block.fillLocation(blockIndex, location);
+        blockIndex += descending ? -1 : 1;
+        return location;
+      }
+      Location location = rowIterator.next();
+      lastTrackPointId = rowIterator.getLocationId();
+      return location;
+    }
+
+    @Override
+    public void close() {
+      if (rowIterator != null) {
+        rowIterator.close();
+        rowIterator = null;
+      }
+      block = null;
+      done = true;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * A cursor over a track with track point blocks, with the columns of the
+   * track points table. Reads the track points with a
+   * {@link PackedLocationIterator} filling a single location, restarting it
+   * when moving backward.
+   */
+  private class PackedTrackPointCursor extends AbstractCursor {
+
+    private final long trackId;
+    private final long startTrackPointId;
+    private final boolean descending;
+    private final int count;
+    private final MyTracksLocation location = new MyTracksLocation("");
+    private final LocationFactory locationFactory = new LocationFactory() {
+        @Override
+      public Location createLocation() {
+        return location;
+      }
+    };
+
+    private LocationIterator locationIterator;
+    private int iteratorPosition;
+    private long trackPointId;
+
+    public PackedTrackPointCursor(
+        long trackId, long startTrackPointId, boolean descending, int count) {
+      this.trackId = trackId;
+      this.startTrackPointId = startTrackPointId;
+      this.descending = descending;
+      this.count = count;
+    }
+
+    @Override
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+      return TrackPointsColumns.COLUMNS;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+      if (locationIterator == null || newPosition < iteratorPosition) {
+        closeIterator();
+        locationIterator = new PackedLocationIterator(
+            trackId, startTrackPointId, descending, locationFactory);
+        iteratorPosition = -1;
+      }
+      while (iteratorPosition < newPosition) {
+        if (!locationIterator.hasNext()) {
+          return false;
+        }
+        locationIterator.next();
+        trackPointId = locationIterator.getLocationId();
+        iteratorPosition++;
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+      String name = getColumnName(column);
+      if (TrackPointsColumns.ALTITUDE.equals(name)) {
+        return !location.hasAltitude();
+      } else if (TrackPointsColumns.ACCURACY.equals(name)) {
+        return !location.hasAccuracy();
+      } else if (TrackPointsColumns.SPEED.equals(name)) {
+        return !location.hasSpeed();
+      } else if (TrackPointsColumns.BEARING.equals(name)) {
+        return !location.hasBearing();
+      } else if (TrackPointsColumns.SENSOR.equals(name)) {
+        return location.getSensorDataSet() == null;
+      }
+      return false;
+    }
+
+    @Override
+    public long getLong(int column) {
+      String name = getColumnName(column);
+      if (TrackPointsColumns._ID.equals(name)) {
+        return trackPointId;
+      } else if (TrackPointsColumns.TRACKID.equals(name)) {
+        return trackId;
+      } else if (TrackPointsColumns.LONGITUDE.equals(name)) {
+        // Restore the exact stored coordinates
+        return Math.round(location.getLongitude() * 1E6);
+      } else if (TrackPointsColumns.LATITUDE.equals(name)) {
+        return Math.round(location.getLatitude() * 1E6);
+      } else if (TrackPointsColumns.TIME.equals(name)) {
+        return location.getTime();
+      }
+      return (long) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+      String name = getColumnName(column);
+      if (TrackPointsColumns.ALTITUDE.equals(name)) {
+        return location.getAltitude();
+      } else if (TrackPointsColumns.ACCURACY.equals(name)) {
+        return location.getAccuracy();
+      } else if (TrackPointsColumns.SPEED.equals(name)) {
+        return location.getSpeed();
+      } else if (TrackPointsColumns.BEARING.equals(name)) {
+        return location.getBearing();
+      } else if (TrackPointsColumns.SENSOR.equals(name)) {
+        throw new UnsupportedOperationException("Not a number: " + name);
+      }
+      return getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+      return (float) getDouble(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+      return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+      return (short) getLong(column);
+    }
+
+    @Override
+    public String getString(int column) {
+      if (isNull(column)) {
+        return null;
+      }
+      String name = getColumnName(column);
+      if (TrackPointsColumns.SENSOR.equals(name)) {
+        throw new UnsupportedOperationException("Not a string: " + name);
+      }
+      if (TrackPointsColumns.ALTITUDE.equals(name) || TrackPointsColumns.ACCURACY.equals(name)
+          || TrackPointsColumns.SPEED.equals(name) || TrackPointsColumns.BEARING.equals(name)) {
+        return Double.toString(getDouble(column));
+      }
+      return Long.toString(getLong(column));
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+      if (!TrackPointsColumns.SENSOR.equals(getColumnName(column))) {
+        return super.getBlob(column);
+      }
+      return isNull(column) ? null : location.getSensorDataSet().toByteArray();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      closeIterator();
+    }
+
+    private void closeIterator() {
+      if (locationIterator != null) {
+        locationIterator.close();
+        locationIterator = null;
+      }
+    }
+  }
+
   /**
    * A cache of track points indexes.
    */
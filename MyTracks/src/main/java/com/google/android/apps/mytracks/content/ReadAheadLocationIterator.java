@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link LocationIterator} over a track in ascending order which reads the
+ * next batch of track points in the background while the current batch is
+ * consumed. Batches are read with
+ * {@link MyTracksProviderUtils#readTrackPoints(long, long, TrackPointBlock)},
+ * starting after the last track point id of the previous batch.
+ * <p>
+ * The first batch is read in the calling thread, so short reads, e.g., the new
+ * track points of a recording track, never use the background thread. The
+ * first batch should be small. The batch size then adapts to the measured size
+ * of the track points, keeping a batch within {@link #TARGET_BATCH_BYTES}.
+ */
+public class ReadAheadLocationIterator implements LocationIterator {
+
+  /**
+   * The target size in bytes of a batch. Well within a cursor window, so that
+   * reading a batch doesn't requery.
+   */
+  @VisibleForTesting
+  static final int TARGET_BATCH_BYTES = 256 * 1024;
+
+  @VisibleForTesting
+  static final int MIN_BATCH_SIZE = 100;
+
+  @VisibleForTesting
+  static final int MAX_BATCH_SIZE = 5000;
+
+  // The estimated size in bytes of a track point row, excluding sensor data
+  private static final int TRACK_POINT_BYTES = 72;
+
+  private static final String TAG = ReadAheadLocationIterator.class.getSimpleName();
+
+  private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool();
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final long trackId;
+  private final LocationFactory locationFactory;
+
+  // The batch being consumed and the index of the next track point in it
+  private TrackPointBlock block;
+  private int index = 0;
+
+  // The batch being read in the background, null if none
+  private Future<TrackPointBlock> nextBlockFuture;
+
+  // The consumed batch, reused for reading
+  private TrackPointBlock spareBlock;
+
+  private int batchSize;
+  private long lastTrackPointId = -1L;
+  private long waitTime = 0L;
+  private int batchCount = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param batchSize the size of the first batch
+   * @param locationFactory the location factory
+   */
+  public ReadAheadLocationIterator(MyTracksProviderUtils myTracksProviderUtils, long trackId,
+      long startTrackPointId, int batchSize, LocationFactory locationFactory) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.trackId = trackId;
+    this.locationFactory = locationFactory;
+    this.batchSize = batchSize;
+    block = read(startTrackPointId, new TrackPointBlock(batchSize));
+    onBatchRead();
+  }
+
+  /**
+   * Gets the total time in milliseconds the consumer waited for a background
+   * read.
+   */
+  public long getWaitTime() {
+    return waitTime;
+  }
+
+  /**
+   * Gets the size of the next batch.
+   */
+  @VisibleForTesting
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  @Override
+  public long getLocationId() {
+    return lastTrackPointId;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (block != null && index >= block.getSize()) {
+      if (nextBlockFuture == null) {
+        // The last batch was not full
+        block = null;
+        break;
+      }
+      spareBlock = block;
+      block = waitForNextBlock();
+      index = 0;
+      if (block != null) {
+        onBatchRead();
+      }
+    }
+    return block != null;
+  }
+
+  @Override
+  public Location next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Location location = locationFactory.createLocation();
+    block.fillLocation(index, location);
+    lastTrackPointId = block.getId(index);
+    index++;
+    return location;
+  }
+
+  @Override
+  public void close() {
+    if (nextBlockFuture != null) {
+      nextBlockFuture.cancel(true);
+      nextBlockFuture = null;
+    }
+    block = null;
+    spareBlock = null;
+    if (batchCount > 1) {
+      Log.d(TAG, "Read " + batchCount + " batches, waited " + waitTime + " ms.");
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Updates the batch size from the current batch and starts reading the next
+   * batch in the background if the current batch is full.
+   */
+  private void onBatchRead() {
+    batchCount++;
+    int size = block.getSize();
+    if (!block.isFull()) {
+      nextBlockFuture = null;
+      return;
+    }
+    long bytes = 0L;
+    for (int i = 0; i < size; i++) {
+      byte[] sensor = block.getSensor(i);
+      bytes += TRACK_POINT_BYTES + (sensor != null ? sensor.length : 0);
+    }
+    batchSize = getBatchSize(bytes / size);
+
+    final long startTrackPointId = block.getId(size - 1) + 1;
+    final TrackPointBlock nextBlock = spareBlock != null
+        && spareBlock.getCapacity() == batchSize ? spareBlock : new TrackPointBlock(batchSize);
+    spareBlock = null;
+    nextBlockFuture = EXECUTOR_SERVICE.submit(new Callable<TrackPointBlock>() {
+        @Override
+      public TrackPointBlock call() {
+        return read(startTrackPointId, nextBlock);
+      }
+    });
+  }
+
+  /**
+   * Waits for the background read of the next batch. Returns null if
+   * interrupted.
+   */
+  private TrackPointBlock waitForNextBlock() {
+    long start = System.currentTimeMillis();
+    try {
+      return nextBlockFuture.get();
+    } catch (InterruptedException e) {
+      Log.e(TAG, "Interrupted while reading track points", e);
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to read track points", e.getCause());
+    } finally {
+      waitTime += System.currentTimeMillis() - start;
+      nextBlockFuture = null;
+    }
+  }
+
+  /**
+   * Reads a batch of track points.
+   *
+   * @param startTrackPointId the starting track point id
+   * @param trackPointBlock the block to read into
+   */
+  private TrackPointBlock read(long startTrackPointId, TrackPointBlock trackPointBlock) {
+    myTracksProviderUtils.readTrackPoints(trackId, startTrackPointId, trackPointBlock);
+    return trackPointBlock;
+  }
+
+  /**
+   * Gets the batch size for a track point size. Only changes the batch size if
+   * it differs by more than a quarter to keep reusing the blocks.
+   *
+   * @param trackPointBytes the average size of a track point in bytes
+   */
+  @VisibleForTesting
+  int getBatchSize(long trackPointBytes) {
+    int newBatchSize = (int) Math.max(MIN_BATCH_SIZE,
+        Math.min(MAX_BATCH_SIZE, TARGET_BATCH_BYTES / Math.max(1L, trackPointBytes)));
+    if (Math.abs(newBatchSize - batchSize) * 4 <= batchSize) {
+      return batchSize;
+    }
+    return newBatchSize;
+  }
+}
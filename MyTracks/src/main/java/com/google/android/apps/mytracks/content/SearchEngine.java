@@ -18,42 +18,38 @@ package com.google.android.apps.mytracks.content;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.UnitConversions;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.database.Cursor;
 import android.location.Location;
+import android.provider.BaseColumns;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
  * Engine for searching for tracks and waypoints by text.
+ * <p>
+ * The tracks and waypoints are retrieved from the {@link SearchIndexColumns}
+ * full text index, matching each word of the query as a prefix. Their text
+ * relevance is a BM25 score over the name, description, and category columns,
+ * computed from the matchinfo of each match.
  *
  * @author Rodrigo Damazio
  */
 public class SearchEngine {
 
-  /** WHERE query to get tracks by name. */
-  private static final String TRACK_SELECTION_QUERY =
-      TracksColumns.NAME + " LIKE ? OR " +
-      TracksColumns.DESCRIPTION + " LIKE ? OR " +
-      TracksColumns.CATEGORY + " LIKE ?";
-
-  /** WHERE query to get waypoints by name. */
-  private static final String WAYPOINT_SELECTION_QUERY =
-      WaypointsColumns.NAME + " LIKE ? OR " +
-      WaypointsColumns.DESCRIPTION + " LIKE ? OR " +
-      WaypointsColumns.CATEGORY + " LIKE ?";
-
-  /** Order of track results. */
-  private static final String TRACK_SELECTION_ORDER = TracksColumns._ID + " DESC LIMIT 1000";
-
-  /** Order of waypoint results. */
-  private static final String WAYPOINT_SELECTION_ORDER = WaypointsColumns._ID + " DESC";
-
   /** How much we promote a match in the track category. */
   private static final double TRACK_CATEGORY_PROMOTION = 2.0;
 
@@ -69,9 +65,22 @@ public class SearchEngine {
   /** How much we promote a track result if it's the currently-selected track. */
   private static final double CURRENT_TRACK_DEMOTION = 0.5;
 
+  /** Maximum number of tracks which will be retrieved and scored. */
+  private static final int MAX_SCORED_TRACKS = 1000;
+
   /** Maximum number of waypoints which will be retrieved and scored. */
   private static final int MAX_SCORED_WAYPOINTS = 100;
 
+  /** Weight of a match in each search index column: name, description, and category. */
+  private static final double[] COLUMN_WEIGHTS = {
+      TRACK_NAME_PROMOTION, TRACK_DESCRIPTION_PROMOTION, TRACK_CATEGORY_PROMOTION };
+
+  /** BM25 term frequency saturation. */
+  private static final double BM25_K1 = 1.2;
+
+  /** BM25 column length normalization. */
+  private static final double BM25_B = 0.75;
+
   /** Oldest timestamp for which we rank based on time (2000-01-01 00:00:00.000) */
   private static final long OLDEST_ALLOWED_TIMESTAMP = 946692000000L;
 
@@ -161,36 +170,164 @@ public class SearchEngine {
    * @return a set of results, sorted according to their score
    */
   public SortedSet<ScoredResult> search(SearchQuery query) {
+    Map<Long, Double> trackRelevances = new HashMap<Long, Double>();
+    Map<Long, Double> waypointRelevances = new HashMap<Long, Double>();
     ArrayList<Track> tracks = new ArrayList<Track>();
     ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
     TreeSet<ScoredResult> scoredResults = new TreeSet<ScoredResult>(SCORED_RESULT_COMPARATOR);
 
-    retrieveTracks(query, tracks);
-    retrieveWaypoints(query, waypoints);
+    retrieveRelevances(query, trackRelevances, waypointRelevances);
+    retrieveTracks(getMostRelevantIds(trackRelevances, MAX_SCORED_TRACKS), tracks);
+    retrieveWaypoints(getMostRelevantIds(waypointRelevances, MAX_SCORED_WAYPOINTS), waypoints);
 
-    scoreTrackResults(tracks, query, scoredResults);
-    scoreWaypointResults(waypoints, query, scoredResults);
+    scoreTrackResults(tracks, trackRelevances, query, scoredResults);
+    scoreWaypointResults(waypoints, waypointRelevances, query, scoredResults);
 
     return scoredResults;
   }
 
   /**
-   * Retrieves tracks matching the given query from the database.
+   * Gets the full text match query of a text query. Each word of the text
+   * query must match as a prefix. Returns an empty string if the text query has
+   * no word.
+   *
+   * @param textQuery the text query
+   */
+  @VisibleForTesting
+  static String getMatchQuery(String textQuery) {
+    StringBuilder builder = new StringBuilder();
+    for (String word : textQuery.split("[^\\p{L}\\p{N}]+")) {
+      if (word.length() == 0) {
+        continue;
+      }
+      if (builder.length() > 0) {
+        builder.append(' ');
+      }
+      builder.append('"').append(word).append("*\"");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Calculates the BM25 text relevance of a match, from its matchinfo. See
+   * {@link SearchIndexColumns#MATCHINFO}. The relevance of each column is
+   * weighted by {@link #COLUMN_WEIGHTS}.
+   *
+   * @param matchInfo the matchinfo blob, of 32-bit integers in native byte order
+   */
+  @VisibleForTesting
+  static double getRelevance(byte[] matchInfo) {
+    IntBuffer values = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+    int numPhrases = values.get(0);
+    int numColumns = values.get(1);
+    double numRows = values.get(2);
+    int averageLengthIndex = 3;
+    int lengthIndex = averageLengthIndex + numColumns;
+    int hitsIndex = lengthIndex + numColumns;
+
+    double relevance = 0.0;
+    for (int phrase = 0; phrase < numPhrases; phrase++) {
+      for (int column = 0; column < numColumns && column < COLUMN_WEIGHTS.length; column++) {
+        int index = hitsIndex + 3 * (phrase * numColumns + column);
+        double hits = values.get(index);
+        if (hits == 0.0) {
+          continue;
+        }
+        double rowsWithHits = values.get(index + 2);
+        double idf = Math.log1p((numRows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+        double lengthRatio = values.get(lengthIndex + column)
+            / Math.max(1.0, values.get(averageLengthIndex + column));
+        double frequency = hits * (BM25_K1 + 1.0)
+            / (hits + BM25_K1 * (1.0 - BM25_B + BM25_B * lengthRatio));
+        relevance += COLUMN_WEIGHTS[column] * idf * frequency;
+      }
+    }
+    return relevance;
+  }
+
+  /**
+   * Retrieves the text relevance of the tracks and waypoints matching the given
+   * query from the search index.
    *
    * @param query the query to retrieve for
-   * @param tracks list to fill with the resulting tracks
+   * @param trackRelevances map to fill with the relevance of each track id
+   * @param waypointRelevances map to fill with the relevance of each waypoint id
    */
-  private void retrieveTracks(SearchQuery query, ArrayList<Track> tracks) {
-    String queryLikeSelection = "%" + query.textQuery + "%";
-    String[] trackSelectionArgs = new String[] {
-        queryLikeSelection,
-        queryLikeSelection,
-        queryLikeSelection };
+  private void retrieveRelevances(SearchQuery query, Map<Long, Double> trackRelevances,
+      Map<Long, Double> waypointRelevances) {
+    String match = getMatchQuery(query.textQuery);
+    if (match.length() == 0) {
+      return;
+    }
+    Cursor cursor = null;
+    try {
+      cursor = providerUtils.getSearchIndexCursor(match);
+      if (cursor != null) {
+        int docIdIndex = cursor.getColumnIndexOrThrow(SearchIndexColumns.DOCID);
+        int matchInfoIndex = cursor.getColumnIndexOrThrow(SearchIndexColumns.MATCHINFO);
+        while (cursor.moveToNext()) {
+          long docId = cursor.getLong(docIdIndex);
+          double relevance = getRelevance(cursor.getBlob(matchInfoIndex));
+          Map<Long, Double> relevances = SearchIndexUpdater.isTrackDocId(docId) ? trackRelevances
+              : waypointRelevances;
+          relevances.put(SearchIndexUpdater.getId(docId), relevance);
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Gets the most relevant ids, most recent first among equally relevant ids.
+   *
+   * @param relevances the relevance of each id
+   * @param maxIds the maximum number of ids
+   */
+  private static List<Long> getMostRelevantIds(
+      final Map<Long, Double> relevances, int maxIds) {
+    List<Long> ids = new ArrayList<Long>(relevances.keySet());
+    Collections.sort(ids, new Comparator<Long>() {
+        @Override
+      public int compare(Long id1, Long id2) {
+        int relevanceDiff = Double.compare(relevances.get(id2), relevances.get(id1));
+        return relevanceDiff != 0 ? relevanceDiff : id2.compareTo(id1);
+      }
+    });
+    return ids.size() > maxIds ? ids.subList(0, maxIds) : ids;
+  }
+
+  /**
+   * Gets a selection of the rows with the given ids.
+   *
+   * @param ids the ids
+   */
+  private static String getIdSelection(List<Long> ids) {
+    StringBuilder builder = new StringBuilder(BaseColumns._ID + " IN (");
+    for (int i = 0; i < ids.size(); i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(ids.get(i));
+    }
+    return builder.append(')').toString();
+  }
 
+  /**
+   * Retrieves tracks from the database.
+   *
+   * @param ids the track ids to retrieve
+   * @param tracks list to fill with the resulting tracks
+   */
+  private void retrieveTracks(List<Long> ids, ArrayList<Track> tracks) {
+    if (ids.isEmpty()) {
+      return;
+    }
     Cursor cursor = null;
     try {
-      cursor = providerUtils.getTrackCursor(
-          TRACK_SELECTION_QUERY, trackSelectionArgs, TRACK_SELECTION_ORDER);
+      cursor = providerUtils.getTrackCursor(getIdSelection(ids), null, null);
       if (cursor != null) {
         tracks.ensureCapacity(cursor.getCount());
         while (cursor.moveToNext()) {
@@ -205,21 +342,18 @@ public class SearchEngine {
   }
 
   /**
-   * Retrieves waypoints matching the given query from the database.
+   * Retrieves waypoints from the database.
    *
-   * @param query the query to retrieve for
+   * @param ids the waypoint ids to retrieve
    * @param waypoints list to fill with the resulting waypoints
    */
-  private void retrieveWaypoints(SearchQuery query, ArrayList<Waypoint> waypoints) {
-    String queryLikeSelection2 = "%" + query.textQuery + "%";
-    String[] waypointSelectionArgs = new String[] {
-        queryLikeSelection2,
-        queryLikeSelection2,
-        queryLikeSelection2 };
+  private void retrieveWaypoints(List<Long> ids, ArrayList<Waypoint> waypoints) {
+    if (ids.isEmpty()) {
+      return;
+    }
     Cursor cursor = null;
     try {
-      cursor = providerUtils.getWaypointCursor(WAYPOINT_SELECTION_QUERY, waypointSelectionArgs,
-          WAYPOINT_SELECTION_ORDER, MAX_SCORED_WAYPOINTS);
+      cursor = providerUtils.getWaypointCursor(getIdSelection(ids), null, null, -1);
       if (cursor != null) {
         waypoints.ensureCapacity(cursor.getCount());
         while (cursor.moveToNext()) {
@@ -240,13 +374,15 @@ public class SearchEngine {
    * Scores a collection of track results.
    *
    * @param tracks the results to score
+   * @param relevances the text relevance of each track id
    * @param query the query to score for
    * @param output the collection to fill with scored results
    */
-  private void scoreTrackResults(Collection<Track> tracks, SearchQuery query, Collection<ScoredResult> output) {
+  private void scoreTrackResults(Collection<Track> tracks, Map<Long, Double> relevances,
+      SearchQuery query, Collection<ScoredResult> output) {
     for (Track track : tracks) {
       // Calculate the score.
-      double score = scoreTrackResult(query, track);
+      double score = scoreTrackResult(query, track, relevances.get(track.getId()));
 
       // Add to the output.
       output.add(new ScoredResult(track, score));
@@ -258,12 +394,13 @@ public class SearchEngine {
    *
    * @param query the query to score for
    * @param track the results to score
+   * @param relevance the text relevance of the track
    * @return the score for the track
    */
-  private double scoreTrackResult(SearchQuery query, Track track) {
+  private double scoreTrackResult(SearchQuery query, Track track, double relevance) {
     double score = 1.0;
 
-    score *= getTitleBoost(query, track.getName(), track.getDescription(), track.getCategory());
+    score *= relevance;
 
     TripStatistics statistics = track.getTripStatistics();
     // TODO: Also boost for proximity to the currently-centered position on the map.
@@ -284,13 +421,15 @@ public class SearchEngine {
    * Scores a collection of waypoint results.
    *
    * @param waypoints the results to score
+   * @param relevances the text relevance of each waypoint id
    * @param query the query to score for
    * @param output the collection to fill with scored results
    */
-  private void scoreWaypointResults(Collection<Waypoint> waypoints, SearchQuery query, Collection<ScoredResult> output) {
+  private void scoreWaypointResults(Collection<Waypoint> waypoints,
+      Map<Long, Double> relevances, SearchQuery query, Collection<ScoredResult> output) {
     for (Waypoint waypoint : waypoints) {
       // Calculate the score.
-      double score = scoreWaypointResult(query, waypoint);
+      double score = scoreWaypointResult(query, waypoint, relevances.get(waypoint.getId()));
 
       // Add to the output.
       output.add(new ScoredResult(waypoint, score));
@@ -302,13 +441,14 @@ public class SearchEngine {
    *
    * @param query the query to score for
    * @param waypoint the results to score
+   * @param relevance the text relevance of the waypoint
    * @return the score for the waypoint
    */
-  private double scoreWaypointResult(SearchQuery query, Waypoint waypoint) {
+  private double scoreWaypointResult(SearchQuery query, Waypoint waypoint, double relevance) {
     double score = 1.0;
 
     Location location = waypoint.getLocation();
-    score *= getTitleBoost(query, waypoint.getName(), waypoint.getDescription(), waypoint.getCategory());
+    score *= relevance;
     // TODO: Also boost for proximity to the currently-centered position on the map.
     score *= getDistanceBoost(query, location.getLatitude(), location.getLongitude());
     score *= getTimeBoost(query, location.getTime());
@@ -321,31 +461,6 @@ public class SearchEngine {
     return score;
   }
 
-  /**
-   * Calculates the boosting of the score due to the field(s) in which the match occured.
-   *
-   * @param query the query to boost for
-   * @param name the name of the track or waypoint
-   * @param description the description of the track or waypoint
-   * @param category the category of the track or waypoint
-   * @return the total boost to be applied to the result
-   */
-  private double getTitleBoost(SearchQuery query,
-      String name, String description, String category) {
-    // Title boost: track name > description > category.
-    double boost = 1.0;
-    if (name.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
-      boost *= TRACK_NAME_PROMOTION;
-    }
-    if (description.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
-      boost *= TRACK_DESCRIPTION_PROMOTION;
-    }
-    if (category.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
-      boost *= TRACK_CATEGORY_PROMOTION;
-    }
-    return boost;
-  }
-
   /**
    * Calculates the boosting of the score due to the recency of the matched entity.
    *
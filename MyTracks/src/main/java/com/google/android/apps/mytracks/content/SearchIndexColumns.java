@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+
+/**
+ * Constants for the search index table, an FTS4 table over the name,
+ * description, and category of the tracks and the waypoints. The {@link #DOCID}
+ * of a track is its id shifted left by one, and of a waypoint its id shifted
+ * left by one plus one, so that tracks and waypoints share the same term
+ * statistics. The table is maintained by {@link MyTracksProvider} when tracks
+ * and waypoints are inserted, updated, or deleted and is read only for the
+ * clients.
+ */
+public interface SearchIndexColumns {
+
+  String TABLE_NAME = "searchindex";
+  Uri CONTENT_URI = Uri.parse("content://com.google.android.maps.mytracks/searchindex");
+  String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.searchindex";
+
+  // Columns
+  String DOCID = "docid"; // track or waypoint doc id
+  String NAME = "name"; // name
+  String DESCRIPTION = "description"; // description
+  String CATEGORY = "category"; // category
+  int NUM_COLUMNS = 3; // number of indexed columns
+
+  /*
+   * The matchinfo of a row, see http://www.sqlite.org/fts3.html#matchinfo. p:
+   * the number of phrases. c: the number of columns. n: the number of rows. a:
+   * the average number of tokens of each column. l: the number of tokens of
+   * each column in the row. x: for each phrase and column, the hits in the row,
+   * the hits in all the rows, and the number of rows with hits.
+   */
+  String MATCHINFO = "matchinfo(" + TABLE_NAME + ", 'pcnalx')";
+
+  String CREATE_TABLE = "CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts4("
+      + NAME + ", "
+      + DESCRIPTION + ", "
+      + CATEGORY + ", "
+      + "tokenize=unicode61)";
+}
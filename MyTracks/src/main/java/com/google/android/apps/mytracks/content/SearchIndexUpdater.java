@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains the {@link SearchIndexColumns} table. Must be called by
+ * {@link MyTracksProvider} within the transaction changing the tracks or the
+ * waypoints table.
+ * <p>
+ * The indexed values of a row are copied from the tracks or the waypoints
+ * table with an INSERT ... SELECT. The ids of the rows updated or deleted with
+ * a selection are read before the change, since the selection may no longer
+ * match after it.
+ */
+class SearchIndexUpdater {
+
+  // The max number of ids in an IN clause
+  private static final int MAX_IDS_PER_STATEMENT = 500;
+
+  private static final String INDEXED_COLUMNS = SearchIndexColumns.NAME + ", "
+      + SearchIndexColumns.DESCRIPTION + ", " + SearchIndexColumns.CATEGORY;
+
+  private final SQLiteDatabase db;
+
+  SearchIndexUpdater(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Gets the doc id of a track.
+   *
+   * @param trackId the track id
+   */
+  static long getTrackDocId(long trackId) {
+    return trackId << 1;
+  }
+
+  /**
+   * Gets the doc id of a waypoint.
+   *
+   * @param waypointId the waypoint id
+   */
+  static long getWaypointDocId(long waypointId) {
+    return waypointId << 1 | 1L;
+  }
+
+  /**
+   * Returns true if a doc id is the doc id of a track, false if of a waypoint.
+   *
+   * @param docId the doc id
+   */
+  static boolean isTrackDocId(long docId) {
+    return (docId & 1L) == 0L;
+  }
+
+  /**
+   * Gets the track id or the waypoint id of a doc id.
+   *
+   * @param docId the doc id
+   */
+  static long getId(long docId) {
+    return docId >> 1;
+  }
+
+  /**
+   * Returns true if content values change an indexed column.
+   *
+   * @param values the content values
+   */
+  static boolean isIndexed(ContentValues values) {
+    return values.containsKey(SearchIndexColumns.NAME)
+        || values.containsKey(SearchIndexColumns.DESCRIPTION)
+        || values.containsKey(SearchIndexColumns.CATEGORY);
+  }
+
+  /**
+   * Returns true if a table is indexed.
+   *
+   * @param table the tracks or the waypoints table
+   */
+  static boolean isIndexed(String table) {
+    return table.equals(TracksColumns.TABLE_NAME) || table.equals(WaypointsColumns.TABLE_NAME);
+  }
+
+  /**
+   * Gets the ids of the rows of a table matching a selection.
+   *
+   * @param table the tracks or the waypoints table
+   * @param where the selection
+   * @param selectionArgs the selection arguments
+   */
+  List<Long> getIds(String table, String where, String[] selectionArgs) {
+    List<Long> ids = new ArrayList<Long>();
+    Cursor cursor = null;
+    try {
+      cursor = db.query(
+          table, new String[] { BaseColumns._ID }, where, selectionArgs, null, null, null);
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getLong(0));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Indexes an inserted row.
+   *
+   * @param table the tracks or the waypoints table
+   * @param rowId the row id
+   */
+  void insert(String table, long rowId) {
+    index(table, BaseColumns._ID + "=" + rowId);
+  }
+
+  /**
+   * Indexes updated rows again.
+   *
+   * @param table the tracks or the waypoints table
+   * @param ids the row ids
+   */
+  void update(String table, List<Long> ids) {
+    delete(table, ids);
+    for (int start = 0; start < ids.size(); start += MAX_IDS_PER_STATEMENT) {
+      index(table, BaseColumns._ID + " IN (" + join(ids, start, false, false) + ")");
+    }
+  }
+
+  /**
+   * Removes deleted rows from the index.
+   *
+   * @param table the tracks or the waypoints table
+   * @param ids the row ids
+   */
+  void delete(String table, List<Long> ids) {
+    boolean isTracks = table.equals(TracksColumns.TABLE_NAME);
+    for (int start = 0; start < ids.size(); start += MAX_IDS_PER_STATEMENT) {
+      db.execSQL("DELETE FROM " + SearchIndexColumns.TABLE_NAME + " WHERE "
+          + SearchIndexColumns.DOCID + " IN (" + join(ids, start, true, isTracks) + ")");
+    }
+  }
+
+  /**
+   * Removes all the rows of a table from the index.
+   *
+   * @param table the tracks or the waypoints table
+   */
+  void clear(String table) {
+    int type = table.equals(TracksColumns.TABLE_NAME) ? 0 : 1;
+    db.execSQL("DELETE FROM " + SearchIndexColumns.TABLE_NAME + " WHERE "
+        + SearchIndexColumns.DOCID + " & 1 = " + type);
+  }
+
+  /**
+   * Rebuilds the index from the tracks and the waypoints tables.
+   */
+  void rebuild() {
+    db.execSQL("DELETE FROM " + SearchIndexColumns.TABLE_NAME);
+    index(TracksColumns.TABLE_NAME, null);
+    index(WaypointsColumns.TABLE_NAME, null);
+  }
+
+  /**
+   * Indexes the rows of a table matching a selection.
+   *
+   * @param table the tracks or the waypoints table
+   * @param where the selection. Null for all the rows
+   */
+  private void index(String table, String where) {
+    String docId = table.equals(TracksColumns.TABLE_NAME) ? "(" + BaseColumns._ID + " << 1)"
+        : "(" + BaseColumns._ID + " << 1 | 1)";
+    db.execSQL("INSERT INTO " + SearchIndexColumns.TABLE_NAME + " (" + SearchIndexColumns.DOCID
+        + ", " + INDEXED_COLUMNS + ") SELECT " + docId + ", " + INDEXED_COLUMNS + " FROM " + table
+        + (where != null ? " WHERE " + where : ""));
+  }
+
+  /**
+   * Joins at most {@link #MAX_IDS_PER_STATEMENT} ids, from a start index, with
+   * commas.
+   *
+   * @param ids the ids
+   * @param start the start index
+   * @param asDocIds true to join the doc ids of the ids
+   * @param isTracks true if the ids are track ids, false if waypoint ids
+   */
+  private static String join(List<Long> ids, int start, boolean asDocIds, boolean isTracks) {
+    StringBuilder builder = new StringBuilder();
+    int end = Math.min(ids.size(), start + MAX_IDS_PER_STATEMENT);
+    for (int i = start; i < end; i++) {
+      if (i > start) {
+        builder.append(',');
+      }
+      long id = ids.get(i);
+      if (asDocIds) {
+        id = isTracks ? getTrackDocId(id) : getWaypointDocId(id);
+      }
+      builder.append(id);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+
+/**
+ * A change of a range of rows of a table. {@link MyTracksProvider} notifies it
+ * as the table uri with the track id and the row id range as query parameters.
+ * The path of the uri is the table uri path, so the observers of the table uri
+ * are still notified.
+ */
+public class TableChange {
+
+  private static final String TRACK_ID = "trackid";
+  private static final String MIN_ID = "minid";
+  private static final String MAX_ID = "maxid";
+
+  private final long trackId;
+  private final long minId;
+  private final long maxId;
+
+  /**
+   * Constructor.
+   *
+   * @param trackId the track id of all the changed rows. -1L if not known or
+   *          if the rows are of several tracks
+   * @param minId the min changed row id
+   * @param maxId the max changed row id
+   */
+  public TableChange(long trackId, long minId, long maxId) {
+    this.trackId = trackId;
+    this.minId = minId;
+    this.maxId = maxId;
+  }
+
+  /**
+   * Gets the track id of all the changed rows. -1L if not known or if the rows
+   * are of several tracks.
+   */
+  public long getTrackId() {
+    return trackId;
+  }
+
+  /**
+   * Gets the min changed row id.
+   */
+  public long getMinId() {
+    return minId;
+  }
+
+  /**
+   * Gets the max changed row id.
+   */
+  public long getMaxId() {
+    return maxId;
+  }
+
+  /**
+   * Returns true if the change may affect the rows of a track.
+   *
+   * @param id the track id
+   */
+  public boolean isForTrack(long id) {
+    return trackId == -1L || trackId == id;
+  }
+
+  /**
+   * Gets the union of this change and a change of the same table.
+   *
+   * @param tableChange the change of the same table
+   */
+  public TableChange union(TableChange tableChange) {
+    return new TableChange(trackId == tableChange.trackId ? trackId : -1L,
+        Math.min(minId, tableChange.minId), Math.max(maxId, tableChange.maxId));
+  }
+
+  /**
+   * Gets the change uri of this change.
+   *
+   * @param tableUri the table uri
+   */
+  public Uri toUri(Uri tableUri) {
+    return tableUri.buildUpon()
+        .appendQueryParameter(TRACK_ID, String.valueOf(trackId))
+        .appendQueryParameter(MIN_ID, String.valueOf(minId))
+        .appendQueryParameter(MAX_ID, String.valueOf(maxId))
+        .build();
+  }
+
+  /**
+   * Gets the change of a change uri. Returns null if the uri is null or is not
+   * a change uri, e.g., when the whole table changed.
+   *
+   * @param uri the uri
+   */
+  public static TableChange fromUri(Uri uri) {
+    if (uri == null || uri.isOpaque()) {
+      return null;
+    }
+    String trackId = uri.getQueryParameter(TRACK_ID);
+    String minId = uri.getQueryParameter(MIN_ID);
+    String maxId = uri.getQueryParameter(MAX_ID);
+    if (trackId == null || minId == null || maxId == null) {
+      return null;
+    }
+    try {
+      return new TableChange(Long.parseLong(trackId), Long.parseLong(minId), Long.parseLong(maxId));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TableChange[trackId=" + trackId + ", ids=" + minId + ".." + maxId + "]";
+  }
+}
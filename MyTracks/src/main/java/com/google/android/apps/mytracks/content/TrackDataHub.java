@@ -29,8 +29,14 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -78,9 +84,23 @@ public class TrackDataHub implements DataSourceListener {
 
   // Track points sampling state
   private int numLoadedPoints;
+  private int numSampledInPoints;
+  private int samplingFrequency;
   private long firstSeenLocationId;
   private long lastSeenLocationId;
 
+  /*
+   * The waypoints of the selected track sent to the listeners, by id, including
+   * the waypoints with an invalid location, which are not sent.
+   */
+  private final Map<Long, Waypoint> waypoints = new LinkedHashMap<Long, Waypoint>();
+
+  // Track id of the waypoints. -1L if the waypoints need to be reloaded.
+  private long waypointsTrackId = -1L;
+
+  // Number of table updates not reloaded, indexed by the track data type ordinal
+  private final int[] numSkippedUpdates = new int[TrackDataType.values().length];
+
   /**
    * Creates a new instance.
    */
@@ -143,6 +163,10 @@ public class TrackDataHub implements DataSourceListener {
       return;
     }
     started = false;
+    Log.i(TAG, "Skipped updates: tracks "
+        + numSkippedUpdates[TrackDataType.TRACKS_TABLE.ordinal()] + ", waypoints "
+        + numSkippedUpdates[TrackDataType.WAYPOINTS_TABLE.ordinal()] + ", track points "
+        + numSkippedUpdates[TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE.ordinal()]);
 
     dataSourceManager.unregisterAllListeners();
     if (handlerThread != null) {
@@ -238,30 +262,43 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   @Override
-  public void notifyTracksTableUpdated() {
+  public void notifyTracksTableUpdated(final TableChange tableChange) {
     runInHanderThread(new Runnable() {
         @Override
       public void run() {
+        if (skipUpdate(TrackDataType.TRACKS_TABLE, tableChange)) {
+          return;
+        }
         notifyTracksTableUpdate(trackDataManager.getListeners(TrackDataType.TRACKS_TABLE));
       }
     });
   }
 
   @Override
-  public void notifyWaypointsTableUpdated() {
+  public void notifyWaypointsTableUpdated(final TableChange tableChange) {
     runInHanderThread(new Runnable() {
         @Override
       public void run() {
-        notifyWaypointsTableUpdate(trackDataManager.getListeners(TrackDataType.WAYPOINTS_TABLE));
+        if (skipUpdate(TrackDataType.WAYPOINTS_TABLE, tableChange)) {
+          return;
+        }
+        Set<TrackDataListener> trackDataListeners = trackDataManager.getListeners(
+            TrackDataType.WAYPOINTS_TABLE);
+        if (tableChange == null || !notifyWaypointsChange(trackDataListeners, tableChange)) {
+          notifyWaypointsTableUpdate(trackDataListeners);
+        }
       }
     });
   }
 
   @Override
-  public void notifyTrackPointsTableUpdated() {
+  public void notifyTrackPointsTableUpdated(final TableChange tableChange) {
     runInHanderThread(new Runnable() {
         @Override
       public void run() {
+        if (skipUpdate(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE, tableChange)) {
+          return;
+        }
         notifyTrackPointsTableUpdate(
             true, trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE),
             trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
@@ -351,6 +388,22 @@ public class TrackDataHub implements DataSourceListener {
     });
   }
 
+  /**
+   * Returns true to skip a table update not affecting the selected track, and
+   * counts it. To be run in the {@link #handler} thread.
+   * 
+   * @param trackDataType the track data type of the table
+   * @param tableChange the changed rows. Null if not known
+   */
+  private boolean skipUpdate(TrackDataType trackDataType, TableChange tableChange) {
+    if (tableChange == null || tableChange.isForTrack(selectedTrackId)
+        || trackDataManager.getListeners(trackDataType).isEmpty()) {
+      return false;
+    }
+    numSkippedUpdates[trackDataType.ordinal()]++;
+    return true;
+  }
+
   /**
    * Loads data for all listeners. To be run in the {@link #handler} thread.
    */
@@ -437,7 +490,7 @@ public class TrackDataHub implements DataSourceListener {
   }
 
   /**
-   * Notifies waypoint table update. Currently, reloads all the waypoints up to
+   * Notifies waypoint table update. Reloads all the waypoints up to
    * {@link #MAX_DISPLAYED_WAYPOINTS}. To be run in the {@link #handler}
    * thread.
    * 
@@ -445,6 +498,7 @@ public class TrackDataHub implements DataSourceListener {
    */
   private void notifyWaypointsTableUpdate(Set<TrackDataListener> trackDataListeners) {
     if (trackDataListeners.isEmpty()) {
+      waypointsTrackId = -1L;
       return;
     }
 
@@ -452,6 +506,8 @@ public class TrackDataHub implements DataSourceListener {
       trackDataListener.clearWaypoints();
     }
 
+    waypoints.clear();
+    waypointsTrackId = -1L;
     Cursor cursor = null;
     try {
       cursor = myTracksProviderUtils.getWaypointCursor(
@@ -459,6 +515,7 @@ public class TrackDataHub implements DataSourceListener {
       if (cursor != null && cursor.moveToFirst()) {
         do {
           Waypoint waypoint = myTracksProviderUtils.createWaypoint(cursor);
+          waypoints.put(waypoint.getId(), waypoint);
           if (!LocationUtils.isValidLocation(waypoint.getLocation())) {
             continue;
           }
@@ -476,11 +533,103 @@ public class TrackDataHub implements DataSourceListener {
     for (TrackDataListener trackDataListener : trackDataListeners) {
       trackDataListener.onNewWaypointsDone();
     }
+
+    // Only all the waypoints of a track can be updated with the changes
+    if (waypoints.size() < MAX_DISPLAYED_WAYPOINTS) {
+      waypointsTrackId = selectedTrackId;
+    }
   }
 
   /**
-   * Notifies track points table update. To be run in the {@link #handler}
-   * thread.
+   * Notifies the changed waypoints of the selected track, as added, updated,
+   * or removed waypoints. Returns false if all the waypoints need to be
+   * reloaded instead. To be run in the {@link #handler} thread.
+   * 
+   * @param trackDataListeners the track data listeners to notify
+   * @param tableChange the changed rows
+   */
+  private boolean notifyWaypointsChange(
+      Set<TrackDataListener> trackDataListeners, TableChange tableChange) {
+    if (trackDataListeners.isEmpty() || waypointsTrackId != selectedTrackId) {
+      return false;
+    }
+
+    List<Waypoint> changedWaypoints = new ArrayList<Waypoint>();
+    int numAdded = 0;
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getWaypointCursor(WaypointsColumns.TRACKID + "=? AND "
+          + WaypointsColumns._ID + ">=? AND " + WaypointsColumns._ID + "<=?",
+          new String[] { Long.toString(selectedTrackId), Long.toString(tableChange.getMinId()),
+              Long.toString(tableChange.getMaxId()) }, WaypointsColumns._ID, -1);
+      if (cursor != null && cursor.moveToFirst()) {
+        do {
+          Waypoint waypoint = myTracksProviderUtils.createWaypoint(cursor);
+          changedWaypoints.add(waypoint);
+          if (!waypoints.containsKey(waypoint.getId())) {
+            numAdded++;
+          }
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (waypoints.size() + numAdded >= MAX_DISPLAYED_WAYPOINTS) {
+      return false;
+    }
+
+    // Removed waypoints
+    Set<Long> changedIds = new HashSet<Long>();
+    for (Waypoint waypoint : changedWaypoints) {
+      changedIds.add(waypoint.getId());
+    }
+    Iterator<Waypoint> iterator = waypoints.values().iterator();
+    while (iterator.hasNext()) {
+      Waypoint waypoint = iterator.next();
+      long id = waypoint.getId();
+      if (id >= tableChange.getMinId() && id <= tableChange.getMaxId()
+          && !changedIds.contains(id)) {
+        iterator.remove();
+        if (LocationUtils.isValidLocation(waypoint.getLocation())) {
+          for (TrackDataListener trackDataListener : trackDataListeners) {
+            trackDataListener.onWaypointRemoved(id);
+          }
+        }
+      }
+    }
+
+    // Added and updated waypoints
+    for (Waypoint waypoint : changedWaypoints) {
+      Waypoint oldWaypoint = waypoints.put(waypoint.getId(), waypoint);
+      boolean wasValid = oldWaypoint != null
+          && LocationUtils.isValidLocation(oldWaypoint.getLocation());
+      boolean isValid = LocationUtils.isValidLocation(waypoint.getLocation());
+      for (TrackDataListener trackDataListener : trackDataListeners) {
+        if (isValid && wasValid) {
+          trackDataListener.onWaypointUpdated(waypoint);
+        } else if (isValid) {
+          trackDataListener.onNewWaypoint(waypoint);
+        } else if (wasValid) {
+          trackDataListener.onWaypointRemoved(waypoint.getId());
+        }
+      }
+    }
+
+    for (TrackDataListener trackDataListener : trackDataListeners) {
+      trackDataListener.onNewWaypointsDone();
+    }
+    return true;
+  }
+
+  /**
+   * Notifies track points table update. Only the track points after the last
+   * seen track point are read and delivered. Once the listeners hold
+   * {@link #targetNumPoints} sampled in track points, the listeners are asked
+   * to decimate them in place and the sampling frequency is doubled, so the
+   * track is never read again from the start. To be run in the
+   * {@link #handler} thread.
    * 
    * @param updateSamplingState true to update the sampling state
    * @param sampledInListeners the sampled-in listeners
@@ -491,22 +640,24 @@ public class TrackDataHub implements DataSourceListener {
     if (sampledInListeners.isEmpty() && sampledOutListeners.isEmpty()) {
       return;
     }
-    if (updateSamplingState && numLoadedPoints >= targetNumPoints) {
-      // Reload and resample the track at a lower frequency.
-      Log.i(TAG, "Resampling track after " + numLoadedPoints + " points.");
-      resetSamplingState();
+    if (updateSamplingState && numSampledInPoints >= targetNumPoints) {
+      // Decimate the delivered track points and sample at a lower frequency.
+      Log.i(TAG, "Decimating track after " + numSampledInPoints + " sampled in points.");
       for (TrackDataListener listener : sampledInListeners) {
-        listener.clearTrackPoints();
+        listener.onSampledInTrackPointsDecimated();
       }
+      samplingFrequency *= 2;
+      numSampledInPoints = (numSampledInPoints + 1) / 2;
     }
 
     int localNumLoadedPoints = updateSamplingState ? numLoadedPoints : 0;
+    int localNumSampledInPoints = updateSamplingState ? numSampledInPoints : 0;
+    int localSamplingFrequency = samplingFrequency;
     long localFirstSeenLocationId = updateSamplingState ? firstSeenLocationId : -1L;
     long localLastSeenLocationId = updateSamplingState ? lastSeenLocationId : -1L;
     long maxPointId = updateSamplingState ? -1L : lastSeenLocationId;
 
     long lastTrackPointId = myTracksProviderUtils.getLastTrackPointId(selectedTrackId);
-    int samplingFrequency = -1;
     boolean includeNextPoint = false;
     LocationIterator locationIterator = null;
 
@@ -517,6 +668,9 @@ public class TrackDataHub implements DataSourceListener {
       while (locationIterator.hasNext()) {
         Location location = locationIterator.next();
         long locationId = locationIterator.getLocationId();
+        if (location instanceof MyTracksLocation) {
+          ((MyTracksLocation) location).setId(locationId);
+        }
 
         // Stop if past the last wanted point
         if (maxPointId != -1L && locationId > maxPointId) {
@@ -527,9 +681,9 @@ public class TrackDataHub implements DataSourceListener {
           localFirstSeenLocationId = locationId;
         }
 
-        if (samplingFrequency == -1) {
+        if (localSamplingFrequency == -1) {
           long numTotalPoints = Math.max(0L, lastTrackPointId - localFirstSeenLocationId);
-          samplingFrequency = 1 + (int) (numTotalPoints / targetNumPoints);
+          localSamplingFrequency = 1 + (int) (numTotalPoints / targetNumPoints);
         }
 
         if (!LocationUtils.isValidLocation(location)) {
@@ -540,9 +694,10 @@ public class TrackDataHub implements DataSourceListener {
           }
         } else {
           // Also include the last point if the selected track is not recording.
-          if (includeNextPoint || (localNumLoadedPoints % samplingFrequency == 0)
+          if (includeNextPoint || (localNumLoadedPoints % localSamplingFrequency == 0)
               || (locationId == lastTrackPointId && !isSelectedTrackRecording())) {
             includeNextPoint = false;
+            localNumSampledInPoints++;
             for (TrackDataListener trackDataListener : sampledInListeners) {
               trackDataListener.onSampledInTrackPoint(location);
             }
@@ -564,6 +719,8 @@ public class TrackDataHub implements DataSourceListener {
 
     if (updateSamplingState) {
       numLoadedPoints = localNumLoadedPoints;
+      numSampledInPoints = localNumSampledInPoints;
+      samplingFrequency = localSamplingFrequency;
       firstSeenLocationId = localFirstSeenLocationId;
       lastSeenLocationId = localLastSeenLocationId;
     }
@@ -578,6 +735,8 @@ public class TrackDataHub implements DataSourceListener {
    */
   private void resetSamplingState() {
     numLoadedPoints = 0;
+    numSampledInPoints = 0;
+    samplingFrequency = -1;
     firstSeenLocationId = -1L;
     lastSeenLocationId = -1L;
   }
@@ -614,6 +773,17 @@ public class TrackDataHub implements DataSourceListener {
     return selectedTrackId;
   }
   
+  /**
+   * Gets the number of table updates skipped since they didn't affect the
+   * selected track.
+   * 
+   * @param trackDataType the track data type of the table
+   */
+  @VisibleForTesting
+  int getNumSkippedUpdates(TrackDataType trackDataType) {
+    return numSkippedUpdates[trackDataType.ordinal()];
+  }
+
   /**
    * Gets the recordingGpsAccuracy.
    */
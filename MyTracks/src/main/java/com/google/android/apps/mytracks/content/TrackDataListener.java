@@ -65,6 +65,15 @@ public interface TrackDataListener {
    */
   void onSegmentSplit(Location location);
 
+  /**
+   * Called when the sampling frequency of the sampled in track points is
+   * doubled. Listeners should drop every other previously received sampled in
+   * track point, keeping the first and the last ones, instead of reloading
+   * the track. Segment splits are kept. Only new track points are sent
+   * afterwards.
+   */
+  void onSampledInTrackPointsDecimated();
+
   /**
    * Called when finish sending new track points. This gets called after every
    * batch of calls to {@link #onSampledInTrackPoint(Location)},
@@ -85,10 +94,27 @@ public interface TrackDataListener {
    */
   void onNewWaypoint(Waypoint waypoint);
 
+  /**
+   * Called when a previously sent waypoint is updated. The waypoint replaces
+   * the previously sent waypoint with the same id, or is added if there is
+   * none.
+   * 
+   * @param waypoint the waypoint
+   */
+  void onWaypointUpdated(Waypoint waypoint);
+
+  /**
+   * Called when a previously sent waypoint is removed.
+   * 
+   * @param waypointId the waypoint id
+   */
+  void onWaypointRemoved(long waypointId);
+
   /**
    * Called when finish sending new waypoints. This gets called after every
-   * batch of calls to {@link #clearWaypoints()} and
-   * {@link #onNewWaypoint(Waypoint)}.
+   * batch of calls to {@link #clearWaypoints()},
+   * {@link #onNewWaypoint(Waypoint)}, {@link #onWaypointUpdated(Waypoint)},
+   * and {@link #onWaypointRemoved(long)}.
    */
   void onNewWaypointsDone();
 
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.ContentValues;
+import android.location.Location;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A block of consecutive track points of a track stored column by column. A
+ * block is encoded into a compressed blob for the
+ * {@link TrackPointBlocksColumns} table:
+ * <ul>
+ * <li>ids, latitudes, longitudes, and times are delta encoded varints</li>
+ * <li>altitude and accuracy are quantised to 0.1 meter, speed to 0.01 meter
+ * per second, and bearing to 0.1 degree, then delta encoded</li>
+ * <li>sensor data are stored as length prefixed bytes</li>
+ * </ul>
+ * The encoded columns are compressed with deflate. Latitudes and longitudes
+ * are in microdegrees, the same precision as the {@link TrackPointsColumns}
+ * table.
+ * <p>
+ * A block can also be reused as a batch buffer for
+ * {@link MyTracksProviderUtils#readTrackPoints(long, long, TrackPointBlock)},
+ * see {@link #clear()}.
+ */
+public class TrackPointBlock {
+
+  public static final int FLAG_ALTITUDE = 1;
+  public static final int FLAG_ACCURACY = 2;
+  public static final int FLAG_SPEED = 4;
+  public static final int FLAG_BEARING = 8;
+  public static final int FLAG_SENSOR = 16;
+
+  private static final int VERSION = 1;
+  private static final float ALTITUDE_SCALE = 10f;
+  private static final float ACCURACY_SCALE = 10f;
+  private static final float SPEED_SCALE = 100f;
+  private static final float BEARING_SCALE = 10f;
+
+  // Track points with a latitude above 90 degrees mark the segment breaks
+  private static final int MAX_LATITUDE = 90000000;
+
+  private final long[] ids;
+  private final int[] latitudes;
+  private final int[] longitudes;
+  private final long[] times;
+  private final byte[] flags;
+  private final float[] altitudes;
+  private final float[] accuracies;
+  private final float[] speeds;
+  private final float[] bearings;
+  private final byte[][] sensors;
+  private int size = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the maximum number of track points
+   */
+  public TrackPointBlock(int capacity) {
+    ids = new long[capacity];
+    latitudes = new int[capacity];
+    longitudes = new int[capacity];
+    times = new long[capacity];
+    flags = new byte[capacity];
+    altitudes = new float[capacity];
+    accuracies = new float[capacity];
+    speeds = new float[capacity];
+    bearings = new float[capacity];
+    sensors = new byte[capacity][];
+  }
+
+  /**
+   * Adds a track point. The track point ids must be increasing.
+   *
+   * @param id the track point id
+   * @param latitude the latitude in microdegrees
+   * @param longitude the longitude in microdegrees
+   * @param time the time
+   * @param flag the combination of FLAG_* values of the available fields
+   * @param altitude the altitude
+   * @param accuracy the accuracy
+   * @param speed the speed
+   * @param bearing the bearing
+   * @param sensor the sensor data, can be null
+   */
+  public void add(long id, int latitude, int longitude, long time, int flag, float altitude,
+      float accuracy, float speed, float bearing, byte[] sensor) {
+    if (size == ids.length) {
+      throw new IllegalStateException("Block is full");
+    }
+    if (size > 0 && id <= ids[size - 1]) {
+      throw new IllegalArgumentException("Track point ids must be increasing");
+    }
+    ids[size] = id;
+    latitudes[size] = latitude;
+    longitudes[size] = longitude;
+    times[size] = time;
+    flags[size] = (byte) (sensor != null ? flag | FLAG_SENSOR : flag & ~FLAG_SENSOR);
+    altitudes[size] = altitude;
+    accuracies[size] = accuracy;
+    speeds[size] = speed;
+    bearings[size] = bearing;
+    sensors[size] = sensor;
+    size++;
+  }
+
+  /**
+   * Adds a track point of another block.
+   *
+   * @param block the other block
+   * @param index the track point index in the other block
+   */
+  public void add(TrackPointBlock block, int index) {
+    add(block.ids[index], block.latitudes[index], block.longitudes[index], block.times[index],
+        block.flags[index], block.altitudes[index], block.accuracies[index],
+        block.speeds[index], block.bearings[index], block.sensors[index]);
+  }
+
+  /**
+   * Removes all the track points. Keeps the allocated arrays.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      sensors[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Gets the maximum number of track points.
+   */
+  public int getCapacity() {
+    return ids.length;
+  }
+
+  /**
+   * Gets the number of track points.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns true if the block is full.
+   */
+  public boolean isFull() {
+    return size == ids.length;
+  }
+
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  public int getLatitude(int index) {
+    return latitudes[index];
+  }
+
+  public int getLongitude(int index) {
+    return longitudes[index];
+  }
+
+  public long getTime(int index) {
+    return times[index];
+  }
+
+  /**
+   * Returns true if a field is available.
+   *
+   * @param index the track point index
+   * @param flag one of the FLAG_* values
+   */
+  public boolean has(int index, int flag) {
+    return (flags[index] & flag) != 0;
+  }
+
+  public float getAltitude(int index) {
+    return altitudes[index];
+  }
+
+  public float getAccuracy(int index) {
+    return accuracies[index];
+  }
+
+  public float getSpeed(int index) {
+    return speeds[index];
+  }
+
+  public float getBearing(int index) {
+    return bearings[index];
+  }
+
+  public byte[] getSensor(int index) {
+    return sensors[index];
+  }
+
+  /**
+   * Gets the index of a track point. Returns -1 if not found.
+   *
+   * @param id the track point id
+   */
+  public int indexOf(long id) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (ids[middle] < id) {
+        low = middle + 1;
+      } else if (ids[middle] > id) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Puts the {@link TrackPointBlocksColumns} values describing the track
+   * points, all but the track id and the data. The block must not be empty.
+   *
+   * @param values the content values
+   */
+  public void putColumns(ContentValues values) {
+    long minTime = times[0];
+    long maxTime = times[0];
+    long firstValidId = -1L;
+    long lastValidId = -1L;
+    for (int i = 0; i < size; i++) {
+      minTime = Math.min(minTime, times[i]);
+      maxTime = Math.max(maxTime, times[i]);
+      if (latitudes[i] <= MAX_LATITUDE) {
+        if (firstValidId == -1L) {
+          firstValidId = ids[i];
+        }
+        lastValidId = ids[i];
+      }
+    }
+    values.put(TrackPointBlocksColumns.STARTID, ids[0]);
+    values.put(TrackPointBlocksColumns.STOPID, ids[size - 1]);
+    values.put(TrackPointBlocksColumns.NUMPOINTS, size);
+    values.put(TrackPointBlocksColumns.MINTIME, minTime);
+    values.put(TrackPointBlocksColumns.MAXTIME, maxTime);
+    values.put(TrackPointBlocksColumns.FIRSTVALIDID, firstValidId);
+    values.put(TrackPointBlocksColumns.LASTVALIDID, lastValidId);
+  }
+
+  /**
+   * Fills a location with a track point. The sensor data of a
+   * {@link MyTracksLocation} is only parsed when read.
+   *
+   * @param index the track point index
+   * @param location the location
+   */
+  public void fillLocation(int index, Location location) {
+    location.reset();
+    location.setLongitude(((double) longitudes[index]) / 1E6);
+    location.setLatitude(((double) latitudes[index]) / 1E6);
+    location.setTime(times[index]);
+    if (has(index, FLAG_ALTITUDE)) {
+      location.setAltitude(altitudes[index]);
+    }
+    if (has(index, FLAG_ACCURACY)) {
+      location.setAccuracy(accuracies[index]);
+    }
+    if (has(index, FLAG_SPEED)) {
+      location.setSpeed(speeds[index]);
+    }
+    if (has(index, FLAG_BEARING)) {
+      location.setBearing(bearings[index]);
+    }
+    if (location instanceof MyTracksLocation && has(index, FLAG_SENSOR)) {
+      ((MyTracksLocation) location).setSensorData(sensors[index]);
+    }
+  }
+
+  /**
+   * Encodes the block into a compressed blob.
+   */
+  public byte[] encode() {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    try {
+      OutputStream out = new BufferedOutputStream(new DeflaterOutputStream(byteArrayOutputStream));
+      writeVarLong(out, VERSION);
+      writeVarLong(out, size);
+
+      long previousLong = 0L;
+      for (int i = 0; i < size; i++) {
+        writeVarLong(out, ids[i] - previousLong);
+        previousLong = ids[i];
+      }
+      for (int i = 0; i < size; i++) {
+        out.write(flags[i]);
+      }
+      int previousInt = 0;
+      for (int i = 0; i < size; i++) {
+        writeSignedVarLong(out, latitudes[i] - previousInt);
+        previousInt = latitudes[i];
+      }
+      previousInt = 0;
+      for (int i = 0; i < size; i++) {
+        writeSignedVarLong(out, longitudes[i] - previousInt);
+        previousInt = longitudes[i];
+      }
+      previousLong = 0L;
+      for (int i = 0; i < size; i++) {
+        writeSignedVarLong(out, times[i] - previousLong);
+        previousLong = times[i];
+      }
+      writeQuantised(out, FLAG_ALTITUDE, altitudes, ALTITUDE_SCALE);
+      writeQuantised(out, FLAG_ACCURACY, accuracies, ACCURACY_SCALE);
+      writeQuantised(out, FLAG_SPEED, speeds, SPEED_SCALE);
+      writeQuantised(out, FLAG_BEARING, bearings, BEARING_SCALE);
+      for (int i = 0; i < size; i++) {
+        if (has(i, FLAG_SENSOR)) {
+          writeVarLong(out, sensors[i].length);
+          out.write(sensors[i]);
+        }
+      }
+      out.close();
+    } catch (IOException e) {
+      // Not expected when writing to a ByteArrayOutputStream
+      throw new IllegalStateException("Unable to encode block", e);
+    }
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  /**
+   * Decodes a block from a compressed blob.
+   *
+   * @param data the data created by {@link #encode()}
+   * @throws IOException if the data is not a valid block
+   */
+  public static TrackPointBlock decode(byte[] data) throws IOException {
+    InputStream in = new BufferedInputStream(
+        new InflaterInputStream(new ByteArrayInputStream(data)));
+    try {
+      int version = (int) readVarLong(in);
+      if (version != VERSION) {
+        throw new IOException("Unknown block version " + version);
+      }
+      int size = (int) readVarLong(in);
+      if (size < 0) {
+        throw new IOException("Invalid block size " + size);
+      }
+      TrackPointBlock block = new TrackPointBlock(size);
+      block.size = size;
+
+      long previousLong = 0L;
+      for (int i = 0; i < size; i++) {
+        previousLong += readVarLong(in);
+        block.ids[i] = previousLong;
+      }
+      for (int i = 0; i < size; i++) {
+        block.flags[i] = (byte) readByte(in);
+      }
+      int previousInt = 0;
+      for (int i = 0; i < size; i++) {
+        previousInt += (int) readSignedVarLong(in);
+        block.latitudes[i] = previousInt;
+      }
+      previousInt = 0;
+      for (int i = 0; i < size; i++) {
+        previousInt += (int) readSignedVarLong(in);
+        block.longitudes[i] = previousInt;
+      }
+      previousLong = 0L;
+      for (int i = 0; i < size; i++) {
+        previousLong += readSignedVarLong(in);
+        block.times[i] = previousLong;
+      }
+      block.readQuantised(in, FLAG_ALTITUDE, block.altitudes, ALTITUDE_SCALE);
+      block.readQuantised(in, FLAG_ACCURACY, block.accuracies, ACCURACY_SCALE);
+      block.readQuantised(in, FLAG_SPEED, block.speeds, SPEED_SCALE);
+      block.readQuantised(in, FLAG_BEARING, block.bearings, BEARING_SCALE);
+      for (int i = 0; i < size; i++) {
+        if (block.has(i, FLAG_SENSOR)) {
+          byte[] sensor = new byte[(int) readVarLong(in)];
+          readFully(in, sensor);
+          block.sensors[i] = sensor;
+        }
+      }
+      return block;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes a quantised float column. Only the values with the flag are
+   * written.
+   */
+  private void writeQuantised(OutputStream out, int flag, float[] values, float scale)
+      throws IOException {
+    long previous = 0L;
+    for (int i = 0; i < size; i++) {
+      if (has(i, flag)) {
+        long value = Math.round(values[i] * scale);
+        writeSignedVarLong(out, value - previous);
+        previous = value;
+      }
+    }
+  }
+
+  /**
+   * Reads a quantised float column written by
+   * {@link #writeQuantised(OutputStream, int, float[], float)}.
+   */
+  private void readQuantised(InputStream in, int flag, float[] values, float scale)
+      throws IOException {
+    long previous = 0L;
+    for (int i = 0; i < size; i++) {
+      if (has(i, flag)) {
+        previous += readSignedVarLong(in);
+        values[i] = previous / scale;
+      }
+    }
+  }
+
+  private static void writeSignedVarLong(OutputStream out, long value) throws IOException {
+    writeVarLong(out, (value << 1) ^ (value >> 63));
+  }
+
+  private static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0L) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readSignedVarLong(InputStream in) throws IOException {
+    long value = readVarLong(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long readVarLong(InputStream in) throws IOException {
+    long value = 0L;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(in);
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  private static void readFully(InputStream in, byte[] buffer) throws IOException {
+    int offset = 0;
+    while (offset < buffer.length) {
+      int count = in.read(buffer, offset, buffer.length - offset);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      offset += count;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track point blocks table. Each row stores the track points
+ * of a track with ids from {@link #STARTID} to {@link #STOPID} as an encoded
+ * {@link TrackPointBlock}. Those track points are no longer in the
+ * {@link TrackPointsColumns} table. The time range and the valid track point
+ * ids of a block let a lookup decode only the matching block.
+ */
+public interface TrackPointBlocksColumns extends BaseColumns {
+
+  String TABLE_NAME = "trackpointblocks";
+  Uri CONTENT_URI = Uri.parse("content://com.google.android.maps.mytracks/trackpointblocks");
+  String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackpointblock";
+  String CONTENT_ITEMTYPE = "vnd.android.cursor.item/vnd.google.trackpointblock";
+  String DEFAULT_SORT_ORDER = "startid";
+
+  // Columns
+  String TRACKID = "trackid"; // track id
+  String STARTID = "startid"; // first track point id
+  String STOPID = "stopid"; // last track point id
+  String NUMPOINTS = "numpoints"; // number of track points
+  String DATA = "data"; // encoded track points
+  String MINTIME = "mintime"; // min time
+  String MAXTIME = "maxtime"; // max time
+  String FIRSTVALIDID = "firstvalidid"; // first valid track point id, -1 if none
+  String LASTVALIDID = "lastvalidid"; // last valid track point id, -1 if none
+
+  String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + STARTID + " INTEGER, "
+      + STOPID + " INTEGER, "
+      + NUMPOINTS + " INTEGER, "
+      + DATA + " BLOB, "
+      + MINTIME + " INTEGER, "
+      + MAXTIME + " INTEGER, "
+      + FIRSTVALIDID + " INTEGER, "
+      + LASTVALIDID + " INTEGER"
+      + ");";
+
+  // Indexes
+  String TRACKID_STARTID_INDEX = "trackpointblocks_trackid_startid_index";
+
+  String CREATE_TRACKID_STARTID_INDEX = "CREATE INDEX IF NOT EXISTS " + TRACKID_STARTID_INDEX
+      + " ON " + TABLE_NAME + " (" + TRACKID + ", " + STARTID + ");";
+
+  String LASTVALIDID_INDEX = "trackpointblocks_lastvalidid_index";
+
+  String CREATE_LASTVALIDID_INDEX = "CREATE INDEX IF NOT EXISTS " + LASTVALIDID_INDEX + " ON "
+      + TABLE_NAME + " (" + LASTVALIDID + ");";
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+
+/**
+ * A reusable batch of the rows of the {@link TrackPointSeriesColumns} table,
+ * stored column by column. Used to buffer the derived values of the track
+ * points before they are written with their track points by
+ * {@link MyTracksProviderUtils#bulkInsertTrackPoint(android.location.Location[],
+ * int, long, long[], TrackPointSeries)}, and to read them with
+ * {@link MyTracksProviderUtils#readTrackPointSeries(long, long, TrackPointSeries)}.
+ */
+public class TrackPointSeries {
+
+  private final long[] ids;
+  private final double[] distances;
+  private final long[] totalTimes;
+  private final long[] movingTimes;
+  private final double[] elevations;
+  private final double[] speeds;
+  private final double[] grades;
+  private int size = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the maximum number of track points
+   */
+  public TrackPointSeries(int capacity) {
+    ids = new long[capacity];
+    distances = new double[capacity];
+    totalTimes = new long[capacity];
+    movingTimes = new long[capacity];
+    elevations = new double[capacity];
+    speeds = new double[capacity];
+    grades = new double[capacity];
+  }
+
+  /**
+   * Adds the values of a track point.
+   *
+   * @param id the track point id
+   * @param distance the total distance in meters
+   * @param totalTime the total time in milliseconds
+   * @param movingTime the moving time in milliseconds
+   * @param elevation the smoothed elevation in meters
+   * @param speed the smoothed speed in meters per second
+   * @param grade the smoothed grade
+   */
+  public void add(long id, double distance, long totalTime, long movingTime, double elevation,
+      double speed, double grade) {
+    if (size == ids.length) {
+      throw new IllegalStateException("Series is full");
+    }
+    ids[size] = id;
+    distances[size] = distance;
+    totalTimes[size] = totalTime;
+    movingTimes[size] = movingTime;
+    elevations[size] = elevation;
+    speeds[size] = speed;
+    grades[size] = grade;
+    size++;
+  }
+
+  /**
+   * Adds the current values of a trip statistics updater, after the track
+   * point was added to it.
+   *
+   * @param id the track point id. Can be set later with
+   *          {@link #setId(int, long)}
+   * @param tripStatisticsUpdater the trip statistics updater
+   */
+  public void add(long id, TripStatisticsUpdater tripStatisticsUpdater) {
+    add(id, tripStatisticsUpdater.getTotalDistance(), tripStatisticsUpdater.getTotalTime(),
+        tripStatisticsUpdater.getMovingTime(), tripStatisticsUpdater.getSmoothedElevation(),
+        tripStatisticsUpdater.getSmoothedSpeed(), tripStatisticsUpdater.getSmoothedGrade());
+  }
+
+  /**
+   * Removes all the track points. Keeps the allocated arrays.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Gets the maximum number of track points.
+   */
+  public int getCapacity() {
+    return ids.length;
+  }
+
+  /**
+   * Gets the number of track points.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns true if the series is full.
+   */
+  public boolean isFull() {
+    return size == ids.length;
+  }
+
+  /**
+   * Gets the index of a track point. Returns -1 if not found. The track point
+   * ids must be increasing.
+   *
+   * @param id the track point id
+   */
+  public int indexOf(long id) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (ids[middle] < id) {
+        low = middle + 1;
+      } else if (ids[middle] > id) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  public void setId(int index, long id) {
+    ids[index] = id;
+  }
+
+  public double getDistance(int index) {
+    return distances[index];
+  }
+
+  public long getTotalTime(int index) {
+    return totalTimes[index];
+  }
+
+  public long getMovingTime(int index) {
+    return movingTimes[index];
+  }
+
+  public double getElevation(int index) {
+    return elevations[index];
+  }
+
+  public double getSpeed(int index) {
+    return speeds[index];
+  }
+
+  public double getGrade(int index) {
+    return grades[index];
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track point series table. Each row holds the values
+ * derived by the trip statistics updater of a track at a track point, and its
+ * {@link #_ID} is the track point id. The rows are written in the same
+ * transaction as their track points by the recording service and by the
+ * importers, see {@link TrackPointSeries}. Tracks written before the table was
+ * added have no rows.
+ */
+public interface TrackPointSeriesColumns extends BaseColumns {
+
+  String TABLE_NAME = "trackpointseries";
+  Uri CONTENT_URI = Uri.parse("content://com.google.android.maps.mytracks/trackpointseries");
+  String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackpointseries";
+  String DEFAULT_SORT_ORDER = "_id";
+
+  // Columns
+  String TRACKID = "trackid"; // track id
+  String DISTANCE = "distance"; // cumulative total distance
+  String TOTALTIME = "totaltime"; // cumulative total time
+  String MOVINGTIME = "movingtime"; // cumulative moving time
+  String ELEVATION = "elevation"; // smoothed elevation
+  String SPEED = "speed"; // smoothed speed
+  String GRADE = "grade"; // smoothed grade
+
+  String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY, "
+      + TRACKID + " INTEGER, "
+      + DISTANCE + " FLOAT, "
+      + TOTALTIME + " INTEGER, "
+      + MOVINGTIME + " INTEGER, "
+      + ELEVATION + " FLOAT, "
+      + SPEED + " FLOAT, "
+      + GRADE + " FLOAT"
+      + ");";
+
+  // Indexes
+  String TRACKID_INDEX = "trackpointseries_trackid_index";
+
+  String CREATE_TRACKID_INDEX = "CREATE INDEX IF NOT EXISTS " + TRACKID_INDEX + " ON "
+      + TABLE_NAME + " (" + TRACKID + ");";
+}
@@ -62,6 +62,16 @@ public interface TrackPointsColumns extends BaseColumns {
       + SENSOR + " BLOB" 
       + ");";
 
+  // Indexes
+  String TRACKID_ID_INDEX = "trackpoints_trackid_id_index";
+  String TRACKID_TIME_INDEX = "trackpoints_trackid_time_index";
+
+  String CREATE_TRACKID_ID_INDEX = "CREATE INDEX IF NOT EXISTS " + TRACKID_ID_INDEX + " ON "
+      + TABLE_NAME + " (" + TRACKID + ", " + _ID + ");";
+
+  String CREATE_TRACKID_TIME_INDEX = "CREATE INDEX IF NOT EXISTS " + TRACKID_TIME_INDEX + " ON "
+      + TABLE_NAME + " (" + TRACKID + ", " + TIME + ");";
+
   String[] COLUMNS = {
       _ID,
       TRACKID,
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Packs the track points of the finished tracks into track point blocks, see
+ * {@link MyTracksProviderUtils#compactTrackPoints(long)}. The recording track
+ * is never packed, not even its closed segments: its track points are read
+ * incrementally from the track points table while recording, so a whole track
+ * is packed once finished. Does nothing unless the pack track points
+ * preference is enabled.
+ */
+public class TrackPointsCompactor implements Runnable {
+
+  private static final String TAG = TrackPointsCompactor.class.getSimpleName();
+
+  private final Context context;
+  private final MyTracksProviderUtils myTracksProviderUtils;
+
+  public TrackPointsCompactor(Context context) {
+    this.context = context;
+    this.myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+  }
+
+  @Override
+  public void run() {
+    if (!PreferencesUtils.getBoolean(
+        context, R.string.pack_track_points_key, PreferencesUtils.PACK_TRACK_POINTS_DEFAULT)) {
+      return;
+    }
+    compactAllTracks();
+  }
+
+  /**
+   * Packs the track points of all the tracks except the recording track.
+   *
+   * @return the number of track points packed
+   */
+  public int compactAllTracks() {
+    int count = 0;
+    List<Track> tracks = myTracksProviderUtils.getAllTracks();
+    for (Track track : tracks) {
+      // Read the recording track id for each track, a recording may start
+      long recordingTrackId = PreferencesUtils.getLong(context, R.string.recording_track_id_key);
+      if (track.getId() == recordingTrackId) {
+        continue;
+      }
+      count += myTracksProviderUtils.compactTrackPoints(track.getId());
+    }
+    Log.d(TAG, "Packed " + count + " track points.");
+    return count;
+  }
+}
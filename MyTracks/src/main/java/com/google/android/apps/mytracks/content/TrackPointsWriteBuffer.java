@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.database.sqlite.SQLiteException;
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * A write-behind buffer for the track points of a track. Buffered track points
+ * are written with {@link MyTracksProviderUtils#bulkInsertTrackPoint(Location[],
+ * int, long, long[], TrackPointSeries)} in a single transaction once
+ * {@link #MAX_POINTS} are buffered, or when {@link #flush()} is called. At most
+ * {@link #MAX_POINTS} track points are lost if the process dies. The derived
+ * values of the track points added with
+ * {@link #add(Location, TripStatisticsUpdater)} are written to the
+ * {@link TrackPointSeriesColumns} table in the same transaction.
+ * <p>
+ * Only the owner flushes the buffer. The readers of the track points see the
+ * buffered track points once they are written, at most {@link #MAX_AGE} later.
+ */
+public class TrackPointsWriteBuffer {
+
+  /**
+   * The maximum number of buffered track points.
+   */
+  public static final int MAX_POINTS = 10;
+
+  /**
+   * The maximum time in milliseconds a track point should stay in the buffer.
+   * The buffer doesn't enforce this. The owner is expected to call
+   * {@link #flush()} within this time after {@link #add(Location)}.
+   */
+  public static final long MAX_AGE = 15000L;
+
+  private static final String TAG = TrackPointsWriteBuffer.class.getSimpleName();
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final long trackId;
+  private final Location[] locations = new Location[MAX_POINTS];
+  private final long[] trackPointIds = new long[MAX_POINTS];
+  private int size = 0;
+
+  // The number of valid track points added and not dropped by a failed write
+  private int numberOfValidPoints = 0;
+
+  // The derived values of the buffered track points, by buffer index until written
+  private final TrackPointSeries series = new TrackPointSeries(MAX_POINTS);
+
+  // The first and the last written track point ids, -1L if none
+  private long firstTrackPointId = -1L;
+  private long lastTrackPointId = -1L;
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   */
+  public TrackPointsWriteBuffer(MyTracksProviderUtils myTracksProviderUtils, long trackId) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.trackId = trackId;
+  }
+
+  /**
+   * Gets the track id.
+   */
+  public long getTrackId() {
+    return trackId;
+  }
+
+  /**
+   * Adds a track point. Flushes the buffer if it is full.
+   *
+   * @param location the location
+   */
+  public synchronized void add(Location location) {
+    locations[size++] = location;
+    if (LocationUtils.isValidLocation(location)) {
+      numberOfValidPoints++;
+    }
+    if (size == MAX_POINTS) {
+      flush();
+    }
+  }
+
+  /**
+   * Adds a track point with its derived values. Flushes the buffer if it is
+   * full.
+   *
+   * @param location the location
+   * @param tripStatisticsUpdater the trip statistics updater of the track,
+   *          after the location was added to it
+   */
+  public synchronized void add(Location location, TripStatisticsUpdater tripStatisticsUpdater) {
+    series.add(size, tripStatisticsUpdater);
+    add(location);
+  }
+
+  /**
+   * Returns true if there are buffered track points.
+   */
+  public synchronized boolean hasPendingPoints() {
+    return size > 0;
+  }
+
+  /**
+   * Writes the buffered track points to the database.
+   */
+  public synchronized void flush() {
+    if (size == 0) {
+      return;
+    }
+    int length = size;
+    try {
+      int inserted = myTracksProviderUtils.bulkInsertTrackPoint(
+          locations, length, trackId, trackPointIds, series);
+      if (inserted > 0) {
+        if (firstTrackPointId < 0) {
+          firstTrackPointId = trackPointIds[0];
+        }
+        lastTrackPointId = trackPointIds[inserted - 1];
+      }
+    } catch (SQLiteException e) {
+      /*
+       * Insert failed, most likely because of SqlLite error code 5
+       * (SQLite_BUSY). This is expected to happen extremely rarely. None of
+       * the track points and derived values were written.
+       */
+      Log.w(TAG, "Unable to write " + length + " track points.", e);
+      for (int i = 0; i < length; i++) {
+        if (LocationUtils.isValidLocation(locations[i])) {
+          numberOfValidPoints--;
+        }
+      }
+    } finally {
+      for (int i = 0; i < length; i++) {
+        locations[i] = null;
+      }
+      size = 0;
+      series.clear();
+    }
+  }
+
+  /**
+   * Gets the id of the first track point written by this buffer. Returns -1L
+   * if none.
+   */
+  public synchronized long getFirstTrackPointId() {
+    return firstTrackPointId;
+  }
+
+  /**
+   * Gets the id of the last track point written by this buffer. Returns -1L if
+   * none.
+   */
+  public synchronized long getLastTrackPointId() {
+    return lastTrackPointId;
+  }
+
+  /**
+   * Gets the number of valid track points added to this buffer, not counting
+   * the track points dropped by a failed write.
+   */
+  public synchronized int getNumberOfValidPoints() {
+    return numberOfValidPoints;
+  }
+
+  /**
+   * Gets the number of buffered track points. For testing purpose.
+   */
+  @VisibleForTesting
+  synchronized int getSize() {
+    return size;
+  }
+}
@@ -19,14 +19,15 @@ package com.google.android.apps.mytracks.fragments;
 import com.google.android.apps.mytracks.ChartView;
 import com.google.android.apps.mytracks.TrackDetailActivity;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.TrackDataHub;
 import com.google.android.apps.mytracks.content.TrackDataListener;
 import com.google.android.apps.mytracks.content.TrackDataType;
+import com.google.android.apps.mytracks.content.TrackPointSeries;
 import com.google.android.apps.mytracks.content.Waypoint;
-import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.LocationUtils;
@@ -58,13 +59,39 @@ public class ChartFragment extends Fragment implements TrackDataListener {
 
   public static final String CHART_FRAGMENT_TAG = "chartFragment";
 
+  // The number of track point series rows read at once
+  private static final int TRACK_POINT_SERIES_BATCH_SIZE = 1024;
+
   private final ArrayList<double[]> pendingPoints = new ArrayList<double[]>();
 
   private TrackDataHub trackDataHub;
+  private MyTracksProviderUtils myTracksProviderUtils;
 
   // Stats gathered from the received data
   private TripStatisticsUpdater tripStatisticsUpdater;
   private long startTime;
+  private long trackId = -1L;
+
+  /*
+   * The stored derived values of the track points, read in batches by track
+   * point id. Used instead of the trip statistics updater if the track has
+   * stored values, see #isTrackPointSeriesUsed(Location).
+   */
+  private final TrackPointSeries trackPointSeries = new TrackPointSeries(
+      TRACK_POINT_SERIES_BATCH_SIZE);
+  private boolean trackPointSeriesChecked = false;
+  private boolean useTrackPointSeries = false;
+
+  /*
+   * The last track point with stored values, and its stored distance and total
+   * time. The values of the track points without stored values are computed
+   * from it with the gap trip statistics updater.
+   */
+  private final Location lastStoredLocation = new Location("");
+  private boolean hasLastStoredLocation = false;
+  private double lastStoredDistance = 0.0;
+  private long lastStoredTotalTime = 0L;
+  private TripStatisticsUpdater gapTripStatisticsUpdater;
 
   private boolean metricUnits = true;
   private boolean reportSpeed = true;
@@ -105,6 +132,7 @@ public class ChartFragment extends Fragment implements TrackDataListener {
      * data on every onStart or onResume.
      */
     chartView = new ChartView(getActivity());
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(getActivity());
   }
 
     @Override
@@ -162,9 +190,11 @@ public class ChartFragment extends Fragment implements TrackDataListener {
     if (isResumed()) {
       if (track == null || track.getTripStatistics() == null) {
         startTime = -1L;
+        trackId = -1L;
         return;
       }
       startTime = track.getTripStatistics().getStartTime();
+      trackId = track.getId();
     }
   }
 
@@ -172,6 +202,13 @@ public class ChartFragment extends Fragment implements TrackDataListener {
   public void clearTrackPoints() {
     if (isResumed()) {
       tripStatisticsUpdater = startTime != -1L ? new TripStatisticsUpdater(startTime) : null;
+      trackPointSeries.clear();
+      trackPointSeriesChecked = false;
+      useTrackPointSeries = false;
+      hasLastStoredLocation = false;
+      lastStoredDistance = 0.0;
+      lastStoredTotalTime = 0L;
+      gapTripStatisticsUpdater = null;
       pendingPoints.clear();
       chartView.reset();
       runOnUiThread(new Runnable() {
@@ -208,6 +245,15 @@ public class ChartFragment extends Fragment implements TrackDataListener {
     }
   }
 
+  @Override
+  public void onSampledInTrackPointsDecimated() {
+    if (isResumed()) {
+      chartView.addDataPoints(pendingPoints);
+      pendingPoints.clear();
+      chartView.decimateDataPoints();
+    }
+  }
+
   @Override
   public void onNewTrackPointsDone() {
     if (isResumed()) {
@@ -231,6 +277,20 @@ public class ChartFragment extends Fragment implements TrackDataListener {
     }
   }
 
+  @Override
+  public void onWaypointUpdated(Waypoint waypoint) {
+    if (isResumed()) {
+      chartView.updateWaypoint(waypoint);
+    }
+  }
+
+  @Override
+  public void onWaypointRemoved(long waypointId) {
+    if (isResumed()) {
+      chartView.removeWaypoint(waypointId);
+    }
+  }
+
   @Override
   public void onNewWaypointsDone() {
     if (isResumed()) {
@@ -443,6 +503,10 @@ public class ChartFragment extends Fragment implements TrackDataListener {
    * data[4] = heart rate <br>
    * data[5] = cadence <br>
    * data[6] = power <br>
+   * The time/distance, elevation, and speed are read from the stored track
+   * point series if the track has one, else computed with the trip statistics
+   * updater. The values of a track point missing from the stored series are
+   * computed from the last track point with stored values.
    * 
    * @param location the location
    * @param data the data point to fill in, can be null
@@ -457,26 +521,61 @@ public class ChartFragment extends Fragment implements TrackDataListener {
     double cadence = Double.NaN;
     double power = Double.NaN;
 
-    if (tripStatisticsUpdater != null) {
+    boolean hasStatistics = false;
+    double distance = 0.0;
+    long totalTime = 0L;
+    if (isTrackPointSeriesUsed(location)) {
+      int index = getTrackPointSeriesIndex(((MyTracksLocation) location).getId());
+      if (index != -1) {
+        gapTripStatisticsUpdater = null;
+        lastStoredLocation.set(location);
+        hasLastStoredLocation = true;
+        lastStoredDistance = trackPointSeries.getDistance(index);
+        lastStoredTotalTime = trackPointSeries.getTotalTime(index);
+        if (data == null) {
+          // Only the sampled in track points need the stored values
+          return;
+        }
+        distance = lastStoredDistance;
+        totalTime = lastStoredTotalTime;
+        elevation = trackPointSeries.getElevation(index);
+        speed = trackPointSeries.getSpeed(index);
+      } else {
+        TripStatisticsUpdater updater = getGapTripStatisticsUpdater(location);
+        updater.addLocation(
+            location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
+        distance = lastStoredDistance + updater.getTotalDistance();
+        totalTime = lastStoredTotalTime + updater.getTotalTime();
+        elevation = updater.getSmoothedElevation();
+        speed = updater.getSmoothedSpeed();
+      }
+      hasStatistics = true;
+    } else if (tripStatisticsUpdater != null) {
       tripStatisticsUpdater.addLocation(
           location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
-      TripStatistics tripStatistics = tripStatisticsUpdater.getTripStatistics();
+      hasStatistics = true;
+      distance = tripStatisticsUpdater.getTotalDistance();
+      totalTime = tripStatisticsUpdater.getTotalTime();
+      elevation = tripStatisticsUpdater.getSmoothedElevation();
+      speed = tripStatisticsUpdater.getSmoothedSpeed();
+    }
+
+    if (hasStatistics) {
       if (chartByDistance) {
-        double distance = tripStatistics.getTotalDistance() * UnitConversions.M_TO_KM;
+        distance *= UnitConversions.M_TO_KM;
         if (!metricUnits) {
           distance *= UnitConversions.KM_TO_MI;
         }
         timeOrDistance = distance;
       } else {
-        timeOrDistance = tripStatistics.getTotalTime();
+        timeOrDistance = totalTime;
       }
 
-      elevation = tripStatisticsUpdater.getSmoothedElevation();
       if (!metricUnits) {
         elevation *= UnitConversions.M_TO_FT;
       }
 
-      speed = tripStatisticsUpdater.getSmoothedSpeed() * UnitConversions.MS_TO_KMH;
+      speed *= UnitConversions.MS_TO_KMH;
       if (!metricUnits) {
         speed *= UnitConversions.KM_TO_MI;
       }
@@ -513,6 +612,68 @@ public class ChartFragment extends Fragment implements TrackDataListener {
     }
   }
 
+  /**
+   * Returns true if the derived values of the track points are read from the
+   * stored track point series. Decided at the first track point with an id
+   * after the track points are cleared: the series is used if it has that
+   * track point or a later one, so that a track written before the series was
+   * stored is computed with the trip statistics updater from its first track
+   * point.
+   * 
+   * @param location the location
+   */
+  private boolean isTrackPointSeriesUsed(Location location) {
+    if (!trackPointSeriesChecked) {
+      long id = location instanceof MyTracksLocation ? ((MyTracksLocation) location).getId()
+          : -1L;
+      if (id < 0 || trackId < 0 || myTracksProviderUtils == null) {
+        return false;
+      }
+      trackPointSeriesChecked = true;
+      useTrackPointSeries = myTracksProviderUtils.readTrackPointSeries(
+          trackId, id, trackPointSeries) > 0;
+    }
+    return useTrackPointSeries;
+  }
+
+  /**
+   * Gets the index of a track point in the track point series. Reads the batch
+   * starting at the track point if it is past the current batch. Returns -1 if
+   * not found.
+   * 
+   * @param id the track point id
+   */
+  private int getTrackPointSeriesIndex(long id) {
+    int index = trackPointSeries.indexOf(id);
+    int size = trackPointSeries.getSize();
+    if (index == -1 && (size == 0 || id > trackPointSeries.getId(size - 1))) {
+      myTracksProviderUtils.readTrackPointSeries(trackId, id, trackPointSeries);
+      index = trackPointSeries.indexOf(id);
+    }
+    return index;
+  }
+
+  /**
+   * Gets the trip statistics updater of the track points missing from the
+   * track point series. Starts it at the last track point with stored values,
+   * or at the track start.
+   * 
+   * @param location the first missing track point
+   */
+  private TripStatisticsUpdater getGapTripStatisticsUpdater(Location location) {
+    if (gapTripStatisticsUpdater == null) {
+      if (hasLastStoredLocation) {
+        gapTripStatisticsUpdater = new TripStatisticsUpdater(lastStoredLocation.getTime());
+        gapTripStatisticsUpdater.addLocation(
+            lastStoredLocation, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
+      } else {
+        gapTripStatisticsUpdater = new TripStatisticsUpdater(
+            startTime != -1L ? startTime : location.getTime());
+      }
+    }
+    return gapTripStatisticsUpdater;
+  }
+
   @VisibleForTesting
   ChartView getChartView() {
     return chartView;
@@ -278,6 +278,9 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
               && !isLocationVisible(currentLocation)) {
             keepCurrentLocationVisible = false;
           }
+          if (isResumed()) {
+            mapOverlay.updatePaths(googleMap, paths);
+          }
         }
       });
     }
@@ -392,6 +395,14 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     lastTrackPoint = location;
   }
 
+  @Override
+  public void onSampledInTrackPointsDecimated() {
+    if (isResumed()) {
+      mapOverlay.decimatePoints();
+      reloadPaths = true;
+    }
+  }
+
   @Override
   public void onSegmentSplit(Location location) {
     if (isResumed()) {
@@ -444,13 +455,27 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     }
   }
 
+  @Override
+  public void onWaypointUpdated(Waypoint waypoint) {
+    if (isResumed()) {
+      mapOverlay.updateWaypoint(waypoint);
+    }
+  }
+
+  @Override
+  public void onWaypointRemoved(long waypointId) {
+    if (isResumed()) {
+      mapOverlay.removeWaypoint(waypointId);
+    }
+  }
+
   @Override
   public void onNewWaypointsDone() {
     if (isResumed()) {
       getActivity().runOnUiThread(new Runnable() {
         public void run() {
-          if (isResumed() && googleMap != null && currentTrack != null) {
-            mapOverlay.update(googleMap, paths, currentTrack.getTripStatistics(), true);
+          if (isResumed() && googleMap != null) {
+            mapOverlay.updateWaypoints(googleMap);
           }
         }
       });
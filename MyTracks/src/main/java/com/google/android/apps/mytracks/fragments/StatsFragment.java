@@ -22,6 +22,7 @@ import com.google.android.apps.mytracks.content.TrackDataHub;
 import com.google.android.apps.mytracks.content.TrackDataListener;
 import com.google.android.apps.mytracks.content.TrackDataType;
 import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceConnection;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.CalorieUtils;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
@@ -29,6 +30,7 @@ import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.apps.mytracks.util.StatsUtils;
 import com.google.android.apps.mytracks.util.TrackIconUtils;
+import com.google.android.apps.mytracks.util.TrackRecordingServiceConnectionUtils;
 import com.google.android.apps.mytracks.util.UnitConversions;
 import com.google.android.maps.mytracks.R;
 
@@ -60,6 +62,7 @@ public class StatsFragment extends Fragment implements TrackDataListener {
   private static final long ONE_SECOND = (long) UnitConversions.S_TO_MS;
 
   private TrackDataHub trackDataHub;
+  private TrackRecordingServiceConnection trackRecordingServiceConnection;
   private Handler handler;
 
   private Location lastLocation = null;
@@ -71,7 +74,15 @@ public class StatsFragment extends Fragment implements TrackDataListener {
   private final Runnable updateTotalTime = new Runnable() {
     public void run() {
       if (isResumed() && isSelectedTrackRecording()) {
-        if (!isSelectedTrackPaused() && lastTripStatistics != null) {
+        /*
+         * The recording service writes the trip statistics to the database
+         * periodically. Get the current trip statistics from the service.
+         */
+        TripStatistics tripStatistics = getRecordingTripStatistics();
+        if (tripStatistics != null) {
+          lastTripStatistics = tripStatistics;
+          updateUi(getActivity());
+        } else if (!isSelectedTrackPaused() && lastTripStatistics != null) {
           StatsUtils.setTotalTimeValue(getActivity(), System.currentTimeMillis()
               - lastTripStatistics.getStopTime() + lastTripStatistics.getTotalTime());
         }
@@ -89,6 +100,7 @@ public class StatsFragment extends Fragment implements TrackDataListener {
   @Override
   public void onActivityCreated(Bundle savedInstanceState) {
     super.onActivityCreated(savedInstanceState);
+    trackRecordingServiceConnection = new TrackRecordingServiceConnection(getActivity(), null);
     handler = new Handler();
    
     Spinner activityTypeIcon = getView().findViewById(R.id.stats_activity_type_icon);
@@ -113,6 +125,13 @@ public class StatsFragment extends Fragment implements TrackDataListener {
     });
   }
 
+  @Override
+  public void onStart() {
+    super.onStart();
+    TrackRecordingServiceConnectionUtils.startConnection(
+        getActivity(), trackRecordingServiceConnection);
+  }
+
   @Override
   public void onResume() {
     super.onResume();
@@ -130,6 +149,12 @@ public class StatsFragment extends Fragment implements TrackDataListener {
     handler.removeCallbacks(updateTotalTime);
   }
 
+  @Override
+  public void onStop() {
+    super.onStop();
+    trackRecordingServiceConnection.unbind();
+  }
+
   @Override
   public void onTrackUpdated(final Track track) {
     if (isResumed()) {
@@ -166,6 +191,11 @@ public class StatsFragment extends Fragment implements TrackDataListener {
     // We don't care.
   }
 
+  @Override
+  public void onSampledInTrackPointsDecimated() {
+    // We don't care.
+  }
+
   @Override
   public void onNewTrackPointsDone() {
     if (isResumed()) {
@@ -204,6 +234,16 @@ public class StatsFragment extends Fragment implements TrackDataListener {
     // We don't care.
   }
 
+  @Override
+  public void onWaypointUpdated(Waypoint waypoint) {
+    // We don't care.
+  }
+
+  @Override
+  public void onWaypointRemoved(long waypointId) {
+    // We don't care.
+  }
+
   @Override
   public void onNewWaypointsDone() {
     // We don't care.
@@ -293,6 +333,22 @@ public class StatsFragment extends Fragment implements TrackDataListener {
     return trackDataHub != null && trackDataHub.isSelectedTrackPaused();
   }
 
+  /**
+   * Gets the in-memory trip statistics of the selected track from the track
+   * recording service. Returns null if not available.
+   */
+  private TripStatistics getRecordingTripStatistics() {
+    long trackId;
+    synchronized (this) {
+      if (trackDataHub == null) {
+        return null;
+      }
+      trackId = trackDataHub.getSelectedTrackId();
+    }
+    return TrackRecordingServiceConnectionUtils.getTripStatistics(
+        trackRecordingServiceConnection, trackId);
+  }
+
   /**
    * Updates the UI.
    */
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable column of primitive int, long, or double values, added in order
+ * and then read back in order. Unlike a list of boxed values, doesn't allocate
+ * an object per value.
+ * <p>
+ * With a spill directory, keeps at most a max number of values in memory.
+ * Past it, the values in memory are appended to a temporary file, so the memory
+ * used doesn't grow with the number of values. Values can't be added once
+ * reading started, until the column is cleared.
+ */
+public class ColumnBuffer {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int maxInMemory;
+  private final File spillDirectory;
+
+  private long[] values = new long[INITIAL_CAPACITY];
+
+  // The number of values in memory
+  private int size = 0;
+
+  // The spill file and the number of values in it
+  private File spillFile;
+  private int spilledSize = 0;
+  private DataOutputStream outputStream;
+  private DataInputStream inputStream;
+
+  // The index of the next value to read. -1 if not reading
+  private int readIndex = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param maxInMemory the max number of values in memory before spilling
+   * @param spillDirectory the directory of the spill file. null to keep all
+   *          the values in memory
+   */
+  public ColumnBuffer(int maxInMemory, File spillDirectory) {
+    this.maxInMemory = maxInMemory;
+    this.spillDirectory = spillDirectory;
+  }
+
+  /**
+   * Adds an int.
+   *
+   * @param value the int
+   */
+  public void addInt(int value) throws IOException {
+    addLong(value);
+  }
+
+  /**
+   * Adds a double.
+   *
+   * @param value the double
+   */
+  public void addDouble(double value) throws IOException {
+    addLong(Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Adds a long.
+   *
+   * @param value the long
+   */
+  public void addLong(long value) throws IOException {
+    if (readIndex != -1) {
+      throw new IllegalStateException("Cannot add while reading");
+    }
+    if (size == values.length) {
+      if (spillDirectory != null && size >= maxInMemory) {
+        spill();
+      } else {
+        int capacity = size * 2;
+        if (spillDirectory != null) {
+          capacity = Math.min(capacity, maxInMemory);
+        }
+        values = Arrays.copyOf(values, capacity);
+      }
+    }
+    values[size++] = value;
+  }
+
+  /**
+   * Gets the number of values.
+   */
+  public int size() {
+    return spilledSize + size;
+  }
+
+  /**
+   * Returns true if there is a next value to read.
+   */
+  public boolean hasNext() {
+    return Math.max(readIndex, 0) < size();
+  }
+
+  /**
+   * Reads the next int.
+   */
+  public int nextInt() throws IOException {
+    return (int) nextLong();
+  }
+
+  /**
+   * Reads the next double.
+   */
+  public double nextDouble() throws IOException {
+    return Double.longBitsToDouble(nextLong());
+  }
+
+  /**
+   * Reads the next long.
+   */
+  public long nextLong() throws IOException {
+    if (readIndex == -1) {
+      readIndex = 0;
+      if (outputStream != null) {
+        outputStream.close();
+        outputStream = null;
+        inputStream = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(spillFile)));
+      }
+    }
+    if (readIndex >= size()) {
+      throw new NoSuchElementException();
+    }
+    if (readIndex < spilledSize) {
+      readIndex++;
+      return inputStream.readLong();
+    }
+    return values[readIndex++ - spilledSize];
+  }
+
+  /**
+   * Removes all the values and deletes the spill file.
+   */
+  public void clear() {
+    size = 0;
+    spilledSize = 0;
+    readIndex = -1;
+    try {
+      if (outputStream != null) {
+        outputStream.close();
+      }
+      if (inputStream != null) {
+        inputStream.close();
+      }
+    } catch (IOException e) {
+      // Safe to ignore, the file is deleted
+    }
+    outputStream = null;
+    inputStream = null;
+    if (spillFile != null) {
+      spillFile.delete();
+      spillFile = null;
+    }
+  }
+
+  /**
+   * Gets the number of values the memory can hold.
+   */
+  @VisibleForTesting
+  int getCapacity() {
+    return values.length;
+  }
+
+  /**
+   * Appends the values in memory to the spill file.
+   */
+  private void spill() throws IOException {
+    if (outputStream == null) {
+      spillFile = File.createTempFile("column", null, spillDirectory);
+      outputStream = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(spillFile)));
+    }
+    for (int i = 0; i < size; i++) {
+      outputStream.writeLong(values[i]);
+    }
+    spilledSize += size;
+    size = 0;
+  }
+}
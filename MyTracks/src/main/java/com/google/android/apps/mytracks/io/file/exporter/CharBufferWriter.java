@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.NumberFormat;
+
+/**
+ * A writer for the {@link TrackWriter} implementations, appending text,
+ * numbers, and ISO 8601 timestamps straight into a reusable char buffer.
+ * Unlike a {@link java.io.PrintWriter} fed with concatenated strings, writing a
+ * track point doesn't allocate.
+ * <p>
+ * The output is identical to the {@link java.io.PrintWriter} output of the
+ * same values: {@link #print(double)} matches {@link Double#toString(double)},
+ * {@link #print(double, NumberFormat, int)} matches the number format, and
+ * {@link #printIso8601(long)} matches
+ * {@link StringUtils#formatDateTimeIso8601(long)}. Like a
+ * {@link java.io.PrintWriter}, never throws an {@link IOException}, see
+ * {@link #checkError()}.
+ */
+public class CharBufferWriter {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+  // 1583-01-01T00:00:00Z, the first full year of the Gregorian calendar
+  private static final long MIN_GREGORIAN_TIME = -12212553600000L;
+
+  // 10000-01-01T00:00:00Z
+  private static final long MAX_FOUR_DIGIT_YEAR_TIME = 253402300800000L;
+
+  private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L,
+      1000000L, 10000000L, 100000000L, 1000000000L };
+
+  /*
+   * The max absolute value, times the power of ten of the fraction digits,
+   * rounded without the number format. Below it, the rounding error of the
+   * scaled value is well within the distance to a tie checked for.
+   */
+  private static final double MAX_SCALED_DECIMAL = 1e9;
+
+  private final Writer writer;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position = 0;
+  private boolean error = false;
+
+  // Used to format doubles without creating strings
+  private final StringBuilder doubleBuilder = new StringBuilder(32);
+
+  /**
+   * Constructor. Encodes with the default charset, like a
+   * {@link java.io.PrintWriter}.
+   *
+   * @param outputStream the output stream
+   */
+  public CharBufferWriter(OutputStream outputStream) {
+    this(new OutputStreamWriter(outputStream));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param writer the writer
+   */
+  public CharBufferWriter(Writer writer) {
+    this.writer = writer;
+  }
+
+  /**
+   * Prints a string. Prints "null" if the string is null.
+   *
+   * @param value the string
+   */
+  public CharBufferWriter print(String value) {
+    if (value == null) {
+      value = "null";
+    }
+    int length = value.length();
+    int start = 0;
+    while (start < length) {
+      int count = Math.min(length - start, buffer.length - position);
+      value.getChars(start, start + count, buffer, position);
+      position += count;
+      start += count;
+      if (position == buffer.length) {
+        flushBuffer();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Prints a char.
+   *
+   * @param value the char
+   */
+  public CharBufferWriter print(char value) {
+    if (position == buffer.length) {
+      flushBuffer();
+    }
+    buffer[position++] = value;
+    return this;
+  }
+
+  /**
+   * Prints an int.
+   *
+   * @param value the int
+   */
+  public CharBufferWriter print(int value) {
+    return print((long) value);
+  }
+
+  /**
+   * Prints a long.
+   *
+   * @param value the long
+   */
+  public CharBufferWriter print(long value) {
+    if (value == Long.MIN_VALUE) {
+      return print(Long.toString(value));
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer[position++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long i = value; i >= 10; i /= 10) {
+      digits++;
+    }
+    for (int i = position + digits - 1; i >= position; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    position += digits;
+    return this;
+  }
+
+  /**
+   * Prints a double, as {@link Double#toString(double)}.
+   *
+   * @param value the double
+   */
+  public CharBufferWriter print(double value) {
+    doubleBuilder.setLength(0);
+    doubleBuilder.append(value);
+    int length = doubleBuilder.length();
+    ensureCapacity(length);
+    doubleBuilder.getChars(0, length, buffer, position);
+    position += length;
+    return this;
+  }
+
+  /**
+   * Prints a double with a number format, rounding half even to at most a
+   * number of fraction digits. Falls back to the number format for the values
+   * it formats differently, e.g., values rounding to zero, grouped or
+   * truncated integer parts, and values too close to a rounding tie.
+   *
+   * @param value the double
+   * @param numberFormat the number format, with the default min fraction and
+   *          integer digits
+   * @param maxFractionDigits the max fraction digits of the number format, at
+   *          most 9
+   */
+  public CharBufferWriter print(double value, NumberFormat numberFormat, int maxFractionDigits) {
+    long scale = POWERS_OF_TEN[maxFractionDigits];
+    double scaled = Math.abs(value) * scale;
+    if (!(scaled < MAX_SCALED_DECIMAL)) {
+      return print(numberFormat.format(value));
+    }
+    double floor = Math.floor(scaled);
+    double fraction = scaled - floor;
+    if (Math.abs(fraction - 0.5) < 1e-6) {
+      // Too close to a tie to round without the number format
+      return print(numberFormat.format(value));
+    }
+    long rounded = (long) floor + (fraction > 0.5 ? 1 : 0);
+    long integerPart = rounded / scale;
+    int maxIntegerDigits = numberFormat.getMaximumIntegerDigits();
+    if (rounded == 0L || (integerPart >= 1000L && numberFormat.isGroupingUsed())
+        || (maxIntegerDigits < POWERS_OF_TEN.length
+            && integerPart >= POWERS_OF_TEN[maxIntegerDigits])) {
+      return print(numberFormat.format(value));
+    }
+    if (value < 0) {
+      print('-');
+    }
+    print(integerPart);
+    long fractionPart = rounded % scale;
+    if (fractionPart != 0L) {
+      int digits = maxFractionDigits;
+      while (fractionPart % 10 == 0) {
+        fractionPart /= 10;
+        digits--;
+      }
+      ensureCapacity(digits + 1);
+      buffer[position++] = '.';
+      printDigits((int) fractionPart, digits);
+    }
+    return this;
+  }
+
+  /**
+   * Prints a time as an ISO 8601 date time in UTC, as
+   * {@link StringUtils#formatDateTimeIso8601(long)}.
+   *
+   * @param time the time in milliseconds
+   */
+  public CharBufferWriter printIso8601(long time) {
+    if (time < MIN_GREGORIAN_TIME || time >= MAX_FOUR_DIGIT_YEAR_TIME) {
+      return print(StringUtils.formatDateTimeIso8601(time));
+    }
+    long days = floorDiv(time, MILLIS_PER_DAY);
+    int millisOfDay = (int) (time - days * MILLIS_PER_DAY);
+
+    // Converts the days since the epoch to a civil date, with years starting
+    // in March so that the leap day is the last day of a year
+    long shiftedDays = days + 719468L;
+    long era = floorDiv(shiftedDays, 146097L);
+    int dayOfEra = (int) (shiftedDays - era * 146097L);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    int year = (int) (era * 400L) + yearOfEra + (month <= 2 ? 1 : 0);
+
+    ensureCapacity(24);
+    printDigits(year, 4);
+    buffer[position++] = '-';
+    printDigits(month, 2);
+    buffer[position++] = '-';
+    printDigits(day, 2);
+    buffer[position++] = 'T';
+    printDigits(millisOfDay / 3600000, 2);
+    buffer[position++] = ':';
+    printDigits(millisOfDay / 60000 % 60, 2);
+    buffer[position++] = ':';
+    printDigits(millisOfDay / 1000 % 60, 2);
+    buffer[position++] = '.';
+    printDigits(millisOfDay % 1000, 3);
+    buffer[position++] = 'Z';
+    return this;
+  }
+
+  /**
+   * Prints a line separator.
+   */
+  public CharBufferWriter println() {
+    return print(LINE_SEPARATOR);
+  }
+
+  /**
+   * Prints a string followed by a line separator.
+   *
+   * @param value the string
+   */
+  public CharBufferWriter println(String value) {
+    return print(value).println();
+  }
+
+  /**
+   * Flushes the buffer and the underlying writer.
+   */
+  public void flush() {
+    flushBuffer();
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      error = true;
+    }
+  }
+
+  /**
+   * Flushes and returns true if an error occurred while writing.
+   */
+  public boolean checkError() {
+    flush();
+    return error;
+  }
+
+  /**
+   * Writes the buffer to the underlying writer.
+   */
+  private void flushBuffer() {
+    if (position == 0) {
+      return;
+    }
+    try {
+      writer.write(buffer, 0, position);
+    } catch (IOException e) {
+      error = true;
+    }
+    position = 0;
+  }
+
+  /**
+   * Makes room in the buffer.
+   *
+   * @param count the number of chars to make room for
+   */
+  private void ensureCapacity(int count) {
+    if (position + count > buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  /**
+   * Prints a non negative int with leading zeros. The buffer must have room.
+   *
+   * @param value the int
+   * @param digits the number of digits
+   */
+  private void printDigits(int value, int digits) {
+    for (int i = position + digits - 1; i >= position; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    position += digits;
+  }
+
+  private static long floorDiv(long x, long y) {
+    long quotient = x / y;
+    if ((x % y != 0) && ((x ^ y) < 0)) {
+      quotient--;
+    }
+    return quotient;
+  }
+}
@@ -29,7 +29,6 @@ import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.text.NumberFormat;
 import java.util.Locale;
 
@@ -52,19 +51,22 @@ import java.util.Locale;
  */
 public class CsvTrackWriter implements TrackWriter {
 
-  private static final NumberFormat SHORT_FORMAT = NumberFormat.getInstance(Locale.US);
+  private static final int SHORT_FRACTION_DIGITS = 4;
 
-  static {
-    SHORT_FORMAT.setMaximumFractionDigits(4);
-  }
+  // The separator between two quoted values
+  private static final String VALUE_SEPARATOR = "\",\"";
+
+  // Per writer since number formats are not thread safe
+  private final NumberFormat shortFormat = NumberFormat.getInstance(Locale.US);
 
   private final Context context;
-  private PrintWriter printWriter;
+  private CharBufferWriter writer;
   private int segmentIndex;
   private int pointIndex;
 
   public CsvTrackWriter(Context context) {
     this.context = context;
+    shortFormat.setMaximumFractionDigits(SHORT_FRACTION_DIGITS);
   }
 
   @Override
@@ -74,16 +76,16 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    printWriter = new PrintWriter(outputStream);
+    writer = new CharBufferWriter(outputStream);
     segmentIndex = 0;
     pointIndex = 0;
   }
 
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (writer != null) {
+      writer.flush();
+      writer = null;
     }
   }
 
@@ -174,9 +176,12 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void writeLocation(Location location) {
-    String power = null;
-    String cadence = null;
-    String heartRate = null;
+    boolean hasPower = false;
+    boolean hasCadence = false;
+    boolean hasHeartRate = false;
+    int power = 0;
+    int cadence = 0;
+    int heartRate = 0;
     if (location instanceof MyTracksLocation) {
       SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
 
@@ -184,28 +189,68 @@ public class CsvTrackWriter implements TrackWriter {
         if (sensorDataSet.hasPower()) {
           SensorData sensorData = sensorDataSet.getPower();
           if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            power = Double.toString(sensorData.getValue());
+            hasPower = true;
+            power = sensorData.getValue();
           }
         }
         if (sensorDataSet.hasCadence()) {
           SensorData sensorData = sensorDataSet.getCadence();
           if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            cadence = Double.toString(sensorData.getValue());
+            hasCadence = true;
+            cadence = sensorData.getValue();
           }
         }
         if (sensorDataSet.hasHeartRate()) {
           SensorData sensorData = sensorDataSet.getHeartRate();
           if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            heartRate = Double.toString(sensorData.getValue());
+            hasHeartRate = true;
+            heartRate = sensorData.getValue();
           }
         }
       }
     }
     pointIndex++;
-    writeCommaSeparatedLine(Integer.toString(segmentIndex), Integer.toString(pointIndex),
-        Double.toString(location.getLatitude()), Double.toString(location.getLongitude()),
-        getAltitude(location), getBearing(location), getAccuracy(location), getSpeed(location),
-        StringUtils.formatDateTimeIso8601(location.getTime()), power, cadence, heartRate);
+
+    // Writes the same line as writeCommaSeparatedLine, without creating strings
+    writer.print('"');
+    writer.print(segmentIndex);
+    writer.print(VALUE_SEPARATOR);
+    writer.print(pointIndex);
+    writer.print(VALUE_SEPARATOR);
+    writer.print(location.getLatitude());
+    writer.print(VALUE_SEPARATOR);
+    writer.print(location.getLongitude());
+    writer.print(VALUE_SEPARATOR);
+    if (location.hasAltitude()) {
+      writer.print(location.getAltitude());
+    }
+    writer.print(VALUE_SEPARATOR);
+    if (location.hasBearing()) {
+      writer.print((double) location.getBearing());
+    }
+    writer.print(VALUE_SEPARATOR);
+    if (location.hasAccuracy()) {
+      writer.print(location.getAccuracy(), shortFormat, SHORT_FRACTION_DIGITS);
+    }
+    writer.print(VALUE_SEPARATOR);
+    if (location.hasSpeed()) {
+      writer.print(location.getSpeed(), shortFormat, SHORT_FRACTION_DIGITS);
+    }
+    writer.print(VALUE_SEPARATOR);
+    writer.printIso8601(location.getTime());
+    writer.print(VALUE_SEPARATOR);
+    if (hasPower) {
+      writer.print((double) power);
+    }
+    writer.print(VALUE_SEPARATOR);
+    if (hasCadence) {
+      writer.print((double) cadence);
+    }
+    writer.print(VALUE_SEPARATOR);
+    if (hasHeartRate) {
+      writer.print((double) heartRate);
+    }
+    writer.println("\"");
   }
 
   private String getAltitude(Location location) {
@@ -217,11 +262,11 @@ public class CsvTrackWriter implements TrackWriter {
   }
 
   private String getAccuracy(Location location) {
-    return location.hasAccuracy() ? SHORT_FORMAT.format(location.getAccuracy()) : null;
+    return location.hasAccuracy() ? shortFormat.format(location.getAccuracy()) : null;
   }
 
   private String getSpeed(Location location) {
-    return location.hasSpeed() ? SHORT_FORMAT.format(location.getSpeed()) : null;
+    return location.hasSpeed() ? shortFormat.format(location.getSpeed()) : null;
   }
 
   /**
@@ -244,6 +289,6 @@ public class CsvTrackWriter implements TrackWriter {
       }
       builder.append('"');
     }
-    printWriter.println(builder.toString());
+    writer.println(builder.toString());
   }
 }
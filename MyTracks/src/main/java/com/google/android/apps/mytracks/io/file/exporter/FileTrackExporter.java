@@ -19,6 +19,7 @@ package com.google.android.apps.mytracks.io.file.exporter;
 import com.google.android.apps.mytracks.Constants;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
@@ -44,6 +45,21 @@ public class FileTrackExporter implements TrackExporter {
   private final Track[] tracks;
   private final TrackWriter trackWriter;
   private final TrackExporterListener trackExporterListener;
+  private final TrackPointSource trackPointSource;
+
+  /**
+   * A source of the track points to write.
+   */
+  public interface TrackPointSource {
+
+    /**
+     * Gets an iterator over the track points of a track, in ascending order.
+     * 
+     * @param track the track
+     * @param locationFactory the location factory
+     */
+    LocationIterator getLocationIterator(Track track, LocationFactory locationFactory);
+  }
 
   /**
    * Constructor.
@@ -55,10 +71,27 @@ public class FileTrackExporter implements TrackExporter {
    */
   public FileTrackExporter(MyTracksProviderUtils myTracksProviderUtils, Track[] tracks,
       TrackWriter trackWriter, TrackExporterListener trackExporterListener) {
+    this(myTracksProviderUtils, tracks, trackWriter, trackExporterListener, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param tracks the tracks
+   * @param trackWriter the track writer
+   * @param trackExporterListener the track export listener
+   * @param trackPointSource the source of the track points. null to read them
+   *          from the my tracks provider utils
+   */
+  public FileTrackExporter(MyTracksProviderUtils myTracksProviderUtils, Track[] tracks,
+      TrackWriter trackWriter, TrackExporterListener trackExporterListener,
+      TrackPointSource trackPointSource) {
     this.myTracksProviderUtils = myTracksProviderUtils;
     this.tracks = tracks;
     this.trackWriter = trackWriter;
     this.trackExporterListener = trackExporterListener;
+    this.trackPointSource = trackPointSource;
   }
 
   @Override
@@ -138,8 +171,10 @@ public class FileTrackExporter implements TrackExporter {
     LocationIterator locationIterator = null;
 
     try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, locationFactory);
+      locationIterator = trackPointSource != null ? trackPointSource.getLocationIterator(
+          track, locationFactory)
+          : myTracksProviderUtils.getTrackPointLocationIterator(
+              track.getId(), -1L, false, locationFactory);
 
       while (locationIterator.hasNext()) {
         if (Thread.interrupted()) {
@@ -182,6 +217,10 @@ public class FileTrackExporter implements TrackExporter {
         locationFactory.swapLocations();
         isLastLocationValid = isLocationValid;
       }
+      // The iterator ends early when interrupted while waiting for track points
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
 
       if (wroteSegment) {
         trackWriter.writeCloseSegment();
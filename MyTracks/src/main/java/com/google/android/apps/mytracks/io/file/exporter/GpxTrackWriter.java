@@ -26,7 +26,6 @@ import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.text.NumberFormat;
 import java.util.Locale;
 
@@ -37,26 +36,32 @@ import java.util.Locale;
  */
 public class GpxTrackWriter implements TrackWriter {
 
-  private static final NumberFormat ELEVATION_FORMAT = NumberFormat.getInstance(Locale.US);
-  private static final NumberFormat COORDINATE_FORMAT = NumberFormat.getInstance(Locale.US);
-  static {
-    /*
-     * GPX readers expect to see fractional numbers with US-style punctuation.
-     * That is, they want periods for decimal points, rather than commas.
-     */
-    ELEVATION_FORMAT.setMaximumFractionDigits(1);
-    ELEVATION_FORMAT.setGroupingUsed(false);
+  private static final int ELEVATION_FRACTION_DIGITS = 1;
+  private static final int COORDINATE_FRACTION_DIGITS = 6;
 
-    COORDINATE_FORMAT.setMaximumFractionDigits(6);
-    COORDINATE_FORMAT.setMaximumIntegerDigits(3);
-    COORDINATE_FORMAT.setGroupingUsed(false);
-  }
+  /*
+   * Used by the writer for the values it can't format itself. Per writer
+   * since number formats are not thread safe.
+   */
+  private final NumberFormat elevationFormat = NumberFormat.getInstance(Locale.US);
+  private final NumberFormat coordinateFormat = NumberFormat.getInstance(Locale.US);
 
   private final Context context;
-  private PrintWriter printWriter;
+  private CharBufferWriter writer;
 
   public GpxTrackWriter(Context context) {
     this.context = context;
+
+    /*
+     * GPX readers expect to see fractional numbers with US-style punctuation.
+     * That is, they want periods for decimal points, rather than commas.
+     */
+    elevationFormat.setMaximumFractionDigits(ELEVATION_FRACTION_DIGITS);
+    elevationFormat.setGroupingUsed(false);
+
+    coordinateFormat.setMaximumFractionDigits(COORDINATE_FRACTION_DIGITS);
+    coordinateFormat.setMaximumIntegerDigits(3);
+    coordinateFormat.setGroupingUsed(false);
   }
 
   @Override
@@ -66,45 +71,45 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.writer = new CharBufferWriter(outputStream);
   }
   
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (writer != null) {
+      writer.flush();
+      writer = null;
     }
   }
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<gpx");
-      printWriter.println("version=\"1.1\"");
-      printWriter.println(
+    if (writer != null) {
+      writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      writer.println("<gpx");
+      writer.println("version=\"1.1\"");
+      writer.println(
           "creator=\"" + context.getString(R.string.send_google_by_my_tracks, "", "") + "\"");
-      printWriter.println("xmlns=\"http://www.topografix.com/GPX/1/1\"");
-      printWriter.println(
+      writer.println("xmlns=\"http://www.topografix.com/GPX/1/1\"");
+      writer.println(
           "xmlns:topografix=\"http://www.topografix.com/GPX/Private/TopoGrafix/0/1\"");
-      printWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-      printWriter.println("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1"
+      writer.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+      writer.println("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1"
           + " http://www.topografix.com/GPX/1/1/gpx.xsd"
           + " http://www.topografix.com/GPX/Private/TopoGrafix/0/1"
           + " http://www.topografix.com/GPX/Private/TopoGrafix/0/1/topografix.xsd\">");
-      printWriter.println("<metadata>");
+      writer.println("<metadata>");
       Track track = tracks[0];
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
-      printWriter.println("</metadata>");
+      writer.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      writer.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
+      writer.println("</metadata>");
     }
   }
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("</gpx>");
+    if (writer != null) {
+      writer.println("</gpx>");
     }
   }
 
@@ -120,21 +125,26 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    if (printWriter != null) {
+    if (writer != null) {
       Location location = waypoint.getLocation();
       if (location != null) {
-        printWriter.println("<wpt " + formatLocation(location) + ">");
+        writer.print("<wpt ");
+        writeCoordinates(location);
+        writer.println(">");
         if (location.hasAltitude()) {
-          printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
+          writer.print("<ele>");
+          writer.print(location.getAltitude(), elevationFormat, ELEVATION_FRACTION_DIGITS);
+          writer.println("</ele>");
         }
-        printWriter.println(
-            "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
-        printWriter.println("<name>" + StringUtils.formatCData(waypoint.getName()) + "</name>");
-        printWriter.println("<cmt>" + StringUtils.formatCData(waypoint.getType().name()) + "</cmt>");
-        printWriter.println(
+        writer.print("<time>");
+        writer.printIso8601(location.getTime());
+        writer.println("</time>");
+        writer.println("<name>" + StringUtils.formatCData(waypoint.getName()) + "</name>");
+        writer.println("<cmt>" + StringUtils.formatCData(waypoint.getType().name()) + "</cmt>");
+        writer.println(
             "<desc>" + StringUtils.formatCData(waypoint.getDescription()) + "</desc>");
-        printWriter.println("<type>" + StringUtils.formatCData(waypoint.getCategory()) + "</type>");
-        printWriter.println("</wpt>");
+        writer.println("<type>" + StringUtils.formatCData(waypoint.getCategory()) + "</type>");
+        writer.println("</wpt>");
       }
     }
   }
@@ -151,52 +161,60 @@ public class GpxTrackWriter implements TrackWriter {
   
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
-    if (printWriter != null) {
-      printWriter.println("<trk>");
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
-      printWriter.println("<type>" + StringUtils.formatCData(track.getCategory()) + "</type>");
-      printWriter.println("<extensions><topografix:color>c0c0c0</topografix:color></extensions>");
+    if (writer != null) {
+      writer.println("<trk>");
+      writer.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      writer.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
+      writer.println("<type>" + StringUtils.formatCData(track.getCategory()) + "</type>");
+      writer.println("<extensions><topografix:color>c0c0c0</topografix:color></extensions>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</trk>");
+    if (writer != null) {
+      writer.println("</trk>");
     }
   }
 
   @Override
   public void writeOpenSegment() {
-    printWriter.println("<trkseg>");
+    writer.println("<trkseg>");
   }
 
   @Override
   public void writeCloseSegment() {
-    printWriter.println("</trkseg>");
+    writer.println("</trkseg>");
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println("<trkpt " + formatLocation(location) + ">");
+    if (writer != null) {
+      writer.print("<trkpt ");
+      writeCoordinates(location);
+      writer.println(">");
       if (location.hasAltitude()) {
-        printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
+        writer.print("<ele>");
+        writer.print(location.getAltitude(), elevationFormat, ELEVATION_FRACTION_DIGITS);
+        writer.println("</ele>");
       }
-      printWriter.println(
-          "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
-      printWriter.println("</trkpt>");
+      writer.print("<time>");
+      writer.printIso8601(location.getTime());
+      writer.println("</time>");
+      writer.println("</trkpt>");
     }
   }
 
   /**
-   * Formats a location with latitude and longitude coordinates.
+   * Writes the latitude and longitude attributes of a location.
    * 
    * @param location the location
    */
-  private String formatLocation(Location location) {
-    return "lat=\"" + COORDINATE_FORMAT.format(location.getLatitude()) + "\" lon=\""
-        + COORDINATE_FORMAT.format(location.getLongitude()) + "\"";
+  private void writeCoordinates(Location location) {
+    writer.print("lat=\"");
+    writer.print(location.getLatitude(), coordinateFormat, COORDINATE_FRACTION_DIGITS);
+    writer.print("\" lon=\"");
+    writer.print(location.getLongitude(), coordinateFormat, COORDINATE_FRACTION_DIGITS);
+    writer.print('"');
   }
 }
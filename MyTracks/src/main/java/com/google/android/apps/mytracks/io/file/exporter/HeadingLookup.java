@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import android.location.Location;
+
+/**
+ * Looks up the camera heading to a location from the track points written
+ * before it. The most recent track points are kept in a ring buffer, filled as
+ * the track points are streamed to the writer, so that looking up a heading
+ * doesn't query the track points. The heading to a location is the bearing
+ * from the oldest of the {@link #SIZE} most recent track points to the
+ * location, so the camera looks along the track.
+ */
+class HeadingLookup {
+
+  /**
+   * The number of track points kept.
+   */
+  static final int SIZE = 10;
+
+  private final double[] latitudes = new double[SIZE];
+  private final double[] longitudes = new double[SIZE];
+  private final float[] results = new float[2];
+
+  // The index of the next track point and the number of track points
+  private int next = 0;
+  private int count = 0;
+
+  /**
+   * Adds a track point. Copies its values since the locations of the exporter
+   * are reused.
+   *
+   * @param location the track point
+   */
+  void add(Location location) {
+    latitudes[next] = location.getLatitude();
+    longitudes[next] = location.getLongitude();
+    next = (next + 1) % SIZE;
+    count = Math.min(count + 1, SIZE);
+  }
+
+  /**
+   * Gets the heading to a location. Returns the location bearing if there is
+   * no track point.
+   *
+   * @param location the location
+   */
+  float getHeading(Location location) {
+    if (count == 0) {
+      return location.getBearing();
+    }
+    int oldest = (next + SIZE - count) % SIZE;
+    Location.distanceBetween(latitudes[oldest], longitudes[oldest], location.getLatitude(),
+        location.getLongitude(), results);
+    return results[1];
+  }
+
+  /**
+   * Removes all the track points.
+   */
+  void clear() {
+    next = 0;
+    count = 0;
+  }
+}
@@ -18,13 +18,13 @@ package com.google.android.apps.mytracks.io.file.exporter;
 import com.google.android.apps.mytracks.content.DescriptionGenerator;
 import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorData;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.io.file.ColumnBuffer;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
 import com.google.android.apps.mytracks.util.GoogleEarthUtils;
 import com.google.android.apps.mytracks.util.StringUtils;
@@ -32,14 +32,16 @@ import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.location.Location;
 import android.net.Uri;
+import android.util.Log;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * Write track as KML to a file.
@@ -48,6 +50,11 @@ import java.util.ArrayList;
  */
 public class KmlTrackWriter implements TrackWriter {
 
+  private static final String TAG = KmlTrackWriter.class.getSimpleName();
+
+  // The max number of sensor values of a segment kept in memory, per sensor
+  private static final int MAX_IN_MEMORY_SENSOR_VALUES = 16384;
+
   private static final String WAYPOINT_STYLE = "waypoint";
   private static final String STATISTICS_STYLE = "statistics";
   private static final String START_STYLE = "start";
@@ -73,16 +80,35 @@ public class KmlTrackWriter implements TrackWriter {
   private final boolean multiple;
   private final boolean playTrack;
   private final DescriptionGenerator descriptionGenerator;  
-  private final MyTracksProviderUtils myTracksProviderUtils;
 
-  private PrintWriter printWriter;
-  private final ArrayList<Integer> powerList = new ArrayList<Integer>();
-  private final ArrayList<Integer> cadenceList = new ArrayList<Integer>();
-  private final ArrayList<Integer> heartRateList = new ArrayList<Integer>();
+  private CharBufferWriter writer;
+  private final ColumnBuffer powerColumn;
+  private final ColumnBuffer cadenceColumn;
+  private final ColumnBuffer heartRateColumn;
   private boolean hasPower;
   private boolean hasCadence;
   private boolean hasHeartRate;
 
+  // True if the sensor data of the current segment can't be buffered
+  private boolean sensorDataFailed;
+
+  // Looks up the photo headings from the track points of the current track
+  private final HeadingLookup headingLookup = new HeadingLookup();
+
+  // The marker folders with photos, written after the tracks
+  private final ArrayList<MarkerFolder> photoMarkerFolders = new ArrayList<MarkerFolder>();
+
+  // The marker folder being read
+  private MarkerFolder markerFolder;
+
+  // The marker folder of the current track and its next photo without heading
+  private MarkerFolder trackMarkerFolder;
+  private int nextPhoto;
+
+  // The start time of the first track and the time offset of the current track
+  private long startTime;
+  private long timeOffset;
+
   public KmlTrackWriter(Context context, boolean multiple, boolean playTrack) {
     this(context, multiple, playTrack, new DescriptionGeneratorImpl(context));
   }
@@ -94,7 +120,10 @@ public class KmlTrackWriter implements TrackWriter {
     this.multiple = multiple;
     this.playTrack = playTrack;
     this.descriptionGenerator = descriptionGenerator;
-    this.myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    File cacheDir = context.getCacheDir();
+    powerColumn = new ColumnBuffer(MAX_IN_MEMORY_SENSOR_VALUES, cacheDir);
+    cadenceColumn = new ColumnBuffer(MAX_IN_MEMORY_SENSOR_VALUES, cacheDir);
+    heartRateColumn = new ColumnBuffer(MAX_IN_MEMORY_SENSOR_VALUES, cacheDir);
   }
 
   @Override
@@ -104,30 +133,33 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.writer = new CharBufferWriter(outputStream);
   }
 
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (writer != null) {
+      writer.flush();
+      writer = null;
     }
+    clearSensorData();
   }
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"");
-      printWriter.println("xmlns:gx=\"http://www.google.com/kml/ext/2.2\"");
-      printWriter.println("xmlns:atom=\"http://www.w3.org/2005/Atom\">");
-      printWriter.println("<Document>");
-      printWriter.println("<open>1</open>");
-      printWriter.println("<visibility>1</visibility>");
+    if (writer != null) {
+      writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      writer.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"");
+      writer.println("xmlns:gx=\"http://www.google.com/kml/ext/2.2\"");
+      writer.println("xmlns:atom=\"http://www.w3.org/2005/Atom\">");
+      writer.println("<Document>");
+      writer.println("<open>1</open>");
+      writer.println("<visibility>1</visibility>");
       Track track = tracks[0];
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<atom:author><atom:name>"
+      startTime = track.getTripStatistics().getStartTime();
+      photoMarkerFolders.clear();
+      writer.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      writer.println("<atom:author><atom:name>"
           + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", ""))
           + "</atom:name></atom:author>");
       writeTrackStyle();
@@ -135,99 +167,113 @@ public class KmlTrackWriter implements TrackWriter {
       writePlacemarkerStyle(END_STYLE, END_ICON, 32, 1);
       writePlacemarkerStyle(STATISTICS_STYLE, STATISTICS_ICON, 20, 2);
       writePlacemarkerStyle(WAYPOINT_STYLE, WAYPOINT_ICON, 20, 2);
-      printWriter.println("<Schema id=\"" + SCHEMA_ID + "\">");
+      writer.println("<Schema id=\"" + SCHEMA_ID + "\">");
       writeSensorStyle(POWER, context.getString(R.string.description_sensor_power));
       writeSensorStyle(CADENCE, context.getString(R.string.description_sensor_cadence));
       writeSensorStyle(HEART_RATE, context.getString(R.string.description_sensor_heart_rate));
-      printWriter.println("</Schema>");
+      writer.println("</Schema>");
     }
   }
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("</Document>");
-      printWriter.println("</kml>");
+    if (writer != null) {
+      writer.println("</Document>");
+      writer.println("</kml>");
     }
   }
 
   @Override
   public void writeBeginWaypoints(Track track) {
-    if (printWriter != null) {
-      printWriter.println("<Folder><name>"
-          + StringUtils.formatCData(context.getString(R.string.track_markers, track.getName()))
-          + "</name>");
-      printWriter.println("<open>1</open>");
+    if (writer != null) {
+      markerFolder = new MarkerFolder(track);
     }
   }
 
   @Override
   public void writeEndWaypoints() {
-    if (printWriter != null) {
-      printWriter.println("</Folder>");
+    if (writer != null) {
+      /*
+       * The photo headings are looked up from the track points, written after
+       * the waypoints. Defers the marker folders with photos until then.
+       */
+      if (markerFolder.sortPhotos()) {
+        photoMarkerFolders.add(markerFolder);
+      } else {
+        writeMarkerFolder(markerFolder);
+      }
+      markerFolder = null;
     }
   }
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    if (printWriter != null) {
-      String styleName = waypoint.getType() == WaypointType.STATISTICS ? STATISTICS_STYLE
-          : WAYPOINT_STYLE;
-      String photoUrl = waypoint.getPhotoUrl();
-      if (photoUrl != null && !photoUrl.equals("")) {
-        float heading = getHeading(waypoint.getTrackId(), waypoint.getLocation());
-        writePhotoOverlay(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
-            styleName, waypoint.getLocation(), photoUrl, heading);
-      } else {
-        writePlacemark(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
-            styleName, waypoint.getLocation());
-      }
+    if (writer != null) {
+      markerFolder.waypoints.add(waypoint);
     }
   }
 
   @Override
   public void writeBeginTracks() {
-    if (printWriter != null && multiple) {
-      printWriter.println("<Folder id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
-      printWriter.println("<name>" + context.getString(R.string.generic_tracks) + "</name>");
-      printWriter.println("<open>1</open>");
+    if (writer != null && multiple) {
+      writer.println("<Folder id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
+      writer.println("<name>" + context.getString(R.string.generic_tracks) + "</name>");
+      writer.println("<open>1</open>");
     }
   }
 
   @Override
   public void writeEndTracks() {
-    if (printWriter != null && multiple) {
-      printWriter.println("</Folder>");
+    if (writer != null) {
+      if (multiple) {
+        writer.println("</Folder>");
+      }
+      for (int i = 0; i < photoMarkerFolders.size(); i++) {
+        writeMarkerFolder(photoMarkerFolders.get(i));
+      }
+      photoMarkerFolders.clear();
     }
   }
   
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
-    if (printWriter != null) {
+    if (writer != null) {
+      headingLookup.clear();
+      trackMarkerFolder = null;
+      nextPhoto = 0;
+      for (int i = 0; i < photoMarkerFolders.size(); i++) {
+        if (photoMarkerFolders.get(i).track.getId() == track.getId()) {
+          trackMarkerFolder = photoMarkerFolders.get(i);
+          break;
+        }
+      }
+      timeOffset = track.getTripStatistics().getStartTime() - startTime;
       String name = context.getString(R.string.marker_label_start, track.getName());
       writePlacemark(name, "", "", START_STYLE, startLocation);
       if (multiple) {
         // No need to add TOUR_FEATURE_ID_VALUE
-        printWriter.println("<Placemark>");
+        writer.println("<Placemark>");
       } else {
-        printWriter.println("<Placemark id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
+        writer.println("<Placemark id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
       }
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println(
+      writer.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      writer.println(
           "<description>" + StringUtils.formatCData(track.getDescription()) + "</description>");
-      printWriter.println("<styleUrl>#" + TRACK_STYLE + "</styleUrl>");
+      writer.println("<styleUrl>#" + TRACK_STYLE + "</styleUrl>");
       writeCategory(track.getCategory());
-      printWriter.println("<gx:MultiTrack>");
-      printWriter.println("<altitudeMode>absolute</altitudeMode>");
-      printWriter.println("<gx:interpolate>1</gx:interpolate>");
+      writer.println("<gx:MultiTrack>");
+      writer.println("<altitudeMode>absolute</altitudeMode>");
+      writer.println("<gx:interpolate>1</gx:interpolate>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</gx:MultiTrack>");
-      printWriter.println("</Placemark>");
+    if (writer != null) {
+      lookUpHeadings(Long.MAX_VALUE);
+      trackMarkerFolder = null;
+      writer.println("</gx:MultiTrack>");
+      writer.println("</Placemark>");
       String name = context.getString(R.string.marker_label_end, track.getName());
       String description = descriptionGenerator.generateTrackDescription(track, null, null, false);
       writePlacemark(name, "", description, END_STYLE, endLocation);
@@ -236,44 +282,54 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void writeOpenSegment() {
-    if (printWriter != null) {
-      printWriter.println("<gx:Track>");
+    if (writer != null) {
+      writer.println("<gx:Track>");
       hasPower = false;
       hasCadence = false;
       hasHeartRate = false;
-      powerList.clear();
-      cadenceList.clear();
-      heartRateList.clear();
+      clearSensorData();
     }
   }
 
   @Override
   public void writeCloseSegment() {
-    if (printWriter != null) {
-      printWriter.println("<ExtendedData>");
-      printWriter.println("<SchemaData schemaUrl=\"#" + SCHEMA_ID + "\">");
-      if (hasPower) {
-        writeSensorData(powerList, POWER);
-      }
-      if (hasCadence) {
-        writeSensorData(cadenceList, CADENCE);
-      }
-      if (hasHeartRate) {
-        writeSensorData(heartRateList, HEART_RATE);
+    if (writer != null) {
+      writer.println("<ExtendedData>");
+      writer.println("<SchemaData schemaUrl=\"#" + SCHEMA_ID + "\">");
+      if (!sensorDataFailed) {
+        if (hasPower) {
+          writeSensorData(powerColumn, POWER);
+        }
+        if (hasCadence) {
+          writeSensorData(cadenceColumn, CADENCE);
+        }
+        if (hasHeartRate) {
+          writeSensorData(heartRateColumn, HEART_RATE);
+        }
       }
-      printWriter.println("</SchemaData>");
-      printWriter.println("</ExtendedData>");
-      printWriter.println("</gx:Track>");
+      clearSensorData();
+      writer.println("</SchemaData>");
+      writer.println("</ExtendedData>");
+      writer.println("</gx:Track>");
     }
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println(
-          "<when>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when>");
-      printWriter.println("<gx:coord>" + getCoordinates(location, " ") + "</gx:coord>");
-      if (location instanceof MyTracksLocation) {
+    if (writer != null) {
+      // The photo times aren't offset
+      long time = location.getTime() + timeOffset;
+      lookUpHeadings(time - 1L);
+      headingLookup.add(location);
+      lookUpHeadings(time);
+
+      writer.print("<when>");
+      writer.printIso8601(location.getTime());
+      writer.println("</when>");
+      writer.print("<gx:coord>");
+      writeCoordinates(location, ' ');
+      writer.println("</gx:coord>");
+      if (location instanceof MyTracksLocation && !sensorDataFailed) {
         SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
         int power = -1;
         int cadence = -1;
@@ -302,9 +358,14 @@ public class KmlTrackWriter implements TrackWriter {
             }
           }
         }
-        powerList.add(power);
-        cadenceList.add(cadence);
-        heartRateList.add(heartRate);
+        try {
+          powerColumn.addInt(power);
+          cadenceColumn.addInt(cadence);
+          heartRateColumn.addInt(heartRate);
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to buffer the sensor data", e);
+          sensorDataFailed = true;
+        }
       }
     }
   }
@@ -312,15 +373,32 @@ public class KmlTrackWriter implements TrackWriter {
   /**
    * Writes the sensor data.
    * 
-   * @param list a list of sensor data
+   * @param column the column of sensor data
    * @param name the name of the sensor data
    */
-  private void writeSensorData(ArrayList<Integer> list, String name) {
-    printWriter.println("<gx:SimpleArrayData name=\"" + name + "\">");
-    for (int i = 0; i < list.size(); i++) {
-      printWriter.println("<gx:value>" + list.get(i) + "</gx:value>");
+  private void writeSensorData(ColumnBuffer column, String name) {
+    writer.println("<gx:SimpleArrayData name=\"" + name + "\">");
+    try {
+      while (column.hasNext()) {
+        int value = column.nextInt();
+        writer.print("<gx:value>");
+        writer.print(value);
+        writer.println("</gx:value>");
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to read the sensor data", e);
     }
-    printWriter.println("</gx:SimpleArrayData>");
+    writer.println("</gx:SimpleArrayData>");
+  }
+
+  /**
+   * Clears the sensor data of the current segment, deleting any spill files.
+   */
+  private void clearSensorData() {
+    powerColumn.clear();
+    cadenceColumn.clear();
+    heartRateColumn.clear();
+    sensorDataFailed = false;
   }
 
   /**
@@ -335,18 +413,21 @@ public class KmlTrackWriter implements TrackWriter {
   private void writePlacemark(
       String name, String category, String description, String styleName, Location location) {
     if (location != null) {
-      printWriter.println("<Placemark>");
-      printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
-      printWriter.println(
+      writer.println("<Placemark>");
+      writer.println("<name>" + StringUtils.formatCData(name) + "</name>");
+      writer.println(
           "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.println("<TimeStamp><when>"
-          + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
-      printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
+      writer.print("<TimeStamp><when>");
+      writer.printIso8601(location.getTime());
+      writer.println("</when></TimeStamp>");
+      writer.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
-      printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
-      printWriter.println("</Point>");
-      printWriter.println("</Placemark>");
+      writer.println("<Point>");
+      writer.print("<coordinates>");
+      writeCoordinates(location, ',');
+      writer.println("</coordinates>");
+      writer.println("</Point>");
+      writer.println("</Placemark>");
     }
   }
   
@@ -364,78 +445,107 @@ public class KmlTrackWriter implements TrackWriter {
   private void writePhotoOverlay(String name, String category, String description, String styleName,
       Location location, String photoUrl, float heading) {
     if (location != null) {
-      printWriter.println("<PhotoOverlay>");
-      printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
-      printWriter.println(
+      writer.println("<PhotoOverlay>");
+      writer.println("<name>" + StringUtils.formatCData(name) + "</name>");
+      writer.println(
           "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.print("<Camera>");
-      printWriter.print("<longitude>" + location.getLongitude() + "</longitude>");
-      printWriter.print("<latitude>" + location.getLatitude() + "</latitude>");
-      printWriter.print("<altitude>20</altitude>");
-      printWriter.print("<heading>" + heading + "</heading>");
-      printWriter.print("<tilt>90</tilt>");
-      printWriter.println("</Camera>");
-      printWriter.println("<TimeStamp><when>"
-          + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
-      printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
+      writer.print("<Camera>");
+      writer.print("<longitude>" + location.getLongitude() + "</longitude>");
+      writer.print("<latitude>" + location.getLatitude() + "</latitude>");
+      writer.print("<altitude>20</altitude>");
+      writer.print("<heading>" + heading + "</heading>");
+      writer.print("<tilt>90</tilt>");
+      writer.println("</Camera>");
+      writer.print("<TimeStamp><when>");
+      writer.printIso8601(location.getTime());
+      writer.println("</when></TimeStamp>");
+      writer.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
       if (playTrack) {
-        printWriter.println("<Icon><href>" + Uri.decode(photoUrl) + "</href></Icon>"); 
+        writer.println("<Icon><href>" + Uri.decode(photoUrl) + "</href></Icon>"); 
       } else {
         Uri uri = Uri.parse(photoUrl);
-        printWriter.println("<Icon><href>" + KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
+        writer.println("<Icon><href>" + KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
             + uri.getLastPathSegment() + "</href></Icon>");        
       }
       
-      printWriter.print("<ViewVolume>");
-      printWriter.print("<near>10</near>");
-      printWriter.print("<leftFov>-60</leftFov>");
-      printWriter.print("<rightFov>60</rightFov>");
-      printWriter.print("<bottomFov>-45</bottomFov>");
-      printWriter.print("<topFov>45</topFov>");
-      printWriter.println("</ViewVolume>");
-      printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
-      printWriter.println("</Point>");
-      printWriter.println("</PhotoOverlay>");
+      writer.print("<ViewVolume>");
+      writer.print("<near>10</near>");
+      writer.print("<leftFov>-60</leftFov>");
+      writer.print("<rightFov>60</rightFov>");
+      writer.print("<bottomFov>-45</bottomFov>");
+      writer.print("<topFov>45</topFov>");
+      writer.println("</ViewVolume>");
+      writer.println("<Point>");
+      writer.print("<coordinates>");
+      writeCoordinates(location, ',');
+      writer.println("</coordinates>");
+      writer.println("</Point>");
+      writer.println("</PhotoOverlay>");
     }
   }
 
   /**
-   * Gets the heading to a location.
+   * Looks up the headings of the photos of the current track taken up to a
+   * time, from the track points written so far.
    * 
-   * @param trackId the track id containing the location
-   * @param location the location
+   * @param time the time
    */
-  private float getHeading(long trackId, Location location) {
-    long trackPointId = myTracksProviderUtils.getTrackPointId(trackId, location);
-    if (trackPointId == -1L) {
-      return location.getBearing();
+  private void lookUpHeadings(long time) {
+    if (trackMarkerFolder == null) {
+      return;
     }
-    Cursor cursor = null;
-    Location viewLocation;
-    try {
-      cursor = myTracksProviderUtils.getTrackPointCursor(trackId, trackPointId, 10, true);
-      if (cursor == null || cursor.getCount() == 0) {
-        return location.getBearing();
+    int[] photos = trackMarkerFolder.photos;
+    while (nextPhoto < photos.length) {
+      Location location = trackMarkerFolder.waypoints.get(photos[nextPhoto]).getLocation();
+      if (location.getTime() > time) {
+        return;
       }
-      cursor.moveToPosition(cursor.getCount() - 1);
-      viewLocation = myTracksProviderUtils.createTrackPoint(cursor);
-    } finally {
-      if (cursor != null) {
-        cursor.close();
+      trackMarkerFolder.headings[photos[nextPhoto]] = headingLookup.getHeading(location);
+      nextPhoto++;
+    }
+  }
+
+  /**
+   * Writes a marker folder.
+   * 
+   * @param folder the marker folder
+   */
+  private void writeMarkerFolder(MarkerFolder folder) {
+    String name = context.getString(R.string.track_markers, folder.track.getName());
+    writer.println("<Folder><name>" + StringUtils.formatCData(name) + "</name>");
+    writer.println("<open>1</open>");
+    for (int i = 0; i < folder.waypoints.size(); i++) {
+      Waypoint waypoint = folder.waypoints.get(i);
+      String styleName = waypoint.getType() == WaypointType.STATISTICS ? STATISTICS_STYLE
+          : WAYPOINT_STYLE;
+      String photoUrl = waypoint.getPhotoUrl();
+      if (photoUrl != null && !photoUrl.equals("")) {
+        writePhotoOverlay(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
+            styleName, waypoint.getLocation(), photoUrl, folder.headings[i]);
+      } else {
+        writePlacemark(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
+            styleName, waypoint.getLocation());
       }
-    }  
-    return viewLocation.bearingTo(location);
+    }
+    writer.println("</Folder>");
   }
-  
-  private String getCoordinates(Location location, String separator) {
-    StringBuffer buffer = new StringBuffer();
-    buffer.append(location.getLongitude() + separator + location.getLatitude());
+
+  /**
+   * Writes the coordinates of a location, the longitude, the latitude, and the
+   * altitude if any.
+   * 
+   * @param location the location
+   * @param separator the separator between the coordinates
+   */
+  private void writeCoordinates(Location location, char separator) {
+    writer.print(location.getLongitude());
+    writer.print(separator);
+    writer.print(location.getLatitude());
     if (location.hasAltitude()) {
-      buffer.append(separator + location.getAltitude());
+      writer.print(separator);
+      writer.print(location.getAltitude());
     }
-    return buffer.toString();    
   }
 
   /**
@@ -447,23 +557,23 @@ public class KmlTrackWriter implements TrackWriter {
     if (category == null || category.equals("")) {
       return;
     }
-    printWriter.println("<ExtendedData>");
-    printWriter.println(
+    writer.println("<ExtendedData>");
+    writer.println(
         "<Data name=\"type\"><value>" + StringUtils.formatCData(category) + "</value></Data>");
-    printWriter.println("</ExtendedData>");
+    writer.println("</ExtendedData>");
   }
 
   /**
    * Writes the track style.
    */
   private void writeTrackStyle() {
-    printWriter.println("<Style id=\"" + TRACK_STYLE + "\">");
-    printWriter.println("<LineStyle><color>7f0000ff</color><width>4</width></LineStyle>");
-    printWriter.println("<IconStyle>");
-    printWriter.println("<scale>1.3</scale>");
-    printWriter.println("<Icon><href>" + TRACK_ICON + "</href></Icon>");
-    printWriter.println("</IconStyle>");
-    printWriter.println("</Style>");
+    writer.println("<Style id=\"" + TRACK_STYLE + "\">");
+    writer.println("<LineStyle><color>7f0000ff</color><width>4</width></LineStyle>");
+    writer.println("<IconStyle>");
+    writer.println("<scale>1.3</scale>");
+    writer.println("<Icon><href>" + TRACK_ICON + "</href></Icon>");
+    writer.println("</IconStyle>");
+    writer.println("</Style>");
   }
 
   /**
@@ -475,12 +585,12 @@ public class KmlTrackWriter implements TrackWriter {
    * @param y the y position of the hotspot
    */
   private void writePlacemarkerStyle(String name, String url, int x, int y) {
-    printWriter.println("<Style id=\"" + name + "\"><IconStyle>");
-    printWriter.println("<scale>1.3</scale>");
-    printWriter.println("<Icon><href>" + url + "</href></Icon>");
-    printWriter.println(
+    writer.println("<Style id=\"" + name + "\"><IconStyle>");
+    writer.println("<scale>1.3</scale>");
+    writer.println("<Icon><href>" + url + "</href></Icon>");
+    writer.println(
         "<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\"/>");
-    printWriter.println("</IconStyle></Style>");
+    writer.println("</IconStyle></Style>");
   }
 
   /**
@@ -490,8 +600,60 @@ public class KmlTrackWriter implements TrackWriter {
    * @param displayName the sensor display name
    */
   private void writeSensorStyle(String name, String displayName) {
-    printWriter.println("<gx:SimpleArrayField name=\"" + name + "\" type=\"int\">");
-    printWriter.println("<displayName>" + StringUtils.formatCData(displayName) + "</displayName>");
-    printWriter.println("</gx:SimpleArrayField>");
+    writer.println("<gx:SimpleArrayField name=\"" + name + "\" type=\"int\">");
+    writer.println("<displayName>" + StringUtils.formatCData(displayName) + "</displayName>");
+    writer.println("</gx:SimpleArrayField>");
+  }
+
+  /**
+   * The markers of a track.
+   */
+  private static class MarkerFolder {
+    private final Track track;
+    private final ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
+
+    // The indices of the photo waypoints with a location, by time
+    private int[] photos;
+
+    // The headings of the photo waypoints, by waypoint index
+    private float[] headings;
+
+    MarkerFolder(Track track) {
+      this.track = track;
+    }
+
+    /**
+     * Sorts the photo waypoints by time. Returns true if there is any.
+     */
+    boolean sortPhotos() {
+      headings = new float[waypoints.size()];
+      ArrayList<Integer> indices = new ArrayList<Integer>();
+      for (int i = 0; i < waypoints.size(); i++) {
+        String photoUrl = waypoints.get(i).getPhotoUrl();
+        if (photoUrl != null && !photoUrl.equals("") && waypoints.get(i).getLocation() != null) {
+          indices.add(i);
+        }
+      }
+      if (indices.isEmpty()) {
+        return false;
+      }
+      Integer[] sorted = indices.toArray(new Integer[indices.size()]);
+      Arrays.sort(sorted, new Comparator<Integer>() {
+          @Override
+        public int compare(Integer lhs, Integer rhs) {
+          long lhsTime = waypoints.get(lhs).getLocation().getTime();
+          long rhsTime = waypoints.get(rhs).getLocation().getTime();
+          return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+        }
+      });
+      photos = new int[sorted.length];
+      for (int i = 0; i < sorted.length; i++) {
+        photos[i] = sorted[i];
+      }
+      for (int i = 0; i < photos.length; i++) {
+        headings[photos[i]] = waypoints.get(photos[i]).getLocation().getBearing();
+      }
+      return true;
+    }
   }
 }
@@ -21,6 +21,7 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -29,15 +30,36 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
  * KMZ track exporter.
+ * <p>
+ * The photos are prepared on a pool of workers, downscaled if larger than the
+ * photo size setting, and written to the zip output stream in order. JPEG
+ * photos are stored without compression since deflating them saves little,
+ * unless too large to be read in memory.
+ * The pool of workers and the bitmap memory limit are shared by all the
+ * exporters, e.g., when exporting several tracks in parallel.
  * 
  * @author Jimmy Shih
  */
@@ -47,13 +69,36 @@ public class KmzTrackExporter implements TrackExporter {
   public static final String KMZ_IMAGES_DIR = "images";
   public static final String KMZ_KML_FILE = "doc.kml";
 
+  @VisibleForTesting
+  static final int MAX_WORKERS = 4;
+
+  // The max bitmap memory decoded at once by the workers, in kilobytes
+  @VisibleForTesting
+  static final int MAX_BITMAP_KB = (int) Math.min(
+      32 * 1024, Runtime.getRuntime().maxMemory() / 4 / 1024);
+
+  private static final int NUM_WORKERS = Math.max(
+      1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+  private static final long WORKER_KEEP_ALIVE_SECONDS = 30L;
+
   private static final String TAG = KmzTrackExporter.class.getSimpleName();
-  private static final int BUFFER_SIZE = 4096;
+  private static final int BUFFER_SIZE = 8192;
+
+  // The max number of photos prepared ahead of the zip output stream, per worker
+  private static final int MAX_PENDING_PHOTOS_PER_WORKER = 2;
+
+  // The max size of a photo file stored without compression, read in memory
+  private static final long MAX_STORED_PHOTO_BYTES = 8 * 1024 * 1024;
+
+  // Shared by all the exporters
+  private static final Semaphore bitmapPermits = new Semaphore(MAX_BITMAP_KB);
+  private static final ExecutorService photoExecutor = createPhotoExecutor();
 
   private final MyTracksProviderUtils myTracksProviderUtils;
   private final FileTrackExporter fileTrackExporter;
   private final Track[] tracks;
   private final long photoSize;
+  private final int numWorkers;
 
   /**
    * Constructor.
@@ -65,11 +110,39 @@ public class KmzTrackExporter implements TrackExporter {
    */
   public KmzTrackExporter(MyTracksProviderUtils myTracksProviderUtils,
       FileTrackExporter fileTrackExporter, Track[] tracks, Context context) {
+    this(myTracksProviderUtils, fileTrackExporter, tracks, PreferencesUtils.getInt(
+        context, R.string.photo_size_key, PreferencesUtils.PHOTO_SIZE_DEFAULT), NUM_WORKERS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param fileTrackExporter the file track exporter
+   * @param tracks the tracks to export
+   * @param photoSize the photo size setting, in kilobytes
+   * @param numWorkers the number of workers to prepare photos ahead for. The
+   *          workers are shared by all the exporters
+   */
+  @VisibleForTesting
+  KmzTrackExporter(MyTracksProviderUtils myTracksProviderUtils,
+      FileTrackExporter fileTrackExporter, Track[] tracks, long photoSize, int numWorkers) {
     this.myTracksProviderUtils = myTracksProviderUtils;
     this.fileTrackExporter = fileTrackExporter;
     this.tracks = tracks;
-    this.photoSize = PreferencesUtils.getInt(
-        context, R.string.photo_size_key, PreferencesUtils.PHOTO_SIZE_DEFAULT);
+    this.photoSize = photoSize;
+    this.numWorkers = numWorkers;
+  }
+
+  /**
+   * Creates the pool of workers preparing the photos. Its threads stop when
+   * idle.
+   */
+  private static ExecutorService createPhotoExecutor() {
+    ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(NUM_WORKERS, NUM_WORKERS,
+        WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    threadPoolExecutor.allowCoreThreadTimeOut(true);
+    return threadPoolExecutor;
   }
 
   @Override
@@ -109,7 +182,58 @@ public class KmzTrackExporter implements TrackExporter {
     }
   }
 
+  /**
+   * Adds the photos of the waypoints. The photos are prepared by the workers
+   * and written in the order of the waypoints.
+   * 
+   * @param zipOutputStream the zip output stream
+   */
   private void addImages(ZipOutputStream zipOutputStream) throws InterruptedException, IOException {
+    long start = System.nanoTime();
+    List<String> photoUrls = getPhotoUrls();
+    if (photoUrls.isEmpty()) {
+      return;
+    }
+    int maxPending = numWorkers * MAX_PENDING_PHOTOS_PER_WORKER;
+    LinkedList<Future<PhotoEntry>> pending = new LinkedList<Future<PhotoEntry>>();
+    try {
+      int next = 0;
+      int count = 0;
+      long bytes = 0L;
+      while (next < photoUrls.size() || !pending.isEmpty()) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        while (next < photoUrls.size() && pending.size() < maxPending) {
+          final String photoUrl = photoUrls.get(next++);
+          pending.add(photoExecutor.submit(new Callable<PhotoEntry>() {
+              @Override
+            public PhotoEntry call() throws Exception {
+              return preparePhoto(photoUrl);
+            }
+          }));
+        }
+        PhotoEntry photoEntry = getPhotoEntry(pending.removeFirst());
+        if (photoEntry != null) {
+          bytes += addImage(zipOutputStream, photoEntry);
+          count++;
+        }
+      }
+      Log.d(TAG, String.format(Locale.US, "Added %d photos, %d bytes, in %d ms with %d workers",
+          count, bytes, (System.nanoTime() - start) / 1000000, numWorkers));
+    } finally {
+      // Cancel the photos not written, the pool is shared
+      for (Future<PhotoEntry> future : pending) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Gets the photo urls of the waypoints.
+   */
+  private List<String> getPhotoUrls() throws InterruptedException {
+    List<String> photoUrls = new ArrayList<String>();
     for (Track track : tracks) {
       Cursor cursor = null;
       try {
@@ -126,7 +250,7 @@ public class KmzTrackExporter implements TrackExporter {
             Waypoint waypoint = myTracksProviderUtils.createWaypoint(cursor);
             String photoUrl = waypoint.getPhotoUrl();
             if (photoUrl != null && !photoUrl.equals("")) {
-              addImage(zipOutputStream, photoUrl);
+              photoUrls.add(photoUrl);
             }
           }
         }
@@ -136,19 +260,47 @@ public class KmzTrackExporter implements TrackExporter {
         }
       }
     }
+    return photoUrls;
+  }
+
+  /**
+   * Gets the photo entry prepared by a worker.
+   * 
+   * @param future the future of the worker
+   */
+  private PhotoEntry getPhotoEntry(Future<PhotoEntry> future)
+      throws InterruptedException, IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
   }
 
-  private void addImage(ZipOutputStream zipOutputStream, String photoUrl) throws IOException {
+  /**
+   * Prepares a photo. Called from a worker thread. Returns null if the photo
+   * file doesn't exist.
+   * 
+   * @param photoUrl the photo url
+   */
+  private PhotoEntry preparePhoto(String photoUrl) throws InterruptedException {
     Uri uri = Uri.parse(photoUrl);
     File file = new File(uri.getPath());
     if (!file.exists()) {
       Log.e(TAG, "file not found " + photoUrl);
-      return;
+      return null;
     }
-
-    ZipEntry zipEntry = new ZipEntry(
-        KMZ_IMAGES_DIR + File.separatorChar + uri.getLastPathSegment());
-    zipOutputStream.putNextEntry(zipEntry);
+    String name = KMZ_IMAGES_DIR + File.separatorChar + uri.getLastPathSegment();
 
     int sampleSize;
     if (photoSize == -1) {
@@ -159,40 +311,198 @@ public class KmzTrackExporter implements TrackExporter {
       long limit = photoSize * 1024;
       sampleSize = size > limit ? (int) Math.ceil(size / limit) : 1;
     }
-    if (sampleSize == 1) {
-      readFromFile(zipOutputStream, uri);
+    if (sampleSize != 1) {
+      byte[] data = readFromScaledBitmap(file, sampleSize);
+      if (data != null) {
+        return new PhotoEntry(name, data);
+      }
+    }
+    return new PhotoEntry(name, file, isJpeg(name) && file.length() <= MAX_STORED_PHOTO_BYTES);
+  }
+
+  /**
+   * Adds a photo entry. Returns the number of bytes of the photo. A stored
+   * entry needs its size and crc before it is written, so a stored file is
+   * read once, and its size and crc are computed from the bytes written.
+   * 
+   * @param zipOutputStream the zip output stream
+   * @param photoEntry the photo entry
+   */
+  private long addImage(ZipOutputStream zipOutputStream, PhotoEntry photoEntry)
+      throws IOException {
+    byte[] data = photoEntry.data;
+    if (data == null && photoEntry.stored) {
+      data = readFile(photoEntry.file);
+    }
+    ZipEntry zipEntry = new ZipEntry(photoEntry.name);
+    if (photoEntry.stored) {
+      CRC32 crc32 = new CRC32();
+      crc32.update(data);
+      zipEntry.setMethod(ZipEntry.STORED);
+      zipEntry.setSize(data.length);
+      zipEntry.setCompressedSize(data.length);
+      zipEntry.setCrc(crc32.getValue());
+    }
+    zipOutputStream.putNextEntry(zipEntry);
+    long bytes;
+    if (data != null) {
+      zipOutputStream.write(data);
+      bytes = data.length;
     } else {
-      readFromScaledBitmap(zipOutputStream, uri, sampleSize);
+      bytes = readFromFile(zipOutputStream, photoEntry.file);
     }
     zipOutputStream.closeEntry();
+    return bytes;
   }
 
-  private void readFromScaledBitmap(ZipOutputStream zipOutputStream, Uri uri, int sampleSize) {
+  /**
+   * Downscales a photo into JPEG bytes. Decodes the bounds first to sample the
+   * photo within {@link #MAX_BITMAP_KB}, and waits for that much bitmap memory
+   * to be free before decoding. Returns null if the photo can't be decoded.
+   * 
+   * @param file the photo file
+   * @param sampleSize the sample size
+   */
+  private byte[] readFromScaledBitmap(File file, int sampleSize) throws InterruptedException {
     BitmapFactory.Options options = new BitmapFactory.Options();
-    options.inJustDecodeBounds = false;
-    options.inSampleSize = sampleSize;
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(file.getPath(), options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    while (getBitmapKb(options.outWidth, options.outHeight, sampleSize) > MAX_BITMAP_KB) {
+      sampleSize *= 2;
+    }
+    int permits = getBitmapKb(options.outWidth, options.outHeight, sampleSize);
+    bitmapPermits.acquire(permits);
+    try {
+      options.inJustDecodeBounds = false;
+      options.inSampleSize = sampleSize;
+      Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+      if (bitmap == null) {
+        return null;
+      }
+      try {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+      } finally {
+        bitmap.recycle();
+      }
+    } finally {
+      bitmapPermits.release(permits);
+    }
+  }
 
-    Bitmap bitmap = BitmapFactory.decodeFile(uri.getPath(), options);
-    if (bitmap == null) {
-      return;
+  /**
+   * Gets the memory of a decoded ARGB_8888 bitmap, in kilobytes. The decoder
+   * rounds the sample size down to a power of 2.
+   * 
+   * @param width the photo width
+   * @param height the photo height
+   * @param sampleSize the sample size
+   */
+  private static int getBitmapKb(int width, int height, int sampleSize) {
+    int sample = Integer.highestOneBit(sampleSize);
+    long pixels = (long) ((width + sample - 1) / sample) * ((height + sample - 1) / sample);
+    return (int) Math.min(Integer.MAX_VALUE, pixels * 4 / 1024 + 1);
+  }
+
+  /**
+   * Returns true if a file name is a JPEG file name.
+   * 
+   * @param name the file name
+   */
+  private static boolean isJpeg(String name) {
+    String lowerCaseName = name.toLowerCase(Locale.US);
+    return lowerCaseName.endsWith(".jpg") || lowerCaseName.endsWith(".jpeg");
+  }
+
+  /**
+   * Reads a file.
+   * 
+   * @param file the file
+   */
+  private static byte[] readFile(File file) throws IOException {
+    FileInputStream fileInputStream = null;
+    try {
+      fileInputStream = new FileInputStream(file);
+      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(
+          (int) Math.min(file.length(), MAX_STORED_PHOTO_BYTES));
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int byteCount = 0;
+      while ((byteCount = fileInputStream.read(buffer)) != -1) {
+        byteArrayOutputStream.write(buffer, 0, byteCount);
+      }
+      return byteArrayOutputStream.toByteArray();
+    } finally {
+      if (fileInputStream != null) {
+        fileInputStream.close();
+      }
     }
-    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, zipOutputStream);
-    bitmap.recycle();
   }
 
-  private void readFromFile(ZipOutputStream zipOutputStream, Uri uri) throws IOException {
+  /**
+   * Copies a file to the zip output stream. Returns the number of bytes.
+   * 
+   * @param zipOutputStream the zip output stream
+   * @param file the file
+   */
+  private long readFromFile(ZipOutputStream zipOutputStream, File file) throws IOException {
     FileInputStream fileInputStream = null;
     try {
-      fileInputStream = new FileInputStream(new File(uri.getPath()));
+      fileInputStream = new FileInputStream(file);
       byte[] buffer = new byte[BUFFER_SIZE];
       int byteCount = 0;
+      long bytes = 0L;
       while ((byteCount = fileInputStream.read(buffer)) != -1) {
         zipOutputStream.write(buffer, 0, byteCount);
+        bytes += byteCount;
       }
+      return bytes;
     } finally {
       if (fileInputStream != null) {
         fileInputStream.close();
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * A photo ready to be written to the zip output stream, either as JPEG bytes
+   * or as a file to copy.
+   */
+  private static class PhotoEntry {
+
+    private final String name;
+    private final byte[] data;
+    private final File file;
+    private final boolean stored;
+
+    /**
+     * Creates a stored entry of JPEG bytes.
+     * 
+     * @param name the entry name
+     * @param data the JPEG bytes
+     */
+    PhotoEntry(String name, byte[] data) {
+      this.name = name;
+      this.data = data;
+      this.file = null;
+      this.stored = true;
+    }
+
+    /**
+     * Creates an entry of a file.
+     * 
+     * @param name the entry name
+     * @param file the file
+     * @param stored true to store the file, false to deflate it
+     */
+    PhotoEntry(String name, File file, boolean stored) {
+      this.name = name;
+      this.data = null;
+      this.file = file;
+      this.stored = stored;
+    }
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointBlock;
+import com.google.android.apps.mytracks.io.file.exporter.FileTrackExporter.TrackPointSource;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports tracks, one file per track, with a pool of exporter workers.
+ * <p>
+ * A single reader stage, the calling thread, reads the tracks and their track
+ * points in batches with
+ * {@link MyTracksProviderUtils#readTrackPoints(long, long, TrackPointBlock)}.
+ * Each track is handed to a worker, which formats and writes it with a
+ * {@link TrackSaver}, consuming the track point batches as the reader queues
+ * them. The reader waits for a free worker before starting a track, and for a
+ * free buffer before reading a batch, so at most {@link #MAX_BUFFERED_BLOCKS}
+ * batches are in memory whatever the number of tracks.
+ * <p>
+ * Interrupting the calling thread cancels the export and interrupts the
+ * workers. Throughput statistics of each stage are logged at the end.
+ */
+public class ParallelTrackExporter {
+
+  /**
+   * Saves a track to a file.
+   */
+  public interface TrackSaver {
+
+    /**
+     * Saves a track. Called from a worker thread.
+     *
+     * @param track the track
+     * @param trackPointSource the source of the track points of the track
+     * @return true if saved
+     */
+    boolean saveTrack(Track track, TrackPointSource trackPointSource);
+  }
+
+  @VisibleForTesting
+  static final int MAX_WORKERS = 4;
+
+  @VisibleForTesting
+  static final int MAX_BUFFERED_BLOCKS = 32;
+
+  private static final String TAG = ParallelTrackExporter.class.getSimpleName();
+
+  // Marks the end of the track points of a track
+  private static final TrackPointBlock END_OF_TRACK = new TrackPointBlock(0);
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final TrackSaver trackSaver;
+  private final TrackExporterListener trackExporterListener;
+  private final int numWorkers;
+
+  private final Semaphore workerPermits;
+  private final Semaphore blockPermits = new Semaphore(MAX_BUFFERED_BLOCKS);
+  private final ConcurrentLinkedQueue<TrackPointBlock> spareBlocks
+      = new ConcurrentLinkedQueue<TrackPointBlock>();
+
+  private final AtomicInteger completedCount = new AtomicInteger();
+  private final AtomicInteger successCount = new AtomicInteger();
+  private int totalCount;
+
+  // Reader stage statistics, in nanoseconds
+  private long readTime;
+  private long readWaitTime;
+  private long readPoints;
+
+  // Worker stage statistics, in nanoseconds
+  private final AtomicLong workTime = new AtomicLong();
+  private final AtomicLong workWaitTime = new AtomicLong();
+  private final AtomicLong workPoints = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackSaver the track saver
+   * @param trackExporterListener the listener notified with the number of
+   *          completed tracks, from the worker threads
+   */
+  public ParallelTrackExporter(MyTracksProviderUtils myTracksProviderUtils,
+      TrackSaver trackSaver, TrackExporterListener trackExporterListener) {
+    this(myTracksProviderUtils, trackSaver, trackExporterListener, getDefaultNumWorkers());
+  }
+
+  @VisibleForTesting
+  ParallelTrackExporter(MyTracksProviderUtils myTracksProviderUtils, TrackSaver trackSaver,
+      TrackExporterListener trackExporterListener, int numWorkers) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.trackSaver = trackSaver;
+    this.trackExporterListener = trackExporterListener;
+    this.numWorkers = numWorkers;
+    workerPermits = new Semaphore(numWorkers);
+  }
+
+  /**
+   * Exports the tracks of a track cursor. Returns once all the workers are
+   * done, also when interrupted or failing.
+   *
+   * @param cursor the track cursor
+   * @return the number of tracks saved
+   * @throws InterruptedException if the calling thread is interrupted. The
+   *           workers are interrupted and waited for
+   */
+  public int exportTracks(Cursor cursor) throws InterruptedException {
+    totalCount = cursor.getCount();
+    long startTime = System.nanoTime();
+    ExecutorService executorService = Executors.newFixedThreadPool(numWorkers);
+    boolean done = false;
+    try {
+      while (cursor.moveToNext()) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        Track track = myTracksProviderUtils.createTrack(cursor);
+        if (track == null) {
+          onTrackCompleted(false);
+          continue;
+        }
+        long waitStart = System.nanoTime();
+        workerPermits.acquire();
+        readWaitTime += System.nanoTime() - waitStart;
+
+        TrackPointQueue trackPointQueue = new TrackPointQueue();
+        executorService.execute(new TrackTask(track, trackPointQueue));
+        readTrackPoints(track, trackPointQueue);
+      }
+      executorService.shutdown();
+      executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      done = true;
+    } finally {
+      if (!done) {
+        executorService.shutdownNow();
+        awaitTermination(executorService);
+      }
+      logThroughput(System.nanoTime() - startTime);
+    }
+    return successCount.get();
+  }
+
+  /**
+   * Gets the number of tracks saved so far.
+   */
+  public int getSuccessCount() {
+    return successCount.get();
+  }
+
+  /**
+   * Waits for the interrupted workers to terminate. Interrupting the wait does
+   * not stop it, the interrupt status is restored once the workers are done.
+   *
+   * @param executorService the executor service
+   */
+  private static void awaitTermination(ExecutorService executorService) {
+    boolean interrupted = false;
+    while (!executorService.isTerminated()) {
+      try {
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the default number of workers, leaving a processor to the reader.
+   */
+  private static int getDefaultNumWorkers() {
+    return Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  /**
+   * Reads the track points of a track into a track point queue.
+   *
+   * @param track the track
+   * @param trackPointQueue the track point queue
+   */
+  private void readTrackPoints(Track track, TrackPointQueue trackPointQueue)
+      throws InterruptedException {
+    long startTrackPointId = -1L;
+    boolean full = true;
+    while (full && !trackPointQueue.isClosed()) {
+      long waitStart = System.nanoTime();
+      blockPermits.acquire();
+      long readStart = System.nanoTime();
+      readWaitTime += readStart - waitStart;
+
+      TrackPointBlock block = spareBlocks.poll();
+      if (block == null) {
+        block = new TrackPointBlock(MyTracksProviderUtils.TRACK_POINTS_BATCH_SIZE);
+      }
+      int count = myTracksProviderUtils.readTrackPoints(track.getId(), startTrackPointId, block);
+      readTime += System.nanoTime() - readStart;
+      readPoints += count;
+
+      full = block.isFull();
+      if (count > 0) {
+        startTrackPointId = block.getId(count - 1) + 1;
+        trackPointQueue.put(block);
+      } else {
+        recycle(block);
+      }
+    }
+    trackPointQueue.put(END_OF_TRACK);
+  }
+
+  /**
+   * Recycles a consumed track point block, letting the reader read another.
+   *
+   * @param block the block
+   */
+  private void recycle(TrackPointBlock block) {
+    if (block == END_OF_TRACK) {
+      return;
+    }
+    block.clear();
+    spareBlocks.offer(block);
+    blockPermits.release();
+  }
+
+  /**
+   * Counts a completed track and notifies the listener.
+   *
+   * @param success true if the track is saved
+   */
+  private void onTrackCompleted(boolean success) {
+    if (success) {
+      successCount.incrementAndGet();
+    }
+    int number = completedCount.incrementAndGet();
+    if (trackExporterListener != null) {
+      trackExporterListener.onProgressUpdate(number, totalCount);
+    }
+  }
+
+  /**
+   * Logs the throughput of the reader and the worker stages.
+   *
+   * @param elapsedTime the elapsed time in nanoseconds
+   */
+  private void logThroughput(long elapsedTime) {
+    long points = workPoints.get();
+    long formatTime = workTime.get() - workWaitTime.get();
+    Log.i(TAG, String.format(Locale.US,
+        "Exported %d of %d tracks in %d ms with %d workers. "
+        + "Reader: %d points in %d ms, %.0f points/s, waited %d ms for workers and buffers. "
+        + "Workers: %d points in %d ms, %.0f points/s per worker, waited %d ms for points.",
+        successCount.get(), totalCount, toMillis(elapsedTime), numWorkers, readPoints,
+        toMillis(readTime), getRate(readPoints, readTime), toMillis(readWaitTime), points,
+        toMillis(formatTime), getRate(points, formatTime), toMillis(workWaitTime.get())));
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static double getRate(long count, long nanos) {
+    return nanos > 0L ? count * 1e9 / nanos : 0.0;
+  }
+
+  /**
+   * A worker task saving a track.
+   */
+  private class TrackTask implements Runnable {
+
+    private final Track track;
+    private final TrackPointQueue trackPointQueue;
+
+    public TrackTask(Track track, TrackPointQueue trackPointQueue) {
+      this.track = track;
+      this.trackPointQueue = trackPointQueue;
+    }
+
+    @Override
+    public void run() {
+      long startTime = System.nanoTime();
+      boolean success = false;
+      try {
+        success = trackSaver.saveTrack(track, trackPointQueue);
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Unable to save track " + track.getId(), e);
+      } finally {
+        trackPointQueue.discard();
+        workTime.addAndGet(System.nanoTime() - startTime);
+        workerPermits.release();
+        onTrackCompleted(success);
+      }
+    }
+  }
+
+  /**
+   * The track point batches of a track, queued by the reader and consumed by a
+   * worker as a {@link LocationIterator}. Discarding the queue recycles the
+   * queued batches and the batches queued afterwards.
+   */
+  private class TrackPointQueue implements TrackPointSource, LocationIterator {
+
+    private final LinkedBlockingQueue<TrackPointBlock> blocks
+        = new LinkedBlockingQueue<TrackPointBlock>();
+
+    // Guarded by this
+    private boolean closed = false;
+
+    private LocationFactory locationFactory;
+    private TrackPointBlock block;
+    private int index = 0;
+    private long locationId = -1L;
+
+    /**
+     * Queues a batch. Called by the reader.
+     *
+     * @param trackPointBlock the batch
+     */
+    void put(TrackPointBlock trackPointBlock) {
+      synchronized (this) {
+        if (!closed) {
+          blocks.add(trackPointBlock);
+          return;
+        }
+      }
+      recycle(trackPointBlock);
+    }
+
+    /**
+     * Returns true if the queue is discarded.
+     */
+    synchronized boolean isClosed() {
+      return closed;
+    }
+
+    @Override
+    public LocationIterator getLocationIterator(Track track, LocationFactory factory) {
+      if (locationFactory != null) {
+        throw new IllegalStateException("The track points can only be iterated once");
+      }
+      locationFactory = factory;
+      return this;
+    }
+
+    @Override
+    public long getLocationId() {
+      return locationId;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (block != END_OF_TRACK && (block == null || index >= block.getSize())) {
+        if (block != null) {
+          recycle(block);
+          block = null;
+        }
+        long waitStart = System.nanoTime();
+        try {
+          block = blocks.take();
+        } catch (InterruptedException e) {
+          // FileTrackExporter checks the interrupt status after the iteration
+          Thread.currentThread().interrupt();
+          return false;
+        } finally {
+          workWaitTime.addAndGet(System.nanoTime() - waitStart);
+        }
+        index = 0;
+        workPoints.addAndGet(block.getSize());
+      }
+      return block != END_OF_TRACK;
+    }
+
+    @Override
+    public Location next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Location location = locationFactory.createLocation();
+      block.fillLocation(index, location);
+      locationId = block.getId(index);
+      index++;
+      return location;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Does nothing, the queue is discarded once the worker is done.
+     */
+    @Override
+    public void close() {}
+
+    /**
+     * Discards the queue, recycling its batches. Called by the worker once
+     * done.
+     */
+    void discard() {
+      synchronized (this) {
+        closed = true;
+      }
+      if (block != null) {
+        recycle(block);
+        block = null;
+      }
+      TrackPointBlock trackPointBlock;
+      while ((trackPointBlock = blocks.poll()) != null) {
+        recycle(trackPointBlock);
+      }
+    }
+  }
+}
@@ -20,6 +20,7 @@ import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.TracksColumns;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
+import com.google.android.apps.mytracks.io.file.exporter.FileTrackExporter.TrackPointSource;
 import com.google.android.apps.mytracks.util.FileUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.apps.mytracks.util.SystemUtils;
@@ -54,7 +55,6 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   private final MyTracksProviderUtils myTracksProviderUtils;
 
   private WakeLock wakeLock;
-  private TrackExporter trackExporter;
 
   // true if the AsyncTask has completed
   private boolean completed;
@@ -66,7 +66,7 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   private int totalCount;
 
   // the last successfully saved path
-  private String savedPath;
+  private volatile String savedPath;
 
   /**
    * Creates an AsyncTask.
@@ -137,7 +137,7 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
             return false;
           }
         }
-        if (saveTracks(tracks)) {
+        if (saveTracks(tracks, null)) {
           successCount = 1;
           return true;
         } else {
@@ -175,11 +175,14 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   }
 
   /**
-   * Saves tracks to one file.
+   * Saves tracks to one file. Can be called concurrently from the workers of a
+   * {@link ParallelTrackExporter}.
    * 
    * @param tracks the tracks
+   * @param trackPointSource the source of the track points. null to read them
+   *          from the my tracks provider utils
    */
-  private Boolean saveTracks(Track[] tracks) {
+  private Boolean saveTracks(Track[] tracks, TrackPointSource trackPointSource) {
     if (tracks.length == 0) {
       return false;
     }
@@ -201,14 +204,13 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
               publishProgress(number, max);
             }
           }
-        });
+        }, trackPointSource);
 
-    trackExporter = useKmz ? new KmzTrackExporter(
+    TrackExporter trackExporter = useKmz ? new KmzTrackExporter(
         myTracksProviderUtils, fileTrackExporter, tracks, context)
         : fileTrackExporter;
 
-    String fileName = FileUtils.buildUniqueFileName(directory, track.getName(), extension);
-    File file = new File(directory, fileName);
+    File file = createUniqueFile(track.getName(), extension);
     FileOutputStream fileOutputStream = null;
     try {
       fileOutputStream = new FileOutputStream(file);
@@ -237,29 +239,60 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   }
 
   /**
-   * Saves all the tracks.
+   * Creates a file with a unique name in the directory. Creates the file right
+   * away so that concurrent workers saving tracks with the same name get
+   * different file names.
+   * 
+   * @param name the file base name
+   * @param extension the file extension
+   */
+  private synchronized File createUniqueFile(String name, String extension) {
+    File file = new File(directory, FileUtils.buildUniqueFileName(directory, name, extension));
+    try {
+      if (!file.createNewFile()) {
+        Log.d(TAG, "File already exists " + file.getName());
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to create file " + file.getName(), e);
+    }
+    return file;
+  }
+
+  /**
+   * Saves all the tracks with a {@link ParallelTrackExporter}.
    */
   private Boolean saveAllTracks() {
     Cursor cursor = null;
+    ParallelTrackExporter parallelTrackExporter = null;
     try {
       cursor = myTracksProviderUtils.getTrackCursor(null, null, TracksColumns._ID);
       if (cursor == null) {
         return false;
       }
       totalCount = cursor.getCount();
-      for (int i = 0; i < totalCount; i++) {
-        if (isCancelled()) {
-          return false;
-        }
-        cursor.moveToPosition(i);
-        Track track = myTracksProviderUtils.createTrack(cursor);
-        if (track != null && saveTracks(new Track[] { track })) {
-          successCount++;
-        }
-        publishProgress(i + 1, totalCount);
-      }
+      parallelTrackExporter = new ParallelTrackExporter(
+          myTracksProviderUtils, new ParallelTrackExporter.TrackSaver() {
+
+              @Override
+            public boolean saveTrack(Track track, TrackPointSource trackPointSource) {
+              return saveTracks(new Track[] { track }, trackPointSource);
+            }
+          }, new TrackExporterListener() {
+
+              @Override
+            public void onProgressUpdate(int number, int max) {
+              publishProgress(number, max);
+            }
+          });
+      parallelTrackExporter.exportTracks(cursor);
       return true;
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Save all tracks cancelled");
+      return false;
     } finally {
+      if (parallelTrackExporter != null) {
+        successCount = parallelTrackExporter.getSuccessCount();
+      }
       if (cursor != null) {
         cursor.close();
       }
@@ -30,7 +30,6 @@ import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.Locale;
 
 /**
@@ -86,7 +85,7 @@ public class TcxTrackWriter implements TrackWriter {
       R.string.activity_type_walking };
 
   private final Context context;
-  private PrintWriter printWriter;
+  private CharBufferWriter writer;
   private SportType sportType;
 
   public TcxTrackWriter(Context context) {
@@ -95,14 +94,14 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.writer = new CharBufferWriter(outputStream);
   }
   
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (writer != null) {
+      writer.flush();
+      writer = null;
     }
   }
 
@@ -113,12 +112,12 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<TrainingCenterDatabase"
+    if (writer != null) {
+      writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      writer.println("<TrainingCenterDatabase"
           + " xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\"");
-      printWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-      printWriter.println("xsi:schemaLocation=" 
+      writer.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+      writer.println("xsi:schemaLocation=" 
           + "\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2"
           + " http://www.garmin.com/xmlschemas/TrainingCenterDatabasev2.xsd\">");
     }
@@ -126,19 +125,19 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("<Author xsi:type=\"Application_t\">");
-      printWriter.println("<Name>" 
+    if (writer != null) {
+      writer.println("<Author xsi:type=\"Application_t\">");
+      writer.println("<Name>" 
           + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", "")) 
           + "</Name>");
       // <Build>, <LangID>, and <PartNumber> are required by type=Application_t.
-      printWriter.println("<Build>");
+      writer.println("<Build>");
       writeVersion();
-      printWriter.println("</Build>");
-      printWriter.println("<LangID>" + Locale.getDefault().getLanguage() + "</LangID>");
-      printWriter.println("<PartNumber>000-00000-00</PartNumber>");
-      printWriter.println("</Author>");
-      printWriter.println("</TrainingCenterDatabase>");
+      writer.println("</Build>");
+      writer.println("<LangID>" + Locale.getDefault().getLanguage() + "</LangID>");
+      writer.println("<PartNumber>000-00000-00</PartNumber>");
+      writer.println("</Author>");
+      writer.println("</TrainingCenterDatabase>");
     }
   }
 
@@ -170,70 +169,78 @@ public class TcxTrackWriter implements TrackWriter {
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
     sportType = getSportType(track.getCategory());
-    if (printWriter != null) {
+    if (writer != null) {
       String startTime = StringUtils.formatDateTimeIso8601(
           track.getTripStatistics().getStartTime());
       long totalTimeInSeconds = (long) (track.getTripStatistics().getTotalTime()
           * UnitConversions.MS_TO_S);
 
-      printWriter.println("<Activities>");
-      printWriter.println("<Activity Sport=\"" + sportType.getName() + "\">");
-      printWriter.println("<Id>" + startTime + "</Id>");
-      printWriter.println("<Lap StartTime=\"" + startTime + "\">");
-      printWriter.println("<TotalTimeSeconds>" + totalTimeInSeconds + "</TotalTimeSeconds>");
-      printWriter.println("<DistanceMeters>" + track.getTripStatistics().getTotalDistance()
+      writer.println("<Activities>");
+      writer.println("<Activity Sport=\"" + sportType.getName() + "\">");
+      writer.println("<Id>" + startTime + "</Id>");
+      writer.println("<Lap StartTime=\"" + startTime + "\">");
+      writer.println("<TotalTimeSeconds>" + totalTimeInSeconds + "</TotalTimeSeconds>");
+      writer.println("<DistanceMeters>" + track.getTripStatistics().getTotalDistance()
           + "</DistanceMeters>");
       // <Calories> is required, just put in 0.
-      printWriter.println("<Calories>0</Calories>");
-      printWriter.println("<Intensity>Active</Intensity>");
-      printWriter.println("<TriggerMethod>Manual</TriggerMethod>");
+      writer.println("<Calories>0</Calories>");
+      writer.println("<Intensity>Active</Intensity>");
+      writer.println("<TriggerMethod>Manual</TriggerMethod>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</Lap>");
-      printWriter.println("<Notes>" + StringUtils.formatCData(track.getDescription()) + "</Notes>");
-      printWriter.println("<Creator xsi:type=\"Device_t\">");
-      printWriter.println("<Name>" 
+    if (writer != null) {
+      writer.println("</Lap>");
+      writer.println("<Notes>" + StringUtils.formatCData(track.getDescription()) + "</Notes>");
+      writer.println("<Creator xsi:type=\"Device_t\">");
+      writer.println("<Name>" 
           + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", "")) 
           + "</Name>");
       // <UnitId>, <ProductID>, and <Version> are required for type=Device_t.
-      printWriter.println("<UnitId>0</UnitId>");
-      printWriter.println("<ProductID>0</ProductID>");
+      writer.println("<UnitId>0</UnitId>");
+      writer.println("<ProductID>0</ProductID>");
       writeVersion();
-      printWriter.println("</Creator>");
-      printWriter.println("</Activity>");
-      printWriter.println("</Activities>");
+      writer.println("</Creator>");
+      writer.println("</Activity>");
+      writer.println("</Activities>");
     }
   }
 
   @Override
   public void writeOpenSegment() {
-    if (printWriter != null) {
-      printWriter.println("<Track>");
+    if (writer != null) {
+      writer.println("<Track>");
     }
   }
 
   @Override
   public void writeCloseSegment() {
-    if (printWriter != null) {
-      printWriter.println("</Track>");
+    if (writer != null) {
+      writer.println("</Track>");
     }
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println("<Trackpoint>");
-      printWriter.println("<Time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</Time>");
-      printWriter.println("<Position>");
-      printWriter.println("<LatitudeDegrees>" + location.getLatitude() + "</LatitudeDegrees>");
-      printWriter.println("<LongitudeDegrees>" + location.getLongitude() + "</LongitudeDegrees>");
-      printWriter.println("</Position>");
+    if (writer != null) {
+      writer.println("<Trackpoint>");
+      writer.print("<Time>");
+      writer.printIso8601(location.getTime());
+      writer.println("</Time>");
+      writer.println("<Position>");
+      writer.print("<LatitudeDegrees>");
+      writer.print(location.getLatitude());
+      writer.println("</LatitudeDegrees>");
+      writer.print("<LongitudeDegrees>");
+      writer.print(location.getLongitude());
+      writer.println("</LongitudeDegrees>");
+      writer.println("</Position>");
       if (location.hasAltitude()) {
-        printWriter.println("<AltitudeMeters>" + location.getAltitude() + "</AltitudeMeters>");
+        writer.print("<AltitudeMeters>");
+        writer.print(location.getAltitude());
+        writer.println("</AltitudeMeters>");
       }
 
       if (location instanceof MyTracksLocation) {
@@ -250,9 +257,11 @@ public class TcxTrackWriter implements TrackWriter {
             && sensorDataSet.getPower().getState() == Sensor.SensorState.SENDING;
           
           if (heartRateAvailable) {
-            printWriter.println("<HeartRateBpm>");
-            printWriter.println("<Value>" + sensorDataSet.getHeartRate().getValue() + "</Value>");
-            printWriter.println("</HeartRateBpm>");
+            writer.println("<HeartRateBpm>");
+            writer.print("<Value>");
+            writer.print(sensorDataSet.getHeartRate().getValue());
+            writer.println("</Value>");
+            writer.println("</HeartRateBpm>");
           }
 
           // <Cadence> needs to be put before <Extensions>.
@@ -260,31 +269,35 @@ public class TcxTrackWriter implements TrackWriter {
           // type. For others, use <RunCadence> in <Extensions>.
           if (cadenceAvailable && sportType == SportType.BIKING) {
             // The spec requires the max value be 254.
-            printWriter.println(
-                "<Cadence>" + Math.min(254, sensorDataSet.getCadence().getValue()) + "</Cadence>");
+            writer.print("<Cadence>");
+            writer.print(Math.min(254, sensorDataSet.getCadence().getValue()));
+            writer.println("</Cadence>");
           }
 
           if ((cadenceAvailable && sportType != SportType.BIKING) || powerAvailable) {
-            printWriter.println("<Extensions>");
-            printWriter.println(
+            writer.println("<Extensions>");
+            writer.println(
                 "<TPX xmlns=\"http://www.garmin.com/xmlschemas/ActivityExtension/v2\">");
 
             // <RunCadence> needs to be put before <Watts>.
             if (cadenceAvailable && sportType != SportType.BIKING) {
               // The spec requires the max value to be 254.
-              printWriter.println("<RunCadence>"
-                  + Math.min(254, sensorDataSet.getCadence().getValue()) + "</RunCadence>");
+              writer.print("<RunCadence>");
+              writer.print(Math.min(254, sensorDataSet.getCadence().getValue()));
+              writer.println("</RunCadence>");
             }
 
             if (powerAvailable) {
-              printWriter.println("<Watts>" + sensorDataSet.getPower().getValue() + "</Watts>");
+              writer.print("<Watts>");
+              writer.print(sensorDataSet.getPower().getValue());
+              writer.println("</Watts>");
             }
-            printWriter.println("</TPX>");
-            printWriter.println("</Extensions>");
+            writer.println("</TPX>");
+            writer.println("</Extensions>");
           }
         }
       }
-      printWriter.println("</Trackpoint>");
+      writer.println("</Trackpoint>");
     }
   }
 
@@ -300,14 +313,14 @@ public class TcxTrackWriter implements TrackWriter {
     int versionMinor = versionComponents.length > 1 ? Integer.valueOf(versionComponents[1]) : 0;
     int buildMajor = versionComponents.length > 2 ? Integer.valueOf(versionComponents[2]) : 0;
 
-    printWriter.println("<Version>");
-    printWriter.println("<VersionMajor>" + versionMajor + "</VersionMajor>");
-    printWriter.println("<VersionMinor>" + versionMinor + "</VersionMinor>");
+    writer.println("<Version>");
+    writer.println("<VersionMajor>" + versionMajor + "</VersionMajor>");
+    writer.println("<VersionMinor>" + versionMinor + "</VersionMinor>");
     // According to TCX spec, these are optional. But http://connect.garmin.com
     // requires them.
-    printWriter.println("<BuildMajor>" + buildMajor + "</BuildMajor>");
-    printWriter.println("<BuildMinor>0</BuildMinor>");
-    printWriter.println("</Version>");
+    writer.println("<BuildMajor>" + buildMajor + "</BuildMajor>");
+    writer.println("<BuildMinor>0</BuildMinor>");
+    writer.println("</Version>");
   }
 
   /**
@@ -17,9 +17,11 @@
 package com.google.android.apps.mytracks.io.file.importer;
 
 import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
+import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointSeries;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.services.TrackRecordingService;
@@ -42,6 +44,7 @@ import android.net.Uri;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -58,7 +61,8 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Abstract class for various file track importers like {@link GpxFileTrackImporter} and
- * {@link KmlFileTrackImporter}.
+ * {@link KmlFileTrackImporter}. Parses with a SAX parser unless {@link #parse(InputStream)} is
+ * overridden, e.g., by {@link AbstractPullFileTrackImporter}.
  * 
  * @author Jimmy Shih
  */
@@ -92,11 +96,65 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     // The import time of the track.
     long importTime = System.currentTimeMillis();
 
-    // The buffered locations
-    Location[] bufferedLocations = new Location[MAX_BUFFERED_LOCATIONS];
+    /*
+     * The buffered locations. Copies of the inserted locations, reused after
+     * each flush so that importing doesn't allocate a location per track
+     * point.
+     */
+    MyTracksLocation[] bufferedLocations = new MyTracksLocation[MAX_BUFFERED_LOCATIONS];
 
     // The number of buffered locations
     int numBufferedLocations = 0;
+
+    // The derived values of the buffered locations, by buffer index until flushed
+    TrackPointSeries bufferedSeries = new TrackPointSeries(MAX_BUFFERED_LOCATIONS);
+
+    // The ids of the flushed locations
+    long[] trackPointIds = new long[MAX_BUFFERED_LOCATIONS];
+  }
+
+  /**
+   * An input stream counting the bytes read.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count = 0L;
+
+    CountingInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      if (value != -1) {
+        count++;
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int result = super.read(buffer, offset, length);
+      if (result > 0) {
+        count += result;
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+      long result = super.skip(length);
+      count += result;
+      return result;
+    }
+
+    /**
+     * Gets the number of bytes read.
+     */
+    long getCount() {
+      return count;
+    }
   }
 
   private static final String TAG = AbstractFileTrackImporter.class.getSimpleName();
@@ -175,11 +233,14 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   @Override
   public long importFile(InputStream inputStream) {
     try {
-      SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+      CountingInputStream countingInputStream = new CountingInputStream(inputStream);
       long start = System.currentTimeMillis();
 
-      saxParser.parse(inputStream, this);
-      Log.d(TAG, "Total import time: " + (System.currentTimeMillis() - start) + "ms");
+      parse(countingInputStream);
+      long importTime = System.currentTimeMillis() - start;
+      Log.d(TAG, "Total import time: " + importTime + "ms");
+      Log.d(TAG, String.format(Locale.US, "Import rate: %.2f MB/s",
+          countingInputStream.getCount() / (Math.max(importTime, 1L) * 1000.0)));
       if (trackIds.size() != 1) {
         Log.d(TAG, trackIds.size() + " tracks imported");
         cleanImport();
@@ -201,6 +262,18 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     }
   }
 
+  /**
+   * Parses the input stream, calling back the on start and on end methods. By
+   * default, parses with a {@link SAXParser} calling back this handler.
+   * 
+   * @param inputStream the input stream
+   */
+  protected void parse(InputStream inputStream)
+      throws IOException, ParserConfigurationException, SAXException {
+    SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+    saxParser.parse(inputStream, this);
+  }
+
   /**
    * On file end.
    */
@@ -408,8 +481,17 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * Gets a track point.
    */
   protected Location getTrackPoint() throws SAXException {
-    Location location = createLocation();
+    return getTrackPoint(createLocation());
+  }
 
+  /**
+   * Gets a track point from a location, setting its speed and bearing from the
+   * previous track point. The location is kept as the previous track point, it
+   * must not be reused for the next track point.
+   * 
+   * @param location the location
+   */
+  protected Location getTrackPoint(Location location) throws SAXException {
     // Calculate derived attributes from the previous point
     if (trackData.lastLocationInCurrentSegment != null
         && trackData.lastLocationInCurrentSegment.getTime() != 0) {
@@ -470,7 +552,54 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    */
   protected String createErrorMessage(String message) {
     return String.format(Locale.US, "Parsing error at line: %d column: %d. %s",
-        locator.getLineNumber(), locator.getColumnNumber(), message);
+        getLineNumber(), getColumnNumber(), message);
+  }
+
+  /**
+   * Gets the current line number of the parser.
+   */
+  protected int getLineNumber() {
+    return locator.getLineNumber();
+  }
+
+  /**
+   * Gets the current column number of the parser.
+   */
+  protected int getColumnNumber() {
+    return locator.getColumnNumber();
+  }
+
+  /**
+   * Gets the import time of the current track, the time of the track points
+   * without a time.
+   */
+  protected long getImportTime() {
+    return trackData.importTime;
+  }
+
+  /**
+   * Sets a location, as a track point or a waypoint location without speed,
+   * bearing, and accuracy.
+   * 
+   * @param location the location
+   * @param latitudeValue the latitude value
+   * @param longitudeValue the longitude value
+   * @param altitudeValue the altitude value. {@link Double#NaN} for none
+   * @param timeValue the time value
+   */
+  protected void setLocation(Location location, double latitudeValue, double longitudeValue,
+      double altitudeValue, long timeValue) {
+    location.setLatitude(latitudeValue);
+    location.setLongitude(longitudeValue);
+    if (!Double.isNaN(altitudeValue)) {
+      location.setAltitude(altitudeValue);
+    } else {
+      location.removeAltitude();
+    }
+    location.setTime(timeValue);
+    location.removeAccuracy();
+    location.removeBearing();
+    location.removeSpeed();
   }
 
   /**
@@ -503,7 +632,7 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
       throw new SAXException(createErrorMessage(String.format(
           Locale.US, "Unable to parse latitude longitude: %s %s", latitude, longitude)), e);
     }
-    Double altitudeValue = null;
+    double altitudeValue = Double.NaN;
     if (altitude != null) {
       try {
         altitudeValue = Double.parseDouble(altitude);
@@ -533,28 +662,18 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * 
    * @param latitudeValue the latitude value
    * @param longitudeValue the longitude value
-   * @param altitudeValue the altitude value
+   * @param altitudeValue the altitude value. {@link Double#NaN} for none
    * @param timeValue the time value
    */
   private Location createLocation(
-      double latitudeValue, double longitudeValue, Double altitudeValue, long timeValue) {
+      double latitudeValue, double longitudeValue, double altitudeValue, long timeValue) {
     Location location = new Location(LocationManager.GPS_PROVIDER);
-    location.setLatitude(latitudeValue);
-    location.setLongitude(longitudeValue);
-    if (altitudeValue != null) {
-      location.setAltitude(altitudeValue);      
-    } else {
-      location.removeAltitude();
-    }
-    location.setTime(timeValue);
-    location.removeAccuracy();
-    location.removeBearing();
-    location.removeSpeed();
+    setLocation(location, latitudeValue, longitudeValue, altitudeValue, timeValue);
     return location;
   }
 
   /**
-   * Inserts a location.
+   * Inserts a location. Copies it, so the caller can reuse it.
    * 
    * @param location the location
    */
@@ -567,7 +686,16 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     trackData.tripStatisticsUpdater.addLocation(
         location, recordingDistanceInterval, true, activityType, weight);
 
-    trackData.bufferedLocations[trackData.numBufferedLocations] = location;
+    MyTracksLocation bufferedLocation = trackData.bufferedLocations[
+        trackData.numBufferedLocations];
+    if (bufferedLocation == null) {
+      bufferedLocation = new MyTracksLocation(LocationManager.GPS_PROVIDER);
+      trackData.bufferedLocations[trackData.numBufferedLocations] = bufferedLocation;
+    }
+    bufferedLocation.set(location);
+    bufferedLocation.setSensorDataSet(location instanceof MyTracksLocation
+        ? ((MyTracksLocation) location).getSensorDataSet() : null);
+    trackData.bufferedSeries.add(trackData.numBufferedLocations, trackData.tripStatisticsUpdater);
     trackData.numBufferedLocations++;
     trackData.numberOfLocations++;
 
@@ -585,13 +713,21 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     if (data.numBufferedLocations <= 0) {
       return;
     }
-    myTracksProviderUtils.bulkInsertTrackPoint(
-        data.bufferedLocations, data.numBufferedLocations, data.track.getId());
+    int length = data.numBufferedLocations;
     data.numBufferedLocations = 0;
-    if (data.track.getStartId() == -1L) {
-      data.track.setStartId(myTracksProviderUtils.getFirstTrackPointId(data.track.getId()));
+    try {
+      // The derived values are written in the same transaction
+      int inserted = myTracksProviderUtils.bulkInsertTrackPoint(data.bufferedLocations, length,
+          data.track.getId(), data.trackPointIds, data.bufferedSeries);
+      if (inserted > 0) {
+        if (data.track.getStartId() == -1L) {
+          data.track.setStartId(data.trackPointIds[0]);
+        }
+        data.track.setStopId(data.trackPointIds[inserted - 1]);
+      }
+    } finally {
+      data.bufferedSeries.clear();
     }
-    data.track.setStopId(myTracksProviderUtils.getLastTrackPointId(data.track.getId()));
   }
 
   /**
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import android.content.Context;
+import android.util.Xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Abstract class for file track importers parsing with an {@link XmlPullParser}
+ * instead of a SAX parser, like {@link GpxPullFileTrackImporter} and
+ * {@link KmlPullFileTrackImporter}.
+ * <p>
+ * The element text is accumulated in a reusable char buffer, the same text as
+ * the {@link #content} of the SAX importers. Numbers and times are parsed
+ * straight from the buffer, so the track points are imported without creating
+ * a string per value.
+ */
+abstract class AbstractPullFileTrackImporter extends AbstractFileTrackImporter {
+
+  private static final int INITIAL_TEXT_CAPACITY = 256;
+
+  private XmlPullParser xmlPullParser;
+
+  // The text since the last end tag
+  private char[] text = new char[INITIAL_TEXT_CAPACITY];
+  private int textLength = 0;
+
+  // A view of the text, reused to parse numbers and times
+  private CharBuffer textView = CharBuffer.wrap(text);
+
+  // The start and the length of the current text event
+  private final int[] textEvent = new int[2];
+
+  AbstractPullFileTrackImporter(
+      Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
+    super(context, importTrackId, myTracksProviderUtils);
+  }
+
+  @Override
+  protected void parse(InputStream inputStream) throws IOException, SAXException {
+    try {
+      xmlPullParser = Xml.newPullParser();
+      xmlPullParser.setInput(inputStream, null);
+      int eventType = xmlPullParser.getEventType();
+      while (eventType != XmlPullParser.END_DOCUMENT) {
+        if (eventType == XmlPullParser.START_TAG) {
+          onStartTag(xmlPullParser.getName());
+        } else if (eventType == XmlPullParser.TEXT) {
+          appendText();
+        } else if (eventType == XmlPullParser.END_TAG) {
+          onEndTag(xmlPullParser.getName());
+
+          // Reset element text
+          textLength = 0;
+        }
+        eventType = xmlPullParser.next();
+      }
+    } catch (XmlPullParserException e) {
+      throw new SAXException(createErrorMessage(e.getMessage()), e);
+    }
+  }
+
+  @Override
+  protected int getLineNumber() {
+    return xmlPullParser.getLineNumber();
+  }
+
+  @Override
+  protected int getColumnNumber() {
+    return xmlPullParser.getColumnNumber();
+  }
+
+  /**
+   * On start tag.
+   *
+   * @param tag the qualified tag name
+   */
+  protected abstract void onStartTag(String tag) throws SAXException;
+
+  /**
+   * On end tag. The element text is available until it returns.
+   *
+   * @param tag the qualified tag name
+   */
+  protected abstract void onEndTag(String tag) throws SAXException;
+
+  /**
+   * Gets the value of an attribute of the current start tag. Null if missing.
+   *
+   * @param name the attribute name
+   */
+  protected String getAttributeValue(String name) {
+    return xmlPullParser.getAttributeValue(null, name);
+  }
+
+  /**
+   * Returns true if there is element text, as a non null {@link #content}.
+   */
+  protected boolean hasText() {
+    return textLength != 0;
+  }
+
+  /**
+   * Gets the trimmed element text. Null if there is none.
+   */
+  protected String getText() {
+    if (textLength == 0) {
+      return null;
+    }
+    setTextView(0, textLength);
+    return textView.toString();
+  }
+
+  /**
+   * Parses the trimmed element text as a double.
+   *
+   * @throws NumberFormatException if the text isn't a double
+   */
+  protected double parseTextDouble() {
+    setTextView(0, textLength);
+    return StringUtils.parseDouble(textView);
+  }
+
+  /**
+   * Parses the trimmed element text as an int, as
+   * {@link Integer#parseInt(String)}.
+   *
+   * @throws NumberFormatException if the text isn't an int
+   */
+  protected int parseTextInt() {
+    setTextView(0, textLength);
+    int length = textView.length();
+    if (length == 0 || length > 9) {
+      return Integer.parseInt(textView.toString());
+    }
+    int index = textView.charAt(0) == '-' || textView.charAt(0) == '+' ? 1 : 0;
+    if (index == length) {
+      return Integer.parseInt(textView.toString());
+    }
+    int value = 0;
+    for (; index < length; index++) {
+      char c = textView.charAt(index);
+      if (c < '0' || c > '9') {
+        return Integer.parseInt(textView.toString());
+      }
+      value = value * 10 + (c - '0');
+    }
+    return textView.charAt(0) == '-' ? -value : value;
+  }
+
+  /**
+   * Parses the trimmed element text as an XML date time, as
+   * {@link StringUtils#getTime(String)}.
+   *
+   * @throws IllegalArgumentException if the text isn't an XML date time
+   */
+  protected long parseTextTime() {
+    setTextView(0, textLength);
+    return StringUtils.getTime(textView);
+  }
+
+  /**
+   * Counts the parts of the trimmed element text split around a separator, as
+   * the length of {@link String#split(String)}.
+   *
+   * @param separator the separator, not a whitespace
+   */
+  protected int countTextParts(char separator) {
+    setTextView(0, textLength);
+    int start = textView.position();
+    int end = getSplitEnd(separator);
+    if (start == textView.limit()) {
+      // Splitting an empty string returns the empty string
+      return 1;
+    }
+    if (start == end) {
+      return 0;
+    }
+    int count = 1;
+    for (int i = start; i < end; i++) {
+      if (text[i] == separator) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Splits the trimmed element text around a separator and parses the parts as
+   * doubles, as {@link String#split(String)} and
+   * {@link Double#parseDouble(String)}.
+   *
+   * @param separator the separator, not a whitespace
+   * @param values the values, with room for {@link #countTextParts(char)}
+   *          parts
+   * @throws NumberFormatException if a part isn't a double
+   */
+  protected void splitTextDoubles(char separator, double[] values) {
+    setTextView(0, textLength);
+    int start = textView.position();
+    int end = getSplitEnd(separator);
+    int index = 0;
+    for (int i = start; i <= end; i++) {
+      if (i == end || text[i] == separator) {
+        setTextView(start, i);
+        values[index++] = StringUtils.parseDouble(textView);
+        start = i + 1;
+      }
+    }
+  }
+
+  /**
+   * Appends the text of the current text event.
+   */
+  private void appendText() {
+    char[] chars = xmlPullParser.getTextCharacters(textEvent);
+    int length = textEvent[1];
+    if (textLength + length > text.length) {
+      text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+      textView = CharBuffer.wrap(text);
+    }
+    System.arraycopy(chars, textEvent[0], text, textLength, length);
+    textLength += length;
+  }
+
+  /**
+   * Gets the end of the trimmed element text without the trailing separators,
+   * the trailing empty parts removed by {@link String#split(String)}. The text
+   * view must be set to the trimmed element text.
+   *
+   * @param separator the separator
+   */
+  private int getSplitEnd(char separator) {
+    int start = textView.position();
+    int end = textView.limit();
+    while (end > start && text[end - 1] == separator) {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * Sets the text view to a range of the text, trimmed as
+   * {@link String#trim()}.
+   *
+   * @param start the start index
+   * @param end the end index
+   */
+  private void setTextView(int start, int end) {
+    while (start < end && text[start] <= ' ') {
+      start++;
+    }
+    while (end > start && text[end - 1] <= ' ') {
+      end--;
+    }
+    textView.limit(end);
+    textView.position(start);
+  }
+}
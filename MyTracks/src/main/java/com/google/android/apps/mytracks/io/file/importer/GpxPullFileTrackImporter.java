@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+
+import java.util.Locale;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Imports a GPX file with an {@link org.xmlpull.v1.XmlPullParser}, as
+ * {@link GpxFileTrackImporter}. The track point values are parsed as numbers
+ * into reused locations.
+ */
+public class GpxPullFileTrackImporter extends AbstractPullFileTrackImporter {
+
+  private static final String TAG_DESCRIPTION = "desc";
+  private static final String TAG_COMMENT = "cmt";
+  private static final String TAG_ELEVATION = "ele";
+  private static final String TAG_GPX = "gpx";
+  private static final String TAG_NAME = "name";
+  private static final String TAG_TIME = "time";
+  private static final String TAG_TRACK = "trk";
+  private static final String TAG_TRACK_POINT = "trkpt";
+  private static final String TAG_TRACK_SEGMENT = "trkseg";
+  private static final String TAG_TYPE = "type";
+  private static final String TAG_WAYPOINT = "wpt";
+
+  private static final String ATTRIBUTE_LAT = "lat";
+  private static final String ATTRIBUTE_LON = "lon";
+
+  // True inside a trkpt element
+  private boolean inTrackPoint = false;
+
+  // The values of the current trkpt element
+  private double trackPointAltitude;
+  private long trackPointTime;
+  private boolean hasTrackPointTime;
+
+  /*
+   * The locations reused for the track points. Alternates between the two
+   * since the previous track point is kept to compute the speed and bearing.
+   */
+  private final Location[] trackPoints = { new Location(LocationManager.GPS_PROVIDER),
+      new Location(LocationManager.GPS_PROVIDER) };
+  private int trackPointIndex = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param context the context
+   */
+  public GpxPullFileTrackImporter(Context context) {
+    this(context, MyTracksProviderUtils.Factory.get(context));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param context the context
+   * @param myTracksProviderUtils the my tracks provider utils to import with
+   */
+  GpxPullFileTrackImporter(Context context, MyTracksProviderUtils myTracksProviderUtils) {
+    super(context, -1L, myTracksProviderUtils);
+  }
+
+  @Override
+  protected void onStartTag(String tag) throws SAXException {
+    if (tag.equals(TAG_WAYPOINT)) {
+      onWaypointStart();
+    } else if (tag.equals(TAG_TRACK)) {
+      onTrackStart();
+    } else if (tag.equals(TAG_TRACK_SEGMENT)) {
+      onTrackSegmentStart();
+    } else if (tag.equals(TAG_TRACK_POINT)) {
+      onTrackPointStart();
+    }
+  }
+
+  @Override
+  protected void onEndTag(String tag) throws SAXException {
+    if (tag.equals(TAG_GPX)) {
+      onFileEnd();
+    } else if (tag.equals(TAG_WAYPOINT)) {
+      onWaypointEnd();
+    } else if (tag.equals(TAG_TRACK)) {
+      onTrackEnd();
+    } else if (tag.equals(TAG_TRACK_POINT)) {
+      onTrackPointEnd();
+    } else if (tag.equals(TAG_NAME)) {
+      if (hasText()) {
+        name = getText();
+      }
+    } else if (tag.equals(TAG_DESCRIPTION)) {
+      if (hasText()) {
+        description = getText();
+      }
+    } else if (tag.equals(TAG_TYPE)) {
+      if (hasText()) {
+        category = getText();
+      }
+    } else if (tag.equals(TAG_TIME)) {
+      if (hasText()) {
+        onTimeEnd();
+      }
+    } else if (tag.equals(TAG_ELEVATION)) {
+      if (hasText()) {
+        onElevationEnd();
+      }
+    } else if (tag.equals(TAG_COMMENT)) {
+      if (hasText()) {
+        waypointType = getText();
+      }
+    }
+  }
+
+  @Override
+  protected void onTrackStart() throws SAXException {
+    super.onTrackStart();
+    name = null;
+    description = null;
+    category = null;
+  }
+
+  /**
+   * On track point start.
+   */
+  private void onTrackPointStart() {
+    inTrackPoint = true;
+    latitude = getAttributeValue(ATTRIBUTE_LAT);
+    longitude = getAttributeValue(ATTRIBUTE_LON);
+    trackPointAltitude = Double.NaN;
+    hasTrackPointTime = false;
+  }
+
+  /**
+   * On track point end.
+   */
+  private void onTrackPointEnd() throws SAXException {
+    inTrackPoint = false;
+    if (latitude == null || longitude == null) {
+      throw new SAXException(createErrorMessage("Missing latitude longitude"));
+    }
+    double latitudeValue;
+    double longitudeValue;
+    try {
+      latitudeValue = StringUtils.parseDouble(latitude);
+      longitudeValue = StringUtils.parseDouble(longitude);
+    } catch (NumberFormatException e) {
+      throw new SAXException(createErrorMessage(String.format(
+          Locale.US, "Unable to parse latitude longitude: %s %s", latitude, longitude)), e);
+    }
+    Location location = trackPoints[trackPointIndex];
+    trackPointIndex = 1 - trackPointIndex;
+    setLocation(location, latitudeValue, longitudeValue, trackPointAltitude,
+        hasTrackPointTime ? trackPointTime : getImportTime());
+    insertTrackPoint(getTrackPoint(location));
+  }
+
+  /**
+   * On time end. Parses the time of a track point, keeps the time of a
+   * waypoint as a string.
+   */
+  private void onTimeEnd() throws SAXException {
+    if (!inTrackPoint) {
+      time = getText();
+      return;
+    }
+    try {
+      trackPointTime = parseTextTime();
+      hasTrackPointTime = true;
+    } catch (IllegalArgumentException e) {
+      throw new SAXException(
+          createErrorMessage(String.format(Locale.US, "Unable to parse time: %s", getText())), e);
+    }
+  }
+
+  /**
+   * On elevation end. Parses the elevation of a track point, keeps the
+   * elevation of a waypoint as a string.
+   */
+  private void onElevationEnd() throws SAXException {
+    if (!inTrackPoint) {
+      altitude = getText();
+      return;
+    }
+    try {
+      trackPointAltitude = parseTextDouble();
+    } catch (NumberFormatException e) {
+      throw new SAXException(createErrorMessage(
+          String.format(Locale.US, "Unable to parse altitude: %s", getText())), e);
+    }
+  }
+
+  /**
+   * On waypoint start.
+   */
+  private void onWaypointStart() {
+    name = null;
+    description = null;
+    category = null;
+    photoUrl = null;
+    latitude = getAttributeValue(ATTRIBUTE_LAT);
+    longitude = getAttributeValue(ATTRIBUTE_LON);
+    altitude = null;
+    time = null;
+    waypointType = null;
+  }
+
+  /**
+   * On waypoint end.
+   */
+  private void onWaypointEnd() throws SAXException {
+    addWaypoint(WaypointType.STATISTICS.name().equals(waypointType) ? WaypointType.STATISTICS
+        : WaypointType.WAYPOINT);
+  }
+}
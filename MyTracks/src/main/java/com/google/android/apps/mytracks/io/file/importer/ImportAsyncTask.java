@@ -127,12 +127,18 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
         return true;
       }
 
+      MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+      if (importAll && totalCount > 1) {
+        return importFiles(files, myTracksProviderUtils);
+      }
       for (int i = 0; i < totalCount; i++) {
         if (isCancelled()) {
           // If cancelled, return true to show the number of files imported
           return true;
         }
-        if (importFile(files.get(i))) {
+        long id = importFile(files.get(i), myTracksProviderUtils);
+        if (id != -1L) {
+          trackId = id;
           successCount++;
         }
         publishProgress(i + 1, totalCount);
@@ -168,35 +174,66 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
     }
   }
   
+  /**
+   * Imports files in parallel, with a single database writer.
+   * 
+   * @param files the files
+   * @param myTracksProviderUtils the my tracks provider utils
+   */
+  private boolean importFiles(List<File> files, MyTracksProviderUtils myTracksProviderUtils) {
+    ParallelTrackImporter parallelTrackImporter = new ParallelTrackImporter(
+        myTracksProviderUtils, new ParallelTrackImporter.FileImporter() {
+            @Override
+          public long importFile(File file, MyTracksProviderUtils providerUtils) {
+            return ImportAsyncTask.this.importFile(file, providerUtils);
+          }
+        }, new ParallelTrackImporter.ImportListener() {
+            @Override
+          public void onProgressUpdate(int number, int max) {
+            publishProgress(number, max);
+          }
+        });
+    try {
+      parallelTrackImporter.importFiles(files);
+    } catch (InterruptedException e) {
+      // If cancelled, return true to show the number of files imported
+      Log.d(TAG, "Import interrupted");
+    } finally {
+      successCount = parallelTrackImporter.getSuccessCount();
+      trackId = parallelTrackImporter.getLastTrackId();
+    }
+    return true;
+  }
+
   /**
    * Imports a file.
    * 
    * @param file the file
+   * @param myTracksProviderUtils the my tracks provider utils to import with
+   * @return the imported track id or -1L
    */
-  private boolean importFile(final File file) {
+  private long importFile(File file, MyTracksProviderUtils myTracksProviderUtils) {
     FileInputStream fileInputStream = null;
     try {
       TrackImporter trackImporter;
       if (trackFileFormat == TrackFileFormat.KML) {
         String extension = FileUtils.getExtension(file.getName());
         if (TrackFileFormat.KML.getExtension().equals(extension)) {
-          trackImporter = new KmlFileTrackImporter(context, -1L);
+          trackImporter = new KmlPullFileTrackImporter(context, -1L, myTracksProviderUtils);
         } else {         
-          MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
           Uri uri = myTracksProviderUtils.insertTrack(new Track());
           long newId = Long.parseLong(uri.getLastPathSegment());
 
-          trackImporter = new KmzTrackImporter(context, newId);
+          trackImporter = new KmzTrackImporter(context, newId, myTracksProviderUtils);
         }
       } else {
-        trackImporter = new GpxFileTrackImporter(context);
+        trackImporter = new GpxPullFileTrackImporter(context, myTracksProviderUtils);
       }
       fileInputStream = new FileInputStream(file);
-      trackId = trackImporter.importFile(fileInputStream);
-      return trackId != -1L;
+      return trackImporter.importFile(fileInputStream);
     } catch (FileNotFoundException e) {
       Log.e(TAG, "Unable to import file", e);
-      return false;
+      return -1L;
     } finally {
       if (fileInputStream != null) {
         try {
@@ -18,16 +18,15 @@ package com.google.android.apps.mytracks.io.file.importer;
 
 import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.Sensor;
-import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
-import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
 import android.location.Location;
+import android.location.LocationManager;
 import android.net.Uri;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -64,12 +63,20 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
 
   private static final String ATTRIBUTE_NAME = "name";
 
+  /*
+   * The max number of track points of a gx:Track kept in memory. Past it, the
+   * track points are spilled to the cache directory.
+   */
+  private static final int MAX_IN_MEMORY_TRACK_POINTS = 16384;
+
   private boolean trackStarted = false;
   private String sensorName;
-  private ArrayList<Location> locationList;
-  private ArrayList<Integer> cadenceList;
-  private ArrayList<Integer> heartRateList;
-  private ArrayList<Integer> powerList;
+
+  // The track points of the current gx:Track
+  private final TrackSegmentBuffer trackSegmentBuffer;
+
+  // The location reused to insert the track points of the current gx:Track
+  private final MyTracksLocation trackPoint = new MyTracksLocation(LocationManager.GPS_PROVIDER);
 
   /**
    * Constructor.
@@ -81,10 +88,28 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
     this(context, importTrackId, MyTracksProviderUtils.Factory.get(context));
   }
 
-  @VisibleForTesting
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId track id to import to. -1L to import to a new track.
+   * @param myTracksProviderUtils the my tracks provider utils to import with
+   */
   KmlFileTrackImporter(
       Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
     super(context, importTrackId, myTracksProviderUtils);
+    trackSegmentBuffer = new TrackSegmentBuffer(
+        MAX_IN_MEMORY_TRACK_POINTS, context.getCacheDir());
+  }
+
+  @Override
+  public long importFile(InputStream inputStream) {
+    try {
+      return super.importFile(inputStream);
+    } finally {
+      // Deletes any spill files left by a failed import
+      trackSegmentBuffer.clear();
+    }
   }
 
   @Override
@@ -215,44 +240,23 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
   @Override
   protected void onTrackSegmentStart() {
     super.onTrackSegmentStart();
-    locationList = new ArrayList<Location>();
-    powerList = new ArrayList<Integer>();
-    cadenceList = new ArrayList<Integer>();
-    heartRateList = new ArrayList<Integer>();
+    trackSegmentBuffer.clear();
   }
 
   /**
    * On track segment end.
    */
-  private void onTrackSegmentEnd() {
+  private void onTrackSegmentEnd() throws SAXException {
     // Close a track segment by inserting the segment locations
-    boolean hasPower = powerList.size() == locationList.size();
-    boolean hasCadence = cadenceList.size() == locationList.size();
-    boolean hasHeartRate = heartRateList.size() == locationList.size();
-
-    for (int i = 0; i < locationList.size(); i++) {
-      Location location = locationList.get(i);
-
-      if (!hasPower && !hasCadence && !hasHeartRate) {
-        insertTrackPoint(location);
-      } else {
-        SensorDataSet.Builder builder = Sensor.SensorDataSet.newBuilder();
-        if (hasPower) {
-          builder.setPower(Sensor.SensorData.newBuilder()
-              .setValue(powerList.get(i)).setState(Sensor.SensorState.SENDING));
-        }
-        if (hasCadence) {
-          builder.setCadence(Sensor.SensorData.newBuilder()
-              .setValue(cadenceList.get(i)).setState(Sensor.SensorState.SENDING));
-        }
-        if (hasHeartRate) {
-          builder.setHeartRate(Sensor.SensorData.newBuilder()
-              .setValue(heartRateList.get(i)).setState(Sensor.SensorState.SENDING));
-        }
-        SensorDataSet sensorDataSet = builder.setCreationTime(location.getTime()).build();
-        MyTracksLocation myTracksLocation = new MyTracksLocation(location, sensorDataSet);
-        insertTrackPoint(myTracksLocation);
+    try {
+      int size = trackSegmentBuffer.size();
+      for (int i = 0; i < size; i++) {
+        insertTrackPoint(trackSegmentBuffer.next(trackPoint));
       }
+    } catch (IOException e) {
+      throw new SAXException(createErrorMessage("Unable to read the track points"), e);
+    } finally {
+      trackSegmentBuffer.clear();
     }
   }
 
@@ -276,7 +280,11 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
     if (location == null) {
       return;
     }
-    locationList.add(location);
+    try {
+      trackSegmentBuffer.addTrackPoint(location);
+    } catch (IOException e) {
+      throw new SAXException(createErrorMessage("Unable to buffer the track points"), e);
+    }
     time = null;
   }
 
@@ -306,12 +314,16 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
     } catch (NumberFormatException e) {
       throw new SAXException(createErrorMessage("Unable to parse gx:value:" + content), e);
     }
-    if (POWER.equals(sensorName)) {
-      powerList.add(value);
-    } else if (HEART_RATE.equals(sensorName)) {
-      heartRateList.add(value);
-    } else if (CADENCE.equals(sensorName)) {
-      cadenceList.add(value);
+    try {
+      if (POWER.equals(sensorName)) {
+        trackSegmentBuffer.addPower(value);
+      } else if (HEART_RATE.equals(sensorName)) {
+        trackSegmentBuffer.addHeartRate(value);
+      } else if (CADENCE.equals(sensorName)) {
+        trackSegmentBuffer.addCadence(value);
+      }
+    } catch (IOException e) {
+      throw new SAXException(createErrorMessage("Unable to buffer the sensor data"), e);
     }
   }
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Imports a KML file with an {@link org.xmlpull.v1.XmlPullParser}, as
+ * {@link KmlFileTrackImporter}. The gx:Track values are parsed as numbers into
+ * reused locations.
+ */
+public class KmlPullFileTrackImporter extends AbstractPullFileTrackImporter {
+
+  private static final String CADENCE = "cadence";
+  private static final String HEART_RATE = "heart_rate";
+  private static final String POWER = "power";
+
+  private static final String STATISTICS_STYLE = "#statistics";
+  private static final String WAYPOINT_STYLE = "#waypoint";
+
+  private static final String TAG_COORDINATES = "coordinates";
+  private static final String TAG_DESCRIPTION = "description";
+  private static final String TAG_GX_COORD = "gx:coord";
+  private static final String TAG_GX_MULTI_TRACK = "gx:MultiTrack";
+  private static final String TAG_GX_SIMPLE_ARRAY_DATA = "gx:SimpleArrayData";
+  private static final String TAG_GX_TRACK = "gx:Track";
+  private static final String TAG_GX_VALUE = "gx:value";
+  private static final String TAG_HREF = "href";
+  private static final String TAG_KML = "kml";
+  private static final String TAG_NAME = "name";
+  private static final String TAG_PHOTO_OVERLAY = "PhotoOverlay";
+  private static final String TAG_PLACEMARK = "Placemark";
+  private static final String TAG_STYLE_URL = "styleUrl";
+  private static final String TAG_VALUE = "value";
+  private static final String TAG_WHEN = "when";
+
+  private static final String ATTRIBUTE_NAME = "name";
+
+  /*
+   * The max number of track points of a gx:Track kept in memory. Past it, the
+   * track points are spilled to the cache directory.
+   */
+  private static final int MAX_IN_MEMORY_TRACK_POINTS = 16384;
+
+  private boolean trackStarted = false;
+  private String sensorName;
+
+  // True inside a gx:Track element
+  private boolean inTrackSegment = false;
+
+  // The time of the next gx:coord element
+  private long trackPointTime;
+  private boolean hasTrackPointTime = false;
+
+  // The longitude, latitude, and altitude of a gx:coord element
+  private final double[] coordinates = new double[3];
+
+  /*
+   * The locations reused for the track points. Alternates between the two
+   * since the previous track point is kept to compute the speed and bearing.
+   */
+  private final Location[] trackPoints = { new Location(LocationManager.GPS_PROVIDER),
+      new Location(LocationManager.GPS_PROVIDER) };
+  private int trackPointIndex = 0;
+
+  // The track points of the current gx:Track
+  private final TrackSegmentBuffer trackSegmentBuffer;
+
+  // The location reused to insert the track points of the current gx:Track
+  private final MyTracksLocation trackPoint = new MyTracksLocation(LocationManager.GPS_PROVIDER);
+
+  /**
+   * Constructor.
+   *
+   * @param context the context
+   * @param importTrackId track id to import to. -1L to import to a new track.
+   */
+  public KmlPullFileTrackImporter(Context context, long importTrackId) {
+    this(context, importTrackId, MyTracksProviderUtils.Factory.get(context));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param context the context
+   * @param importTrackId track id to import to. -1L to import to a new track.
+   * @param myTracksProviderUtils the my tracks provider utils to import with
+   */
+  KmlPullFileTrackImporter(
+      Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
+    super(context, importTrackId, myTracksProviderUtils);
+    trackSegmentBuffer = new TrackSegmentBuffer(
+        MAX_IN_MEMORY_TRACK_POINTS, context.getCacheDir());
+  }
+
+  @Override
+  public long importFile(InputStream inputStream) {
+    try {
+      return super.importFile(inputStream);
+    } finally {
+      // Deletes any spill files left by a failed import
+      trackSegmentBuffer.clear();
+    }
+  }
+
+  @Override
+  protected void onStartTag(String tag) throws SAXException {
+    if (tag.equals(TAG_PLACEMARK) || tag.equals(TAG_PHOTO_OVERLAY)) {
+      // As in KmlFileTrackImporter, also called for the Placemark of a track
+      onWaypointStart();
+    } else if (tag.equals(TAG_GX_MULTI_TRACK)) {
+      trackStarted = true;
+      onTrackStart();
+    } else if (tag.equals(TAG_GX_TRACK)) {
+      if (!trackStarted) {
+        throw new SAXException("No " + TAG_GX_MULTI_TRACK);
+      }
+      onTrackSegmentStart();
+    } else if (tag.equals(TAG_GX_SIMPLE_ARRAY_DATA)) {
+      sensorName = getAttributeValue(ATTRIBUTE_NAME);
+    }
+  }
+
+  @Override
+  protected void onEndTag(String tag) throws SAXException {
+    if (tag.equals(TAG_KML)) {
+      onFileEnd();
+    } else if (tag.equals(TAG_PLACEMARK) || tag.equals(TAG_PHOTO_OVERLAY)) {
+      onWaypointEnd();
+    } else if (tag.equals(TAG_COORDINATES)) {
+      onWaypointLocationEnd();
+    } else if (tag.equals(TAG_GX_MULTI_TRACK)) {
+      onTrackEnd();
+    } else if (tag.equals(TAG_GX_TRACK)) {
+      onTrackSegmentEnd();
+    } else if (tag.equals(TAG_GX_COORD)) {
+      onTrackPointEnd();
+    } else if (tag.equals(TAG_GX_VALUE)) {
+      onSensorValueEnd();
+    } else if (tag.equals(TAG_NAME)) {
+      if (hasText()) {
+        name = getText();
+      }
+    } else if (tag.equals(TAG_DESCRIPTION)) {
+      if (hasText()) {
+        description = getText();
+      }
+    } else if (tag.equals(TAG_VALUE)) {
+      if (hasText()) {
+        category = getText();
+      }
+    } else if (tag.equals(TAG_WHEN)) {
+      if (hasText()) {
+        onWhenEnd();
+      }
+    } else if (tag.equals(TAG_STYLE_URL)) {
+      if (hasText()) {
+        waypointType = getText();
+      }
+    } else if (tag.equals(TAG_HREF)) {
+      if (hasText()) {
+        photoUrl = getText();
+      }
+    }
+  }
+
+  /**
+   * On waypoint start.
+   */
+  private void onWaypointStart() {
+    // Reset all Placemark variables
+    name = null;
+    description = null;
+    category = null;
+    photoUrl = null;
+    latitude = null;
+    longitude = null;
+    altitude = null;
+    time = null;
+    waypointType = null;
+  }
+
+  /**
+   * On waypoint end.
+   */
+  private void onWaypointEnd() throws SAXException {
+    // Add a waypoint if the waypointType matches
+    WaypointType type = null;
+    if (WAYPOINT_STYLE.equals(waypointType)) {
+      type = WaypointType.WAYPOINT;
+    } else if (STATISTICS_STYLE.equals(waypointType)) {
+      type = WaypointType.STATISTICS;
+    }
+    if (type == null) {
+      return;
+    }
+    if (photoUrl != null) {
+      Uri uri = Uri.parse(photoUrl);
+      photoUrl = getPhotoUrl(uri.getLastPathSegment());
+    }
+    addWaypoint(type);
+  }
+
+  /**
+   * On waypoint location end.
+   */
+  private void onWaypointLocationEnd() {
+    if (hasText()) {
+      String[] parts = getText().split(",");
+      if (parts.length != 2 && parts.length != 3) {
+        return;
+      }
+      longitude = parts[0];
+      latitude = parts[1];
+      altitude = parts.length == 3 ? parts[2] : null;
+    }
+  }
+
+  /**
+   * On when end. Parses the time of a track point, keeps the time of a
+   * waypoint as a string.
+   */
+  private void onWhenEnd() throws SAXException {
+    if (!inTrackSegment) {
+      time = getText();
+      return;
+    }
+    try {
+      trackPointTime = parseTextTime();
+      hasTrackPointTime = true;
+    } catch (IllegalArgumentException e) {
+      throw new SAXException(
+          createErrorMessage(String.format(Locale.US, "Unable to parse time: %s", getText())), e);
+    }
+  }
+
+  @Override
+  protected void onTrackSegmentStart() {
+    super.onTrackSegmentStart();
+    inTrackSegment = true;
+    hasTrackPointTime = false;
+    trackSegmentBuffer.clear();
+  }
+
+  /**
+   * On track segment end.
+   */
+  private void onTrackSegmentEnd() throws SAXException {
+    inTrackSegment = false;
+
+    // Close a track segment by inserting the segment locations
+    try {
+      int size = trackSegmentBuffer.size();
+      for (int i = 0; i < size; i++) {
+        insertTrackPoint(trackSegmentBuffer.next(trackPoint));
+      }
+    } catch (IOException e) {
+      throw new SAXException(createErrorMessage("Unable to read the track points"), e);
+    } finally {
+      trackSegmentBuffer.clear();
+    }
+  }
+
+  /**
+   * On track point end. gx:coord end tag.
+   */
+  private void onTrackPointEnd() throws SAXException {
+    if (!hasText()) {
+      return;
+    }
+    int count = countTextParts(' ');
+    if (count != 2 && count != 3) {
+      return;
+    }
+    try {
+      splitTextDoubles(' ', coordinates);
+    } catch (NumberFormatException e) {
+      throw new SAXException(createErrorMessage(
+          String.format(Locale.US, "Unable to parse gx:coord: %s", getText())), e);
+    }
+    Location location = trackPoints[trackPointIndex];
+    trackPointIndex = 1 - trackPointIndex;
+    double altitudeValue = count == 3 ? coordinates[2] : Double.NaN;
+    setLocation(location, coordinates[1], coordinates[0], altitudeValue,
+        hasTrackPointTime ? trackPointTime : getImportTime());
+    try {
+      trackSegmentBuffer.addTrackPoint(getTrackPoint(location));
+    } catch (IOException e) {
+      throw new SAXException(createErrorMessage("Unable to buffer the track points"), e);
+    }
+    hasTrackPointTime = false;
+  }
+
+  /**
+   * On sensor value end. gx:value end tag.
+   */
+  private void onSensorValueEnd() throws SAXException {
+    if (!hasText()) {
+      return;
+    }
+    int value;
+    try {
+      value = parseTextInt();
+    } catch (NumberFormatException e) {
+      if (getText().equals("")) {
+        return;
+      }
+      throw new SAXException(createErrorMessage("Unable to parse gx:value:" + getText()), e);
+    }
+    try {
+      if (POWER.equals(sensorName)) {
+        trackSegmentBuffer.addPower(value);
+      } else if (HEART_RATE.equals(sensorName)) {
+        trackSegmentBuffer.addHeartRate(value);
+      } else if (CADENCE.equals(sensorName)) {
+        trackSegmentBuffer.addCadence(value);
+      }
+    } catch (IOException e) {
+      throw new SAXException(createErrorMessage("Unable to buffer the sensor data"), e);
+    }
+  }
+}
@@ -24,27 +24,30 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Locale;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
- * Imports a KMZ file.
+ * Imports a KMZ file in one pass. The kml entry is parsed directly from the zip
+ * input stream and the image entries are written directly to the photo
+ * directory of the track.
  * 
  * @author Jimmy Shih
  */
 public class KmzTrackImporter implements TrackImporter {
 
   private static final String TAG = KmzTrackImporter.class.getSimpleName();
-  private static final int BUFFER_SIZE = 4096;
+  private static final int BUFFER_SIZE = 8192;
 
   private final Context context;
   private final long importTrackId;
+  private final MyTracksProviderUtils myTracksProviderUtils;
 
   /**
    * Constructor.
@@ -54,14 +57,30 @@ public class KmzTrackImporter implements TrackImporter {
    *          images in the kmz file can be imported.
    */
   public KmzTrackImporter(Context context, long importTrackId) {
+    this(context, importTrackId, MyTracksProviderUtils.Factory.get(context));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId track id to import to. This should not be -1L so that
+   *          images in the kmz file can be imported.
+   * @param myTracksProviderUtils the my tracks provider utils to import with
+   */
+  public KmzTrackImporter(
+      Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
     this.context = context;
     this.importTrackId = importTrackId;
+    this.myTracksProviderUtils = myTracksProviderUtils;
   }
 
   @Override
   public long importFile(InputStream inputStream) {
     ZipInputStream zipInputStream = null;
     long trackId = importTrackId;
+    long start = System.currentTimeMillis();
+    long imageBytes = 0L;
     try {
       ZipEntry zipEntry;
 
@@ -83,11 +102,13 @@ public class KmzTrackImporter implements TrackImporter {
         } else {
           String prefix = KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar;
           if (fileName.startsWith(prefix)) {
-            readImageFile(zipInputStream, fileName.substring(prefix.length()));
+            imageBytes += readImageFile(zipInputStream, fileName.substring(prefix.length()));
           }
         }
         zipInputStream.closeEntry();
       }
+      Log.d(TAG, String.format(Locale.US, "Imported kmz in %d ms, %d image bytes written",
+          System.currentTimeMillis() - start, imageBytes));
       return trackId;
     } catch (IOException e) {
       Log.e(TAG, "Unable to import file", e);
@@ -111,7 +132,6 @@ public class KmzTrackImporter implements TrackImporter {
    */
   private void cleanImport(long trackId) {
     if (trackId != -1L) {
-      MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
       myTracksProviderUtils.deleteTrack(context, trackId);
     }
 
@@ -128,44 +148,20 @@ public class KmzTrackImporter implements TrackImporter {
   }
 
   /**
-   * Parses kml
+   * Parses kml from the current entry of the zip input stream.
    * 
    * @param zipInputStream the zip input stream
    * @return the imported track id or -1L
    */
-  private long parseKml(ZipInputStream zipInputStream) throws IOException {
-    ByteArrayInputStream byteArrayInputStream = null;
-    try {
-      KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(context, importTrackId);
-      byteArrayInputStream = new ByteArrayInputStream(getKml(zipInputStream));
-      return kmlFileTrackImporter.importFile(byteArrayInputStream);
-    } finally {
-      if (byteArrayInputStream != null) {
-        byteArrayInputStream.close();
-      }
-    }
-  }
-
-  /**
-   * Gets the kml as byte array.
-   * 
-   * @param zipInputStream the zip input stream
-   */
-  private byte[] getKml(ZipInputStream zipInputStream) throws IOException {
-    ByteArrayOutputStream byteArrayOutputStream = null;
-    try {
-      byteArrayOutputStream = new ByteArrayOutputStream();
-      byte[] buffer = new byte[BUFFER_SIZE];
-      int count;
-      while ((count = zipInputStream.read(buffer)) != -1) {
-        byteArrayOutputStream.write(buffer, 0, count);
+  private long parseKml(ZipInputStream zipInputStream) {
+    KmlPullFileTrackImporter kmlPullFileTrackImporter = new KmlPullFileTrackImporter(
+        context, importTrackId, myTracksProviderUtils);
+    return kmlPullFileTrackImporter.importFile(new FilterInputStream(zipInputStream) {
+        @Override
+      public void close() {
+        // Keeps the zip input stream open to read the next entries
       }
-      return byteArrayOutputStream.toByteArray();
-    } finally {
-      if (byteArrayOutputStream != null) {
-        byteArrayOutputStream.close();
-      }
-    }
+    });
   }
 
   /**
@@ -173,15 +169,17 @@ public class KmzTrackImporter implements TrackImporter {
    * 
    * @param zipInputStream the zip input stream
    * @param fileName the file name
+   * @return the number of bytes written
    */
-  private void readImageFile(ZipInputStream zipInputStream, String fileName) throws IOException {
+  private long readImageFile(ZipInputStream zipInputStream, String fileName) throws IOException {
     FileOutputStream fileOutputStream = null;
+    long bytes = 0L;
     try {
       if (importTrackId == -1L) {
-        return;
+        return bytes;
       }
       if (fileName.equals("")) {
-        return;
+        return bytes;
       }
       File dir = FileUtils.getPhotoDir(importTrackId);
       FileUtils.ensureDirectoryExists(dir);
@@ -192,9 +190,11 @@ public class KmzTrackImporter implements TrackImporter {
       int count;
       while ((count = zipInputStream.read(buffer)) != -1) {
         fileOutputStream.write(buffer, 0, count);
+        bytes += count;
       }
       
       FileUtils.updateMediaScanner(context, Uri.fromFile(file));     
+      return bytes;
     } finally {
       if (fileOutputStream != null) {
         fileOutputStream.close();
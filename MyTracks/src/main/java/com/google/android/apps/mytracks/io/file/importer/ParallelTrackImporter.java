@@ -0,0 +1,867 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.DescriptionGenerator;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointBlock;
+import com.google.android.apps.mytracks.content.TrackPointSeries;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports files, one track per file, with a pool of importer workers.
+ * <p>
+ * Each worker parses a file and computes its statistics with a
+ * {@link FileImporter}, given a {@link MyTracksProviderUtils} which reads
+ * directly and runs every write on a single writer stage, the calling thread.
+ * The writer merges the track point batches queued by the workers into one bulk
+ * insert, so that they are committed in one transaction. If the merged insert
+ * fails, each batch is retried on its own so that one bad file doesn't fail
+ * the others. Since a worker waits for each of its writes, the importers work
+ * as with a {@link MyTracksProviderUtils}, including the clean up of a failed
+ * file. The tracks are inserted in the order of the files, so the track ids are
+ * in the same order as with a sequential import.
+ * <p>
+ * Interrupting the calling thread cancels the files not started. The writer
+ * keeps serving the started files until they are imported or cleaned up.
+ * Throughput statistics of each stage are logged at the end.
+ */
+public class ParallelTrackImporter {
+
+  /**
+   * Imports a file.
+   */
+  public interface FileImporter {
+
+    /**
+     * Imports a file. Called from a worker thread.
+     *
+     * @param file the file
+     * @param myTracksProviderUtils the my tracks provider utils to import with
+     * @return the imported track id or -1L
+     */
+    long importFile(File file, MyTracksProviderUtils myTracksProviderUtils);
+  }
+
+  /**
+   * Listener for the import progress.
+   */
+  public interface ImportListener {
+
+    /**
+     * On progress update. Called from a worker thread.
+     *
+     * @param number the number of files completed
+     * @param max the number of files
+     */
+    void onProgressUpdate(int number, int max);
+  }
+
+  @VisibleForTesting
+  static final int MAX_WORKERS = 4;
+
+  // The max number of track points committed in one transaction
+  @VisibleForTesting
+  static final int MAX_TRANSACTION_POINTS = 4096;
+
+  private static final String TAG = ParallelTrackImporter.class.getSimpleName();
+
+  // Stops the writer once the workers are done
+  private static final WriteRequest<Void> STOP = new WriteRequest<Void>() {
+      @Override
+    Void write(MyTracksProviderUtils myTracksProviderUtils) {
+      return null;
+    }
+  };
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final FileImporter fileImporter;
+  private final ImportListener importListener;
+  private final int numWorkers;
+
+  private final BlockingQueue<WriteRequest<?>> writeRequests =
+      new LinkedBlockingQueue<WriteRequest<?>>();
+
+  private final AtomicInteger completedCount = new AtomicInteger();
+  private final AtomicInteger successCount = new AtomicInteger();
+  private int totalCount;
+
+  // The imported track id of each file, guarded by this
+  private long[] trackIds = new long[0];
+
+  // The index of the next file allowed to insert a track, guarded by this
+  private int nextTrackFile;
+
+  // True for the files done inserting their tracks, guarded by this
+  private boolean[] trackFilesDone = new boolean[0];
+
+  // Writer stage statistics, in nanoseconds
+  private long writeTime;
+  private long writePoints;
+  private long writeTransactions;
+
+  // Worker stage statistics, in nanoseconds
+  private final AtomicLong workTime = new AtomicLong();
+  private final AtomicLong workWaitTime = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param fileImporter the file importer
+   * @param importListener the listener notified with the number of completed
+   *          files, from the worker threads
+   */
+  public ParallelTrackImporter(MyTracksProviderUtils myTracksProviderUtils,
+      FileImporter fileImporter, ImportListener importListener) {
+    this(myTracksProviderUtils, fileImporter, importListener, getDefaultNumWorkers());
+  }
+
+  @VisibleForTesting
+  ParallelTrackImporter(MyTracksProviderUtils myTracksProviderUtils, FileImporter fileImporter,
+      ImportListener importListener, int numWorkers) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.fileImporter = fileImporter;
+    this.importListener = importListener;
+    this.numWorkers = numWorkers;
+  }
+
+  /**
+   * Imports files. Returns once all the started files are imported or cleaned
+   * up.
+   *
+   * @param files the files
+   * @return the number of files imported
+   * @throws InterruptedException if the calling thread is interrupted. The
+   *           files not started are skipped
+   */
+  public int importFiles(List<File> files) throws InterruptedException {
+    totalCount = files.size();
+    synchronized (this) {
+      trackIds = new long[totalCount];
+      Arrays.fill(trackIds, -1L);
+      trackFilesDone = new boolean[totalCount];
+      nextTrackFile = 0;
+    }
+    long startTime = System.nanoTime();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(numWorkers, numWorkers, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+        @Override
+      protected void terminated() {
+        writeRequests.add(STOP);
+      }
+    };
+    boolean interrupted = false;
+    try {
+      for (int i = 0; i < totalCount; i++) {
+        executor.execute(new FileTask(i, files.get(i)));
+      }
+      executor.shutdown();
+      interrupted = write(executor);
+    } finally {
+      logThroughput(System.nanoTime() - startTime);
+    }
+    if (interrupted) {
+      throw new InterruptedException();
+    }
+    return successCount.get();
+  }
+
+  /**
+   * Gets the number of files imported so far.
+   */
+  public int getSuccessCount() {
+    return successCount.get();
+  }
+
+  /**
+   * Gets the track id of the last file, in the order of the files, imported so
+   * far. -1L if none.
+   */
+  public synchronized long getLastTrackId() {
+    for (int i = trackIds.length - 1; i >= 0; i--) {
+      if (trackIds[i] != -1L) {
+        return trackIds[i];
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Gets the default number of workers, leaving a processor to the writer.
+   */
+  private static int getDefaultNumWorkers() {
+    return Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  /**
+   * Runs the write requests until the workers are done. Returns true if the
+   * calling thread was interrupted, in which case the files not started are
+   * cancelled.
+   *
+   * @param executor the worker executor
+   */
+  private boolean write(ThreadPoolExecutor executor) {
+    boolean interrupted = false;
+    List<BulkInsertRequest> batch = new ArrayList<BulkInsertRequest>();
+    while (true) {
+      WriteRequest<?> request;
+      try {
+        request = writeRequests.take();
+      } catch (InterruptedException e) {
+        interrupted = true;
+        executor.shutdownNow();
+        continue;
+      }
+      if (request == STOP) {
+        return interrupted;
+      }
+      if (Thread.interrupted() && !interrupted) {
+        interrupted = true;
+        executor.shutdownNow();
+      }
+      long start = System.nanoTime();
+      if (request instanceof BulkInsertRequest) {
+        // Merges the track point batches queued meanwhile
+        batch.clear();
+        batch.add((BulkInsertRequest) request);
+        int points = batch.get(0).length;
+        WriteRequest<?> next;
+        while ((next = writeRequests.peek()) instanceof BulkInsertRequest
+            && points + ((BulkInsertRequest) next).length <= MAX_TRANSACTION_POINTS) {
+          batch.add((BulkInsertRequest) writeRequests.poll());
+          points += ((BulkInsertRequest) next).length;
+        }
+        bulkInsertTrackPoints(batch, points);
+      } else {
+        request.run(myTracksProviderUtils);
+      }
+      writeTime += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Inserts the track points and the derived values of several bulk insert
+   * requests in one transaction. If the transaction fails, inserts the requests
+   * one by one, so that only the failing file fails.
+   *
+   * @param batch the bulk insert requests
+   * @param points the number of track points
+   */
+  private void bulkInsertTrackPoints(List<BulkInsertRequest> batch, int points) {
+    if (batch.size() == 1) {
+      batch.get(0).run(myTracksProviderUtils);
+      writePoints += points;
+      writeTransactions++;
+      return;
+    }
+    Location[] locations = new Location[points];
+    long[] pointTrackIds = new long[points];
+    long[] trackPointIds = new long[points];
+    TrackPointSeries series = new TrackPointSeries(points);
+    int index = 0;
+    for (BulkInsertRequest request : batch) {
+      System.arraycopy(request.locations, 0, locations, index, request.length);
+      Arrays.fill(pointTrackIds, index, index + request.length, request.trackId);
+      if (request.series != null) {
+        TrackPointSeries requestSeries = request.series;
+        for (int i = 0; i < requestSeries.getSize(); i++) {
+          series.add(index + requestSeries.getId(i), requestSeries.getDistance(i),
+              requestSeries.getTotalTime(i), requestSeries.getMovingTime(i),
+              requestSeries.getElevation(i), requestSeries.getSpeed(i),
+              requestSeries.getGrade(i));
+        }
+      }
+      index += request.length;
+    }
+    try {
+      myTracksProviderUtils.bulkInsertTrackPoint(
+          locations, pointTrackIds, points, trackPointIds, series);
+      writeTransactions++;
+    } catch (RuntimeException e) {
+      // The transaction is rolled back, retry each file on its own
+      Log.w(TAG, "Unable to insert " + batch.size() + " merged batches, retrying each", e);
+      for (BulkInsertRequest request : batch) {
+        request.run(myTracksProviderUtils);
+        writeTransactions++;
+      }
+      writePoints += points;
+      return;
+    }
+    index = 0;
+    for (BulkInsertRequest request : batch) {
+      System.arraycopy(trackPointIds, index, request.trackPointIds, 0, request.length);
+      if (request.series != null) {
+        for (int i = 0; i < request.series.getSize(); i++) {
+          request.series.setId(i, trackPointIds[index + (int) request.series.getId(i)]);
+        }
+      }
+      index += request.length;
+      request.complete(request.length, null);
+    }
+    writePoints += points;
+  }
+
+  /**
+   * Waits for a file to be allowed to insert a track, once the previous files
+   * are done inserting their tracks.
+   *
+   * @param index the file index
+   */
+  private synchronized void awaitTrackTurn(int index) {
+    boolean interrupted = false;
+    while (nextTrackFile < index) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        // The previous files are running, they complete their turn
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Marks a file as done inserting its tracks, letting the next files insert
+   * theirs.
+   *
+   * @param index the file index
+   */
+  private synchronized void onTrackTurnDone(int index) {
+    trackFilesDone[index] = true;
+    while (nextTrackFile < trackFilesDone.length && trackFilesDone[nextTrackFile]) {
+      nextTrackFile++;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Counts a completed file and notifies the listener.
+   *
+   * @param index the file index
+   * @param trackId the imported track id or -1L
+   */
+  private void onFileCompleted(int index, long trackId) {
+    if (trackId != -1L) {
+      synchronized (this) {
+        trackIds[index] = trackId;
+      }
+      successCount.incrementAndGet();
+    }
+    int number = completedCount.incrementAndGet();
+    if (importListener != null) {
+      importListener.onProgressUpdate(number, totalCount);
+    }
+  }
+
+  /**
+   * Logs the throughput of the writer and the worker stages.
+   *
+   * @param elapsedTime the elapsed time in nanoseconds
+   */
+  private void logThroughput(long elapsedTime) {
+    long parseTime = workTime.get() - workWaitTime.get();
+    Log.i(TAG, String.format(Locale.US,
+        "Imported %d of %d files in %d ms with %d workers. "
+        + "Writer: %d points in %d transactions, busy %d ms. "
+        + "Workers: parsed for %d ms, waited %d ms for the writer.",
+        successCount.get(), totalCount, toMillis(elapsedTime), numWorkers, writePoints,
+        writeTransactions, toMillis(writeTime), toMillis(parseTime),
+        toMillis(workWaitTime.get())));
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  /**
+   * A write to the my tracks provider utils, run by the writer.
+   *
+   * @param <T> the result type
+   */
+  private abstract static class WriteRequest<T> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private T result;
+    private RuntimeException failure;
+
+    /**
+     * Runs the write on the writer.
+     *
+     * @param myTracksProviderUtils the my tracks provider utils
+     */
+    abstract T write(MyTracksProviderUtils myTracksProviderUtils);
+
+    /**
+     * Runs the write and completes the request.
+     *
+     * @param myTracksProviderUtils the my tracks provider utils
+     */
+    void run(MyTracksProviderUtils myTracksProviderUtils) {
+      try {
+        complete(write(myTracksProviderUtils), null);
+      } catch (RuntimeException e) {
+        complete(null, e);
+      }
+    }
+
+    /**
+     * Completes the request.
+     *
+     * @param value the result
+     * @param exception the failure or null
+     */
+    void complete(T value, RuntimeException exception) {
+      result = value;
+      failure = exception;
+      latch.countDown();
+    }
+
+    /**
+     * Waits for the writer to run the write. Keeps waiting if interrupted, the
+     * caller must see the writes run in order.
+     */
+    T await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          latch.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A bulk insert of the track points of a track and their derived values. The
+   * writer merges the requests queued together.
+   */
+  private static class BulkInsertRequest extends WriteRequest<Integer> {
+
+    private final Location[] locations;
+    private final int length;
+    private final long trackId;
+    private final long[] trackPointIds;
+    private final TrackPointSeries series;
+
+    BulkInsertRequest(Location[] locations, int length, long trackId, long[] trackPointIds,
+        TrackPointSeries series) {
+      this.locations = locations;
+      this.length = length;
+      this.trackId = trackId;
+      this.trackPointIds = trackPointIds;
+      this.series = series;
+    }
+
+    @Override
+    Integer write(MyTracksProviderUtils myTracksProviderUtils) {
+      return myTracksProviderUtils.bulkInsertTrackPoint(
+          locations, length, trackId, trackPointIds, series);
+    }
+  }
+
+  /**
+   * The {@link MyTracksProviderUtils} of a file. Reads run directly on the
+   * worker thread. Writes are queued to the writer and waited for.
+   */
+  private class WriterProviderUtils implements MyTracksProviderUtils {
+
+    private final int index;
+
+    WriterProviderUtils(int index) {
+      this.index = index;
+    }
+
+    /**
+     * Queues a write to the writer and waits for it.
+     *
+     * @param request the write request
+     */
+    private <T> T runOnWriter(WriteRequest<T> request) {
+      long waitStart = System.nanoTime();
+      try {
+        writeRequests.add(request);
+        return request.await();
+      } finally {
+        workWaitTime.addAndGet(System.nanoTime() - waitStart);
+      }
+    }
+
+    // Writes
+
+    @Override
+    public void clearTrack(final Context context, final long trackId) {
+      runOnWriter(new WriteRequest<Void>() {
+          @Override
+        Void write(MyTracksProviderUtils providerUtils) {
+          providerUtils.clearTrack(context, trackId);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void deleteAllTracks(final Context context) {
+      runOnWriter(new WriteRequest<Void>() {
+          @Override
+        Void write(MyTracksProviderUtils providerUtils) {
+          providerUtils.deleteAllTracks(context);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void deleteTrack(final Context context, final long trackId) {
+      runOnWriter(new WriteRequest<Void>() {
+          @Override
+        Void write(MyTracksProviderUtils providerUtils) {
+          providerUtils.deleteTrack(context, trackId);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public Uri insertTrack(final Track track) {
+      // The tracks are inserted in the order of the files
+      awaitTrackTurn(index);
+      try {
+        return runOnWriter(new WriteRequest<Uri>() {
+            @Override
+          Uri write(MyTracksProviderUtils providerUtils) {
+            return providerUtils.insertTrack(track);
+          }
+        });
+      } finally {
+        onTrackTurnDone(index);
+      }
+    }
+
+    @Override
+    public void updateTrack(final Track track) {
+      runOnWriter(new WriteRequest<Void>() {
+          @Override
+        Void write(MyTracksProviderUtils providerUtils) {
+          providerUtils.updateTrack(track);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void updateTrackStatistics(final Track track) {
+      runOnWriter(new WriteRequest<Void>() {
+          @Override
+        Void write(MyTracksProviderUtils providerUtils) {
+          providerUtils.updateTrackStatistics(track);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void deleteWaypoint(final Context context, final long waypointId,
+        final DescriptionGenerator descriptionGenerator) {
+      runOnWriter(new WriteRequest<Void>() {
+          @Override
+        Void write(MyTracksProviderUtils providerUtils) {
+          providerUtils.deleteWaypoint(context, waypointId, descriptionGenerator);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public Uri insertWaypoint(final Waypoint waypoint) {
+      return runOnWriter(new WriteRequest<Uri>() {
+          @Override
+        Uri write(MyTracksProviderUtils providerUtils) {
+          return providerUtils.insertWaypoint(waypoint);
+        }
+      });
+    }
+
+    @Override
+    public boolean updateWaypoint(final Waypoint waypoint) {
+      return runOnWriter(new WriteRequest<Boolean>() {
+          @Override
+        Boolean write(MyTracksProviderUtils providerUtils) {
+          return providerUtils.updateWaypoint(waypoint);
+        }
+      });
+    }
+
+    @Override
+    public int bulkInsertTrackPoint(
+        final Location[] locations, final int length, final long trackId) {
+      return runOnWriter(new WriteRequest<Integer>() {
+          @Override
+        Integer write(MyTracksProviderUtils providerUtils) {
+          return providerUtils.bulkInsertTrackPoint(locations, length, trackId);
+        }
+      });
+    }
+
+    @Override
+    public int bulkInsertTrackPoint(Location[] locations, int length, long trackId,
+        long[] trackPointIds, TrackPointSeries series) {
+      return runOnWriter(
+          new BulkInsertRequest(locations, length, trackId, trackPointIds, series));
+    }
+
+    @Override
+    public int bulkInsertTrackPoint(final Location[] locations, final long[] pointTrackIds,
+        final int length, final long[] trackPointIds, final TrackPointSeries series) {
+      return runOnWriter(new WriteRequest<Integer>() {
+          @Override
+        Integer write(MyTracksProviderUtils providerUtils) {
+          return providerUtils.bulkInsertTrackPoint(
+              locations, pointTrackIds, length, trackPointIds, series);
+        }
+      });
+    }
+
+    @Override
+    public Uri insertTrackPoint(final Location location, final long trackId) {
+      return runOnWriter(new WriteRequest<Uri>() {
+          @Override
+        Uri write(MyTracksProviderUtils providerUtils) {
+          return providerUtils.insertTrackPoint(location, trackId);
+        }
+      });
+    }
+
+    @Override
+    public int compactTrackPoints(final long trackId) {
+      return runOnWriter(new WriteRequest<Integer>() {
+          @Override
+        Integer write(MyTracksProviderUtils providerUtils) {
+          return providerUtils.compactTrackPoints(trackId);
+        }
+      });
+    }
+
+    // Reads
+
+    @Override
+    public Track createTrack(Cursor cursor) {
+      return myTracksProviderUtils.createTrack(cursor);
+    }
+
+    @Override
+    public List<Track> getAllTracks() {
+      return myTracksProviderUtils.getAllTracks();
+    }
+
+    @Override
+    public Track getLastTrack() {
+      return myTracksProviderUtils.getLastTrack();
+    }
+
+    @Override
+    public Track getTrack(long trackId) {
+      return myTracksProviderUtils.getTrack(trackId);
+    }
+
+    @Override
+    public Cursor getTrackCursor(String selection, String[] selectionArgs, String sortOrder) {
+      return myTracksProviderUtils.getTrackCursor(selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public TripStatistics getAggregatedTripStatistics(String category, int period, long time) {
+      return myTracksProviderUtils.getAggregatedTripStatistics(category, period, time);
+    }
+
+    @Override
+    public Cursor getAggregatedStatsCursor(
+        String selection, String[] selectionArgs, String sortOrder) {
+      return myTracksProviderUtils.getAggregatedStatsCursor(selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor getSearchIndexCursor(String match) {
+      return myTracksProviderUtils.getSearchIndexCursor(match);
+    }
+
+    @Override
+    public Waypoint createWaypoint(Cursor cursor) {
+      return myTracksProviderUtils.createWaypoint(cursor);
+    }
+
+    @Override
+    public long getFirstWaypointId(long trackId) {
+      return myTracksProviderUtils.getFirstWaypointId(trackId);
+    }
+
+    @Override
+    public Waypoint getLastWaypoint(long trackId, WaypointType waypointType) {
+      return myTracksProviderUtils.getLastWaypoint(trackId, waypointType);
+    }
+
+    @Override
+    public int getNextWaypointNumber(long trackId, WaypointType waypointType) {
+      return myTracksProviderUtils.getNextWaypointNumber(trackId, waypointType);
+    }
+
+    @Override
+    public Waypoint getWaypoint(long waypointId) {
+      return myTracksProviderUtils.getWaypoint(waypointId);
+    }
+
+    @Override
+    public Cursor getWaypointCursor(
+        String selection, String[] selectionArgs, String sortOrder, int maxWaypoints) {
+      return myTracksProviderUtils.getWaypointCursor(
+          selection, selectionArgs, sortOrder, maxWaypoints);
+    }
+
+    @Override
+    public Cursor getWaypointCursor(long trackId, long minWaypointId, int maxWaypoints) {
+      return myTracksProviderUtils.getWaypointCursor(trackId, minWaypointId, maxWaypoints);
+    }
+
+    @Override
+    public int getWaypointCount(long trackId) {
+      return myTracksProviderUtils.getWaypointCount(trackId);
+    }
+
+    @Override
+    public Location createTrackPoint(Cursor cursor) {
+      return myTracksProviderUtils.createTrackPoint(cursor);
+    }
+
+    @Override
+    public long getFirstTrackPointId(long trackId) {
+      return myTracksProviderUtils.getFirstTrackPointId(trackId);
+    }
+
+    @Override
+    public long getLastTrackPointId(long trackId) {
+      return myTracksProviderUtils.getLastTrackPointId(trackId);
+    }
+
+    @Override
+    public long getTrackPointId(long trackId, Location location) {
+      return myTracksProviderUtils.getTrackPointId(trackId, location);
+    }
+
+    @Override
+    public Location getFirstValidTrackPoint(long trackId) {
+      return myTracksProviderUtils.getFirstValidTrackPoint(trackId);
+    }
+
+    @Override
+    public Location getLastValidTrackPoint(long trackId) {
+      return myTracksProviderUtils.getLastValidTrackPoint(trackId);
+    }
+
+    @Override
+    public Location getLastValidTrackPoint() {
+      return myTracksProviderUtils.getLastValidTrackPoint();
+    }
+
+    @Override
+    public Cursor getTrackPointCursor(
+        long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+      return myTracksProviderUtils.getTrackPointCursor(
+          trackId, startTrackPointId, maxLocations, descending);
+    }
+
+    @Override
+    public LocationIterator getTrackPointLocationIterator(long trackId, long startTrackPointId,
+        boolean descending, LocationFactory locationFactory) {
+      return myTracksProviderUtils.getTrackPointLocationIterator(
+          trackId, startTrackPointId, descending, locationFactory);
+    }
+
+    @Override
+    public int readTrackPoints(long trackId, long startTrackPointId, TrackPointBlock block) {
+      return myTracksProviderUtils.readTrackPoints(trackId, startTrackPointId, block);
+    }
+
+    @Override
+    public int readTrackPointSeries(
+        long trackId, long startTrackPointId, TrackPointSeries series) {
+      return myTracksProviderUtils.readTrackPointSeries(trackId, startTrackPointId, series);
+    }
+  }
+
+  /**
+   * A worker task importing a file.
+   */
+  private class FileTask implements Runnable {
+
+    private final int index;
+    private final File file;
+
+    public FileTask(int index, File file) {
+      this.index = index;
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      long startTime = System.nanoTime();
+      long trackId = -1L;
+      try {
+        trackId = fileImporter.importFile(file, new WriterProviderUtils(index));
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Unable to import file " + file.getName(), e);
+      } finally {
+        onTrackTurnDone(index);
+        workTime.addAndGet(System.nanoTime() - startTime);
+        onFileCompleted(index, trackId);
+      }
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.io.file.ColumnBuffer;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The track points of a KML gx:Track, buffered in a {@link ColumnBuffer} per
+ * value until the sensor data at the end of the gx:Track is read. Missing
+ * altitudes, speeds, and bearings are buffered as {@link Double#NaN}.
+ */
+class TrackSegmentBuffer {
+
+  private final ColumnBuffer timeColumn;
+  private final ColumnBuffer latitudeColumn;
+  private final ColumnBuffer longitudeColumn;
+  private final ColumnBuffer altitudeColumn;
+  private final ColumnBuffer speedColumn;
+  private final ColumnBuffer bearingColumn;
+  private final ColumnBuffer cadenceColumn;
+  private final ColumnBuffer heartRateColumn;
+  private final ColumnBuffer powerColumn;
+
+  /**
+   * Constructor.
+   *
+   * @param maxInMemory the max number of track points in memory
+   * @param spillDirectory the directory of the spill files
+   */
+  TrackSegmentBuffer(int maxInMemory, File spillDirectory) {
+    timeColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    latitudeColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    longitudeColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    altitudeColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    speedColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    bearingColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    cadenceColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    heartRateColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+    powerColumn = new ColumnBuffer(maxInMemory, spillDirectory);
+  }
+
+  /**
+   * Adds a track point. Copies its values, so the caller can reuse it.
+   *
+   * @param location the track point
+   */
+  void addTrackPoint(Location location) throws IOException {
+    timeColumn.addLong(location.getTime());
+    latitudeColumn.addDouble(location.getLatitude());
+    longitudeColumn.addDouble(location.getLongitude());
+    altitudeColumn.addDouble(location.hasAltitude() ? location.getAltitude() : Double.NaN);
+    speedColumn.addDouble(location.hasSpeed() ? location.getSpeed() : Double.NaN);
+    bearingColumn.addDouble(location.hasBearing() ? location.getBearing() : Double.NaN);
+  }
+
+  /**
+   * Adds a cadence value.
+   *
+   * @param value the value
+   */
+  void addCadence(int value) throws IOException {
+    cadenceColumn.addInt(value);
+  }
+
+  /**
+   * Adds a heart rate value.
+   *
+   * @param value the value
+   */
+  void addHeartRate(int value) throws IOException {
+    heartRateColumn.addInt(value);
+  }
+
+  /**
+   * Adds a power value.
+   *
+   * @param value the value
+   */
+  void addPower(int value) throws IOException {
+    powerColumn.addInt(value);
+  }
+
+  /**
+   * Gets the number of track points.
+   */
+  int size() {
+    return timeColumn.size();
+  }
+
+  /**
+   * Reads the next track point into a location. A sensor value is only read if
+   * there is one per track point.
+   *
+   * @param location the location to reuse
+   */
+  MyTracksLocation next(MyTracksLocation location) throws IOException {
+    int size = size();
+    boolean hasPower = powerColumn.size() == size;
+    boolean hasCadence = cadenceColumn.size() == size;
+    boolean hasHeartRate = heartRateColumn.size() == size;
+
+    location.reset();
+    location.setProvider(LocationManager.GPS_PROVIDER);
+    location.setTime(timeColumn.nextLong());
+    location.setLatitude(latitudeColumn.nextDouble());
+    location.setLongitude(longitudeColumn.nextDouble());
+    double altitude = altitudeColumn.nextDouble();
+    if (!Double.isNaN(altitude)) {
+      location.setAltitude(altitude);
+    }
+    double speed = speedColumn.nextDouble();
+    if (!Double.isNaN(speed)) {
+      location.setSpeed((float) speed);
+    }
+    double bearing = bearingColumn.nextDouble();
+    if (!Double.isNaN(bearing)) {
+      location.setBearing((float) bearing);
+    }
+
+    if (hasPower || hasCadence || hasHeartRate) {
+      SensorDataSet.Builder builder = Sensor.SensorDataSet.newBuilder();
+      if (hasPower) {
+        builder.setPower(Sensor.SensorData.newBuilder()
+            .setValue(powerColumn.nextInt()).setState(Sensor.SensorState.SENDING));
+      }
+      if (hasCadence) {
+        builder.setCadence(Sensor.SensorData.newBuilder()
+            .setValue(cadenceColumn.nextInt()).setState(Sensor.SensorState.SENDING));
+      }
+      if (hasHeartRate) {
+        builder.setHeartRate(Sensor.SensorData.newBuilder()
+            .setValue(heartRateColumn.nextInt()).setState(Sensor.SensorState.SENDING));
+      }
+      location.setSensorDataSet(builder.setCreationTime(location.getTime()).build());
+    }
+    return location;
+  }
+
+  /**
+   * Removes all the track points, deleting any spill files.
+   */
+  void clear() {
+    timeColumn.clear();
+    latitudeColumn.clear();
+    longitudeColumn.clear();
+    altitudeColumn.clear();
+    speedColumn.clear();
+    bearingColumn.clear();
+    cadenceColumn.clear();
+    heartRateColumn.clear();
+    powerColumn.clear();
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * A growable array of the locations of a track path, stored in primitive
+ * arrays. An invalid location is a segment split. A {@link LatLng} is only
+ * created by {@link #getLatLng(int)}, for the locations added to a polyline.
+ */
+public class LocationArray {
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private double[] latitudes;
+  private double[] longitudes;
+  private double[] speeds;
+  private boolean[] valids;
+  private int size;
+
+  public LocationArray() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the initial capacity
+   */
+  public LocationArray(int capacity) {
+    latitudes = new double[capacity];
+    longitudes = new double[capacity];
+    speeds = new double[capacity];
+    valids = new boolean[capacity];
+  }
+
+  /**
+   * Gets the number of locations.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if a location is valid.
+   *
+   * @param index the location index
+   */
+  public boolean isValid(int index) {
+    return valids[index];
+  }
+
+  /**
+   * Gets the latitude of a location.
+   *
+   * @param index the location index
+   */
+  public double getLatitude(int index) {
+    return latitudes[index];
+  }
+
+  /**
+   * Gets the longitude of a location.
+   *
+   * @param index the location index
+   */
+  public double getLongitude(int index) {
+    return longitudes[index];
+  }
+
+  /**
+   * Gets the speed of a location in kilometers per hour. -1.0 if not known.
+   *
+   * @param index the location index
+   */
+  public double getSpeed(int index) {
+    return speeds[index];
+  }
+
+  /**
+   * Creates the LatLng of a valid location.
+   *
+   * @param index the location index
+   */
+  public LatLng getLatLng(int index) {
+    return new LatLng(latitudes[index], longitudes[index]);
+  }
+
+  /**
+   * Adds a valid location.
+   *
+   * @param latitude the latitude
+   * @param longitude the longitude
+   * @param speed the speed in kilometers per hour. -1.0 if not known
+   */
+  public void add(double latitude, double longitude, double speed) {
+    ensureCapacity(size + 1);
+    latitudes[size] = latitude;
+    longitudes[size] = longitude;
+    speeds[size] = speed;
+    valids[size] = true;
+    size++;
+  }
+
+  /**
+   * Adds a location of another array.
+   *
+   * @param locations the other array
+   * @param index the location index in the other array
+   */
+  public void add(LocationArray locations, int index) {
+    if (locations.valids[index]) {
+      add(locations.latitudes[index], locations.longitudes[index], locations.speeds[index]);
+    } else {
+      addSegmentSplit();
+    }
+  }
+
+  /**
+   * Adds a segment split.
+   */
+  public void addSegmentSplit() {
+    ensureCapacity(size + 1);
+    speeds[size] = -1.0;
+    valids[size] = false;
+    size++;
+  }
+
+  /**
+   * Clears the locations.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Drops every other valid location, keeping the first and the last valid
+   * locations and all the segment splits.
+   */
+  public void decimate() {
+    int lastValidIndex = -1;
+    for (int i = size - 1; i >= 0; i--) {
+      if (valids[i]) {
+        lastValidIndex = i;
+        break;
+      }
+    }
+    int count = 0;
+    int numValid = 0;
+    for (int i = 0; i < size; i++) {
+      boolean keep = !valids[i] || numValid % 2 == 0 || i == lastValidIndex;
+      if (valids[i]) {
+        numValid++;
+      }
+      if (keep) {
+        latitudes[count] = latitudes[i];
+        longitudes[count] = longitudes[i];
+        speeds[count] = speeds[i];
+        valids[count] = valids[i];
+        count++;
+      }
+    }
+    size = count;
+  }
+
+  /**
+   * Ensures the arrays can hold a number of locations.
+   *
+   * @param capacity the number of locations
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity <= valids.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, valids.length * 2);
+    latitudes = copyOf(latitudes, newCapacity);
+    longitudes = copyOf(longitudes, newCapacity);
+    speeds = copyOf(speeds, newCapacity);
+    boolean[] newValids = new boolean[newCapacity];
+    System.arraycopy(valids, 0, newValids, 0, size);
+    valids = newValids;
+  }
+
+  private double[] copyOf(double[] array, int length) {
+    double[] copy = new double[length];
+    System.arraycopy(array, 0, copy, 0, size);
+    return copy;
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.android.apps.mytracks.util.UnitConversions;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.location.Location;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free single-producer, single-consumer buffer of locations, from the
+ * track data hub thread to the UI thread.
+ * <p>
+ * The entries are stored in the primitive arrays of fixed size chunks. When a
+ * chunk is full, the producer links a new chunk, so that no location is ever
+ * dropped. The consumer hands a consumed chunk back to the producer, so that
+ * two chunks take turns while recording and no chunk is allocated. The
+ * producer publishes an entry with a volatile write of the chunk size, after
+ * writing the entry.
+ * <p>
+ * Clearing and decimating the locations are entries too, applied by the
+ * consumer in order with the added locations.
+ */
+public class LocationBuffer {
+
+  @VisibleForTesting
+  static final int CHUNK_SIZE = 1024;
+
+  // Entry types
+  private static final byte TYPE_VALID = 0;
+  private static final byte TYPE_SEGMENT_SPLIT = 1;
+  private static final byte TYPE_CLEAR = 2;
+  private static final byte TYPE_DECIMATE = 3;
+
+  /**
+   * A chunk of entries.
+   */
+  private static class Chunk {
+    final byte[] types = new byte[CHUNK_SIZE];
+    final double[] latitudes = new double[CHUNK_SIZE];
+    final double[] longitudes = new double[CHUNK_SIZE];
+    final double[] speeds = new double[CHUNK_SIZE];
+
+    // The number of published entries
+    volatile int size;
+
+    // The next chunk, set when this chunk is full
+    volatile Chunk next;
+  }
+
+  // A consumed chunk for the producer to reuse
+  private final AtomicReference<Chunk> spareChunk = new AtomicReference<Chunk>();
+
+  // The producer chunk and its number of entries
+  private Chunk tail;
+  private int tailSize;
+
+  // The consumer chunk and its index of the next entry
+  private Chunk head;
+  private int headIndex;
+
+  public LocationBuffer() {
+    tail = new Chunk();
+    head = tail;
+  }
+
+  /**
+   * Adds a location. An invalid location is added as a segment split. Called by
+   * the producer.
+   *
+   * @param location the location
+   */
+  public void add(Location location) {
+    if (LocationUtils.isValidLocation(location)) {
+      put(TYPE_VALID, location.getLatitude(), location.getLongitude(),
+          location.hasSpeed() ? location.getSpeed() * UnitConversions.MS_TO_KMH : -1.0);
+    } else {
+      addSegmentSplit();
+    }
+  }
+
+  /**
+   * Adds a segment split. Called by the producer.
+   */
+  public void addSegmentSplit() {
+    put(TYPE_SEGMENT_SPLIT, 0.0, 0.0, -1.0);
+  }
+
+  /**
+   * Clears the locations added before. Called by the producer.
+   */
+  public void clear() {
+    put(TYPE_CLEAR, 0.0, 0.0, -1.0);
+  }
+
+  /**
+   * Decimates the locations added before, see {@link LocationArray#decimate()}.
+   * Called by the producer.
+   */
+  public void decimate() {
+    put(TYPE_DECIMATE, 0.0, 0.0, -1.0);
+  }
+
+  /**
+   * Moves the published entries to an array of locations. Called by the
+   * consumer.
+   *
+   * @param locations the array of locations
+   * @return true if the locations were cleared or decimated.
+   */
+  public boolean drainTo(LocationArray locations) {
+    boolean changed = false;
+    while (true) {
+      Chunk chunk = head;
+      int size = chunk.size;
+      for (; headIndex < size; headIndex++) {
+        switch (chunk.types[headIndex]) {
+          case TYPE_VALID:
+            locations.add(
+                chunk.latitudes[headIndex], chunk.longitudes[headIndex], chunk.speeds[headIndex]);
+            break;
+          case TYPE_SEGMENT_SPLIT:
+            locations.addSegmentSplit();
+            break;
+          case TYPE_CLEAR:
+            locations.clear();
+            changed = true;
+            break;
+          case TYPE_DECIMATE:
+            locations.decimate();
+            changed = true;
+            break;
+          default:
+            break;
+        }
+      }
+      if (headIndex < CHUNK_SIZE) {
+        return changed;
+      }
+      Chunk next = chunk.next;
+      if (next == null) {
+        return changed;
+      }
+
+      // The producer moved to the next chunk, hand this chunk back
+      head = next;
+      headIndex = 0;
+      chunk.next = null;
+      chunk.size = 0;
+      spareChunk.set(chunk);
+    }
+  }
+
+  /**
+   * Puts an entry. Called by the producer.
+   *
+   * @param type the entry type
+   * @param latitude the latitude
+   * @param longitude the longitude
+   * @param speed the speed
+   */
+  private void put(byte type, double latitude, double longitude, double speed) {
+    Chunk chunk = tail;
+    if (tailSize == CHUNK_SIZE) {
+      Chunk next = spareChunk.getAndSet(null);
+      if (next == null) {
+        next = new Chunk();
+      }
+      write(next, 0, type, latitude, longitude, speed);
+      next.size = 1;
+      chunk.next = next;
+      tail = next;
+      tailSize = 1;
+      return;
+    }
+    write(chunk, tailSize, type, latitude, longitude, speed);
+    tailSize++;
+    chunk.size = tailSize;
+  }
+
+  private static void write(
+      Chunk chunk, int index, byte type, double latitude, double longitude, double speed) {
+    chunk.types[index] = type;
+    chunk.latitudes[index] = latitude;
+    chunk.longitudes[index] = longitude;
+    chunk.speeds[index] = speed;
+  }
+}
@@ -15,7 +15,6 @@
  */
 package com.google.android.apps.mytracks.maps;
 
-import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
@@ -26,7 +25,6 @@ import com.google.common.annotations.VisibleForTesting;
 import android.content.Context;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A path painter that varies the path colors based on fixed speeds or average
@@ -54,7 +52,7 @@ public class MultiColorTrackPath implements TrackPath {
 
   @Override
   public void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
-      List<CachedLocation> locations) {
+      LocationArray locations) {
     if (googleMap == null) {
       return;
     }
@@ -62,24 +60,22 @@ public class MultiColorTrackPath implements TrackPath {
       return;
     }
     
-    boolean newSegment = startIndex == 0 || !locations.get(startIndex - 1).isValid();
-    LatLng lastLatLng = startIndex != 0 ? locations.get(startIndex -1).getLatLng() : null;
+    boolean newSegment = startIndex == 0 || !locations.isValid(startIndex - 1);
+    LatLng lastLatLng = newSegment ? null : locations.getLatLng(startIndex - 1);
     
     ArrayList<LatLng> lastSegmentPoints = new ArrayList<LatLng>();
     int lastSegmentColor = paths.size() != 0  ? paths.get(paths.size() - 1).getColor() : slowColor;
     boolean useLastPolyline = true;
 
     for (int i = startIndex; i < locations.size(); ++i) {
-      CachedLocation cachedLocation = locations.get(i);
-
       // If not valid, start a new segment
-      if (!cachedLocation.isValid()) {
+      if (!locations.isValid(i)) {
         newSegment = true;
         lastLatLng = null;
         continue;
       }
-      LatLng latLng = cachedLocation.getLatLng();
-      int color = getColor(cachedLocation.getSpeed());
+      LatLng latLng = locations.getLatLng(i);
+      int color = getColor(locations.getSpeed(i));
       
       // Either update point or draw a line from the last point
       if (newSegment) {
@@ -104,6 +100,11 @@ public class MultiColorTrackPath implements TrackPath {
     TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
   }
 
+  @Override
+  public boolean hasBreak(LocationArray locations, int index) {
+    return getColor(locations.getSpeed(index - 1)) != getColor(locations.getSpeed(index));
+  }
+
   @VisibleForTesting
   protected int getColor(double speed) {
     if (speed <= trackPathDescriptor.getSlowSpeed()) {
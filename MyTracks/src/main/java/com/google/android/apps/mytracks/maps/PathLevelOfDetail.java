@@ -0,0 +1,359 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The level of detail of a track path. Simplifies the locations for a camera
+ * zoom with the Douglas-Peucker algorithm, and culls the segments outside the
+ * viewport.
+ * <p>
+ * The Douglas-Peucker significance of each location, the max tolerance
+ * removing it, is computed once. The simplification for any zoom is then a
+ * single pass over the locations. The locations are simplified in runs of the
+ * same path color of at most {@link #MAX_RUN_SIZE} locations, keeping the first
+ * and the last location of each run. This keeps the color breaks of a
+ * {@link MultiColorTrackPath} and bounds the simplification time. New
+ * locations only cause the last run to be simplified again.
+ */
+public class PathLevelOfDetail {
+
+  // Max number of locations simplified together
+  @VisibleForTesting
+  static final int MAX_RUN_SIZE = 1024;
+
+  // The tolerance in pixels of the 256 pixels wide world at zoom 0
+  private static final double TOLERANCE = 1.0;
+
+  // Fraction of the viewport size rendered on each side of the viewport
+  private static final double VIEWPORT_MARGIN = 0.5;
+
+  // The Web Mercator coordinates of the locations, in [0, 1]
+  private double[] xs = new double[0];
+  private double[] ys = new double[0];
+  private double[] significances = new double[0];
+
+  // Number of locations simplified
+  private int size;
+
+  // Start index of the last run, simplified again when locations are added
+  private int lastRunStart;
+
+  // The locations to draw, reused by each getLocations call
+  private final LocationArray result = new LocationArray();
+
+  // Index of the last location to draw, -1 if none
+  private int lastIndex = -1;
+
+  // Douglas-Peucker stack of ranges to split and their significance bounds
+  private int[] stackStarts = new int[64];
+  private int[] stackEnds = new int[64];
+  private double[] stackBounds = new double[64];
+
+  /**
+   * Invalidates the simplification, after the locations are changed other
+   * than by adding locations, or after the path colors are changed.
+   */
+  public void invalidate() {
+    size = 0;
+    lastRunStart = 0;
+  }
+
+  /**
+   * Gets the locations to draw for a camera zoom and a viewport. Segment
+   * splits are inserted where segments are culled. The returned array is
+   * reused by the next call.
+   *
+   * @param locations the locations
+   * @param trackPath the track path
+   * @param zoom the camera zoom
+   * @param bounds the viewport bounds. Null to not cull
+   */
+  public LocationArray getLocations(
+      LocationArray locations, TrackPath trackPath, float zoom, LatLngBounds bounds) {
+    simplify(locations, trackPath);
+    double tolerance = getTolerance(zoom);
+    result.clear();
+    lastIndex = -1;
+
+    // Index of the last kept location of the current segment, -1 if none
+    int keptIndex = -1;
+    for (int i = 0; i < size; i++) {
+      if (!locations.isValid(i)) {
+        addSegmentSplit();
+        keptIndex = -1;
+        continue;
+      }
+      if (significances[i] <= tolerance) {
+        continue;
+      }
+      if (keptIndex != -1 && (bounds == null || intersects(locations, keptIndex, i, bounds))) {
+        if (lastIndex != keptIndex) {
+          addSegmentSplit();
+          result.add(locations, keptIndex);
+        }
+        result.add(locations, i);
+        lastIndex = i;
+      }
+      keptIndex = i;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the index of the last location returned by the last
+   * {@link #getLocations(LocationArray, TrackPath, float, LatLngBounds)} call.
+   * -1 if none, or if a segment split was returned after it.
+   */
+  public int getLastIndex() {
+    return lastIndex;
+  }
+
+  /**
+   * Gets the bounds to render for a viewport, larger than the viewport so that
+   * small camera moves don't need a new rendering. Returns null if the
+   * locations can't be culled, e.g., if the viewport is empty or crosses the
+   * 180th meridian.
+   *
+   * @param visibleBounds the viewport bounds
+   */
+  public static LatLngBounds getRenderBounds(LatLngBounds visibleBounds) {
+    LatLng southwest = visibleBounds.southwest;
+    LatLng northeast = visibleBounds.northeast;
+
+    // An empty viewport, e.g., before the map layout
+    if (southwest.latitude >= northeast.latitude || southwest.longitude == northeast.longitude) {
+      return null;
+    }
+    if (southwest.longitude > northeast.longitude) {
+      return null;
+    }
+    double latitudeMargin = (northeast.latitude - southwest.latitude) * VIEWPORT_MARGIN;
+    double longitudeMargin = (northeast.longitude - southwest.longitude) * VIEWPORT_MARGIN;
+    double west = southwest.longitude - longitudeMargin;
+    double east = northeast.longitude + longitudeMargin;
+    if (west < -180.0 || east > 180.0) {
+      return null;
+    }
+    return new LatLngBounds(
+        new LatLng(Math.max(-90.0, southwest.latitude - latitudeMargin), west),
+        new LatLng(Math.min(90.0, northeast.latitude + latitudeMargin), east));
+  }
+
+  /**
+   * Gets the tolerance, in Web Mercator coordinates, of a camera zoom.
+   *
+   * @param zoom the camera zoom
+   */
+  @VisibleForTesting
+  static double getTolerance(float zoom) {
+    return TOLERANCE / (256.0 * Math.pow(2.0, Math.floor(zoom)));
+  }
+
+  /**
+   * Gets the Douglas-Peucker significance of a simplified location.
+   *
+   * @param index the location index
+   */
+  @VisibleForTesting
+  double getSignificance(int index) {
+    return significances[index];
+  }
+
+  /**
+   * Simplifies the locations added since the last simplification.
+   *
+   * @param locations the locations
+   * @param trackPath the track path
+   */
+  private void simplify(LocationArray locations, TrackPath trackPath) {
+    int newSize = locations.size();
+    if (newSize < size) {
+      invalidate();
+    }
+    if (newSize == size) {
+      return;
+    }
+    ensureCapacity(newSize);
+    for (int i = lastRunStart; i < newSize; i++) {
+      if (locations.isValid(i)) {
+        xs[i] = (locations.getLongitude(i) + 180.0) / 360.0;
+        double sinLatitude = Math.sin(Math.toRadians(locations.getLatitude(i)));
+        ys[i] = 0.5 - Math.log((1.0 + sinLatitude) / (1.0 - sinLatitude)) / (4.0 * Math.PI);
+      }
+    }
+
+    int runStart = -1;
+    for (int i = lastRunStart; i < newSize; i++) {
+      if (!locations.isValid(i)) {
+        if (runStart != -1) {
+          simplifyRun(runStart, i - 1);
+          runStart = -1;
+        }
+        continue;
+      }
+      if (runStart == -1) {
+        runStart = i;
+      } else if (i - runStart == MAX_RUN_SIZE || trackPath.hasBreak(locations, i)) {
+        simplifyRun(runStart, i - 1);
+        runStart = i;
+      }
+    }
+    if (runStart != -1) {
+      simplifyRun(runStart, newSize - 1);
+      lastRunStart = runStart;
+    } else {
+      lastRunStart = newSize;
+    }
+    size = newSize;
+  }
+
+  /**
+   * Computes the Douglas-Peucker significance of a run of valid locations.
+   *
+   * @param start the start index
+   * @param end the end index, inclusive
+   */
+  private void simplifyRun(int start, int end) {
+    significances[start] = Double.POSITIVE_INFINITY;
+    significances[end] = Double.POSITIVE_INFINITY;
+    int stackSize = 0;
+    stackStarts[0] = start;
+    stackEnds[0] = end;
+    stackBounds[0] = Double.POSITIVE_INFINITY;
+    stackSize++;
+    while (stackSize > 0) {
+      stackSize--;
+      int rangeStart = stackStarts[stackSize];
+      int rangeEnd = stackEnds[stackSize];
+      double bound = stackBounds[stackSize];
+      if (rangeEnd - rangeStart < 2) {
+        continue;
+      }
+      int maxIndex = rangeStart + 1;
+      double maxDistance = -1.0;
+      for (int i = rangeStart + 1; i < rangeEnd; i++) {
+        double distance = getDistance(i, rangeStart, rangeEnd);
+        if (distance > maxDistance) {
+          maxDistance = distance;
+          maxIndex = i;
+        }
+      }
+
+      // A location is kept only if the location splitting its range is kept
+      double significance = Math.min(maxDistance, bound);
+      significances[maxIndex] = significance;
+      if (stackSize + 2 > stackStarts.length) {
+        int capacity = stackStarts.length * 2;
+        stackStarts = copyOf(stackStarts, capacity);
+        stackEnds = copyOf(stackEnds, capacity);
+        stackBounds = copyOf(stackBounds, capacity);
+      }
+      stackStarts[stackSize] = rangeStart;
+      stackEnds[stackSize] = maxIndex;
+      stackBounds[stackSize] = significance;
+      stackSize++;
+      stackStarts[stackSize] = maxIndex;
+      stackEnds[stackSize] = rangeEnd;
+      stackBounds[stackSize] = significance;
+      stackSize++;
+    }
+  }
+
+  /**
+   * Gets the distance from a location to the segment between two locations.
+   *
+   * @param index the location index
+   * @param start the segment start index
+   * @param end the segment end index
+   */
+  private double getDistance(int index, int start, int end) {
+    double dx = xs[end] - xs[start];
+    double dy = ys[end] - ys[start];
+    double px = xs[index] - xs[start];
+    double py = ys[index] - ys[start];
+    double lengthSquared = dx * dx + dy * dy;
+    if (lengthSquared > 0.0) {
+      double t = Math.max(0.0, Math.min(1.0, (px * dx + py * dy) / lengthSquared));
+      px -= t * dx;
+      py -= t * dy;
+    }
+    return Math.sqrt(px * px + py * py);
+  }
+
+  /**
+   * Ensures the arrays can hold a number of locations.
+   *
+   * @param capacity the number of locations
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity <= significances.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, significances.length * 2);
+    xs = copyOf(xs, newCapacity);
+    ys = copyOf(ys, newCapacity);
+    significances = copyOf(significances, newCapacity);
+  }
+
+  /**
+   * Returns true if the bounding box of the segment between two locations
+   * intersects some bounds.
+   *
+   * @param locations the locations
+   * @param start the segment start index
+   * @param end the segment end index
+   * @param bounds the bounds
+   */
+  private static boolean intersects(
+      LocationArray locations, int start, int end, LatLngBounds bounds) {
+    double startLatitude = locations.getLatitude(start);
+    double endLatitude = locations.getLatitude(end);
+    double startLongitude = locations.getLongitude(start);
+    double endLongitude = locations.getLongitude(end);
+    return Math.max(startLatitude, endLatitude) >= bounds.southwest.latitude
+        && Math.min(startLatitude, endLatitude) <= bounds.northeast.latitude
+        && Math.max(startLongitude, endLongitude) >= bounds.southwest.longitude
+        && Math.min(startLongitude, endLongitude) <= bounds.northeast.longitude;
+  }
+
+  /**
+   * Adds a segment split to the result, unless the result is empty or already
+   * ends with one.
+   */
+  private void addSegmentSplit() {
+    if (result.size() != 0 && result.isValid(result.size() - 1)) {
+      result.addSegmentSplit();
+      lastIndex = -1;
+    }
+  }
+
+  private static int[] copyOf(int[] array, int length) {
+    int[] copy = new int[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static double[] copyOf(double[] array, int length) {
+    double[] copy = new double[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+}
@@ -15,7 +15,6 @@
  */
 package com.google.android.apps.mytracks.maps;
 
-import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
@@ -25,7 +24,6 @@ import com.google.android.maps.mytracks.R;
 import android.content.Context;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A single color track path.
@@ -47,7 +45,7 @@ public class SingleColorTrackPath implements TrackPath {
 
   @Override
   public void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
-      List<CachedLocation> locations) {
+      LocationArray locations) {
     if (googleMap == null) {
       return;
     }
@@ -55,18 +53,16 @@ public class SingleColorTrackPath implements TrackPath {
       return;
     }
 
-    boolean newSegment = startIndex == 0 || !locations.get(startIndex - 1).isValid();
+    boolean newSegment = startIndex == 0 || !locations.isValid(startIndex - 1);
     ArrayList<LatLng> lastSegmentPoints = new ArrayList<LatLng>();
     boolean useLastPolyline = true;
     for (int i = startIndex; i < locations.size(); i++) {
-      CachedLocation cachedLocation = locations.get(i);
-
       // If not valid, start a new segment
-      if (!cachedLocation.isValid()) {
+      if (!locations.isValid(i)) {
         newSegment = true;
         continue;
       }
-      LatLng latLng = cachedLocation.getLatLng();
+      LatLng latLng = locations.getLatLng(i);
       if (newSegment) {
         TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, color, useLastPolyline);
         useLastPolyline = false;
@@ -76,4 +72,9 @@ public class SingleColorTrackPath implements TrackPath {
     }
     TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, color, useLastPolyline);
   }
-}
\ No newline at end of file
+
+  @Override
+  public boolean hasBreak(LocationArray locations, int index) {
+    return false;
+  }
+}
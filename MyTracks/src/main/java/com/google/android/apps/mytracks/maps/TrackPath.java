@@ -16,13 +16,11 @@
 
 package com.google.android.apps.mytracks.maps;
 
-import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.Polyline;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A track path.
@@ -43,8 +41,18 @@ public interface TrackPath {
    * Updates the path.
    * 
    * @param startIndex the start index
-   * @param points the points
+   * @param locations the locations
    */
   void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
-                  List<CachedLocation> points);
+                  LocationArray locations);
+
+  /**
+   * Returns true if the path breaks between a valid location and the previous
+   * valid location, e.g., if its color changes. Both locations are kept when
+   * the path is simplified.
+   * 
+   * @param locations the locations
+   * @param index the location index
+   */
+  boolean hasBreak(LocationArray locations, int index);
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Starts the {@link AggregatedStatsService} on the broadcasts that may change
+ * the calendar settings of the aggregated stats, a time zone or a locale
+ * change, and on the broadcasts after which the aggregated stats may need to
+ * be built, an upgrade of the app or a boot.
+ */
+public class AggregatedStatsReceiver extends BroadcastReceiver {
+
+  private static final String TAG = AggregatedStatsReceiver.class.getSimpleName();
+
+  @Override
+  public void onReceive(Context context, Intent intent) {
+    Log.d(TAG, "onReceive: " + intent.getAction());
+    context.startService(new Intent(context, AggregatedStatsService.class));
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.AggregatedStatsColumns;
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+/**
+ * Service that rebuilds the aggregated stats off the main thread when the
+ * calendar settings their period starts depend on may have changed. The
+ * {@link MyTracksProvider} only rebuilds them if the settings did change.
+ */
+public class AggregatedStatsService extends IntentService {
+
+  public AggregatedStatsService() {
+    super(AggregatedStatsService.class.getSimpleName());
+  }
+
+  @Override
+  protected void onHandleIntent(Intent intent) {
+    getContentResolver().call(AggregatedStatsColumns.CONTENT_URI,
+        MyTracksProvider.REBUILD_AGGREGATED_STATS_METHOD, null, null);
+  }
+}
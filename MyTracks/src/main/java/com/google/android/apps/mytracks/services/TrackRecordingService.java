@@ -23,10 +23,13 @@ import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProvider;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsCompactor;
+import com.google.android.apps.mytracks.content.TrackPointsWriteBuffer;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.content.WaypointCreationRequest;
@@ -75,8 +78,10 @@ import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A background service that registers a location listener and records track
@@ -114,7 +119,7 @@ public class TrackRecordingService extends Service {
   static final int MAX_AUTO_RESUME_TRACK_RETRY_ATTEMPTS = 3;
 
   // The following variables are set in onCreate:
-  private ExecutorService executorService;
+  private ScheduledExecutorService executorService;
   private Context context;
   private MyTracksProviderUtils myTracksProviderUtils;
   private Handler handler;
@@ -134,13 +139,20 @@ public class TrackRecordingService extends Service {
   private long currentRecordingInterval;
   private double weight;
   
+  /*
+   * Guards recordingSession and the trip statistics updaters. They are used
+   * from the main thread, from the executorService, and from the binder threads.
+   */
+  private final Object recordingSessionLock = new Object();
+
   // The following variables are set when recording:
+  private TrackRecordingSession recordingSession;
+  private ScheduledFuture<?> flushTrackPointsFuture;
   private TripStatisticsUpdater trackTripStatisticsUpdater;
   private TripStatisticsUpdater markerTripStatisticsUpdater;
   private WakeLock wakeLock;
   private SensorManager sensorManager;
   private Location lastLocation;
-  private boolean currentSegmentHasLocation;
   private boolean isIdle; // true if idle
 
   private ServiceBinder binder = new ServiceBinder(this);
@@ -249,7 +261,9 @@ public class TrackRecordingService extends Service {
       executorService.submit(new Runnable() {
           @Override
         public void run() {
-          onLocationChangedAsync(location);
+          synchronized (recordingSessionLock) {
+            onLocationChangedAsync(location);
+          }
         }
       });
     }
@@ -273,6 +287,17 @@ public class TrackRecordingService extends Service {
         public void onConnectionFailed(ConnectionResult connectionResult) {}
       };
 
+  private final Runnable flushTrackPointsRunnable = new Runnable() {
+      @Override
+    public void run() {
+      synchronized (recordingSessionLock) {
+        if (recordingSession != null && recordingSession.hasPendingTrackPoints()) {
+          flushTrackPoints();
+        }
+      }
+    }
+  };
+
   private final Runnable registerLocationRunnable = new Runnable() {
       @Override
     public void run() {
@@ -293,7 +318,7 @@ public class TrackRecordingService extends Service {
   @Override
   public void onCreate() {
     super.onCreate();
-    executorService = Executors.newSingleThreadExecutor();
+    executorService = Executors.newSingleThreadScheduledExecutor();
     context = this;
     myTracksProviderUtils = MyTracksProviderUtils.Factory.get(this);
     handler = new Handler();
@@ -399,6 +424,18 @@ public class TrackRecordingService extends Service {
     
     myTracksLocationManager.close();
     myTracksLocationManager = null;
+
+    // Write the buffered track points
+    if (flushTrackPointsFuture != null) {
+      flushTrackPointsFuture.cancel(false);
+      flushTrackPointsFuture = null;
+    }
+    synchronized (recordingSessionLock) {
+      if (recordingSession != null) {
+        recordingSession.close();
+        recordingSession = null;
+      }
+    }
     myTracksProviderUtils = null;        
 
     binder.detachFromService();
@@ -433,10 +470,26 @@ public class TrackRecordingService extends Service {
    * Gets the trip statistics.
    */
   public TripStatistics getTripStatistics() {
-    if (trackTripStatisticsUpdater == null) {
-      return null;
+    synchronized (recordingSessionLock) {
+      if (trackTripStatisticsUpdater == null) {
+        return null;
+      }
+      return trackTripStatisticsUpdater.getTripStatistics();
+    }
+  }
+
+  /**
+   * Gets the number of track writes saved per hour of recording. Returns 0 if
+   * not recording.
+   */
+  public double getSavedTrackWritesPerHour() {
+    synchronized (recordingSessionLock) {
+      if (recordingSession == null || trackTripStatisticsUpdater == null) {
+        return 0.0;
+      }
+      return recordingSession.getSavedWritesPerHour(
+          trackTripStatisticsUpdater.getTripStatistics().getTotalTime());
     }
-    return trackTripStatisticsUpdater.getTripStatistics();
   }
 
   /**
@@ -479,9 +532,11 @@ public class TrackRecordingService extends Service {
     String icon;
     if (isStatistics) {
       long now = System.currentTimeMillis();
-      markerTripStatisticsUpdater.updateTime(now);
-      tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
-      markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
+      synchronized (recordingSessionLock) {
+        markerTripStatisticsUpdater.updateTime(now);
+        tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
+        markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
+      }
       description = new DescriptionGeneratorImpl(this).generateWaypointDescription(tripStatistics);
       icon = getString(R.string.marker_statistics_icon_url);
     } else {
@@ -495,9 +550,16 @@ public class TrackRecordingService extends Service {
     // Get length and duration
     double length;
     long duration;
-    Location location = getLastValidTrackPointInCurrentSegment(recordingTrackId);
-    if (location != null && trackTripStatisticsUpdater != null) {
-      TripStatistics stats = trackTripStatisticsUpdater.getTripStatistics();
+    Location location;
+    TripStatistics stats;
+    synchronized (recordingSessionLock) {
+      location = recordingSession != null ? recordingSession
+          .getLastValidTrackPointInCurrentSegment()
+          : null;
+      stats = trackTripStatisticsUpdater != null ? trackTripStatisticsUpdater.getTripStatistics()
+          : null;
+    }
+    if (location != null && stats != null) {
       length = stats.getTotalDistance();
       duration = stats.getTotalTime();
     } else {
@@ -610,8 +672,10 @@ public class TrackRecordingService extends Service {
       return -1L;
     }
     long now = System.currentTimeMillis();
-    trackTripStatisticsUpdater = new TripStatisticsUpdater(now);
-    markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
+    synchronized (recordingSessionLock) {
+      trackTripStatisticsUpdater = new TripStatisticsUpdater(now);
+      markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
+    }
 
     // Insert a track
     Track track = new Track();
@@ -634,6 +698,9 @@ public class TrackRecordingService extends Service {
     track.setIcon(TrackIconUtils.getIconValue(this, category));
     track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
     myTracksProviderUtils.updateTrack(track);
+    synchronized (recordingSessionLock) {
+      recordingSession = new TrackRecordingSession(myTracksProviderUtils, track);
+    }
     insertWaypoint(WaypointCreationRequest.DEFAULT_START_TRACK);
 
     startRecording(true);
@@ -648,8 +715,13 @@ public class TrackRecordingService extends Service {
   private void restartTrack(Track track) {
     Log.d(TAG, "Restarting track: " + track.getId());
 
+    synchronized (recordingSessionLock) {
+      recordingSession = new TrackRecordingSession(myTracksProviderUtils, track);
+    }
     TripStatistics tripStatistics = track.getTripStatistics();
-    trackTripStatisticsUpdater = new TripStatisticsUpdater(tripStatistics.getStartTime());
+
+    // Build the updaters before publishing them to the binder and the executor
+    TripStatisticsUpdater trackUpdater = new TripStatisticsUpdater(tripStatistics.getStartTime());
 
     long markerStartTime;
     Waypoint waypoint = myTracksProviderUtils.getLastWaypoint(
@@ -659,21 +731,28 @@ public class TrackRecordingService extends Service {
     } else {
       markerStartTime = tripStatistics.getStartTime();
     }
-    markerTripStatisticsUpdater = new TripStatisticsUpdater(markerStartTime);
+    TripStatisticsUpdater markerUpdater = new TripStatisticsUpdater(markerStartTime);
 
     ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
 
+    // Read ahead the track points into a single reused location
+    final Location reusedLocation = new Location("");
+    LocationFactory locationFactory = new LocationFactory() {
+        @Override
+      public Location createLocation() {
+        return reusedLocation;
+      }
+    };
     LocationIterator locationIterator = null;
     try {
       locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+          track.getId(), -1L, false, locationFactory);
       
       while (locationIterator.hasNext()) {
         Location location = locationIterator.next();
-        trackTripStatisticsUpdater.addLocation(
-            location, recordingDistanceInterval, true, activityType, weight);
+        trackUpdater.addLocation(location, recordingDistanceInterval, true, activityType, weight);
         if (location.getTime() > markerStartTime) {
-          markerTripStatisticsUpdater.addLocation(
+          markerUpdater.addLocation(
               location, recordingDistanceInterval, true, activityType, weight);
         }
       }
@@ -684,6 +763,10 @@ public class TrackRecordingService extends Service {
         locationIterator.close();
       }
     }
+    synchronized (recordingSessionLock) {
+      trackTripStatisticsUpdater = trackUpdater;
+      markerTripStatisticsUpdater = markerUpdater;
+    }
     startRecording(true);
   }
 
@@ -701,13 +784,15 @@ public class TrackRecordingService extends Service {
     PreferencesUtils.setBoolean(this, R.string.recording_track_paused_key, false);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(recordingTrackId);
-    if (track != null) {
-      Location resume = new Location(LocationManager.GPS_PROVIDER);
-      resume.setLongitude(0);
-      resume.setLatitude(RESUME_LATITUDE);
-      resume.setTime(System.currentTimeMillis());
-      insertLocation(track, resume, null);
+    synchronized (recordingSessionLock) {
+      if (recordingSession != null) {
+        Location resume = new Location(LocationManager.GPS_PROVIDER);
+        resume.setLongitude(0);
+        resume.setLatitude(RESUME_LATITUDE);
+        resume.setTime(System.currentTimeMillis());
+        insertLocation(resume, null);
+        flushTrackPoints();
+      }
     }
 
     startRecording(false);
@@ -724,7 +809,11 @@ public class TrackRecordingService extends Service {
     // Update instance variables
     sensorManager = SensorManagerFactory.getSystemSensorManager(this);
     lastLocation = null;
-    currentSegmentHasLocation = false;
+    synchronized (recordingSessionLock) {
+      if (recordingSession != null) {
+        recordingSession.startSegment();
+      }
+    }
     isIdle = false;
 
     startGps();
@@ -762,17 +851,29 @@ public class TrackRecordingService extends Service {
     updateRecordingState(PreferencesUtils.RECORDING_TRACK_ID_DEFAULT, true);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(trackId);
-    if (track != null) {
+    synchronized (recordingSessionLock) {
+      if (recordingSession != null) {
+        if (!paused) {
 
-      // If not paused, add the last location
-      if (!paused) {
-        insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(trackId));
-        
-        // Update the recording track time        
-        updateRecordingTrack(track, myTracksProviderUtils.getLastTrackPointId(trackId), false);
+          // Add the last location
+          insertLocation(lastLocation, recordingSession.getLastValidTrackPointInCurrentSegment());
+
+          // Write the buffered track points and update the recording track time
+          flushTrackPoints();
+        }
+        recordingSession.close();
+        Log.i(TAG, "Saved " + getSavedTrackWritesPerHour()
+            + " track writes per hour of recording.");
+        recordingSession = null;
       }
-      
+    }
+
+    /*
+     * Read the track back since the name and the category may have been edited
+     * during the recording.
+     */
+    Track track = myTracksProviderUtils.getTrack(trackId);
+    if (track != null) {
       String trackName = TrackNameUtils.getTrackName(this, trackId,
           track.getTripStatistics().getStartTime(),
           myTracksProviderUtils.getFirstValidTrackPoint(trackId));
@@ -809,6 +910,13 @@ public class TrackRecordingService extends Service {
         }
       }
     }
+
+    // Pack the track points of the finished tracks
+    if (PreferencesUtils.getBoolean(
+        this, R.string.pack_track_points_key, PreferencesUtils.PACK_TRACK_POINTS_DEFAULT)
+        && !executorService.isShutdown()) {
+      executorService.submit(new TrackPointsCompactor(context));
+    }
     endRecording(true, trackId);
   }
 
@@ -826,15 +934,17 @@ public class TrackRecordingService extends Service {
     PreferencesUtils.setBoolean(this, R.string.recording_track_paused_key, true);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(recordingTrackId);
-    if (track != null) {
-      insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(track.getId()));
+    synchronized (recordingSessionLock) {
+      if (recordingSession != null) {
+        insertLocation(lastLocation, recordingSession.getLastValidTrackPointInCurrentSegment());
 
-      Location pause = new Location(LocationManager.GPS_PROVIDER);
-      pause.setLongitude(0);
-      pause.setLatitude(PAUSE_LATITUDE);
-      pause.setTime(System.currentTimeMillis());
-      insertLocation(track, pause, null);
+        Location pause = new Location(LocationManager.GPS_PROVIDER);
+        pause.setLongitude(0);
+        pause.setLatitude(PAUSE_LATITUDE);
+        pause.setTime(System.currentTimeMillis());
+        insertLocation(pause, null);
+        flushTrackPoints();
+      }
     }
 
     endRecording(false, recordingTrackId);
@@ -878,19 +988,6 @@ public class TrackRecordingService extends Service {
     }
   }
 
-  /**
-   * Gets the last valid track point in the current segment. Returns null if not
-   * available.
-   * 
-   * @param trackId the track id
-   */
-  private Location getLastValidTrackPointInCurrentSegment(long trackId) {
-    if (!currentSegmentHasLocation) {
-      return null;
-    }
-    return myTracksProviderUtils.getLastValidTrackPoint(trackId);
-  }
-
   /**
    * Updates the recording states.
    * 
@@ -905,7 +1002,8 @@ public class TrackRecordingService extends Service {
   }
 
   /**
-   * Called when location changed.
+   * Called when location changed. Must be called with recordingSessionLock
+   * held.
    * 
    * @param location the location
    */
@@ -916,9 +1014,8 @@ public class TrackRecordingService extends Service {
         return;
       }
 
-      Track track = myTracksProviderUtils.getTrack(recordingTrackId);
-      if (track == null) {
-        Log.w(TAG, "Ignore onLocationChangedAsync. No track.");
+      if (recordingSession == null || recordingSession.getTrackId() != recordingTrackId) {
+        Log.w(TAG, "Ignore onLocationChangedAsync. No recording session.");
         return;
       }
 
@@ -937,7 +1034,7 @@ public class TrackRecordingService extends Service {
         location.setTime(System.currentTimeMillis());
       }
 
-      Location lastValidTrackPoint = getLastValidTrackPointInCurrentSegment(track.getId());
+      Location lastValidTrackPoint = recordingSession.getLastValidTrackPointInCurrentSegment();
       long idleTime = 0L;
       if (lastValidTrackPoint != null && location.getTime() > lastValidTrackPoint.getTime()) {
         idleTime = location.getTime() - lastValidTrackPoint.getTime();
@@ -953,9 +1050,8 @@ public class TrackRecordingService extends Service {
       }
 
       // Always insert the first segment location
-      if (!currentSegmentHasLocation) {
-        insertLocation(track, location, null);
-        currentSegmentHasLocation = true;
+      if (!recordingSession.currentSegmentHasLocation()) {
+        insertLocation(location, null);
         lastLocation = location;
         return;
       }
@@ -965,35 +1061,35 @@ public class TrackRecordingService extends Service {
          * Should not happen. The current segment should have a location. Just
          * insert the current location.
          */
-        insertLocation(track, location, null);
+        insertLocation(location, null);
         lastLocation = location;
         return;
       }
 
       double distanceToLastTrackLocation = location.distanceTo(lastValidTrackPoint);
       if (distanceToLastTrackLocation > maxRecordingDistance) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
+        insertLocation(lastLocation, lastValidTrackPoint);
 
         Location pause = new Location(LocationManager.GPS_PROVIDER);
         pause.setLongitude(0);
         pause.setLatitude(PAUSE_LATITUDE);
         pause.setTime(lastLocation.getTime());
-        insertLocation(track, pause, null);
+        insertLocation(pause, null);
 
-        insertLocation(track, location, null);
+        insertLocation(location, null);
         isIdle = false;
       } else if (sensorDataSet != null
           || distanceToLastTrackLocation >= recordingDistanceInterval) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
-        insertLocation(track, location, null);
+        insertLocation(lastLocation, lastValidTrackPoint);
+        insertLocation(location, null);
         isIdle = false;
       } else if (!isIdle && location.hasSpeed() && location.getSpeed() < MAX_NO_MOVEMENT_SPEED) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
-        insertLocation(track, location, null);
+        insertLocation(lastLocation, lastValidTrackPoint);
+        insertLocation(location, null);
         isIdle = true;
       } else if (isIdle && location.hasSpeed() && location.getSpeed() >= MAX_NO_MOVEMENT_SPEED) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
-        insertLocation(track, location, null);
+        insertLocation(lastLocation, lastValidTrackPoint);
+        insertLocation(location, null);
         isIdle = false;
       } else {
         Log.d(TAG, "Not recording location, idle");
@@ -1009,13 +1105,13 @@ public class TrackRecordingService extends Service {
   }
 
   /**
-   * Inserts a location.
+   * Inserts a location into the recording track. Must be called with
+   * recordingSessionLock held.
    * 
-   * @param track the track
    * @param location the location
    * @param lastValidTrackPoint the last valid track point, can be null
    */
-  private void insertLocation(Track track, Location location, Location lastValidTrackPoint) {
+  private void insertLocation(Location location, Location lastValidTrackPoint) {
     if (location == null) {
       Log.w(TAG, "Ignore insertLocation. loation is null.");
       return;
@@ -1026,15 +1122,18 @@ public class TrackRecordingService extends Service {
       return;
     }
 
+    Track track = recordingSession.getTrack();
     try {
-      Uri uri = myTracksProviderUtils.insertTrackPoint(location, track.getId());
-      long trackPointId = Long.parseLong(uri.getLastPathSegment());
       ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
       trackTripStatisticsUpdater.addLocation(
           location, recordingDistanceInterval, true, activityType, weight);
+
+      // Insert after updating the statistics, to store the derived values of the location
+      recordingSession.insertTrackPoint(location, trackTripStatisticsUpdater);
+      scheduleFlushTrackPoints();
       markerTripStatisticsUpdater.addLocation(
           location, recordingDistanceInterval, true, activityType, weight);
-      updateRecordingTrack(track, trackPointId, LocationUtils.isValidLocation(location));
+      updateRecordingTrack();
     } catch (SQLiteException e) {
       /*
        * Insert failed, most likely because of SqlLite error code 5
@@ -1049,28 +1148,44 @@ public class TrackRecordingService extends Service {
   }
 
   /**
-   * Updates the recording track time. Also updates the startId and the stopId.
-   * Increase the number of points if it is a new and valid track point.
-   * 
-   * @param track the track
-   * @param lastTrackPointId the last track point id
-   * @param increaseNumberOfPoints true to increase the number of points
+   * Updates the recording track time and the recording track statistics. The
+   * {@link TrackRecordingSession} writes them to the database at most once
+   * every {@link TrackRecordingSession#DEFAULT_STATISTICS_WRITE_INTERVAL}. The
+   * startId, the stopId, and the number of points are maintained by the
+   * {@link TrackRecordingSession}.
    */
-  private void updateRecordingTrack(
-      Track track, long lastTrackPointId, boolean increaseNumberOfPoints) {
-    if (lastTrackPointId >= 0) {
-      if (track.getStartId() < 0) {
-        track.setStartId(lastTrackPointId);
-      }
-      track.setStopId(lastTrackPointId);
+  private void updateRecordingTrack() {
+    trackTripStatisticsUpdater.updateTime(System.currentTimeMillis());
+    recordingSession.updateTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
+  }
+
+  /**
+   * Schedules writing the buffered track points of the recording track within
+   * {@link TrackPointsWriteBuffer#MAX_AGE}.
+   */
+  private void scheduleFlushTrackPoints() {
+    if (flushTrackPointsFuture != null && !flushTrackPointsFuture.isDone()) {
+      return;
     }
-    if (increaseNumberOfPoints) {
-      track.setNumberOfPoints(track.getNumberOfPoints() + 1);
+    if (executorService.isShutdown() || executorService.isTerminated()) {
+      return;
     }
+    flushTrackPointsFuture = executorService.schedule(
+        flushTrackPointsRunnable, TrackPointsWriteBuffer.MAX_AGE, TimeUnit.MILLISECONDS);
+  }
 
-    trackTripStatisticsUpdater.updateTime(System.currentTimeMillis());
-    track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
-    myTracksProviderUtils.updateTrack(track);
+  /**
+   * Writes the buffered track points and the statistics of the recording track
+   * to the database. Must be called with recordingSessionLock held.
+   */
+  private void flushTrackPoints() {
+    try {
+      recordingSession.flushTrackPoints();
+      updateRecordingTrack();
+      recordingSession.flushTripStatistics();
+    } catch (SQLiteException e) {
+      Log.w(TAG, "SQLiteException", e);
+    }
   }
 
   private SensorDataSet getSensorDataSet() {
@@ -1284,14 +1399,45 @@ public class TrackRecordingService extends Service {
       if (!canAccess()) {
         return 0;
       }
-      TripStatisticsUpdater updater = trackRecordingService.trackTripStatisticsUpdater;
-      if (updater == null) {
-        return 0;
+
+      // The recording executor mutates the updater under the same lock
+      synchronized (trackRecordingService.recordingSessionLock) {
+        TripStatisticsUpdater updater = trackRecordingService.trackTripStatisticsUpdater;
+        if (updater == null) {
+          return 0;
+        }
+        if (!trackRecordingService.isPaused()) {
+          updater.updateTime(System.currentTimeMillis());
+        }
+        return updater.getTripStatistics().getTotalTime();
+      }
+    }
+
+    @Override
+    public TripStatistics getTripStatistics() {
+      if (!canAccess()) {
+        return null;
+      }
+
+      // The recording executor mutates the updater under the same lock
+      synchronized (trackRecordingService.recordingSessionLock) {
+        TripStatisticsUpdater updater = trackRecordingService.trackTripStatisticsUpdater;
+        if (updater == null) {
+          return null;
+        }
+        if (!trackRecordingService.isPaused()) {
+          updater.updateTime(System.currentTimeMillis());
+        }
+        return updater.getTripStatistics();
       }
-      if (!trackRecordingService.isPaused()) {
-        updater.updateTime(System.currentTimeMillis());
+    }
+
+    @Override
+    public double getSavedTrackWritesPerHour() {
+      if (!canAccess()) {
+        return 0.0;
       }
-      return updater.getTripStatistics().getTotalTime();
+      return trackRecordingService.getSavedTrackWritesPerHour();
     }
 
     @Override
@@ -1389,6 +1535,12 @@ public class TrackRecordingService extends Service {
           return;
         }
         
+        // Write the in-memory track statistics before reading the track
+        synchronized (recordingSessionLock) {
+          if (recordingSession != null) {
+            recordingSession.flushTripStatistics();
+          }
+        }
         Track track = myTracksProviderUtils.getTrack(recordingTrackId);
         if (track == null) {
           Log.w(TAG, "Ignore updateCalorie. No track.");
@@ -1397,12 +1549,22 @@ public class TrackRecordingService extends Service {
 
         
         double[] calories = CalorieUtils.updateTrackCalorie(context, track);
+
+        // Pick up the edited category
+        synchronized (recordingSessionLock) {
+          if (recordingSession != null && recordingSession.getTrackId() == track.getId()) {
+            recordingSession.getTrack().setCategory(track.getCategory());
+          }
+        }
         
-        // Update track statistics
-        trackTripStatisticsUpdater.updateCalorie(calories[0]);
+        synchronized (recordingSessionLock) {
+
+          // Update track statistics
+          trackTripStatisticsUpdater.updateCalorie(calories[0]);
 
-        // Update marker statistics      
-        markerTripStatisticsUpdater.updateCalorie(calories[1]);
+          // Update marker statistics
+          markerTripStatisticsUpdater.updateCalorie(calories[1]);
+        }
       }
     });
   }
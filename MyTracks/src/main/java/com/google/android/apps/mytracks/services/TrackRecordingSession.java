@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsWriteBuffer;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.android.apps.mytracks.util.UnitConversions;
+
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * The in-memory state of the recording track. Keeps the track, the last valid
+ * track point, and the segment state for the lifetime of a recording so that
+ * recording a location doesn't need to read them back from the
+ * {@link MyTracksProviderUtils}. Changes are written through to the
+ * {@link MyTracksProviderUtils}, which remains the source of truth.
+ * <p>
+ * Track points are written through a {@link TrackPointsWriteBuffer}, which the
+ * {@link TrackRecordingService} flushes on its own schedule. Call
+ * {@link #close()} when the recording ends.
+ * <p>
+ * The trip statistics are kept current in memory, but are written to the
+ * tracks table at most once every statistics write interval. Call
+ * {@link #flushTripStatistics()} to write them on a state transition.
+ */
+public class TrackRecordingSession {
+
+  /**
+   * The default interval in milliseconds between two writes of the trip
+   * statistics.
+   */
+  public static final long DEFAULT_STATISTICS_WRITE_INTERVAL = 15000L;
+
+  private static final String TAG = TrackRecordingSession.class.getSimpleName();
+
+  // 1 hour in milliseconds
+  private static final double ONE_HOUR = UnitConversions.HR_TO_MIN * UnitConversions.MIN_TO_S
+      * UnitConversions.S_TO_MS;
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final Track track;
+  private final TrackPointsWriteBuffer trackPointsWriteBuffer;
+  private final long statisticsWriteInterval;
+
+  // The number of points of the track when the session started
+  private final int initialNumberOfPoints;
+
+  // The last valid track point in the current segment, null if none
+  private Location lastValidTrackPoint;
+
+  // True if the in-memory trip statistics are not yet written
+  private boolean statisticsDirty = false;
+
+  // The time of the last trip statistics write
+  private long lastStatisticsWriteTime;
+
+  // The number of trip statistics updates and writes
+  private int statisticsUpdateCount = 0;
+  private int statisticsWriteCount = 0;
+
+  /**
+   * Constructor. Uses {@link #DEFAULT_STATISTICS_WRITE_INTERVAL}.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param track the recording track as stored in the database
+   */
+  public TrackRecordingSession(MyTracksProviderUtils myTracksProviderUtils, Track track) {
+    this(myTracksProviderUtils, track, DEFAULT_STATISTICS_WRITE_INTERVAL);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param track the recording track as stored in the database
+   * @param statisticsWriteInterval the minimum interval in milliseconds between
+   *          two writes of the trip statistics. 0 to write every update
+   */
+  public TrackRecordingSession(
+      MyTracksProviderUtils myTracksProviderUtils, Track track, long statisticsWriteInterval) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.track = track;
+    this.statisticsWriteInterval = statisticsWriteInterval;
+    initialNumberOfPoints = track.getNumberOfPoints();
+    lastStatisticsWriteTime = System.currentTimeMillis();
+    trackPointsWriteBuffer = new TrackPointsWriteBuffer(myTracksProviderUtils, track.getId());
+  }
+
+  /**
+   * Gets the recording track.
+   */
+  public Track getTrack() {
+    return track;
+  }
+
+  /**
+   * Gets the recording track id.
+   */
+  public long getTrackId() {
+    return track.getId();
+  }
+
+  /**
+   * Starts a new segment.
+   */
+  public void startSegment() {
+    lastValidTrackPoint = null;
+  }
+
+  /**
+   * Returns true if the current segment has a valid track point.
+   */
+  public boolean currentSegmentHasLocation() {
+    return lastValidTrackPoint != null;
+  }
+
+  /**
+   * Gets the last valid track point in the current segment. Returns null if
+   * not available.
+   */
+  public Location getLastValidTrackPointInCurrentSegment() {
+    return lastValidTrackPoint;
+  }
+
+  /**
+   * Inserts a track point into the write buffer. Updates the number of points
+   * of the in-memory track, but doesn't write the track. Track points dropped
+   * by a failed write are removed from the number of points.
+   *
+   * @param location the location
+   */
+  public void insertTrackPoint(Location location) {
+    insertTrackPoint(location, null);
+  }
+
+  /**
+   * Inserts a track point and its derived values into the write buffer.
+   * Updates the number of points of the in-memory track, but doesn't write the
+   * track.
+   *
+   * @param location the location
+   * @param tripStatisticsUpdater the trip statistics updater of the track,
+   *          after the location was added to it. Null to not write the derived
+   *          values
+   */
+  public void insertTrackPoint(Location location, TripStatisticsUpdater tripStatisticsUpdater) {
+    if (tripStatisticsUpdater != null) {
+      trackPointsWriteBuffer.add(location, tripStatisticsUpdater);
+    } else {
+      trackPointsWriteBuffer.add(location);
+    }
+    updateNumberOfPoints();
+    if (LocationUtils.isValidLocation(location)) {
+      lastValidTrackPoint = location;
+    }
+  }
+
+  /**
+   * Returns true if there are track points not yet written to the database.
+   */
+  public boolean hasPendingTrackPoints() {
+    return trackPointsWriteBuffer.hasPendingPoints();
+  }
+
+  /**
+   * Writes the buffered track points to the database.
+   */
+  public void flushTrackPoints() {
+    trackPointsWriteBuffer.flush();
+  }
+
+  /**
+   * Sets the trip statistics of the in-memory track. Writes the track
+   * statistics to the database if the statistics write interval has elapsed
+   * since the last write.
+   *
+   * @param tripStatistics the trip statistics
+   */
+  public void updateTripStatistics(TripStatistics tripStatistics) {
+    track.setTripStatistics(tripStatistics);
+    statisticsDirty = true;
+    statisticsUpdateCount++;
+    if (System.currentTimeMillis() - lastStatisticsWriteTime >= statisticsWriteInterval) {
+      writeTripStatistics();
+    }
+  }
+
+  /**
+   * Writes the track statistics to the database if they have changed since the
+   * last write.
+   */
+  public void flushTripStatistics() {
+    if (statisticsDirty) {
+      writeTripStatistics();
+    }
+  }
+
+  /**
+   * Gets the number of trip statistics updates.
+   */
+  public int getStatisticsUpdateCount() {
+    return statisticsUpdateCount;
+  }
+
+  /**
+   * Gets the number of trip statistics writes.
+   */
+  public int getStatisticsWriteCount() {
+    return statisticsWriteCount;
+  }
+
+  /**
+   * Gets the number of track writes saved per hour of recording by not writing
+   * every trip statistics update.
+   *
+   * @param recordingTime the recording time in milliseconds
+   */
+  public double getSavedWritesPerHour(long recordingTime) {
+    if (recordingTime <= 0) {
+      return 0.0;
+    }
+    return (statisticsUpdateCount - statisticsWriteCount) * ONE_HOUR / recordingTime;
+  }
+
+  /**
+   * Writes the track statistics through to the database. The start id and the
+   * stop id only cover the track points already written to the database.
+   */
+  private void writeTripStatistics() {
+    updateNumberOfPoints();
+    long lastTrackPointId = trackPointsWriteBuffer.getLastTrackPointId();
+    if (lastTrackPointId >= 0) {
+      if (track.getStartId() < 0) {
+        track.setStartId(trackPointsWriteBuffer.getFirstTrackPointId());
+      }
+      track.setStopId(lastTrackPointId);
+    }
+    myTracksProviderUtils.updateTrackStatistics(track);
+    statisticsDirty = false;
+    lastStatisticsWriteTime = System.currentTimeMillis();
+    statisticsWriteCount++;
+  }
+
+  /**
+   * Sets the number of points of the in-memory track from the valid track
+   * points written or buffered by the write buffer.
+   */
+  private void updateNumberOfPoints() {
+    track.setNumberOfPoints(
+        initialNumberOfPoints + trackPointsWriteBuffer.getNumberOfValidPoints());
+  }
+
+  /**
+   * Closes the session. Writes the buffered track points and the trip
+   * statistics to the database.
+   */
+  public void close() {
+    trackPointsWriteBuffer.flush();
+    flushTripStatistics();
+    Log.d(TAG, "Track " + track.getId() + ": " + statisticsWriteCount + " of "
+        + statisticsUpdateCount + " trip statistics updates written.");
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.android.apps.mytracks.settings;
 
 import com.google.android.apps.mytracks.Constants;
+import com.google.android.apps.mytracks.content.TrackPointsCompactor;
 import com.google.android.apps.mytracks.io.sync.SyncUtils;
 import com.google.android.apps.mytracks.util.DialogUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
@@ -61,6 +62,14 @@ public class AdvancedSettingsActivity extends AbstractSettingsActivity {
       sharedPreferenceChangeListener = new OnSharedPreferenceChangeListener() {
           @Override
         public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+          if (key != null && key.equals(PreferencesUtils.getKey(
+              AdvancedSettingsActivity.this, R.string.pack_track_points_key))) {
+            if (PreferencesUtils.getBoolean(AdvancedSettingsActivity.this,
+                R.string.pack_track_points_key, PreferencesUtils.PACK_TRACK_POINTS_DEFAULT)) {
+              // Pack the existing finished tracks
+              new Thread(new TrackPointsCompactor(getApplicationContext())).start();
+            }
+          }
           if (key != null && key.equals(PreferencesUtils.getKey(
               AdvancedSettingsActivity.this, R.string.recording_track_id_key))) {
             recordingTrackId = PreferencesUtils.getLong(
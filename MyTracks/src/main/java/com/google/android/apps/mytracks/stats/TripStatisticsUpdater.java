@@ -76,11 +76,17 @@ public class TripStatisticsUpdater {
   // The current segment's trip statistics
   private TripStatistics currentSegment;
 
-  // Current segment's last location.
-  private Location lastLocation;
+  /*
+   * Current segment's last location and last moving location. Copies of the
+   * added locations so that callers can reuse their locations.
+   */
+  private final Location lastLocation = new Location("");
+  private final Location lastMovingLocation = new Location("");
+  private boolean hasLastLocation = false;
+  private boolean hasLastMovingLocation = false;
 
-  // Current segment's last moving location
-  private Location lastMovingLocation;
+  // True if the last location is also the last moving location
+  private boolean lastLocationIsMoving = false;
 
   // A buffer of the recent elevation readings (m)
   private final DoubleBuffer elevationBuffer = new DoubleBuffer(ELEVATION_SMOOTHING_FACTOR);
@@ -120,7 +126,8 @@ public class TripStatisticsUpdater {
   }
   
   /**
-   * Adds a location. TODO: This assume location has a valid time.
+   * Adds a location. TODO: This assume location has a valid time. The location
+   * is copied, the caller can reuse it.
    * 
    * @param location the location
    * @param minRecordingDistance the min recording distance
@@ -137,15 +144,14 @@ public class TripStatisticsUpdater {
     if (!LocationUtils.isValidLocation(location)) {
       // Either pause or resume marker
       if (location.getLatitude() == PAUSE_LATITUDE) {
-        if (lastLocation != null && lastMovingLocation != null
-            && lastLocation != lastMovingLocation) {
+        if (hasLastLocation && hasLastMovingLocation && !lastLocationIsMoving) {
           currentSegment.addTotalDistance(lastMovingLocation.distanceTo(lastLocation));
         }
         tripStatistics.merge(currentSegment);
       }
       currentSegment = init(location.getTime());
-      lastLocation = null;
-      lastMovingLocation = null;
+      hasLastLocation = false;
+      hasLastMovingLocation = false;
       elevationBuffer.reset();
       runBuffer.reset();
       gradeBuffer.reset();
@@ -158,9 +164,8 @@ public class TripStatisticsUpdater {
     double elevationDifference = location.hasAltitude() ? updateElevation(location.getAltitude())
         : 0.0;
 
-    if (lastLocation == null || lastMovingLocation == null) {
-      lastLocation = location;
-      lastMovingLocation = location;
+    if (!hasLastLocation || !hasLastMovingLocation) {
+      setLastMovingLocation(location);
       return;
     }
 
@@ -168,12 +173,12 @@ public class TripStatisticsUpdater {
     if (movingDistance < minRecordingDistance
         && (!location.hasSpeed() || location.getSpeed() < MAX_NO_MOVEMENT_SPEED)) {
       speedBuffer.reset();
-      lastLocation = location;
+      setLastLocation(location);
       return;
     }
     long movingTime = location.getTime() - lastLocation.getTime();
     if (movingTime < 0) {
-      lastLocation = location;
+      setLastLocation(location);
       return;
     }
 
@@ -199,8 +204,31 @@ public class TripStatisticsUpdater {
           gradeBuffer.getAverage(), weight, activityType);
       currentSegment.addCalorie(calorie);
     }
-    lastLocation = location;
-    lastMovingLocation = location;
+    setLastMovingLocation(location);
+  }
+
+  /**
+   * Sets the last location.
+   * 
+   * @param location the location
+   */
+  private void setLastLocation(Location location) {
+    lastLocation.set(location);
+    hasLastLocation = true;
+    lastLocationIsMoving = false;
+  }
+
+  /**
+   * Sets both the last location and the last moving location.
+   * 
+   * @param location the location
+   */
+  private void setLastMovingLocation(Location location) {
+    lastLocation.set(location);
+    lastMovingLocation.set(location);
+    hasLastLocation = true;
+    hasLastMovingLocation = true;
+    lastLocationIsMoving = true;
   }
   
   /**
@@ -216,6 +244,37 @@ public class TripStatisticsUpdater {
     return speedBuffer.getAverage();
   }
 
+  /**
+   * Gets the smoothed grade over several readings.
+   */
+  public double getSmoothedGrade() {
+    return gradeBuffer.getAverage();
+  }
+
+  /**
+   * Gets the total distance in meters. Unlike {@link #getTripStatistics()},
+   * doesn't take a snapshot.
+   */
+  public double getTotalDistance() {
+    return tripStatistics.getTotalDistance() + currentSegment.getTotalDistance();
+  }
+
+  /**
+   * Gets the total time in milliseconds. Unlike {@link #getTripStatistics()},
+   * doesn't take a snapshot.
+   */
+  public long getTotalTime() {
+    return tripStatistics.getTotalTime() + currentSegment.getTotalTime();
+  }
+
+  /**
+   * Gets the moving time in milliseconds. Unlike {@link #getTripStatistics()},
+   * doesn't take a snapshot.
+   */
+  public long getMovingTime() {
+    return tripStatistics.getMovingTime() + currentSegment.getMovingTime();
+  }
+
   /**
    * Updates a speed reading. Assumes the user is moving.
    * 
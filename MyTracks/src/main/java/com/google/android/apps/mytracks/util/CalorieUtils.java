@@ -16,8 +16,8 @@
 package com.google.android.apps.mytracks.util;
 
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointBlock;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
@@ -110,14 +110,11 @@ public class CalorieUtils {
         PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
     double weight = PreferencesUtils.getFloat(
         context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
-    LocationIterator locationIterator = null;
     Cursor cursor = null;
 
     try {
       Waypoint waypoint = null;
 
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
       cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
 
       if (cursor != null && cursor.moveToFirst()) {
@@ -128,27 +125,35 @@ public class CalorieUtils {
         waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
       }
 
-      while (locationIterator.hasNext()) {
-        Location location = locationIterator.next();
-        trackTripStatisticsUpdater.addLocation(
-            location, recordingDistanceInterval, true, activityType, weight);
-        markerTripStatisticsUpdater.addLocation(
-            location, recordingDistanceInterval, true, activityType, weight);
-
-        if (waypoint != null && waypoint.getLocation().getTime() == location.getTime()
-            && waypoint.getLocation().getLatitude() == location.getLatitude()
-            && waypoint.getLocation().getLongitude() == location.getLongitude()) {
-          waypoint.getTripStatistics()
-              .setCalorie(markerTripStatisticsUpdater.getTripStatistics().getCalorie());
-          myTracksProviderUtils.updateWaypoint(waypoint);
-          markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
-          waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+      // Read the track points in batches into a single reused location
+      TrackPointBlock block = new TrackPointBlock(MyTracksProviderUtils.TRACK_POINTS_BATCH_SIZE);
+      Location location = new Location("");
+      long trackPointId = -1L;
+      int size;
+      do {
+        size = myTracksProviderUtils.readTrackPoints(track.getId(), trackPointId, block);
+        for (int i = 0; i < size; i++) {
+          block.fillLocation(i, location);
+          trackTripStatisticsUpdater.addLocation(
+              location, recordingDistanceInterval, true, activityType, weight);
+          markerTripStatisticsUpdater.addLocation(
+              location, recordingDistanceInterval, true, activityType, weight);
+
+          if (waypoint != null && waypoint.getLocation().getTime() == location.getTime()
+              && waypoint.getLocation().getLatitude() == location.getLatitude()
+              && waypoint.getLocation().getLongitude() == location.getLongitude()) {
+            waypoint.getTripStatistics()
+                .setCalorie(markerTripStatisticsUpdater.getTripStatistics().getCalorie());
+            myTracksProviderUtils.updateWaypoint(waypoint);
+            markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
+            waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+          }
         }
-      }
+        if (size > 0) {
+          trackPointId = block.getId(size - 1) + 1;
+        }
+      } while (block.isFull());
     } finally {
-      if (locationIterator != null) {
-        locationIterator.close();
-      }
       if (cursor != null) {
         cursor.close();
       }
@@ -16,6 +16,7 @@
 package com.google.android.apps.mytracks.util;
 
 import com.google.android.maps.mytracks.R;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
 import android.location.Location;
@@ -47,6 +48,24 @@ public class StringUtils {
       "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
   private static final Pattern ISO_8601_EXTRAS = Pattern.compile(
       "^(\\.\\d+)?(?:Z|([+-])(\\d{2}):(\\d{2}))?$");
+
+  // The time returned when the fast path can't parse an XML date time
+  private static final long NOT_PARSED = Long.MIN_VALUE;
+
+  private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+  // The first full year of the Gregorian calendar
+  private static final int MIN_GREGORIAN_YEAR = 1583;
+
+  private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+  // The max mantissa exactly represented in a double, 2^53 - 1
+  private static final long MAX_EXACT_MANTISSA = (1L << 53) - 1L;
+
+  // The powers of ten exactly represented in a double
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+      1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
   static {
     ISO_8601_DATE_TIME_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
     ISO_8601_BASE.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -68,12 +87,14 @@ public class StringUtils {
 
   /**
    * Formats the time using the ISO 8601 date time format with fractional
-   * seconds in UTC time zone.
+   * seconds in UTC time zone. Thread safe, the exporters format in parallel.
    * 
    * @param time the time in milliseconds
    */
   public static String formatDateTimeIso8601(long time) {
-    return ISO_8601_DATE_TIME_FORMAT.format(time);
+    synchronized (ISO_8601_DATE_TIME_FORMAT) {
+      return ISO_8601_DATE_TIME_FORMAT.format(time);
+    }
   }
 
   /**
@@ -298,13 +319,90 @@ public class StringUtils {
   /**
    * Gets the time, in milliseconds, from an XML date time string as defined at
    * http://www.w3.org/TR/xmlschema-2/#dateTime
+   * <p>
+   * Parses the common forms, e.g., 2010-05-04T03:02:01.352Z, without
+   * allocating. Falls back to a {@link SimpleDateFormat} for the others.
    * 
    * @param xmlDateTime the XML date time string
    */
   public static long getTime(String xmlDateTime) {
+    long time = getTimeFastPath(xmlDateTime);
+    return time != NOT_PARSED ? time : getTimeWithDateFormat(xmlDateTime);
+  }
+
+  /**
+   * Gets the time, in milliseconds, from an XML date time char sequence, e.g.,
+   * a view of a parser buffer. Like {@link #getTime(String)}, only creates a
+   * string to fall back to a {@link SimpleDateFormat}.
+   * 
+   * @param xmlDateTime the XML date time char sequence
+   */
+  public static long getTime(CharSequence xmlDateTime) {
+    long time = getTimeFastPath(xmlDateTime);
+    return time != NOT_PARSED ? time : getTimeWithDateFormat(xmlDateTime.toString());
+  }
+
+  /**
+   * Parses a double from a char sequence, as
+   * {@link Double#parseDouble(String)}. Parses plain decimals with a mantissa
+   * below 2^53 and at most 22 fraction digits, e.g., coordinates and
+   * elevations, without creating a string. As the mantissa and the power of
+   * ten are exact doubles, their quotient is correctly rounded, the same double
+   * as {@link Double#parseDouble(String)}. Falls back to it for the others.
+   * 
+   * @param value the char sequence
+   * @throws NumberFormatException if the value isn't a double
+   */
+  public static double parseDouble(CharSequence value) {
+    int length = value.length();
+    int index = 0;
+    boolean negative = false;
+    if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+      negative = value.charAt(0) == '-';
+      index++;
+    }
+    long mantissa = 0L;
+    int digits = 0;
+    int scale = -1;
+    for (; index < length; index++) {
+      char c = value.charAt(index);
+      if (isDigit(c)) {
+        if (mantissa > MAX_EXACT_MANTISSA / 10) {
+          return Double.parseDouble(value.toString());
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (scale != -1) {
+          scale++;
+        }
+      } else if (c == '.' && scale == -1) {
+        scale = 0;
+      } else {
+        return Double.parseDouble(value.toString());
+      }
+    }
+    if (digits == 0 || mantissa > MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+      return Double.parseDouble(value.toString());
+    }
+    double result = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+    return negative ? -result : result;
+  }
+
+  /**
+   * Gets the time, in milliseconds, from an XML date time string with a
+   * {@link SimpleDateFormat} and a regex for the fractional seconds and the
+   * time zone.
+   * 
+   * @param xmlDateTime the XML date time string
+   */
+  @VisibleForTesting
+  static long getTimeWithDateFormat(String xmlDateTime) {
     // Parse the date time base
     ParsePosition position = new ParsePosition(0);
-    Date date = ISO_8601_BASE.parse(xmlDateTime, position);
+    Date date;
+    synchronized (ISO_8601_BASE) {
+      date = ISO_8601_BASE.parse(xmlDateTime, position);
+    }
     if (date == null) {
       throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime
           + " (at position " + position.getErrorIndex() + ")");
@@ -356,6 +454,146 @@ public class StringUtils {
     return time;
   }
 
+  /**
+   * Gets the time, in milliseconds, from an XML date time string in the
+   * yyyy-MM-dd'T'HH:mm:ss form with in range fields and a Gregorian year,
+   * optional fractional seconds, and an optional Z or +/-HH:mm time zone.
+   * Returns {@link #NOT_PARSED} for any other string, and for fractional
+   * seconds too close to a half millisecond, where the rounding of
+   * {@link #getTimeWithDateFormat(String)} depends on its float precision.
+   * 
+   * @param xmlDateTime the XML date time char sequence
+   */
+  private static long getTimeFastPath(CharSequence xmlDateTime) {
+    int length = xmlDateTime.length();
+    if (length < 19 || xmlDateTime.charAt(4) != '-' || xmlDateTime.charAt(7) != '-'
+        || xmlDateTime.charAt(10) != 'T' || xmlDateTime.charAt(13) != ':'
+        || xmlDateTime.charAt(16) != ':') {
+      return NOT_PARSED;
+    }
+    int year = parseDigits(xmlDateTime, 0, 4);
+    int month = parseDigits(xmlDateTime, 5, 2);
+    int day = parseDigits(xmlDateTime, 8, 2);
+    int hour = parseDigits(xmlDateTime, 11, 2);
+    int minute = parseDigits(xmlDateTime, 14, 2);
+    int second = parseDigits(xmlDateTime, 17, 2);
+    if (year < MIN_GREGORIAN_YEAR || month < 1 || month > 12 || day < 1
+        || day > getDaysInMonth(year, month) || hour < 0 || hour > 23 || minute < 0
+        || minute > 59 || second < 0 || second > 59) {
+      return NOT_PARSED;
+    }
+    long time = getDaysSinceEpoch(year, month, day) * MILLIS_PER_DAY + hour * 3600000L
+        + minute * 60000L + second * 1000L;
+
+    int index = 19;
+    if (index < length && xmlDateTime.charAt(index) == '.') {
+      index++;
+      int digits = 0;
+      int millis = 0;
+
+      // The digits after the milliseconds, up to the nanoseconds
+      int subMillis = 0;
+      int subMillisScale = 1;
+      while (index < length && isDigit(xmlDateTime.charAt(index))) {
+        int digit = xmlDateTime.charAt(index) - '0';
+        if (digits < 3) {
+          millis = millis * 10 + digit;
+        } else if (digits < 9) {
+          subMillis = subMillis * 10 + digit;
+          subMillisScale *= 10;
+        }
+        digits++;
+        index++;
+      }
+      if (digits == 0) {
+        return NOT_PARSED;
+      }
+      for (int i = digits; i < 3; i++) {
+        millis *= 10;
+      }
+      double fraction = (double) subMillis / subMillisScale;
+      if (Math.abs(fraction - 0.5) < 1e-4) {
+        return NOT_PARSED;
+      }
+      time += fraction > 0.5 ? millis + 1 : millis;
+    }
+
+    if (index == length) {
+      return time;
+    }
+    char zone = xmlDateTime.charAt(index);
+    if (zone == 'Z') {
+      return index + 1 == length ? time : NOT_PARSED;
+    }
+    if ((zone != '+' && zone != '-') || index + 6 != length
+        || xmlDateTime.charAt(index + 3) != ':') {
+      return NOT_PARSED;
+    }
+    int offsetHours = parseDigits(xmlDateTime, index + 1, 2);
+    int offsetMinutes = parseDigits(xmlDateTime, index + 4, 2);
+    if (offsetHours < 0 || offsetHours > 14 || offsetMinutes < 0 || offsetMinutes > 59) {
+      return NOT_PARSED;
+    }
+    long offset = (offsetMinutes + offsetHours * 60L) * 60000L;
+    return zone == '+' ? time - offset : time + offset;
+  }
+
+  /**
+   * Parses a fixed number of decimal digits. Returns -1 if any char isn't a
+   * digit.
+   * 
+   * @param value the char sequence
+   * @param start the index of the first digit
+   * @param count the number of digits
+   */
+  private static int parseDigits(CharSequence value, int start, int count) {
+    int result = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = value.charAt(i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Gets the number of days in a month of the Gregorian calendar.
+   * 
+   * @param year the year
+   * @param month the month, from 1 to 12
+   */
+  private static int getDaysInMonth(int year, int month) {
+    if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+      return 29;
+    }
+    return DAYS_IN_MONTH[month - 1];
+  }
+
+  /**
+   * Gets the number of days since 1970-01-01 of a date of the Gregorian
+   * calendar.
+   * 
+   * @param year the year, positive
+   * @param month the month, from 1 to 12
+   * @param day the day of the month
+   */
+  private static long getDaysSinceEpoch(int year, int month, int day) {
+    // Years start in March so that the leap day is the last day of a year
+    int shiftedYear = month <= 2 ? year - 1 : year;
+    int era = shiftedYear / 400;
+    int yearOfEra = shiftedYear - era * 400;
+    int shiftedMonth = month > 2 ? month - 3 : month + 9;
+    int dayOfYear = (153 * shiftedMonth + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468L;
+  }
+
   /**
    * Gets the time as an array of three integers. Index 0 contains the number of
    * seconds, index 1 contains the number of minutes, and index 2 contains the
@@ -21,6 +21,7 @@ import com.google.android.apps.mytracks.content.WaypointCreationRequest;
 import com.google.android.apps.mytracks.services.ITrackRecordingService;
 import com.google.android.apps.mytracks.services.TrackRecordingService;
 import com.google.android.apps.mytracks.services.TrackRecordingServiceConnection;
+import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.maps.mytracks.R;
 
 import android.app.ActivityManager;
@@ -214,4 +215,32 @@ public class TrackRecordingServiceConnectionUtils {
       }
     }
   }
+
+  /**
+   * Gets the in-memory trip statistics of the recording track. Returns null if
+   * the track is not the recording track or the service is not bound.
+   * 
+   * @param trackRecordingServiceConnection the track recording service
+   *          connection
+   * @param trackId the track id
+   */
+  public static TripStatistics getTripStatistics(
+      TrackRecordingServiceConnection trackRecordingServiceConnection, long trackId) {
+    ITrackRecordingService trackRecordingService = trackRecordingServiceConnection
+        .getServiceIfBound();
+    if (trackRecordingService == null) {
+      return null;
+    }
+    try {
+      if (trackRecordingService.getRecordingTrackId() != trackId) {
+        return null;
+      }
+      return trackRecordingService.getTripStatistics();
+    } catch (RemoteException e) {
+      Log.e(TAG, "Unable to get trip statistics.", e);
+    } catch (IllegalStateException e) {
+      Log.e(TAG, "Unable to get trip statistics.", e);
+    }
+    return null;
+  }
 }
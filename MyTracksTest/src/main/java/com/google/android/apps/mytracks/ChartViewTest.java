@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+
+import java.util.ArrayList;
+
+/**
+ * Tests {@link ChartView}.
+ */
+public class ChartViewTest extends AndroidTestCase {
+
+  private static final String TAG = ChartViewTest.class.getSimpleName();
+
+  private static final int WIDTH = 800;
+  private static final int HEIGHT = 480;
+
+  /**
+   * Tests adding data points in batches builds the same paths as adding them
+   * at once.
+   */
+  public void testAddDataPoints_incremental() {
+    ChartView batchChartView = createChartView();
+    for (int i = 0; i < 10; i++) {
+      batchChartView.addDataPoints(createDataPoints(i * 100, 100));
+    }
+    ChartView chartView = createChartView();
+    chartView.addDataPoints(createDataPoints(0, 1000));
+
+    for (int i = 0; i < ChartView.NUM_SERIES; i++) {
+      assertEquals(getBounds(chartView, i), getBounds(batchChartView, i));
+    }
+    assertFalse(getBounds(chartView, ChartView.ELEVATION_SERIES).isEmpty());
+    assertTrue(getBounds(chartView, ChartView.HEART_RATE_SERIES).isEmpty());
+  }
+
+  /**
+   * Tests zooming in and out keeps the paths.
+   */
+  public void testZoom() {
+    ChartView chartView = createChartView();
+    chartView.addDataPoints(createDataPoints(0, 1000));
+    RectF bounds = getBounds(chartView, ChartView.ELEVATION_SERIES);
+
+    chartView.zoomIn();
+    assertTrue(getBounds(chartView, ChartView.ELEVATION_SERIES).width() > bounds.width());
+    chartView.addDataPoints(createDataPoints(1000, 100));
+    chartView.zoomOut();
+
+    ChartView expected = createChartView();
+    expected.addDataPoints(createDataPoints(0, 1100));
+    assertEquals(getBounds(expected, ChartView.ELEVATION_SERIES),
+        getBounds(chartView, ChartView.ELEVATION_SERIES));
+  }
+
+  /**
+   * Tests decimating the data points keeps the extent of the paths.
+   */
+  public void testDecimateDataPoints() {
+    ChartView chartView = createChartView();
+    chartView.addDataPoints(createDataPoints(0, 1001));
+    RectF bounds = getBounds(chartView, ChartView.SPEED_SERIES);
+    chartView.decimateDataPoints();
+    RectF decimatedBounds = getBounds(chartView, ChartView.SPEED_SERIES);
+    assertEquals(bounds.left, decimatedBounds.left);
+    assertEquals(bounds.right, decimatedBounds.right);
+    assertEquals(bounds.bottom, decimatedBounds.bottom);
+  }
+
+  /**
+   * Measures the frame time of a 50k point track, added in batches of 100 data
+   * points as while recording. Each frame adds a batch and draws the chart.
+   */
+  public void testFrameTime_largeTrack() {
+    int numPoints = 50000;
+    int batchSize = 100;
+    ChartView chartView = createChartView();
+    Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+
+    long totalTime = 0L;
+    long maxTime = 0L;
+    long lastTime = 0L;
+    for (int i = 0; i < numPoints; i += batchSize) {
+      ArrayList<double[]> dataPoints = createDataPoints(i, batchSize);
+      long start = System.nanoTime();
+      chartView.addDataPoints(dataPoints);
+      chartView.draw(canvas);
+      lastTime = System.nanoTime() - start;
+      totalTime += lastTime;
+      maxTime = Math.max(maxTime, lastTime);
+    }
+    int frames = numPoints / batchSize;
+    Log.i(TAG, "Added " + numPoints + " points in " + frames + " frames. Average frame "
+        + totalTime / frames / 1000 + " us, max frame " + maxTime / 1000 + " us, last frame "
+        + lastTime / 1000 + " us.");
+
+    long start = System.nanoTime();
+    chartView.zoomIn();
+    chartView.draw(canvas);
+    chartView.zoomOut();
+    chartView.draw(canvas);
+    Log.i(TAG, "Zoomed in and out in " + (System.nanoTime() - start) / 1000 + " us.");
+
+    assertFalse(getBounds(chartView, ChartView.ELEVATION_SERIES).isEmpty());
+    bitmap.recycle();
+  }
+
+  /**
+   * Creates a chart view, measured and laid out.
+   */
+  private ChartView createChartView() {
+    ChartView chartView = new ChartView(getContext());
+    chartView.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+        MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+    chartView.layout(0, 0, WIDTH, HEIGHT);
+    return chartView;
+  }
+
+  /**
+   * Creates data points with elevation, speed, and pace values.
+   *
+   * @param start the index of the first data point
+   * @param count the number of data points
+   */
+  private ArrayList<double[]> createDataPoints(int start, int count) {
+    ArrayList<double[]> dataPoints = new ArrayList<double[]>();
+    for (int i = start; i < start + count; i++) {
+      double[] dataPoint = new double[ChartView.NUM_SERIES + 1];
+      dataPoint[0] = i * 0.01;
+      for (int j = 0; j < ChartView.NUM_SERIES; j++) {
+        dataPoint[j + 1] = Double.NaN;
+      }
+      dataPoint[ChartView.ELEVATION_SERIES + 1] = 100.0 + 50.0 * Math.sin(i / 50.0);
+      dataPoint[ChartView.SPEED_SERIES + 1] = 10.0 + (i % 7);
+      dataPoint[ChartView.PACE_SERIES + 1] = 6.0 + (i % 3);
+      dataPoints.add(dataPoint);
+    }
+    return dataPoints;
+  }
+
+  /**
+   * Gets the bounds of a series path.
+   *
+   * @param chartView the chart view
+   * @param index the series index
+   */
+  private RectF getBounds(ChartView chartView, int index) {
+    RectF bounds = new RectF();
+    chartView.getPath(index).computeBounds(bounds, true);
+    return bounds;
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Tests the aggregated stats maintained by {@link AggregatedStatsUpdater}.
+ */
+public class AggregatedStatsUpdaterTest extends AndroidTestCase {
+
+  private static final long DAY = 24L * 60L * 60L * 1000L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private long time;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    // Noon on a Wednesday, in the middle of a week, a month, and a year
+    Calendar calendar = Calendar.getInstance();
+    calendar.set(2014, Calendar.JULY, 16, 12, 0, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    time = calendar.getTimeInMillis();
+  }
+
+  /**
+   * Tests the aggregated stats of inserted tracks.
+   */
+  public void testInsert() {
+    insertTrack("running", time, 1000.0, 10.0f);
+    insertTrack("running", time + DAY, 2000.0, 20.0f);
+    insertTrack("biking", time - 400 * DAY, 5000.0, 15.0f);
+
+    TripStatistics all = getTripStatistics(null, AggregatedStatsColumns.PERIOD_ALL);
+    assertEquals(8000.0, all.getTotalDistance());
+    assertEquals(20.0, all.getMaxSpeed());
+    assertEquals(time - 400 * DAY, all.getStartTime());
+    assertEquals(time + DAY + 1000L, all.getStopTime());
+
+    TripStatistics running = getTripStatistics("running", AggregatedStatsColumns.PERIOD_ALL);
+    assertEquals(3000.0, running.getTotalDistance());
+    assertEquals(time, running.getStartTime());
+
+    TripStatistics year = getTripStatistics(null, AggregatedStatsColumns.PERIOD_YEAR);
+    assertEquals(3000.0, year.getTotalDistance());
+    assertNull(getTripStatistics("biking", AggregatedStatsColumns.PERIOD_WEEK));
+    assertEquals(2, getNumTracks("running", AggregatedStatsColumns.PERIOD_MONTH));
+  }
+
+  /**
+   * Tests the aggregated stats of an updated track.
+   */
+  public void testUpdate() {
+    Track track = insertTrack("running", time, 1000.0, 10.0f);
+    insertTrack("running", time, 2000.0, 20.0f);
+
+    // The statistics grow
+    track.getTripStatistics().setTotalDistance(1500.0);
+    track.getTripStatistics().setMaxSpeed(30.0f);
+    myTracksProviderUtils.updateTrack(track);
+    TripStatistics running = getTripStatistics("running", AggregatedStatsColumns.PERIOD_WEEK);
+    assertEquals(3500.0, running.getTotalDistance());
+    assertEquals(30.0, running.getMaxSpeed());
+
+    // The max speed shrinks, recomputed from the tracks
+    track.getTripStatistics().setMaxSpeed(5.0f);
+    myTracksProviderUtils.updateTrack(track);
+    running = getTripStatistics("running", AggregatedStatsColumns.PERIOD_WEEK);
+    assertEquals(20.0, running.getMaxSpeed());
+
+    // The category changes
+    track.setCategory("biking");
+    myTracksProviderUtils.updateTrack(track);
+    assertEquals(2000.0,
+        getTripStatistics("running", AggregatedStatsColumns.PERIOD_ALL).getTotalDistance());
+    assertEquals(1500.0,
+        getTripStatistics("biking", AggregatedStatsColumns.PERIOD_ALL).getTotalDistance());
+    assertEquals(2, getNumTracks(null, AggregatedStatsColumns.PERIOD_ALL));
+  }
+
+  /**
+   * Tests the aggregated stats of deleted tracks.
+   */
+  public void testDelete() {
+    Track track1 = insertTrack("running", time, 1000.0, 10.0f);
+    insertTrack("running", time, 2000.0, 20.0f);
+    Track track3 = insertTrack("biking", time, 3000.0, 30.0f);
+
+    myTracksProviderUtils.deleteTrack(getContext(), track3.getId());
+    TripStatistics all = getTripStatistics(null, AggregatedStatsColumns.PERIOD_ALL);
+    assertEquals(3000.0, all.getTotalDistance());
+    assertEquals(20.0, all.getMaxSpeed());
+    assertNull(getTripStatistics("biking", AggregatedStatsColumns.PERIOD_ALL));
+
+    myTracksProviderUtils.deleteTrack(getContext(), track1.getId());
+    assertEquals(1, getNumTracks(null, AggregatedStatsColumns.PERIOD_ALL));
+
+    myTracksProviderUtils.deleteAllTracks(getContext());
+    assertNull(getTripStatistics(null, AggregatedStatsColumns.PERIOD_ALL));
+  }
+
+  /**
+   * Tests the aggregated stats match merging the trip statistics of the tracks.
+   */
+  public void testMerge() {
+    Track track1 = insertTrack("running", time, 1000.0, 10.0f);
+    Track track2 = insertTrack("walking", time + 3 * DAY, 2000.0, 20.0f);
+    track2.getTripStatistics().setMinElevation(-10.0);
+    track2.getTripStatistics().setMaxElevation(100.0);
+    myTracksProviderUtils.updateTrack(track2);
+
+    TripStatistics expected = new TripStatistics(track1.getTripStatistics());
+    expected.merge(track2.getTripStatistics());
+    TripStatistics all = getTripStatistics(null, AggregatedStatsColumns.PERIOD_ALL);
+    assertEquals(expected.getTotalDistance(), all.getTotalDistance());
+    assertEquals(expected.getTotalTime(), all.getTotalTime());
+    assertEquals(expected.getMinElevation(), all.getMinElevation());
+    assertEquals(expected.getMaxElevation(), all.getMaxElevation());
+    assertEquals(expected.getTop(), all.getTop());
+    assertEquals(expected.getBottom(), all.getBottom());
+  }
+
+  /**
+   * Tests the aggregated stats are rebuilt for the new period starts after a
+   * time zone change.
+   */
+  public void testTimeZoneChange() {
+    TimeZone timeZone = TimeZone.getDefault();
+    try {
+      // August 1st, 2 am in Los Angeles is July 31st, 11 pm in Honolulu
+      TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+      Calendar calendar = Calendar.getInstance();
+      calendar.set(2014, Calendar.AUGUST, 1, 2, 0, 0);
+      long startTime = calendar.getTimeInMillis();
+      insertTrack("running", startTime, 1000.0, 10.0f);
+      assertEquals(1000.0, myTracksProviderUtils.getAggregatedTripStatistics(
+          null, AggregatedStatsColumns.PERIOD_MONTH, startTime).getTotalDistance());
+
+      TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Honolulu"));
+      TripStatistics month = myTracksProviderUtils.getAggregatedTripStatistics(
+          null, AggregatedStatsColumns.PERIOD_MONTH, startTime);
+      assertNotNull(month);
+      assertEquals(1000.0, month.getTotalDistance());
+      calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(
+          AggregatedStatsUpdater.getPeriodStart(AggregatedStatsColumns.PERIOD_MONTH, startTime));
+      assertEquals(Calendar.JULY, calendar.get(Calendar.MONTH));
+    } finally {
+      TimeZone.setDefault(timeZone);
+    }
+  }
+
+  /**
+   * Tests {@link AggregatedStatsUpdater#getPeriodStart(int, long)}.
+   */
+  public void testGetPeriodStart() {
+    assertEquals(
+        0L, AggregatedStatsUpdater.getPeriodStart(AggregatedStatsColumns.PERIOD_ALL, time));
+
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(
+        AggregatedStatsUpdater.getPeriodStart(AggregatedStatsColumns.PERIOD_MONTH, time));
+    assertEquals(1, calendar.get(Calendar.DAY_OF_MONTH));
+    assertEquals(Calendar.JULY, calendar.get(Calendar.MONTH));
+    assertEquals(0, calendar.get(Calendar.HOUR_OF_DAY));
+
+    long weekStart = AggregatedStatsUpdater.getPeriodStart(
+        AggregatedStatsColumns.PERIOD_WEEK, time);
+    calendar.setTimeInMillis(weekStart);
+    assertEquals(calendar.getFirstDayOfWeek(), calendar.get(Calendar.DAY_OF_WEEK));
+    assertTrue(weekStart <= time);
+    assertTrue(
+        time < AggregatedStatsUpdater.getPeriodEnd(AggregatedStatsColumns.PERIOD_WEEK, weekStart));
+  }
+
+  /**
+   * Inserts a track.
+   *
+   * @param category the category
+   * @param startTime the start time
+   * @param totalDistance the total distance
+   * @param maxSpeed the max speed
+   */
+  private Track insertTrack(String category, long startTime, double totalDistance,
+      float maxSpeed) {
+    Track track = new Track();
+    track.setCategory(category);
+    TripStatistics tripStatistics = track.getTripStatistics();
+    tripStatistics.setStartTime(startTime);
+    tripStatistics.setStopTime(startTime + 1000L);
+    tripStatistics.setTotalTime(1000L);
+    tripStatistics.setTotalDistance(totalDistance);
+    tripStatistics.setMaxSpeed(maxSpeed);
+    tripStatistics.setBounds(-57000000, 37000000, -56000000, 36000000);
+    Uri uri = myTracksProviderUtils.insertTrack(track);
+    track.setId(Long.parseLong(uri.getLastPathSegment()));
+    return track;
+  }
+
+  /**
+   * Gets the aggregated trip statistics for the period containing the test
+   * time.
+   *
+   * @param category the category
+   * @param period the period
+   */
+  private TripStatistics getTripStatistics(String category, int period) {
+    return myTracksProviderUtils.getAggregatedTripStatistics(category, period, time);
+  }
+
+  /**
+   * Gets the number of tracks for the period containing the test time.
+   *
+   * @param category the category
+   * @param period the period
+   */
+  private int getNumTracks(String category, int period) {
+    String selection = AggregatedStatsColumns.PERIOD + "=? AND "
+        + AggregatedStatsColumns.PERIODSTART + "=? AND " + AggregatedStatsColumns.CATEGORY
+        + (category == null ? " IS NULL" : "='" + category + "'");
+    String[] selectionArgs = new String[] { Integer.toString(period),
+        Long.toString(AggregatedStatsUpdater.getPeriodStart(period, time)) };
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getAggregatedStatsCursor(selection, selectionArgs, null);
+      if (cursor == null || !cursor.moveToNext()) {
+        return 0;
+      }
+      return cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatsColumns.NUMTRACKS));
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+}
@@ -17,10 +17,25 @@
 package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.provider.BaseColumns;
 import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Tests {@link MyTracksProvider}.
@@ -49,6 +64,16 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointBlocksColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(TrackPointBlocksColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasIndex(TrackPointBlocksColumns.LASTVALIDID_INDEX));
+    assertTrue(hasTable(AggregatedStatsColumns.TABLE_NAME));
+    assertTrue(hasIndex(AggregatedStatsColumns.PERIOD_CATEGORY_INDEX));
+    assertTrue(hasTable(SearchIndexColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointSeriesColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointSeriesColumns.TRACKID_INDEX));
   }
 
   /**
@@ -67,6 +92,9 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointBlocksColumns.TABLE_NAME));
+    assertTrue(hasTable(AggregatedStatsColumns.TABLE_NAME));
+    assertTrue(hasTable(SearchIndexColumns.TABLE_NAME));
   }
 
   /**
@@ -85,6 +113,8 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertTrue(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
   }
 
   /**
@@ -103,6 +133,8 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertTrue(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
   }
 
   /**
@@ -121,6 +153,8 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertTrue(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
   }
 
   /**
@@ -139,6 +173,8 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertTrue(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
   }
 
   /**
@@ -157,6 +193,8 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertTrue(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
   }
 
   /**
@@ -175,6 +213,213 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertFalse(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 23.
+   */
+  public void testDatabaseHelper_onUpgrade_Version23() {
+    setupUpgrade(23);
+
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasTable(TrackPointBlocksColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointBlocksColumns.TRACKID_STARTID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 24.
+   */
+  public void testDatabaseHelper_onUpgrade_Version24() {
+    setupUpgrade(24);
+
+    assertTrue(hasTable(AggregatedStatsColumns.TABLE_NAME));
+    assertTrue(hasIndex(AggregatedStatsColumns.PERIOD_CATEGORY_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 25. The search index is filled from the tracks and
+   * the waypoints tables.
+   */
+  public void testDatabaseHelper_onUpgrade_Version25() {
+    setupUpgrade(25);
+
+    assertTrue(hasTable(SearchIndexColumns.TABLE_NAME));
+    Cursor cursor = null;
+    try {
+      cursor = db.query(SearchIndexColumns.TABLE_NAME, new String[] { SearchIndexColumns.DOCID },
+          SearchIndexColumns.TABLE_NAME + " MATCH ?", new String[] { "upgrade" }, null, null,
+          SearchIndexColumns.DOCID);
+      assertTrue(cursor.moveToNext());
+      assertEquals(SearchIndexUpdater.getTrackDocId(1L), cursor.getLong(0));
+      assertTrue(cursor.moveToNext());
+      assertEquals(SearchIndexUpdater.getWaypointDocId(1L), cursor.getLong(0));
+      assertFalse(cursor.moveToNext());
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 26.
+   */
+  public void testDatabaseHelper_onUpgrade_Version26() {
+    setupUpgrade(26);
+
+    assertTrue(hasTable(TrackPointSeriesColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointSeriesColumns.TRACKID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 27. The track point block columns are filled from
+   * the existing blocks.
+   */
+  public void testDatabaseHelper_onUpgrade_Version27() {
+    db.execSQL("DROP TABLE IF EXISTS " + TrackPointBlocksColumns.TABLE_NAME);
+    createVersion27TrackPointBlocksTable();
+    TrackPointBlock block = new TrackPointBlock(3);
+    block.add(1L, 91000000, 0, 1000L, 0, 0f, 0f, 0f, 0f, null);
+    block.add(2L, 1000000, 1000000, 2000L, 0, 0f, 0f, 0f, 0f, null);
+    block.add(3L, 2000000, 2000000, 3000L, 0, 0f, 0f, 0f, 0f, null);
+    ContentValues values = new ContentValues();
+    values.put(TrackPointBlocksColumns.TRACKID, 1L);
+    values.put(TrackPointBlocksColumns.STARTID, 1L);
+    values.put(TrackPointBlocksColumns.STOPID, 3L);
+    values.put(TrackPointBlocksColumns.NUMPOINTS, 3);
+    values.put(TrackPointBlocksColumns.DATA, block.encode());
+    db.insert(TrackPointBlocksColumns.TABLE_NAME, TrackPointBlocksColumns._ID, values);
+
+    DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
+    databaseHelper.onUpgrade(db, 27, MyTracksProvider.DATABASE_VERSION);
+
+    assertTrue(hasIndex(TrackPointBlocksColumns.LASTVALIDID_INDEX));
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TrackPointBlocksColumns.TABLE_NAME, new String[] {
+          TrackPointBlocksColumns.MINTIME, TrackPointBlocksColumns.MAXTIME,
+          TrackPointBlocksColumns.FIRSTVALIDID, TrackPointBlocksColumns.LASTVALIDID }, null,
+          null, null, null, null);
+      assertTrue(cursor.moveToNext());
+      assertEquals(1000L, cursor.getLong(0));
+      assertEquals(3000L, cursor.getLong(1));
+      assertEquals(2L, cursor.getLong(2));
+      assertEquals(3L, cursor.getLong(3));
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Tests calling {@link MyTracksProvider#REBUILD_AGGREGATED_STATS_METHOD}
+   * rebuilds the aggregated stats when the calendar settings changed.
+   */
+  public void testCall_rebuildAggregatedStats() {
+    Context context = attachProvider(new MockContentResolver());
+    myTracksProvider.delete(TracksColumns.CONTENT_URI, null, null);
+
+    ContentValues values = new ContentValues();
+    values.put(TracksColumns.STARTTIME, 1000L);
+    values.put(TracksColumns.STARTID, 1L);
+    values.put(TracksColumns.TOTALDISTANCE, 10.0f);
+    myTracksProvider.insert(TracksColumns.CONTENT_URI, values);
+    myTracksProvider.insert(TracksColumns.CONTENT_URI, values);
+    PreferencesUtils.setString(context, R.string.aggregated_stats_calendar_key, "changed");
+
+    assertNull(myTracksProvider.call(
+        MyTracksProvider.REBUILD_AGGREGATED_STATS_METHOD, null, null));
+    assertEquals(AggregatedStatsUpdater.getCalendarSettings(), PreferencesUtils.getString(
+        context, R.string.aggregated_stats_calendar_key, null));
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProvider.query(AggregatedStatsColumns.CONTENT_URI,
+          new String[] { AggregatedStatsColumns.NUMTRACKS, AggregatedStatsColumns.TOTALDISTANCE },
+          AggregatedStatsColumns.PERIOD + "=" + AggregatedStatsColumns.PERIOD_ALL + " AND "
+              + AggregatedStatsColumns.CATEGORY + " IS NULL", null, null);
+      assertTrue(cursor.moveToNext());
+      assertEquals(2, cursor.getInt(0));
+      assertEquals(20.0, cursor.getDouble(1));
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Tests updating or deleting no row doesn't notify the observers.
+   */
+  public void testNotifyChange_noMatch() {
+    final List<Uri> notifiedUris = new ArrayList<Uri>();
+    attachProvider(new MockContentResolver() {
+        @Override
+      public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+        notifiedUris.add(uri);
+      }
+    });
+    String where = TrackPointsColumns.TRACKID + "=-1";
+    ContentValues values = new ContentValues();
+    values.put(TrackPointsColumns.TRACKID, -1L);
+
+    assertEquals(0, myTracksProvider.update(TrackPointsColumns.CONTENT_URI, values, where, null));
+    assertEquals(0, myTracksProvider.delete(WaypointsColumns.CONTENT_URI, where, null));
+    assertEquals(0, myTracksProvider.delete(
+        TracksColumns.CONTENT_URI, TracksColumns._ID + "=-1", null));
+    assertTrue(notifiedUris.isEmpty());
+  }
+
+  /**
+   * Tests the aggregated stats observers are notified once for a batch.
+   */
+  public void testApplyBatch_notifyAggregatedStatsChange() throws Exception {
+    final List<Uri> notifiedUris = new ArrayList<Uri>();
+    attachProvider(new MockContentResolver() {
+        @Override
+      public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+        notifiedUris.add(uri);
+      }
+    });
+    ContentValues values = new ContentValues();
+    values.put(TracksColumns.STARTTIME, 1000L);
+    values.put(TracksColumns.STARTID, 1L);
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+    operations.add(ContentProviderOperation.newInsert(TracksColumns.CONTENT_URI)
+        .withValues(values).build());
+    operations.add(ContentProviderOperation.newInsert(TracksColumns.CONTENT_URI)
+        .withValues(values).build());
+
+    myTracksProvider.applyBatch(operations);
+    int count = 0;
+    for (Uri uri : notifiedUris) {
+      if (uri.equals(AggregatedStatsColumns.CONTENT_URI)) {
+        count++;
+      }
+    }
+    assertEquals(1, count);
+  }
+
+  /**
+   * Tests the track point queries use the trackid indexes.
+   */
+  public void testTrackPointsQueryPlan() {
+    String lastIdPlan = getQueryPlan("SELECT max(" + TrackPointsColumns._ID + ") FROM "
+        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=1");
+    assertTrue(lastIdPlan.contains(TrackPointsColumns.TRACKID_ID_INDEX));
+
+    String timePlan = getQueryPlan("SELECT max(" + TrackPointsColumns._ID + ") FROM "
+        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=1 AND "
+        + TrackPointsColumns.TIME + "=1");
+    assertTrue(timePlan.contains(TrackPointsColumns.TRACKID_TIME_INDEX));
   }
 
   /**
@@ -193,15 +438,43 @@ public class MyTracksProviderTest extends AndroidTestCase {
         TrackPointsColumns.CONTENT_TYPE, myTracksProvider.getType(TrackPointsColumns.CONTENT_URI));
     assertEquals(
         WaypointsColumns.CONTENT_TYPE, myTracksProvider.getType(WaypointsColumns.CONTENT_URI));
+    assertEquals(TrackPointBlocksColumns.CONTENT_TYPE,
+        myTracksProvider.getType(TrackPointBlocksColumns.CONTENT_URI));
+    assertEquals(AggregatedStatsColumns.CONTENT_TYPE,
+        myTracksProvider.getType(AggregatedStatsColumns.CONTENT_URI));
+    assertEquals(SearchIndexColumns.CONTENT_TYPE,
+        myTracksProvider.getType(SearchIndexColumns.CONTENT_URI));
+    assertEquals(TrackPointSeriesColumns.CONTENT_TYPE,
+        myTracksProvider.getType(TrackPointSeriesColumns.CONTENT_URI));
   }
 
   /**
-   * Creates a table, containing one column.
+   * Creates a table, containing the columns of the search index, with a row.
    * 
    * @param table the table name
+   * @param name the name of the row
+   */
+  private void createIndexedTable(String table, String name) {
+    db.execSQL("CREATE TABLE " + table + " (" + BaseColumns._ID
+        + " INTEGER PRIMARY KEY AUTOINCREMENT, " + SearchIndexColumns.NAME + " STRING, "
+        + SearchIndexColumns.DESCRIPTION + " STRING, " + SearchIndexColumns.CATEGORY
+        + " STRING)");
+    ContentValues values = new ContentValues();
+    values.put(SearchIndexColumns.NAME, name);
+    db.insert(table, null, values);
+  }
+
+  /**
+   * Creates the track point blocks table of version 27, without the columns
+   * describing the track points.
    */
-  private void createTable(String table) {
-    db.execSQL("CREATE TABLE " + table + " (test INTEGER)");
+  private void createVersion27TrackPointBlocksTable() {
+    db.execSQL("CREATE TABLE " + TrackPointBlocksColumns.TABLE_NAME + " ("
+        + TrackPointBlocksColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+        + TrackPointBlocksColumns.TRACKID + " INTEGER, " + TrackPointBlocksColumns.STARTID
+        + " INTEGER, " + TrackPointBlocksColumns.STOPID + " INTEGER, "
+        + TrackPointBlocksColumns.NUMPOINTS + " INTEGER, " + TrackPointBlocksColumns.DATA
+        + " BLOB)");
   }
 
   /**
@@ -213,6 +486,20 @@ public class MyTracksProviderTest extends AndroidTestCase {
     db.execSQL("Drop TABLE " + table);
   }
 
+  /**
+   * Attaches the provider to a context with a content resolver, using the
+   * test database.
+   * 
+   * @param contentResolver the content resolver
+   */
+  private Context attachProvider(ContentResolver contentResolver) {
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(contentResolver, targetContext);
+    myTracksProvider.attachInfo(context, null);
+    return context;
+  }
+
   /**
    * Returns true if the table exists.
    * 
@@ -227,6 +514,46 @@ public class MyTracksProviderTest extends AndroidTestCase {
     }
   }
 
+  /**
+   * Returns true if the index exists.
+   * 
+   * @param index the index name
+   */
+  private boolean hasIndex(String index) {
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+          new String[] { index });
+      return cursor.getCount() == 1;
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Gets the query plan details of a query.
+   * 
+   * @param query the query
+   */
+  private String getQueryPlan(String query) {
+    StringBuilder builder = new StringBuilder();
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+      int detailIndex = cursor.getColumnIndexOrThrow("detail");
+      while (cursor.moveToNext()) {
+        builder.append(cursor.getString(detailIndex)).append('\n');
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return builder.toString();
+  }
+
   /**
    * Returns true if the column in the table exists.
    * 
@@ -253,9 +580,18 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
-    createTable(TracksColumns.TABLE_NAME);
-    createTable(TrackPointsColumns.TABLE_NAME);
-    createTable(WaypointsColumns.TABLE_NAME);
+    db.execSQL("DROP TABLE IF EXISTS " + TrackPointBlocksColumns.TABLE_NAME);
+    db.execSQL("DROP TABLE IF EXISTS " + AggregatedStatsColumns.TABLE_NAME);
+    db.execSQL("DROP TABLE IF EXISTS " + SearchIndexColumns.TABLE_NAME);
+    db.execSQL("DROP TABLE IF EXISTS " + TrackPointSeriesColumns.TABLE_NAME);
+    createIndexedTable(TracksColumns.TABLE_NAME, "Upgrade track");
+    db.execSQL("CREATE TABLE " + TrackPointsColumns.TABLE_NAME + " (" + TrackPointsColumns._ID
+        + " INTEGER PRIMARY KEY AUTOINCREMENT, " + TrackPointsColumns.TRACKID + " INTEGER, "
+        + TrackPointsColumns.TIME + " INTEGER)");
+    createIndexedTable(WaypointsColumns.TABLE_NAME, "Upgrade marker");
+    if (oldVersion > 23) {
+      createVersion27TrackPointBlocksTable();
+    }
 
     DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
     databaseHelper.onUpgrade(db, oldVersion, MyTracksProvider.DATABASE_VERSION);
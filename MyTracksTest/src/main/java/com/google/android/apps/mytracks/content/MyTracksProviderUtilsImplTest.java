@@ -338,6 +338,32 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     providerUtils.updateTrack(track);
     assertEquals(nameNew, providerUtils.getTrack(trackId).getName()); 
   }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#updateTrackStatistics(Track)}.
+   */
+  public void testUpdateTrackStatistics() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 0);
+    track.setName("name1");
+    providerUtils.insertTrack(track);
+
+    // Edit the name in the database
+    Track editedTrack = providerUtils.getTrack(trackId);
+    editedTrack.setName("name2");
+    providerUtils.updateTrack(editedTrack);
+
+    track.setStopId(10L);
+    track.setNumberOfPoints(5);
+    track.getTripStatistics().setTotalDistance(100.0);
+    providerUtils.updateTrackStatistics(track);
+
+    Track result = providerUtils.getTrack(trackId);
+    assertEquals("name2", result.getName());
+    assertEquals(10L, result.getStopId());
+    assertEquals(5, result.getNumberOfPoints());
+    assertEquals(100.0, result.getTripStatistics().getTotalDistance());
+  }
   
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#createContentValues(Waypoint)}.
@@ -848,6 +874,175 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertFalse(locationIterator.hasNext());
   }
 
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#compactTrackPoints(long)}
+   * and reading the packed track points.
+   */
+  public void testCompactTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    int numPoints = MyTracksProviderUtilsImpl.TRACK_POINTS_PER_BLOCK * 2 + 10;
+    Track track = getTrack(trackId, numPoints);
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    long lastId = providerUtils.getLastTrackPointId(trackId);
+
+    assertEquals(numPoints, providerUtils.compactTrackPoints(trackId));
+    assertEquals(0, providerUtils.compactTrackPoints(trackId));
+
+    // The track points table no longer has the track points
+    Cursor cursor = context.getContentResolver().query(TrackPointsColumns.CONTENT_URI, null,
+        TrackPointsColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+
+    // The track point cursor reads the packed track points
+    cursor = providerUtils.getTrackPointCursor(trackId, firstId + 5, 3, true);
+    assertEquals(3, cursor.getCount());
+    for (int i = 5; i >= 3; i--) {
+      assertTrue(cursor.moveToNext());
+      assertEquals(firstId + i,
+          cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID)));
+      checkPackedLocation(i, providerUtils.createTrackPoint(cursor));
+    }
+    cursor.close();
+
+    assertEquals(firstId, providerUtils.getFirstTrackPointId(trackId));
+    assertEquals(lastId, providerUtils.getLastTrackPointId(trackId));
+    checkPackedLocation(0, providerUtils.getFirstValidTrackPoint(trackId));
+    checkPackedLocation(numPoints - 1, providerUtils.getLastValidTrackPoint(trackId));
+    checkPackedLocation(numPoints - 1, providerUtils.getLastValidTrackPoint());
+    Location location = providerUtils.getLastValidTrackPoint(trackId);
+    assertEquals(lastId, providerUtils.getTrackPointId(trackId, location));
+
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    for (int i = 0; i < numPoints; i++) {
+      assertTrue(locationIterator.hasNext());
+      Location location = locationIterator.next();
+      assertEquals(firstId + i, locationIterator.getLocationId());
+      checkPackedLocation(i, location);
+    }
+    assertFalse(locationIterator.hasNext());
+    locationIterator.close();
+
+    // Start in the middle of the second block
+    int start = MyTracksProviderUtilsImpl.TRACK_POINTS_PER_BLOCK + 5;
+    locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, firstId + start, true, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    for (int i = start; i >= 0; i--) {
+      assertTrue(locationIterator.hasNext());
+      Location location = locationIterator.next();
+      assertEquals(firstId + i, locationIterator.getLocationId());
+      checkPackedLocation(i, location);
+    }
+    assertFalse(locationIterator.hasNext());
+    locationIterator.close();
+  }
+
+  /**
+   * Tests reading a track with both packed and unpacked track points.
+   */
+  public void testCompactTrackPoints_newTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    assertEquals(10, providerUtils.compactTrackPoints(trackId));
+
+    for (int i = 10; i < 15; i++) {
+      providerUtils.insertTrackPoint(createLocation(i), trackId);
+    }
+    assertEquals(firstId, providerUtils.getFirstTrackPointId(trackId));
+    assertEquals(firstId + 14, providerUtils.getLastTrackPointId(trackId));
+    checkLocation(14, providerUtils.getLastValidTrackPoint(trackId));
+
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, true, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    for (int i = 14; i >= 0; i--) {
+      assertTrue(locationIterator.hasNext());
+      Location location = locationIterator.next();
+      assertEquals(firstId + i, locationIterator.getLocationId());
+      checkPackedLocation(i, location);
+    }
+    assertFalse(locationIterator.hasNext());
+    locationIterator.close();
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getTrackPointCursor(long, long, int, boolean)}
+   * with both packed and unpacked track points.
+   */
+  public void testGetTrackPointCursor_packed() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    assertEquals(10, providerUtils.compactTrackPoints(trackId));
+    for (int i = 10; i < 15; i++) {
+      providerUtils.insertTrackPoint(createLocation(i), trackId);
+    }
+
+    assertEquals(15, providerUtils.getTrackPointCursor(trackId, -1L, -1, false).getCount());
+    assertEquals(12, providerUtils.getTrackPointCursor(trackId, firstId + 3, -1, false).getCount());
+    assertEquals(4, providerUtils.getTrackPointCursor(trackId, firstId + 3, -1, true).getCount());
+    assertEquals(2, providerUtils.getTrackPointCursor(trackId, firstId + 12, 2, false).getCount());
+
+    Cursor cursor = providerUtils.getTrackPointCursor(trackId, firstId + 8, -1, false);
+    assertEquals(7, cursor.getCount());
+    assertTrue(cursor.moveToPosition(4));
+    assertEquals(firstId + 12,
+        cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID)));
+    checkLocation(12, providerUtils.createTrackPoint(cursor));
+    assertTrue(cursor.moveToFirst());
+    assertEquals(firstId + 8,
+        cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID)));
+    checkPackedLocation(8, providerUtils.createTrackPoint(cursor));
+    assertFalse(cursor.moveToPosition(7));
+    cursor.close();
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#readTrackPoints(long, long, TrackPointBlock)}
+   * with both packed and unpacked track points.
+   */
+  public void testReadTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    providerUtils.compactTrackPoints(trackId);
+    for (int i = 10; i < 15; i++) {
+      providerUtils.insertTrackPoint(createLocation(i), trackId);
+    }
+
+    // Batches of 4 across the packed and the unpacked track points
+    TrackPointBlock block = new TrackPointBlock(4);
+    Location location = new Location("test");
+    long trackPointId = -1L;
+    int count = 0;
+    int size;
+    do {
+      size = providerUtils.readTrackPoints(trackId, trackPointId, block);
+      for (int i = 0; i < size; i++) {
+        assertEquals(firstId + count, block.getId(i));
+        block.fillLocation(i, location);
+        checkPackedLocation(count, location);
+        count++;
+      }
+      if (size > 0) {
+        trackPointId = block.getId(size - 1) + 1;
+      }
+    } while (block.isFull());
+    assertEquals(15, count);
+
+    // Start in the middle
+    assertEquals(4, providerUtils.readTrackPoints(trackId, firstId + 8, block));
+    assertEquals(firstId + 8, block.getId(0));
+    assertEquals(firstId + 11, block.getId(3));
+  }
+
   /**
    * Simulates a track which is used for testing.
    * 
@@ -895,6 +1090,21 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(i * ALTITUDE_INTERVAL, location.getAltitude());
   }
   
+  /**
+   * Checks the value of a packed location. The accuracy is quantised in a
+   * track point block.
+   * 
+   * @param i the index of this location which created in the method
+   *          {@link MyTracksProviderUtilsImplTest#getTrack(long, int)}
+   * @param location the location to be checked
+   */
+  private void checkPackedLocation(int i, Location location) {
+    assertEquals(INITIAL_LATITUDE + (double) i / 10000.0, location.getLatitude());
+    assertEquals(INITIAL_LONGITUDE - (double) i / 10000.0, location.getLongitude());
+    assertEquals((float) i / 100.0f, location.getAccuracy(), 0.05f);
+    assertEquals(i * ALTITUDE_INTERVAL, location.getAltitude(), 0.05);
+  }
+
   /**
    * Inserts a track with locations into the database.
    * 
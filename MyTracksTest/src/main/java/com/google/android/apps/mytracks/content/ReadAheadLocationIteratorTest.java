@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Tests {@link ReadAheadLocationIterator}.
+ */
+public class ReadAheadLocationIteratorTest extends AndroidTestCase {
+
+  private static final int NUM_POINTS = 1000;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private long trackId;
+  private long firstTrackPointId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    Uri uri = myTracksProviderUtils.insertTrack(new Track());
+    trackId = Long.parseLong(uri.getLastPathSegment());
+    Location[] locations = new Location[NUM_POINTS];
+    for (int i = 0; i < NUM_POINTS; i++) {
+      locations[i] = createLocation(i);
+    }
+    myTracksProviderUtils.bulkInsertTrackPoint(locations, NUM_POINTS, trackId);
+    firstTrackPointId = myTracksProviderUtils.getFirstTrackPointId(trackId);
+  }
+
+  /**
+   * Tests iterating over several batches.
+   */
+  public void testIterator() {
+    ReadAheadLocationIterator iterator = new ReadAheadLocationIterator(myTracksProviderUtils,
+        trackId, -1L, 10, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      // The batch size grows after the first batch
+      assertTrue(iterator.getBatchSize() > 10);
+      for (int i = 0; i < NUM_POINTS; i++) {
+        assertTrue(iterator.hasNext());
+        Location location = iterator.next();
+        assertEquals(firstTrackPointId + i, iterator.getLocationId());
+        assertEquals(createLocation(i).getTime(), location.getTime());
+      }
+      assertFalse(iterator.hasNext());
+      assertTrue(iterator.getWaitTime() >= 0L);
+    } finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Tests iterating from a starting track point id.
+   */
+  public void testIterator_startTrackPointId() {
+    ReadAheadLocationIterator iterator = new ReadAheadLocationIterator(myTracksProviderUtils,
+        trackId, firstTrackPointId + NUM_POINTS - 5, 10,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      int count = 0;
+      while (iterator.hasNext()) {
+        iterator.next();
+        count++;
+      }
+      assertEquals(5, count);
+      assertEquals(firstTrackPointId + NUM_POINTS - 1, iterator.getLocationId());
+    } finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Tests the batch size adapts to the track point size.
+   */
+  public void testGetBatchSize() {
+    ReadAheadLocationIterator iterator = new ReadAheadLocationIterator(myTracksProviderUtils,
+        trackId, -1L, 1000, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      assertEquals(ReadAheadLocationIterator.MAX_BATCH_SIZE, iterator.getBatchSize(1L));
+      assertEquals(ReadAheadLocationIterator.MIN_BATCH_SIZE,
+          iterator.getBatchSize(ReadAheadLocationIterator.TARGET_BATCH_BYTES));
+    } finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Creates a location.
+   *
+   * @param i the index of the location
+   */
+  private Location createLocation(int i) {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(37.0 + i / 10000.0);
+    location.setLongitude(-57.0 - i / 10000.0);
+    location.setTime(1000L + i * 1000L);
+    return location;
+  }
+}
@@ -28,6 +28,8 @@ import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -152,9 +154,9 @@ public class SearchEngineTest extends AndroidTestCase {
     long descriptionMatchId = insertTrack("bb", "aa", "cc");
     long categoryMatchId = insertTrack("bb", "cc", "aa");
     long titleMatchId = insertTrack("aa", "bb", "cc");
-    long titleCategoryMatchId = insertTrack("aa", "bb", "ca");
-    long titleDescriptionMatchId = insertTrack("aa", "ba", "cc");
-    long allMatchId = insertTrack("aa", "ba", "ca");
+    long titleCategoryMatchId = insertTrack("aa", "bb", "ac");
+    long titleDescriptionMatchId = insertTrack("aa", "ab", "cc");
+    long allMatchId = insertTrack("aa", "ab", "ac");
 
     SearchQuery query = new SearchQuery("a", null, -1, NOW);
     ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
@@ -178,9 +180,9 @@ public class SearchEngineTest extends AndroidTestCase {
     long descriptionMatchId = insertWaypoint("bb", "aa", "cc");
     long categoryMatchId = insertWaypoint("bb", "cc", "aa");
     long titleMatchId = insertWaypoint("aa", "bb", "cc");
-    long titleCategoryMatchId = insertWaypoint("aa", "bb", "ca");
-    long titleDescriptionMatchId = insertWaypoint("aa", "ba", "cc");
-    long allMatchId = insertWaypoint("aa", "ba", "ca");
+    long titleCategoryMatchId = insertWaypoint("aa", "bb", "ac");
+    long titleDescriptionMatchId = insertWaypoint("aa", "ab", "cc");
+    long allMatchId = insertWaypoint("aa", "ab", "ac");
 
     SearchQuery query = new SearchQuery("a", null, -1, NOW);
     ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
@@ -214,6 +216,90 @@ public class SearchEngineTest extends AndroidTestCase {
     assertWaypointResult(descriptionWaypointId, results.get(2));
   }
 
+  public void testSearchText_prefix() {
+    // Words match by prefix, not by substring
+    long prefixMatchId = insertTrack("Walk in the park", "", "");
+    insertTrack("Sidewalk", "", "");
+    long allWordsMatchId = insertTrack("Park walk", "", "");
+    insertTrack("Park", "", "");
+
+    SearchQuery query = new SearchQuery("wal, PA", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    // Shorter name > longer name.
+    assertTrackResults(results, allWordsMatchId, prefixMatchId);
+  }
+
+  public void testSearchText_updated() {
+    Track track = providerUtils.getTrack(insertTrack("aa", "bb", "cc"));
+    long waypointId = insertWaypoint("bb", "cc", "dd");
+    track.setName("dd");
+    providerUtils.updateTrack(track);
+
+    SearchQuery query = new SearchQuery("a", null, -1, NOW);
+    assertTrue(engine.search(query).isEmpty());
+
+    query = new SearchQuery("d", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    // Title > Category.
+    assertEquals(results.toString(), 2, results.size());
+    assertTrackResult(track.getId(), results.get(0));
+    assertWaypointResult(waypointId, results.get(1));
+  }
+
+  public void testSearchText_deleted() {
+    long trackId = insertTrack("aa", "bb", "cc");
+    insertWaypoint("aa", "bb", "cc", 0.0, -1, trackId);
+    long otherWaypointId = insertWaypoint("ab", "bb", "cc");
+    providerUtils.deleteTrack(getContext(), trackId);
+
+    SearchQuery query = new SearchQuery("a", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    assertWaypointResults(results, otherWaypointId);
+  }
+
+  public void testGetMatchQuery() {
+    assertEquals("\"hello*\" \"w\u00f6rld*\" \"42*\"",
+        SearchEngine.getMatchQuery(" hello, w\u00f6rld \"42\"* -"));
+    assertEquals("", SearchEngine.getMatchQuery(" \"* - "));
+  }
+
+  public void testGetRelevance() {
+    // 10 rows of 2 tokens in each column, 2 rows with hits in each column
+    double nameRelevance = SearchEngine.getRelevance(getMatchInfo(1, 0, 0));
+    double descriptionRelevance = SearchEngine.getRelevance(getMatchInfo(0, 1, 0));
+    double categoryRelevance = SearchEngine.getRelevance(getMatchInfo(0, 0, 1));
+    double allRelevance = SearchEngine.getRelevance(getMatchInfo(1, 1, 1));
+
+    assertTrue(nameRelevance > descriptionRelevance);
+    assertTrue(descriptionRelevance > categoryRelevance);
+    assertTrue(categoryRelevance > 0.0);
+    assertEquals(nameRelevance + descriptionRelevance + categoryRelevance, allRelevance, 1e-9);
+    assertTrue(SearchEngine.getRelevance(getMatchInfo(2, 0, 0)) > nameRelevance);
+    assertEquals(0.0, SearchEngine.getRelevance(getMatchInfo(0, 0, 0)));
+  }
+
+  /**
+   * Gets the matchinfo of a row with one phrase.
+   *
+   * @param hits the hits in each column of the row
+   */
+  private byte[] getMatchInfo(int... hits) {
+    int numColumns = hits.length;
+    ByteBuffer buffer = ByteBuffer.allocate(4 * (3 + 2 * numColumns + 3 * numColumns))
+        .order(ByteOrder.nativeOrder());
+    buffer.putInt(1).putInt(numColumns).putInt(10);
+    for (int i = 0; i < 2 * numColumns; i++) {
+      buffer.putInt(2);
+    }
+    for (int i = 0; i < numColumns; i++) {
+      buffer.putInt(hits[i]).putInt(4).putInt(2);
+    }
+    return buffer.array();
+  }
+
   public void testSearchTrackDistance() {
     // All results match text, but they're at difference distances from the user.
     long farFarAwayId = insertTrack("aa", 0.3);
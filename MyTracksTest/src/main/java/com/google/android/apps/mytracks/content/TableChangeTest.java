@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TableChange}.
+ */
+public class TableChangeTest extends TestCase {
+
+  /**
+   * Tests a change uri keeps the table uri path and the change.
+   */
+  public void testToUriFromUri() {
+    Uri uri = new TableChange(5L, 100L, 120L).toUri(TrackPointsColumns.CONTENT_URI);
+    assertEquals(TrackPointsColumns.CONTENT_URI.getPath(), uri.getPath());
+
+    TableChange tableChange = TableChange.fromUri(uri);
+    assertEquals(5L, tableChange.getTrackId());
+    assertEquals(100L, tableChange.getMinId());
+    assertEquals(120L, tableChange.getMaxId());
+  }
+
+  /**
+   * Tests a table uri has no change.
+   */
+  public void testFromUri_tableUri() {
+    assertNull(TableChange.fromUri(TrackPointsColumns.CONTENT_URI));
+    assertNull(TableChange.fromUri(null));
+    assertNull(TableChange.fromUri(TrackPointsColumns.CONTENT_URI.buildUpon()
+        .appendQueryParameter("trackid", "a").appendQueryParameter("minid", "1")
+        .appendQueryParameter("maxid", "2").build()));
+  }
+
+  /**
+   * Tests the union of changes.
+   */
+  public void testUnion() {
+    TableChange tableChange = new TableChange(5L, 100L, 100L).union(
+        new TableChange(5L, 101L, 101L));
+    assertEquals(5L, tableChange.getTrackId());
+    assertEquals(100L, tableChange.getMinId());
+    assertEquals(101L, tableChange.getMaxId());
+
+    tableChange = tableChange.union(new TableChange(6L, 90L, 90L));
+    assertEquals(-1L, tableChange.getTrackId());
+    assertEquals(90L, tableChange.getMinId());
+    assertEquals(101L, tableChange.getMaxId());
+  }
+
+  /**
+   * Tests a change of an unknown track may affect any track.
+   */
+  public void testIsForTrack() {
+    assertTrue(new TableChange(5L, 1L, 1L).isForTrack(5L));
+    assertFalse(new TableChange(5L, 1L, 1L).isForTrack(6L));
+    assertTrue(new TableChange(-1L, 1L, 2L).isForTrack(6L));
+  }
+}
@@ -168,6 +168,44 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
   }
 
+  /**
+   * Tests the tracks table updates of other tracks are skipped.
+   */
+  public void testTracksTableUpdate_otherTrack() {
+    Capture<ContentObserver> contentObserverCapture = new Capture<ContentObserver>();
+    Track track = new Track();
+    expect(myTracksProviderUtils.getTrack(TRACK_ID)).andStubReturn(track);
+    dataSource.registerContentObserver(
+        eq(TracksColumns.CONTENT_URI), capture(contentObserverCapture));
+    trackDataListener1.onTrackUpdated(track);
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.TRACKS_TABLE));
+    verifyAndReset();
+
+    // Causes tracks table update of another track
+    ContentObserver contentObserver = contentObserverCapture.getValue();
+    replay();
+
+    contentObserver.onChange(false, new TableChange(TRACK_ID + 1, TRACK_ID + 1, TRACK_ID + 1)
+        .toUri(TracksColumns.CONTENT_URI));
+    verifyAndReset();
+    assertEquals(1, trackDataHub.getNumSkippedUpdates(TrackDataType.TRACKS_TABLE));
+
+    // Causes tracks table update of the selected track
+    expect(myTracksProviderUtils.getTrack(TRACK_ID)).andStubReturn(track);
+    trackDataListener1.onTrackUpdated(track);
+    replay();
+
+    contentObserver.onChange(
+        false, new TableChange(TRACK_ID, TRACK_ID, TRACK_ID).toUri(TracksColumns.CONTENT_URI));
+    verifyAndReset();
+    assertEquals(1, trackDataHub.getNumSkippedUpdates(TrackDataType.TRACKS_TABLE));
+  }
+
   /**
    * Tests registering for waypoints table update.
    */
@@ -260,6 +298,64 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
   }
 
+  /**
+   * Tests the waypoints table updates of the selected track are sent as added,
+   * updated, and removed waypoints.
+   */
+  public void testWaypointsTableUpdate_incremental() {
+    Waypoint waypoint1 = createWaypoint(1L);
+    Waypoint waypoint2 = createWaypoint(2L);
+
+    // Register one listener
+    Capture<ContentObserver> contentObserverCapture = new Capture<ContentObserver>();
+    expect(myTracksProviderUtils.getWaypointCursor(
+        eq(TRACK_ID), AndroidMock.leq(-1L), eq(TrackDataHub.MAX_DISPLAYED_WAYPOINTS)))
+        .andStubAnswer(new FixedSizeCursorAnswer(2));
+    expect(myTracksProviderUtils.createWaypoint(isA(Cursor.class)))
+        .andReturn(waypoint1).andReturn(waypoint2);
+    dataSource.registerContentObserver(
+        eq(WaypointsColumns.CONTENT_URI), capture(contentObserverCapture));
+    trackDataListener1.clearWaypoints();
+    trackDataListener1.onNewWaypoint(waypoint1);
+    trackDataListener1.onNewWaypoint(waypoint2);
+    trackDataListener1.onNewWaypointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.WAYPOINTS_TABLE));
+    verifyAndReset();
+
+    // Add a waypoint
+    ContentObserver contentObserver = contentObserverCapture.getValue();
+    Waypoint waypoint3 = createWaypoint(3L);
+    expect(myTracksProviderUtils.getWaypointCursor(isA(String.class), isA(String[].class),
+        eq(WaypointsColumns._ID), eq(-1))).andStubAnswer(new FixedSizeCursorAnswer(1));
+    expect(myTracksProviderUtils.createWaypoint(isA(Cursor.class))).andReturn(waypoint3);
+    trackDataListener1.onNewWaypoint(waypoint3);
+    trackDataListener1.onNewWaypointsDone();
+    replay();
+
+    contentObserver.onChange(
+        false, new TableChange(TRACK_ID, 3L, 3L).toUri(WaypointsColumns.CONTENT_URI));
+    verifyAndReset();
+
+    // Update the first waypoint and delete the second one
+    Waypoint updatedWaypoint1 = createWaypoint(1L);
+    expect(myTracksProviderUtils.getWaypointCursor(isA(String.class), isA(String[].class),
+        eq(WaypointsColumns._ID), eq(-1))).andStubAnswer(new FixedSizeCursorAnswer(1));
+    expect(myTracksProviderUtils.createWaypoint(isA(Cursor.class))).andReturn(updatedWaypoint1);
+    trackDataListener1.onWaypointRemoved(2L);
+    trackDataListener1.onWaypointUpdated(updatedWaypoint1);
+    trackDataListener1.onNewWaypointsDone();
+    replay();
+
+    contentObserver.onChange(
+        false, new TableChange(TRACK_ID, 1L, 2L).toUri(WaypointsColumns.CONTENT_URI));
+    verifyAndReset();
+  }
+
   /**
    * Tests track points table update.
    */
@@ -469,9 +565,10 @@ public class TrackDataHubTest extends AndroidTestCase {
   }
 
   /**
-   * Tests track points table update with resampling.
+   * Tests track points table update with decimation. Only new track points are
+   * delivered after the sampled in track points are decimated.
    */
-  public void testTrackPointsTableUpdate_resampling() {
+  public void testTrackPointsTableUpdate_decimation() {
     Capture<ContentObserver> observerCapture = new Capture<ContentObserver>();
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
@@ -493,25 +590,25 @@ public class TrackDataHubTest extends AndroidTestCase {
         trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
     verifyAndReset();
 
-    // Now deliver 30 more (incrementally sampled)
+    // Now deliver 30 more (same sampling frequency)
     ContentObserver observer = observerCapture.getValue();
     locationIterator = new FixedSizeLocationIterator(31, 30);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
         eq(TRACK_ID), eq(31L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(60L);
-    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
+    locationIterator.expectLocationsDelivered(trackDataListener1);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
     observer.onChange(false);
     verifyAndReset();
 
-    // Now another 30 (triggers resampling)
-    locationIterator = new FixedSizeLocationIterator(1, 90);
+    // Now another 30 (triggers decimation, then only the new points)
+    locationIterator = new FixedSizeLocationIterator(61, 30);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(61L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(90L);
-    trackDataListener1.clearTrackPoints();
+    trackDataListener1.onSampledInTrackPointsDecimated();
     locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
     trackDataListener1.onNewTrackPointsDone();
     replay();
@@ -601,6 +698,21 @@ public class TrackDataHubTest extends AndroidTestCase {
     AndroidMock.reset(myTracksProviderUtils, dataSource, trackDataListener1, trackDataListener2);
   }
 
+  /**
+   * Creates a waypoint with a valid location.
+   * 
+   * @param id the waypoint id
+   */
+  private Waypoint createWaypoint(long id) {
+    Waypoint waypoint = new Waypoint();
+    waypoint.setId(id);
+    Location location = new Location("gps");
+    location.setLatitude(10.0);
+    location.setLongitude(8.0);
+    waypoint.setLocation(location);
+    return waypoint;
+  }
+
   /**
    * Fixed size cursor answer.
    * 
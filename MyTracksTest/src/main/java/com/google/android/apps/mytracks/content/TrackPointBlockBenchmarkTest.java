@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+/**
+ * Measures the size and the read time of a track before and after its track
+ * points are packed with {@link MyTracksProviderUtils#compactTrackPoints(long)}.
+ * Reads the whole track with the location iterator, and sums the times so that
+ * the reads can't be optimized away.
+ */
+public class TrackPointBlockBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackPointBlockBenchmarkTest.class.getSimpleName();
+
+  private static final int NUM_POINTS = 20000;
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  private MyTracksProviderUtils providerUtils;
+  private long trackId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    MockContext context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    providerUtils = MyTracksProviderUtils.Factory.get(context);
+    providerUtils.deleteAllTracks(context);
+
+    // A synthetic 1 Hz track
+    Uri uri = providerUtils.insertTrack(new Track());
+    trackId = Long.parseLong(uri.getLastPathSegment());
+    Location[] locations = new Location[INSERT_BATCH_SIZE];
+    for (int i = 0; i < NUM_POINTS; i++) {
+      Location location = new Location("mock");
+      location.setLatitude(37.4219999 + i * 0.0000137);
+      location.setLongitude(-122.0840575 - i * 0.0000211);
+      location.setAltitude(30.0 + i % 100 * 0.37);
+      location.setBearing(i % 360);
+      location.setAccuracy(3.0f + i % 7);
+      location.setSpeed(2.5f + i % 5 * 0.13f);
+      location.setTime(1400000000000L + i * 1000L);
+      locations[i % INSERT_BATCH_SIZE] = location;
+      if (i % INSERT_BATCH_SIZE == INSERT_BATCH_SIZE - 1) {
+        providerUtils.bulkInsertTrackPoint(locations, INSERT_BATCH_SIZE, trackId);
+      }
+    }
+  }
+
+  public void testCompactTrackPoints() {
+    long rowsStart = System.nanoTime();
+    long rowsSum = readTrack();
+    long rowsTime = System.nanoTime() - rowsStart;
+
+    long compactStart = System.nanoTime();
+    assertEquals(NUM_POINTS, providerUtils.compactTrackPoints(trackId));
+    long compactTime = System.nanoTime() - compactStart;
+
+    long blocksStart = System.nanoTime();
+    long blocksSum = readTrack();
+    long blocksTime = System.nanoTime() - blocksStart;
+    assertEquals(rowsSum, blocksSum);
+
+    long blockBytes = getBlockBytes();
+    Log.i(TAG, "rows: read " + NUM_POINTS + " points in " + rowsTime / 1000000L
+        + " ms. compact: " + compactTime / 1000000L + " ms. blocks: " + blockBytes + " bytes, "
+        + (double) blockBytes / NUM_POINTS + " bytes per point, read in "
+        + blocksTime / 1000000L + " ms.");
+
+    // A track point row takes more than 40 bytes
+    assertTrue(blockBytes < NUM_POINTS * 16);
+  }
+
+  /**
+   * Reads all the track points of the track. Returns the sum of the times.
+   */
+  private long readTrack() {
+    long sum = 0L;
+    int count = 0;
+    LocationIterator locationIterator = null;
+    try {
+      locationIterator = providerUtils.getTrackPointLocationIterator(
+          trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      while (locationIterator.hasNext()) {
+        sum += locationIterator.next().getTime();
+        count++;
+      }
+    } finally {
+      if (locationIterator != null) {
+        locationIterator.close();
+      }
+    }
+    assertEquals(NUM_POINTS, count);
+    return sum;
+  }
+
+  /**
+   * Gets the total size of the encoded track point blocks of the track.
+   */
+  private long getBlockBytes() {
+    long bytes = 0L;
+    Cursor cursor = null;
+    try {
+      cursor = getContext().getContentResolver().query(TrackPointBlocksColumns.CONTENT_URI,
+          new String[] { TrackPointBlocksColumns.DATA }, TrackPointBlocksColumns.TRACKID + "=?",
+          new String[] { Long.toString(trackId) }, null);
+      while (cursor.moveToNext()) {
+        bytes += cursor.getBlob(0).length;
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TrackPointBlock}.
+ */
+public class TrackPointBlockTest extends TestCase {
+
+  /**
+   * Tests encoding and decoding a block.
+   */
+  public void testEncodeDecode() throws IOException {
+    TrackPointBlock block = new TrackPointBlock(3);
+    block.add(10L, 37000000, -122000000, 1000L, TrackPointBlock.FLAG_ALTITUDE
+        | TrackPointBlock.FLAG_ACCURACY | TrackPointBlock.FLAG_SPEED
+        | TrackPointBlock.FLAG_BEARING, 12.34f, 5.55f, 3.456f, 270.04f, null);
+    block.add(11L, 37000010, -122000020, 2000L, 0, 0f, 0f, 0f, 0f, new byte[] { 1, 2, 3 });
+    block.add(15L, 36999990, -121999990, 1500L, TrackPointBlock.FLAG_ALTITUDE, -3.0f, 0f, 0f,
+        0f, null);
+    assertTrue(block.isFull());
+
+    TrackPointBlock result = TrackPointBlock.decode(block.encode());
+    assertEquals(3, result.getSize());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(block.getId(i), result.getId(i));
+      assertEquals(block.getLatitude(i), result.getLatitude(i));
+      assertEquals(block.getLongitude(i), result.getLongitude(i));
+      assertEquals(block.getTime(i), result.getTime(i));
+    }
+
+    // Quantised values
+    assertTrue(result.has(0, TrackPointBlock.FLAG_BEARING));
+    assertEquals(12.3f, result.getAltitude(0), 0.001f);
+    assertEquals(5.6f, result.getAccuracy(0), 0.001f);
+    assertEquals(3.46f, result.getSpeed(0), 0.001f);
+    assertEquals(270.0f, result.getBearing(0), 0.001f);
+    assertFalse(result.has(0, TrackPointBlock.FLAG_SENSOR));
+
+    assertFalse(result.has(1, TrackPointBlock.FLAG_ALTITUDE));
+    assertTrue(result.has(1, TrackPointBlock.FLAG_SENSOR));
+    assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, result.getSensor(1)));
+
+    assertTrue(result.has(2, TrackPointBlock.FLAG_ALTITUDE));
+    assertFalse(result.has(2, TrackPointBlock.FLAG_SPEED));
+    assertEquals(-3.0f, result.getAltitude(2), 0.001f);
+  }
+
+  /**
+   * Tests the track point ids must be increasing.
+   */
+  public void testAdd_decreasingId() {
+    TrackPointBlock block = new TrackPointBlock(2);
+    block.add(2L, 0, 0, 0L, 0, 0f, 0f, 0f, 0f, null);
+    try {
+      block.add(1L, 0, 0, 0L, 0, 0f, 0f, 0f, 0f, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests decoding invalid data.
+   */
+  public void testDecode_invalid() {
+    try {
+      TrackPointBlock.decode(new byte[] { 1, 2, 3 });
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Measures the track point queries of {@link MyTracksProviderUtilsImpl} on a
+ * synthetic database of 1M track points, without and with the
+ * {@link TrackPointsColumns#TRACKID_ID_INDEX} and
+ * {@link TrackPointsColumns#TRACKID_TIME_INDEX} indexes. Logs the average time
+ * of each query over random tracks.
+ */
+public class TrackPointsIndexBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackPointsIndexBenchmarkTest.class.getSimpleName();
+
+  private static final String DATABASE_NAME = "mytracksbenchmark.db";
+  private static final int NUM_TRACKS = 200;
+  private static final int NUM_POINTS = 5000;
+  private static final int NUM_LOOKUPS = 20;
+  private static final int CURSOR_POINTS = 2000;
+
+  private static final String[] QUERY_NAMES = { "getFirstTrackPointId", "getLastTrackPointId",
+      "getTrackPointId", "getLastValidTrackPoint", "getTrackPointCursor" };
+
+  private SQLiteDatabase db;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    getContext().deleteDatabase(DATABASE_NAME);
+    db = (new DatabaseHelper(getContext(), DATABASE_NAME)).getWritableDatabase();
+
+    // Tracks of 1 Hz track points, inserted one track after the other
+    SQLiteStatement statement = db.compileStatement("INSERT INTO "
+        + TrackPointsColumns.TABLE_NAME + " (" + TrackPointsColumns.TRACKID + ", "
+        + TrackPointsColumns.LATITUDE + ", " + TrackPointsColumns.LONGITUDE + ", "
+        + TrackPointsColumns.TIME + ") VALUES (?, ?, ?, ?)");
+    try {
+      db.beginTransaction();
+      for (int trackId = 1; trackId <= NUM_TRACKS; trackId++) {
+        for (int i = 0; i < NUM_POINTS; i++) {
+          statement.bindLong(1, trackId);
+          statement.bindLong(2, 37000000 + i * 10);
+          statement.bindLong(3, -122000000 - i * 10);
+          statement.bindLong(4, getTime(trackId, i));
+          statement.executeInsert();
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      statement.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    db.close();
+    getContext().deleteDatabase(DATABASE_NAME);
+    super.tearDown();
+  }
+
+  public void testTrackPointQueries() {
+    db.execSQL("DROP INDEX " + TrackPointsColumns.TRACKID_ID_INDEX);
+    db.execSQL("DROP INDEX " + TrackPointsColumns.TRACKID_TIME_INDEX);
+    long[] scanTimes = timeQueries();
+
+    long indexStart = System.nanoTime();
+    db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+    db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+    long indexTime = System.nanoTime() - indexStart;
+    long[] indexedTimes = timeQueries();
+
+    Log.i(TAG, NUM_TRACKS * NUM_POINTS + " points. Created the indexes in "
+        + indexTime / 1000000L + " ms.");
+    for (int i = 0; i < QUERY_NAMES.length; i++) {
+      Log.i(TAG, QUERY_NAMES[i] + ": " + scanTimes[i] / 1000L + " us before, "
+          + indexedTimes[i] / 1000L + " us after.");
+    }
+
+    // The id lookups no longer scan the table
+    for (int i = 0; i < QUERY_NAMES.length - 1; i++) {
+      assertTrue(QUERY_NAMES[i], indexedTimes[i] < scanTimes[i]);
+    }
+  }
+
+  /**
+   * Runs each query on the same random tracks. Returns the average time of
+   * each query in nanoseconds.
+   */
+  private long[] timeQueries() {
+    long[] times = new long[QUERY_NAMES.length];
+    for (int i = 0; i < QUERY_NAMES.length; i++) {
+      Random random = new Random(i);
+      for (int j = 0; j < NUM_LOOKUPS; j++) {
+        long trackId = 1 + random.nextInt(NUM_TRACKS);
+        long time = getTime(trackId, random.nextInt(NUM_POINTS));
+        long start = System.nanoTime();
+        assertTrue(runQuery(i, trackId, time) > 0);
+        times[i] += System.nanoTime() - start;
+      }
+      times[i] /= NUM_LOOKUPS;
+    }
+    return times;
+  }
+
+  /**
+   * Runs a query the way {@link MyTracksProviderUtilsImpl} does. Returns the
+   * number of rows read.
+   *
+   * @param query the index of the query in {@link #QUERY_NAMES}
+   * @param trackId the track id
+   * @param time the time of a track point of the track
+   */
+  private int runQuery(int query, long trackId, long time) {
+    String idSelection = TrackPointsColumns._ID + "=(SELECT %s(" + TrackPointsColumns._ID
+        + ") FROM " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
+        + "=" + trackId + "%s)";
+    String selection;
+    String sortOrder = TrackPointsColumns._ID;
+    switch (query) {
+      case 0:
+        selection = String.format(idSelection, "min", "");
+        break;
+      case 1:
+        selection = String.format(idSelection, "max", "");
+        break;
+      case 2:
+        selection = String.format(
+            idSelection, "max", " AND " + TrackPointsColumns.TIME + "=" + time);
+        break;
+      case 3:
+        selection = String.format(
+            idSelection, "max", " AND " + TrackPointsColumns.LATITUDE + "<=90000000");
+        break;
+      default:
+        selection = TrackPointsColumns.TRACKID + "=" + trackId + " AND "
+            + TrackPointsColumns._ID + ">=0";
+        sortOrder += " LIMIT " + CURSOR_POINTS;
+        break;
+    }
+    int count = 0;
+    Cursor cursor = null;
+    try {
+      cursor = db.query(
+          TrackPointsColumns.TABLE_NAME, null, selection, null, null, null, sortOrder);
+      while (cursor.moveToNext()) {
+        cursor.getLong(0);
+        count++;
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Gets the time of a track point.
+   *
+   * @param trackId the track id
+   * @param index the index of the track point in the track
+   */
+  private static long getTime(long trackId, int index) {
+    return 1400000000000L + trackId * 100000000L + index * 1000L;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Tests {@link TrackPointsWriteBuffer}.
+ */
+public class TrackPointsWriteBufferTest extends AndroidTestCase {
+
+  private Context context;
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private long trackId;
+  private TrackPointsWriteBuffer trackPointsWriteBuffer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    Uri uri = myTracksProviderUtils.insertTrack(new Track());
+    trackId = Long.parseLong(uri.getLastPathSegment());
+    trackPointsWriteBuffer = new TrackPointsWriteBuffer(myTracksProviderUtils, trackId);
+  }
+
+  /**
+   * Tests the buffer is written when it is full.
+   */
+  public void testAdd_full() {
+    for (int i = 0; i < TrackPointsWriteBuffer.MAX_POINTS - 1; i++) {
+      trackPointsWriteBuffer.add(createLocation(i));
+    }
+    assertEquals(TrackPointsWriteBuffer.MAX_POINTS - 1, trackPointsWriteBuffer.getSize());
+    assertEquals(-1L, trackPointsWriteBuffer.getLastTrackPointId());
+
+    trackPointsWriteBuffer.add(createLocation(TrackPointsWriteBuffer.MAX_POINTS));
+    assertEquals(0, trackPointsWriteBuffer.getSize());
+    assertEquals(myTracksProviderUtils.getFirstTrackPointId(trackId),
+        trackPointsWriteBuffer.getFirstTrackPointId());
+    assertEquals(myTracksProviderUtils.getLastTrackPointId(trackId),
+        trackPointsWriteBuffer.getLastTrackPointId());
+  }
+
+  /**
+   * Tests {@link TrackPointsWriteBuffer#flush()}.
+   */
+  public void testFlush() {
+    trackPointsWriteBuffer.add(createLocation(0));
+    trackPointsWriteBuffer.add(createLocation(1));
+    trackPointsWriteBuffer.flush();
+    assertEquals(0, trackPointsWriteBuffer.getSize());
+
+    trackPointsWriteBuffer.add(createLocation(2));
+    trackPointsWriteBuffer.flush();
+
+    long firstId = trackPointsWriteBuffer.getFirstTrackPointId();
+    long lastId = trackPointsWriteBuffer.getLastTrackPointId();
+    assertEquals(firstId + 2, lastId);
+    assertEquals(firstId, myTracksProviderUtils.getFirstTrackPointId(trackId));
+    assertEquals(lastId, myTracksProviderUtils.getLastTrackPointId(trackId));
+    assertEquals(3, trackPointsWriteBuffer.getNumberOfValidPoints());
+  }
+
+  /**
+   * Tests the track points dropped by a failed write are not counted.
+   */
+  @UsesMocks(MyTracksProviderUtils.class)
+  public void testFlush_failed() {
+    MyTracksProviderUtils failingProviderUtils = AndroidMock.createMock(
+        MyTracksProviderUtils.class);
+    AndroidMock.expect(failingProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), AndroidMock.eq(2), AndroidMock.eq(trackId),
+        (long[]) AndroidMock.anyObject(), (TrackPointSeries) AndroidMock.anyObject()))
+        .andThrow(new SQLiteException("busy"));
+    AndroidMock.replay(failingProviderUtils);
+
+    TrackPointsWriteBuffer failingBuffer = new TrackPointsWriteBuffer(
+        failingProviderUtils, trackId);
+    failingBuffer.add(createLocation(0));
+
+    // Invalid location
+    Location location = createLocation(1);
+    location.setLatitude(100.0);
+    failingBuffer.add(location);
+    assertEquals(1, failingBuffer.getNumberOfValidPoints());
+
+    failingBuffer.flush();
+    assertEquals(0, failingBuffer.getSize());
+    assertEquals(0, failingBuffer.getNumberOfValidPoints());
+    assertEquals(-1L, failingBuffer.getLastTrackPointId());
+    AndroidMock.verify(failingProviderUtils);
+  }
+
+  /**
+   * Tests the derived values are written with the track points, and can be
+   * read from a track point id.
+   */
+  public void testAdd_series() {
+    TripStatisticsUpdater tripStatisticsUpdater = new TripStatisticsUpdater(1000L);
+    double[] distances = new double[3];
+    double[] grades = new double[3];
+    for (int i = 0; i < 3; i++) {
+      Location location = createLocation(i * 10);
+      tripStatisticsUpdater.addLocation(location, 0, false, ActivityType.INVALID, 0.0);
+      distances[i] = tripStatisticsUpdater.getTotalDistance();
+      grades[i] = tripStatisticsUpdater.getSmoothedGrade();
+      trackPointsWriteBuffer.add(location, tripStatisticsUpdater);
+    }
+    trackPointsWriteBuffer.add(createLocation(30));
+    trackPointsWriteBuffer.flush();
+
+    long firstId = trackPointsWriteBuffer.getFirstTrackPointId();
+    TrackPointSeries series = new TrackPointSeries(10);
+    assertEquals(3, myTracksProviderUtils.readTrackPointSeries(trackId, -1L, series));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(firstId + i, series.getId(i));
+      assertEquals(distances[i], series.getDistance(i), 0.01);
+      assertEquals(grades[i], series.getGrade(i), 0.01);
+    }
+    assertTrue(series.getDistance(2) > 0.0);
+    assertEquals(10000L, series.getTotalTime(1));
+
+    // Seek
+    assertEquals(1, myTracksProviderUtils.readTrackPointSeries(trackId, firstId + 2, series));
+    assertEquals(firstId + 2, series.getId(0));
+    assertEquals(0, series.indexOf(firstId + 2));
+
+    myTracksProviderUtils.deleteTrack(context, trackId);
+    assertEquals(0, myTracksProviderUtils.readTrackPointSeries(trackId, -1L, series));
+  }
+
+  /**
+   * Tests reading the track points doesn't flush the buffer.
+   */
+  public void testRead_notFlushed() {
+    trackPointsWriteBuffer.add(createLocation(0));
+
+    assertEquals(-1L, myTracksProviderUtils.getLastTrackPointId(trackId));
+    assertEquals(1, trackPointsWriteBuffer.getSize());
+  }
+
+  /**
+   * Creates a location.
+   *
+   * @param i the index of the location
+   */
+  private Location createLocation(int i) {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(37.0 + i / 10000.0);
+    location.setLongitude(-57.0 - i / 10000.0);
+    location.setTime(1000L + i * 1000L);
+    return location;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ColumnBuffer}.
+ */
+public class ColumnBufferTest extends TestCase {
+
+  private static final int NUM_VALUES = 200000;
+  private static final int MAX_IN_MEMORY = 1000;
+
+  private File spillDirectory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    spillDirectory = new File(System.getProperty("java.io.tmpdir"), "ColumnBufferTest");
+    spillDirectory.mkdirs();
+    deleteSpillFiles();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    deleteSpillFiles();
+    spillDirectory.delete();
+    super.tearDown();
+  }
+
+  /**
+   * Tests reading back ints, longs, and doubles kept in memory.
+   */
+  public void testInMemory() throws Exception {
+    ColumnBuffer columnBuffer = new ColumnBuffer(MAX_IN_MEMORY, null);
+    for (int i = 0; i < NUM_VALUES; i++) {
+      addValue(columnBuffer, i);
+    }
+    assertEquals(NUM_VALUES, columnBuffer.size());
+    assertTrue(columnBuffer.getCapacity() >= NUM_VALUES);
+    assertEquals(0, spillDirectory.list().length);
+    assertValues(columnBuffer, NUM_VALUES);
+  }
+
+  /**
+   * Tests the values past the max in memory are spilled, keeping the memory
+   * used flat, and read back in order.
+   */
+  public void testSpill() throws Exception {
+    ColumnBuffer columnBuffer = new ColumnBuffer(MAX_IN_MEMORY, spillDirectory);
+    for (int i = 0; i < NUM_VALUES; i++) {
+      addValue(columnBuffer, i);
+      assertTrue(columnBuffer.getCapacity() <= MAX_IN_MEMORY);
+    }
+    assertEquals(NUM_VALUES, columnBuffer.size());
+    assertEquals(1, spillDirectory.list().length);
+    assertValues(columnBuffer, NUM_VALUES);
+
+    columnBuffer.clear();
+    assertEquals(0, columnBuffer.size());
+    assertFalse(columnBuffer.hasNext());
+    assertEquals(0, spillDirectory.list().length);
+
+    // Reusable once cleared
+    for (int i = 0; i < 10; i++) {
+      addValue(columnBuffer, i);
+    }
+    assertValues(columnBuffer, 10);
+  }
+
+  /**
+   * Tests adding while reading fails.
+   */
+  public void testAddLong_reading() throws Exception {
+    ColumnBuffer columnBuffer = new ColumnBuffer(MAX_IN_MEMORY, null);
+    columnBuffer.addLong(1L);
+    columnBuffer.addLong(2L);
+    assertEquals(1L, columnBuffer.nextLong());
+    try {
+      columnBuffer.addLong(3L);
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests reading past the last value fails.
+   */
+  public void testNextLong_noSuchElement() throws Exception {
+    ColumnBuffer columnBuffer = new ColumnBuffer(MAX_IN_MEMORY, null);
+    assertFalse(columnBuffer.hasNext());
+    columnBuffer.addLong(1L);
+    assertTrue(columnBuffer.hasNext());
+    assertEquals(1L, columnBuffer.nextLong());
+    assertFalse(columnBuffer.hasNext());
+    try {
+      columnBuffer.nextLong();
+      fail("Expected NoSuchElementException");
+    } catch (NoSuchElementException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Adds an int, a long, or a double, depending on the index.
+   *
+   * @param columnBuffer the column buffer
+   * @param i the index
+   */
+  private void addValue(ColumnBuffer columnBuffer, int i) throws Exception {
+    switch (i % 3) {
+      case 0:
+        columnBuffer.addInt(-i);
+        break;
+      case 1:
+        columnBuffer.addLong(1400000000000L + i);
+        break;
+      default:
+        columnBuffer.addDouble(i * 0.1);
+        break;
+    }
+  }
+
+  /**
+   * Asserts the values read back are the values added by
+   * {@link #addValue(ColumnBuffer, int)}.
+   *
+   * @param columnBuffer the column buffer
+   * @param size the number of values
+   */
+  private void assertValues(ColumnBuffer columnBuffer, int size) throws Exception {
+    for (int i = 0; i < size; i++) {
+      assertTrue(columnBuffer.hasNext());
+      switch (i % 3) {
+        case 0:
+          assertEquals(-i, columnBuffer.nextInt());
+          break;
+        case 1:
+          assertEquals(1400000000000L + i, columnBuffer.nextLong());
+          break;
+        default:
+          assertEquals(i * 0.1, columnBuffer.nextDouble());
+          break;
+      }
+    }
+    assertFalse(columnBuffer.hasNext());
+  }
+
+  /**
+   * Deletes the spill files.
+   */
+  private void deleteSpillFiles() {
+    File[] files = spillDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests {@link CharBufferWriter} writes the same text as the JDK formatting.
+ */
+public class CharBufferWriterTest extends TestCase {
+
+  private static final int NUM_VALUES = 100000;
+
+  private StringWriter stringWriter;
+  private CharBufferWriter writer;
+  private Random random;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    stringWriter = new StringWriter();
+    writer = new CharBufferWriter(stringWriter);
+    random = new Random(1);
+  }
+
+  /**
+   * Tests printing strings longer than the buffer.
+   */
+  public void testPrint_string() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      builder.append("<value>").append(i).append("</value>");
+    }
+    String value = builder.toString();
+    writer.print(value);
+    writer.print('x');
+    writer.print((String) null);
+    assertEquals(value + "xnull", getText());
+  }
+
+  /**
+   * Tests printing ints and longs.
+   */
+  public void testPrint_long() {
+    long[] values = { 0L, 1L, -1L, 9L, 10L, -10L, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        Long.MAX_VALUE, Long.MIN_VALUE };
+    for (long value : values) {
+      assertEquals(Long.toString(value), getText(writer.print(value)));
+    }
+    for (int i = 0; i < NUM_VALUES; i++) {
+      long value = random.nextLong() >> random.nextInt(64);
+      assertEquals(Long.toString(value), getText(writer.print(value)));
+      assertEquals(Integer.toString((int) value), getText(writer.print((int) value)));
+    }
+  }
+
+  /**
+   * Tests printing doubles.
+   */
+  public void testPrint_double() {
+    double[] values = { 0.0, -0.0, 1.0, 1e-5, 1e7, 123456789.125, Double.NaN,
+        Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+    for (double value : values) {
+      assertEquals(Double.toString(value), getText(writer.print(value)));
+    }
+    for (int i = 0; i < NUM_VALUES; i++) {
+      double value = getRandomValue(i);
+      assertEquals(Double.toString(value), getText(writer.print(value)));
+    }
+  }
+
+  /**
+   * Tests printing doubles with the number formats of the track writers.
+   */
+  public void testPrint_numberFormat() {
+    NumberFormat coordinateFormat = NumberFormat.getInstance(Locale.US);
+    coordinateFormat.setMaximumFractionDigits(6);
+    coordinateFormat.setMaximumIntegerDigits(3);
+    coordinateFormat.setGroupingUsed(false);
+    NumberFormat elevationFormat = NumberFormat.getInstance(Locale.US);
+    elevationFormat.setMaximumFractionDigits(1);
+    elevationFormat.setGroupingUsed(false);
+    NumberFormat shortFormat = NumberFormat.getInstance(Locale.US);
+    shortFormat.setMaximumFractionDigits(4);
+
+    double[] values = { 0.0, -0.0, -1e-9, 0.05, -0.05, 0.25, 2.5, 999.95, 1000.25, 1234.5678,
+        -122.0840575, 1e12, Double.NaN };
+    for (double value : values) {
+      assertPrint(value, coordinateFormat, 6);
+      assertPrint(value, elevationFormat, 1);
+      assertPrint(value, shortFormat, 4);
+    }
+    for (int i = 0; i < NUM_VALUES; i++) {
+      double value = getRandomValue(i);
+      assertPrint(value, coordinateFormat, 6);
+      assertPrint(value, elevationFormat, 1);
+      assertPrint(value, shortFormat, 4);
+    }
+  }
+
+  /**
+   * Tests printing ISO 8601 timestamps.
+   */
+  public void testPrintIso8601() {
+    long[] times = { 0L, -1L, 951782400000L, 951868799999L, 1400000000123L,
+        -12212553600001L, -12212553600000L, 253402300799999L, 253402300800000L };
+    for (long time : times) {
+      assertEquals(StringUtils.formatDateTimeIso8601(time), getText(writer.printIso8601(time)));
+    }
+    for (int i = 0; i < NUM_VALUES; i++) {
+      long time = i % 2 == 0 ? (long) (random.nextDouble() * 4e12)
+          : random.nextLong() % 400000000000000L;
+      assertEquals(StringUtils.formatDateTimeIso8601(time), getText(writer.printIso8601(time)));
+    }
+  }
+
+  /**
+   * Gets a random value, alternating latitude, longitude, elevation, and speed
+   * like values, with and without rounding ties.
+   *
+   * @param i the index of the value
+   */
+  private double getRandomValue(int i) {
+    switch (i % 5) {
+      case 0:
+        return (random.nextDouble() - 0.5) * 360.0;
+      case 1:
+        return Math.round((random.nextDouble() - 0.5) * 360e7) / 1e7;
+      case 2:
+        return (random.nextDouble() - 0.2) * 9000.0;
+      case 3:
+        return Math.round(random.nextDouble() * 20000.0) / 20.0;
+      default:
+        return random.nextInt(3000) * 0.05 - 20.0;
+    }
+  }
+
+  /**
+   * Asserts printing a double with a number format matches the number format.
+   *
+   * @param value the double
+   * @param numberFormat the number format
+   * @param maxFractionDigits the max fraction digits of the number format
+   */
+  private void assertPrint(double value, NumberFormat numberFormat, int maxFractionDigits) {
+    assertEquals(numberFormat.format(value),
+        getText(writer.print(value, numberFormat, maxFractionDigits)));
+  }
+
+  /**
+   * Gets the text written since the last call and clears it.
+   *
+   * @param charBufferWriter the writer, for chaining
+   */
+  private String getText(CharBufferWriter charBufferWriter) {
+    charBufferWriter.flush();
+    String text = stringWriter.toString();
+    stringWriter.getBuffer().setLength(0);
+    return text;
+  }
+
+  /**
+   * Gets the text written since the last call and clears it.
+   */
+  private String getText() {
+    return getText(writer);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import android.location.Location;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HeadingLookup}.
+ */
+public class HeadingLookupTest extends TestCase {
+
+  private HeadingLookup headingLookup;
+  private Location target;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    headingLookup = new HeadingLookup();
+    target = createLocation(100);
+    target.setBearing(42.0f);
+  }
+
+  /**
+   * Tests the heading is the location bearing without track points.
+   */
+  public void testGetHeading_empty() {
+    assertEquals(42.0f, headingLookup.getHeading(target));
+  }
+
+  /**
+   * Tests the heading is from the first track point while not full.
+   */
+  public void testGetHeading_notFull() {
+    Location first = createLocation(0);
+    headingLookup.add(first);
+    headingLookup.add(createLocation(1));
+    assertEquals(first.bearingTo(target), headingLookup.getHeading(target));
+  }
+
+  /**
+   * Tests the heading is from the oldest of the most recent track points.
+   */
+  public void testGetHeading_full() {
+    for (int i = 0; i < HeadingLookup.SIZE + 5; i++) {
+      headingLookup.add(createLocation(i));
+    }
+    assertEquals(createLocation(5).bearingTo(target), headingLookup.getHeading(target));
+  }
+
+  /**
+   * Tests clearing removes the track points.
+   */
+  public void testClear() {
+    headingLookup.add(createLocation(0));
+    headingLookup.clear();
+    assertEquals(42.0f, headingLookup.getHeading(target));
+    Location location = createLocation(3);
+    headingLookup.add(location);
+    assertEquals(location.bearingTo(target), headingLookup.getHeading(target));
+  }
+
+  /**
+   * Creates a location along a curved path.
+   *
+   * @param i the index of the location
+   */
+  private Location createLocation(int i) {
+    Location location = new Location("mock");
+    location.setLatitude(37.0 + i * 0.001);
+    location.setLongitude(-122.0 + i * i * 0.0001);
+    return location;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares the KML export time of a track with photo markers, whose headings
+ * are looked up from the track points, to the same track with plain markers.
+ */
+public class KmlTrackExportTimeTest extends AndroidTestCase {
+
+  private static final String TAG = KmlTrackExportTimeTest.class.getSimpleName();
+
+  private static final int NUM_POINTS = 2000;
+  private static final int NUM_MARKERS = 100;
+  private static final long START_TIME = 1400000000000L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider myTracksProvider = new MyTracksProvider();
+    myTracksProvider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, myTracksProvider);
+    setContext(context);
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+  }
+
+  public void testExportTime() {
+    Track plainTrack = insertTrack(false);
+    Track photoTrack = insertTrack(true);
+
+    // Warms up
+    exportTrack(plainTrack);
+
+    long plainTime = exportTrack(plainTrack);
+    long photoTime = exportTrack(photoTrack);
+    Log.i(TAG, "Exported " + NUM_POINTS + " points and " + NUM_MARKERS + " markers in "
+        + plainTime / 1000000 + " ms, with photo markers in " + photoTime / 1000000 + " ms.");
+  }
+
+  /**
+   * Exports a track as KML. Returns the export time in nanoseconds.
+   *
+   * @param track the track
+   */
+  private long exportTrack(Track track) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    FileTrackExporter fileTrackExporter = new FileTrackExporter(myTracksProviderUtils,
+        new Track[] { track }, new KmlTrackWriter(getContext(), false, false), null);
+    long start = System.nanoTime();
+    assertTrue(fileTrackExporter.writeTrack(outputStream));
+    long time = System.nanoTime() - start;
+    assertTrue(outputStream.size() > 0);
+    return time;
+  }
+
+  /**
+   * Inserts a track with markers.
+   *
+   * @param hasPhotos true if the markers have photos
+   */
+  private Track insertTrack(boolean hasPhotos) {
+    Track track = new Track();
+    track.setName("Track");
+    track.setNumberOfPoints(NUM_POINTS);
+    track.getTripStatistics().setStartTime(START_TIME);
+    Uri uri = myTracksProviderUtils.insertTrack(track);
+    long trackId = Long.parseLong(uri.getLastPathSegment());
+    track.setId(trackId);
+
+    Location[] locations = new Location[NUM_POINTS];
+    for (int i = 0; i < NUM_POINTS; i++) {
+      Location location = new Location(LocationManager.GPS_PROVIDER);
+      location.setLatitude(37.0 + i * 0.0001);
+      location.setLongitude(-122.0 + Math.sin(i / 50.0) * 0.001);
+      location.setAltitude(30.0);
+      location.setTime(START_TIME + i * 1000L);
+      locations[i] = location;
+    }
+    myTracksProviderUtils.bulkInsertTrackPoint(locations, NUM_POINTS, trackId);
+
+    // The first marker holds the track statistics and isn't exported
+    for (int i = 0; i <= NUM_MARKERS; i++) {
+      Waypoint waypoint = new Waypoint();
+      waypoint.setName("Marker " + i);
+      waypoint.setTrackId(trackId);
+      waypoint.setType(i == 0 ? WaypointType.STATISTICS : WaypointType.WAYPOINT);
+      waypoint.setLocation(locations[i * (NUM_POINTS - 1) / NUM_MARKERS]);
+      if (hasPhotos && i != 0) {
+        waypoint.setPhotoUrl("content://media/external/images/media/" + i);
+      }
+      myTracksProviderUtils.insertWaypoint(waypoint);
+    }
+    return track;
+  }
+}
@@ -86,6 +86,26 @@ public class KmlTrackWriterTest extends TrackWriterTest {
     assertTagHasPoints(trackTags.get(1), location3, location4);
   }
 
+  /**
+   * Tests the photo overlay heading is looked up from the track points written
+   * up to the photo.
+   */
+  public void testPhotoOverlay_heading() throws Exception {
+    wp2.setPhotoUrl("content://media/external/images/media/1");
+    KmlTrackWriter kmlTrackWriter = new KmlTrackWriter(
+        getContext(), false, false, new FakeDescriptionGenerator());
+    Document doc = parseXmlDocument(writeTrack(kmlTrackWriter));
+    Element docTag = getChildElement(getChildElement(doc, "kml"), "Document");
+
+    Element folderTag = getChildElement(docTag, "Folder");
+    getChildElements(folderTag, "Placemark", 1);
+    Element photoOverlayTag = getChildElement(folderTag, "PhotoOverlay");
+    assertEquals(WAYPOINT2_NAME, getChildTextValue(photoOverlayTag, "name"));
+    Element cameraTag = getChildElement(photoOverlayTag, "Camera");
+    assertEquals(location1.bearingTo(location3),
+        Float.parseFloat(getChildTextValue(cameraTag, "heading")));
+  }
+
   /**
    * Asserts that the given tag is a placemark with the given properties.
    *
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reports the KMZ export time of a track with 200 photos, preparing photos
+ * ahead for one worker and for the whole pool of workers, and checks the
+ * photos are stored in order.
+ */
+public class KmzTrackExportTimeTest extends AndroidTestCase {
+
+  private static final String TAG = KmzTrackExportTimeTest.class.getSimpleName();
+
+  private static final int NUM_PHOTOS = 200;
+  private static final int PHOTO_WIDTH = 1024;
+  private static final int PHOTO_HEIGHT = 768;
+
+  // Small enough for all the photos to be downscaled
+  private static final long PHOTO_SIZE = 16;
+
+  private static final long START_TIME = 1400000000000L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private final List<File> photos = new ArrayList<File>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider myTracksProvider = new MyTracksProvider();
+    myTracksProvider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, myTracksProvider);
+    setContext(context);
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File photo : photos) {
+      photo.delete();
+    }
+    super.tearDown();
+  }
+
+  public void testExportTime() throws IOException {
+    Track track = insertTrack();
+
+    // Warms up
+    exportTrack(track, 1);
+
+    long serialTime = exportTrack(track, 1);
+    long parallelTime = exportTrack(track, KmzTrackExporter.MAX_WORKERS);
+    Log.i(TAG, "Exported " + NUM_PHOTOS + " photos in " + serialTime / 1000000
+        + " ms with 1 worker, in " + parallelTime / 1000000 + " ms with "
+        + KmzTrackExporter.MAX_WORKERS + " workers.");
+  }
+
+  /**
+   * Exports a track as KMZ and checks its entries. Returns the export time in
+   * nanoseconds.
+   *
+   * @param track the track
+   * @param numWorkers the number of workers
+   */
+  private long exportTrack(Track track, int numWorkers) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Track[] tracks = new Track[] { track };
+    FileTrackExporter fileTrackExporter = new FileTrackExporter(
+        myTracksProviderUtils, tracks, new KmlTrackWriter(getContext(), false, false), null);
+    KmzTrackExporter kmzTrackExporter = new KmzTrackExporter(
+        myTracksProviderUtils, fileTrackExporter, tracks, PHOTO_SIZE, numWorkers);
+    long start = System.nanoTime();
+    assertTrue(kmzTrackExporter.writeTrack(outputStream));
+    long time = System.nanoTime() - start;
+
+    ZipInputStream zipInputStream = new ZipInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+    try {
+      ZipEntry zipEntry = zipInputStream.getNextEntry();
+      assertEquals(KmzTrackExporter.KMZ_KML_FILE, zipEntry.getName());
+      for (File photo : photos) {
+        zipEntry = zipInputStream.getNextEntry();
+        assertEquals(
+            KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar + photo.getName(),
+            zipEntry.getName());
+        assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+        assertTrue(zipEntry.getSize() < photo.length());
+      }
+      assertNull(zipInputStream.getNextEntry());
+    } finally {
+      zipInputStream.close();
+    }
+    return time;
+  }
+
+  /**
+   * Inserts a track with a photo marker per photo.
+   */
+  private Track insertTrack() throws IOException {
+    Track track = new Track();
+    track.setName("Track");
+    track.setNumberOfPoints(NUM_PHOTOS);
+    track.getTripStatistics().setStartTime(START_TIME);
+    Uri uri = myTracksProviderUtils.insertTrack(track);
+    long trackId = Long.parseLong(uri.getLastPathSegment());
+    track.setId(trackId);
+
+    Location[] locations = new Location[NUM_PHOTOS];
+    for (int i = 0; i < NUM_PHOTOS; i++) {
+      Location location = new Location(LocationManager.GPS_PROVIDER);
+      location.setLatitude(37.0 + i * 0.0001);
+      location.setLongitude(-122.0);
+      location.setAltitude(30.0);
+      location.setTime(START_TIME + i * 1000L);
+      locations[i] = location;
+    }
+    myTracksProviderUtils.bulkInsertTrackPoint(locations, NUM_PHOTOS, trackId);
+
+    // The first marker holds the track statistics and isn't exported
+    for (int i = 0; i <= NUM_PHOTOS; i++) {
+      Waypoint waypoint = new Waypoint();
+      waypoint.setName("Marker " + i);
+      waypoint.setTrackId(trackId);
+      waypoint.setType(i == 0 ? WaypointType.STATISTICS : WaypointType.WAYPOINT);
+      waypoint.setLocation(locations[Math.max(i - 1, 0)]);
+      if (i != 0) {
+        File photo = createPhoto(i);
+        photos.add(photo);
+        waypoint.setPhotoUrl(Uri.fromFile(photo).toString());
+      }
+      myTracksProviderUtils.insertWaypoint(waypoint);
+    }
+    return track;
+  }
+
+  /**
+   * Creates a JPEG photo in the cache directory.
+   *
+   * @param index the photo index
+   */
+  private File createPhoto(int index) throws IOException {
+    int[] pixels = new int[PHOTO_WIDTH * PHOTO_HEIGHT];
+    for (int y = 0; y < PHOTO_HEIGHT; y++) {
+      for (int x = 0; x < PHOTO_WIDTH; x++) {
+        pixels[y * PHOTO_WIDTH + x] = Color.rgb(
+            (x * index) & 0xff, (y + index) & 0xff, (x ^ y) & 0xff);
+      }
+    }
+    Bitmap bitmap = Bitmap.createBitmap(
+        pixels, PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+    File file = new File(getContext().getCacheDir(), "photo" + index + ".jpg");
+    FileOutputStream fileOutputStream = new FileOutputStream(file);
+    try {
+      bitmap.compress(Bitmap.CompressFormat.JPEG, 90, fileOutputStream);
+    } finally {
+      fileOutputStream.close();
+      bitmap.recycle();
+    }
+    return file;
+  }
+}
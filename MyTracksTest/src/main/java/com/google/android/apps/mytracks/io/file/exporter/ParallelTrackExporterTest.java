@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TracksColumns;
+import com.google.android.apps.mytracks.io.file.exporter.FileTrackExporter.TrackPointSource;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ParallelTrackExporter}.
+ */
+public class ParallelTrackExporterTest extends AndroidTestCase {
+
+  private static final int NUM_TRACKS = 6;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider myTracksProvider = new MyTracksProvider();
+    myTracksProvider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, myTracksProvider);
+    setContext(context);
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    // Tracks from empty to several batches of track points
+    for (int i = 0; i < NUM_TRACKS; i++) {
+      insertTrack(i * MyTracksProviderUtils.TRACK_POINTS_BATCH_SIZE / 2 + i);
+    }
+  }
+
+  /**
+   * Tests each track is saved once with all its track points in order.
+   */
+  public void testExportTracks() throws Exception {
+    final Map<Long, Integer> counts = new ConcurrentHashMap<Long, Integer>();
+    final AtomicInteger progress = new AtomicInteger();
+    ParallelTrackExporter parallelTrackExporter = new ParallelTrackExporter(
+        myTracksProviderUtils, new ParallelTrackExporter.TrackSaver() {
+
+            @Override
+          public boolean saveTrack(Track track, TrackPointSource trackPointSource) {
+            int count = 0;
+            long lastTime = -1L;
+            LocationIterator locationIterator = trackPointSource.getLocationIterator(
+                track, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+            while (locationIterator.hasNext()) {
+              Location location = locationIterator.next();
+              assertTrue(location.getTime() > lastTime);
+              lastTime = location.getTime();
+              count++;
+            }
+            locationIterator.close();
+            assertNull(counts.put(track.getId(), count));
+            return true;
+          }
+        }, new TrackExporterListener() {
+
+            @Override
+          public void onProgressUpdate(int number, int max) {
+            assertEquals(NUM_TRACKS, max);
+            progress.incrementAndGet();
+          }
+        }, 2);
+
+    assertEquals(NUM_TRACKS, exportTracks(parallelTrackExporter));
+    assertEquals(NUM_TRACKS, progress.get());
+    assertEquals(NUM_TRACKS, counts.size());
+    for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+      assertEquals(myTracksProviderUtils.getTrack(entry.getKey()).getNumberOfPoints(),
+          entry.getValue().intValue());
+    }
+  }
+
+  /**
+   * Tests a worker failing to save a track, without reading its track points,
+   * doesn't block the reader.
+   */
+  public void testExportTracks_failure() throws Exception {
+    ParallelTrackExporter parallelTrackExporter = new ParallelTrackExporter(
+        myTracksProviderUtils, new ParallelTrackExporter.TrackSaver() {
+
+            @Override
+          public boolean saveTrack(Track track, TrackPointSource trackPointSource) {
+            return false;
+          }
+        }, null, 1);
+    assertEquals(0, exportTracks(parallelTrackExporter));
+  }
+
+  /**
+   * Tests interrupting the calling thread cancels the export.
+   */
+  public void testExportTracks_interrupted() throws Exception {
+    ParallelTrackExporter parallelTrackExporter = new ParallelTrackExporter(
+        myTracksProviderUtils, new ParallelTrackExporter.TrackSaver() {
+
+            @Override
+          public boolean saveTrack(Track track, TrackPointSource trackPointSource) {
+            return true;
+          }
+        }, null, 2);
+    Thread.currentThread().interrupt();
+    try {
+      exportTracks(parallelTrackExporter);
+      fail("Expected InterruptedException");
+    } catch (InterruptedException e) {
+      assertEquals(0, parallelTrackExporter.getSuccessCount());
+    }
+  }
+
+  /**
+   * Tests interrupting the calling thread during the export waits for the
+   * workers, so the success count no longer changes.
+   */
+  public void testExportTracks_interruptedWaitsForWorkers() throws Exception {
+    final Thread callingThread = Thread.currentThread();
+    final AtomicInteger started = new AtomicInteger();
+    final AtomicInteger saved = new AtomicInteger();
+    ParallelTrackExporter parallelTrackExporter = new ParallelTrackExporter(
+        myTracksProviderUtils, new ParallelTrackExporter.TrackSaver() {
+
+            @Override
+          public boolean saveTrack(Track track, TrackPointSource trackPointSource) {
+            if (started.incrementAndGet() == 1) {
+              callingThread.interrupt();
+            }
+            LocationIterator locationIterator = trackPointSource.getLocationIterator(
+                track, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+            while (locationIterator.hasNext()) {
+              locationIterator.next();
+            }
+            locationIterator.close();
+            saved.incrementAndGet();
+            return true;
+          }
+        }, null, 2);
+    try {
+      exportTracks(parallelTrackExporter);
+      fail("Expected InterruptedException");
+    } catch (InterruptedException e) {
+      assertEquals(started.get(), saved.get());
+      assertEquals(saved.get(), parallelTrackExporter.getSuccessCount());
+    }
+  }
+
+  /**
+   * Exports all the tracks.
+   *
+   * @param parallelTrackExporter the parallel track exporter
+   */
+  private int exportTracks(ParallelTrackExporter parallelTrackExporter)
+      throws InterruptedException {
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getTrackCursor(null, null, TracksColumns._ID);
+      return parallelTrackExporter.exportTracks(cursor);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Inserts a track.
+   *
+   * @param numPoints the number of track points
+   */
+  private void insertTrack(int numPoints) {
+    Track track = new Track();
+    track.setNumberOfPoints(numPoints);
+    Uri uri = myTracksProviderUtils.insertTrack(track);
+    long trackId = Long.parseLong(uri.getLastPathSegment());
+    for (int i = 0; i < numPoints; i++) {
+      Location location = new Location(LocationManager.GPS_PROVIDER);
+      location.setLatitude(37.0 + i * 0.0001);
+      location.setLongitude(-57.0);
+      location.setTime(1000L + i * 1000L);
+      myTracksProviderUtils.insertTrackPoint(location, trackId);
+    }
+  }
+}
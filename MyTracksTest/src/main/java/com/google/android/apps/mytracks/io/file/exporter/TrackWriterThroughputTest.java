@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.io.file.TrackFileFormat;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Measures the throughput, in track points per second, of the
+ * {@link TrackWriter} of each {@link TrackFileFormat}.
+ */
+public class TrackWriterThroughputTest extends AndroidTestCase {
+
+  private static final String TAG = TrackWriterThroughputTest.class.getSimpleName();
+
+  private static final int NUM_POINTS = 20000;
+
+  // The locations written in turn
+  private static final int NUM_LOCATIONS = 100;
+
+  private Track track;
+  private MyTracksLocation[] locations;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    track = new Track();
+    track.setName("Track");
+    track.setCategory("Running");
+    track.setDescription("Description");
+
+    locations = new MyTracksLocation[NUM_LOCATIONS];
+    for (int i = 0; i < NUM_LOCATIONS; i++) {
+      MyTracksLocation location = new MyTracksLocation("mock");
+      location.setLatitude(37.4219999 + i * 0.0000137);
+      location.setLongitude(-122.0840575 - i * 0.0000211);
+      location.setAltitude(30.0 + i * 0.37);
+      location.setBearing(i * 3.6f);
+      location.setAccuracy(3.0f + i % 7);
+      location.setSpeed(2.5f + i % 5 * 0.13f);
+      location.setTime(1400000000000L + i * 1000L);
+      Sensor.SensorData.Builder heartRate = Sensor.SensorData.newBuilder().setValue(120 + i % 40)
+          .setState(Sensor.SensorState.SENDING);
+      location.setSensorDataSet(Sensor.SensorDataSet.newBuilder().setHeartRate(heartRate).build());
+      locations[i] = location;
+    }
+  }
+
+  public void testThroughput_csv() {
+    measureThroughput(TrackFileFormat.CSV);
+  }
+
+  public void testThroughput_gpx() {
+    measureThroughput(TrackFileFormat.GPX);
+  }
+
+  public void testThroughput_kml() {
+    measureThroughput(TrackFileFormat.KML);
+  }
+
+  public void testThroughput_tcx() {
+    measureThroughput(TrackFileFormat.TCX);
+  }
+
+  /**
+   * Writes {@link #NUM_POINTS} track points with the track writer of a format
+   * and logs the throughput.
+   *
+   * @param trackFileFormat the track file format
+   */
+  private void measureThroughput(TrackFileFormat trackFileFormat) {
+    TrackWriter trackWriter = trackFileFormat.newTrackWriter(getContext(), false, true);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(NUM_POINTS * 256);
+    trackWriter.prepare(outputStream);
+    trackWriter.writeHeader(new Track[] { track });
+    trackWriter.writeBeginTracks();
+    trackWriter.writeBeginTrack(track, locations[0]);
+    trackWriter.writeOpenSegment();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_POINTS; i++) {
+      trackWriter.writeLocation(locations[i % NUM_LOCATIONS]);
+    }
+    long time = System.nanoTime() - start;
+
+    trackWriter.writeCloseSegment();
+    trackWriter.writeEndTrack(track, locations[NUM_LOCATIONS - 1]);
+    trackWriter.writeEndTracks();
+    trackWriter.writeFooter();
+    trackWriter.close();
+
+    Log.i(TAG, trackFileFormat + ": wrote " + NUM_POINTS + " points, " + outputStream.size()
+        + " bytes, in " + time / 1000000L + " ms, " + (long) (NUM_POINTS * 1e9 / time)
+        + " points/s.");
+    assertTrue(outputStream.size() > NUM_POINTS * 40);
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.android.testing.mocking.AndroidMock.expect;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.Factory;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointSeries;
 import com.google.android.apps.mytracks.content.TracksColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.WaypointsColumns;
@@ -40,6 +41,8 @@ import java.util.Locale;
 import java.util.SimpleTimeZone;
 
 import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 
 /**
  * Abstract class for testing file track importers.
@@ -128,11 +131,24 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
    * @param trackPointId the track point id
    */
   protected void expectFirstTrackPoint(Location location, long trackId, long trackPointId) {
+    expectTrackPoints(location, 1, trackId, trackPointId);
+  }
+
+  /**
+   * Expects track points to be added with their derived values.
+   * 
+   * @param location the first location, null for any
+   * @param length the number of track points
+   * @param trackId the track id
+   * @param firstTrackPointId the id of the first track point
+   */
+  protected void expectTrackPoints(
+      Location location, int length, long trackId, long firstTrackPointId) {
     expect(myTracksProviderUtils.bulkInsertTrackPoint(
         location != null ? LocationsMatcher.eqLoc(location) : (Location[]) AndroidMock.anyObject(),
-        eq(1), eq(trackId))).andReturn(1);
-    expect(myTracksProviderUtils.getFirstTrackPointId(trackId)).andReturn(trackPointId);
-    expect(myTracksProviderUtils.getLastTrackPointId(trackId)).andReturn(trackPointId);
+        eq(length), eq(trackId), (long[]) AndroidMock.anyObject(),
+        (TrackPointSeries) AndroidMock.anyObject()))
+        .andAnswer(new TrackPointIdsAnswer(firstTrackPointId));
   }
 
   /**
@@ -160,5 +176,28 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
     }
     assertNotSame(-1, track.getStartId());
     assertNotSame(-1, track.getStopId());
-  }  
+  }
+
+  /**
+   * Answers a bulk insert of track points with consecutive track point ids.
+   */
+  protected static class TrackPointIdsAnswer implements IAnswer<Integer> {
+
+    private final long firstTrackPointId;
+
+    public TrackPointIdsAnswer(long firstTrackPointId) {
+      this.firstTrackPointId = firstTrackPointId;
+    }
+
+    @Override
+    public Integer answer() throws Throwable {
+      Object[] arguments = EasyMock.getCurrentArguments();
+      int length = (Integer) arguments[1];
+      long[] trackPointIds = (long[]) arguments[3];
+      for (int i = 0; i < length; i++) {
+        trackPointIds[i] = firstTrackPointId + i;
+      }
+      return length;
+    }
+  }
 }
@@ -20,6 +20,7 @@ import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointSeries;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.android.testing.mocking.AndroidMock;
@@ -95,9 +96,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
+    expectTrackPoints(location1, 1, TRACK_ID_0, TRACK_POINT_ID_1);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -105,9 +104,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-        getContext(), myTracksProviderUtils);
-    long trackId = gpxFileTrackImporter.importFile(inputStream);
+    long trackId = createTrackImporter().importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
 
     long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
@@ -129,9 +126,10 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
         .andReturn(TRACK_ID_0_URI);
     expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint((Location[]) AndroidMock.anyObject(),
+        eq(5), eq(TRACK_ID_0), (long[]) AndroidMock.anyObject(),
+        (TrackPointSeries) AndroidMock.anyObject()))
+        .andStubAnswer(new TrackPointIdsAnswer(TRACK_POINT_ID_1));
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -139,9 +137,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_TWO_SEGMENTS_GPX.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-        getContext(), myTracksProviderUtils);
-    long trackId = gpxFileTrackImporter.importFile(inputStream);
+    long trackId = createTrackImporter().importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
 
     long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
@@ -167,9 +163,10 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     expectFirstTrackPoint(null, TRACK_ID_0, TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint((Location[]) AndroidMock.anyObject(),
+        eq(5), eq(TRACK_ID_0), (long[]) AndroidMock.anyObject(),
+        (TrackPointSeries) AndroidMock.anyObject()))
+        .andStubAnswer(new TrackPointIdsAnswer(TRACK_POINT_ID_1));
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -178,9 +175,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     InputStream inputStream = new ByteArrayInputStream(
         VALID_ONE_TRACK_TWO_SEGMENTS_NO_TIME_GPX.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-        getContext(), myTracksProviderUtils);
-    long trackId = gpxFileTrackImporter.importFile(inputStream);
+    long trackId = createTrackImporter().importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
     assertEquals(0, track.getValue().getTripStatistics().getTotalTime());
 
@@ -236,11 +231,10 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     // For the following, use StubReturn since we don't care whether they are
     // invoked or not.
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), AndroidMock.anyInt(), AndroidMock.anyLong()))
-        .andStubReturn(1);
-    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint((Location[]) AndroidMock.anyObject(),
+        AndroidMock.anyInt(), AndroidMock.anyLong(), (long[]) AndroidMock.anyObject(),
+        (TrackPointSeries) AndroidMock.anyObject()))
+        .andStubAnswer(new TrackPointIdsAnswer(TRACK_POINT_ID_0));
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -248,10 +242,15 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(xml.getBytes());
-    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
-          getContext(), myTracksProviderUtils);
-    long trackId = gpxFileTrackImporter.importFile(inputStream);
+    long trackId = createTrackImporter().importFile(inputStream);
     assertEquals(-1L, trackId);
     AndroidMock.verify(myTracksProviderUtils);
   }
+
+  /**
+   * Creates the track importer to test.
+   */
+  protected TrackImporter createTrackImporter() {
+    return new GpxFileTrackImporter(getContext(), myTracksProviderUtils);
+  }
 }
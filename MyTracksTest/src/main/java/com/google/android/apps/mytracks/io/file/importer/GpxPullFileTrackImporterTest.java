@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+/**
+ * Tests for {@link GpxPullFileTrackImporter}. Runs the tests of
+ * {@link GpxFileTrackImporterTest}, the pull importer must import the same
+ * tracks as the SAX importer.
+ */
+public class GpxPullFileTrackImporterTest extends GpxFileTrackImporterTest {
+
+  @Override
+  protected TrackImporter createTrackImporter() {
+    return new GpxPullFileTrackImporter(getContext(), myTracksProviderUtils);
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.io.file.exporter.KmzTrackExporter;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import android.content.Context;
+import android.location.Location;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the import rate of the SAX importers and the pull importers, and of
+ * the buffered and streaming KMZ imports, and checks they import the same track
+ * points.
+ */
+public class ImportRateTest extends AndroidTestCase {
+
+  private static final String TAG = ImportRateTest.class.getSimpleName();
+
+  private static final int NUM_POINTS = 20000;
+  private static final long START_TIME = 1400000000000L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider myTracksProvider = new MyTracksProvider();
+    myTracksProvider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, myTracksProvider);
+    setContext(context);
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+  }
+
+  public void testGpxImportRate() {
+    byte[] gpx = createGpx();
+    long saxTrackId = importFile(
+        "GPX SAX", new GpxFileTrackImporter(getContext(), myTracksProviderUtils), gpx);
+    long pullTrackId = importFile(
+        "GPX pull", new GpxPullFileTrackImporter(getContext(), myTracksProviderUtils), gpx);
+    assertSameTrackPoints(saxTrackId, pullTrackId);
+  }
+
+  public void testKmlImportRate() {
+    byte[] kml = createKml();
+    long saxTrackId = importFile(
+        "KML SAX", new KmlFileTrackImporter(getContext(), -1L, myTracksProviderUtils), kml);
+    long pullTrackId = importFile(
+        "KML pull", new KmlPullFileTrackImporter(getContext(), -1L, myTracksProviderUtils), kml);
+    assertSameTrackPoints(saxTrackId, pullTrackId);
+  }
+
+  public void testKmzImportRate() throws IOException {
+    byte[] kmz = createKmz(createKml());
+
+    // Buffers the kml entry before parsing it, as the KMZ import used to
+    long start = System.nanoTime();
+    byte[] kml = readKmlEntry(kmz);
+    long bufferedTrackId = importFile("KMZ buffered",
+        new KmlPullFileTrackImporter(getContext(), -1L, myTracksProviderUtils), kml);
+    Log.i(TAG, String.format(Locale.US, "KMZ buffered total %d ms, %d bytes buffered",
+        (System.nanoTime() - start) / 1000000, kml.length));
+
+    Uri uri = myTracksProviderUtils.insertTrack(new Track());
+    long streamingTrackId = Long.parseLong(uri.getLastPathSegment());
+    long streamingImportTrackId = importFile("KMZ streaming",
+        new KmzTrackImporter(getContext(), streamingTrackId, myTracksProviderUtils), kmz);
+    assertEquals(streamingTrackId, streamingImportTrackId);
+    assertSameTrackPoints(bufferedTrackId, streamingTrackId);
+  }
+
+  /**
+   * Imports a file and logs the import rate. Returns the track id.
+   *
+   * @param name the name to log
+   * @param trackImporter the track importer
+   * @param bytes the file
+   */
+  private long importFile(String name, TrackImporter trackImporter, byte[] bytes) {
+    long start = System.nanoTime();
+    long trackId = trackImporter.importFile(new ByteArrayInputStream(bytes));
+    long time = System.nanoTime() - start;
+    assertTrue(trackId != -1L);
+    Log.i(TAG, String.format(Locale.US, "%s imported %d bytes in %d ms, %.2f MB/s", name,
+        bytes.length, time / 1000000, bytes.length * 1000.0 / time));
+    return trackId;
+  }
+
+  /**
+   * Asserts two tracks have the same track points.
+   *
+   * @param trackId1 the first track id
+   * @param trackId2 the second track id
+   */
+  private void assertSameTrackPoints(long trackId1, long trackId2) {
+    LocationIterator iterator1 = myTracksProviderUtils.getTrackPointLocationIterator(
+        trackId1, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    LocationIterator iterator2 = myTracksProviderUtils.getTrackPointLocationIterator(
+        trackId2, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      int count = 0;
+      while (iterator1.hasNext()) {
+        assertTrue(iterator2.hasNext());
+        Location location1 = iterator1.next();
+        Location location2 = iterator2.next();
+        assertEquals(location1.getTime(), location2.getTime());
+        assertEquals(location1.getLatitude(), location2.getLatitude());
+        assertEquals(location1.getLongitude(), location2.getLongitude());
+        assertEquals(location1.getAltitude(), location2.getAltitude());
+        assertEquals(location1.getSpeed(), location2.getSpeed());
+        assertEquals(location1.getBearing(), location2.getBearing());
+        count++;
+      }
+      assertFalse(iterator2.hasNext());
+      assertEquals(NUM_POINTS, count);
+    } finally {
+      iterator1.close();
+      iterator2.close();
+    }
+  }
+
+  private byte[] createGpx() {
+    StringBuilder builder = new StringBuilder(
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx><trk><name>Track</name><trkseg>\n");
+    for (int i = 0; i < NUM_POINTS; i++) {
+      builder.append("<trkpt lat=\"").append(getLatitude(i)).append("\" lon=\"")
+          .append(getLongitude(i)).append("\">\n<ele>").append(getAltitude(i))
+          .append("</ele>\n<time>").append(StringUtils.formatDateTimeIso8601(getTime(i)))
+          .append("</time>\n</trkpt>\n");
+    }
+    builder.append("</trkseg></trk></gpx>\n");
+    return builder.toString().getBytes();
+  }
+
+  private byte[] createKml() {
+    StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<kml xmlns:gx=\"http://www.google.com/kml/ext/2.2\"><Placemark><name>Track</name>"
+        + "<gx:MultiTrack><gx:Track>\n");
+    for (int i = 0; i < NUM_POINTS; i++) {
+      builder.append("<when>").append(StringUtils.formatDateTimeIso8601(getTime(i)))
+          .append("</when>\n");
+      builder.append("<gx:coord>").append(getLongitude(i)).append(' ').append(getLatitude(i))
+          .append(' ').append(getAltitude(i)).append("</gx:coord>\n");
+    }
+    builder.append("</gx:Track></gx:MultiTrack></Placemark></kml>\n");
+    return builder.toString().getBytes();
+  }
+
+  private byte[] createKmz(byte[] kml) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream);
+    zipOutputStream.putNextEntry(new ZipEntry(KmzTrackExporter.KMZ_KML_FILE));
+    zipOutputStream.write(kml);
+    zipOutputStream.closeEntry();
+    zipOutputStream.close();
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  private byte[] readKmlEntry(byte[] kmz) throws IOException {
+    ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(kmz));
+    try {
+      ZipEntry zipEntry;
+      while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+        if (zipEntry.getName().equals(KmzTrackExporter.KMZ_KML_FILE)) {
+          ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+          byte[] buffer = new byte[4096];
+          int count;
+          while ((count = zipInputStream.read(buffer)) != -1) {
+            byteArrayOutputStream.write(buffer, 0, count);
+          }
+          return byteArrayOutputStream.toByteArray();
+        }
+      }
+      fail("No " + KmzTrackExporter.KMZ_KML_FILE);
+      return null;
+    } finally {
+      zipInputStream.close();
+    }
+  }
+
+  private double getLatitude(int index) {
+    return 37.0 + index * 0.00001;
+  }
+
+  private double getLongitude(int index) {
+    return -122.0 + Math.sin(index / 50.0) * 0.001;
+  }
+
+  private double getAltitude(int index) {
+    return 30.0 + index % 100 * 0.1;
+  }
+
+  private long getTime(int index) {
+    return START_TIME + index * 1000L;
+  }
+}
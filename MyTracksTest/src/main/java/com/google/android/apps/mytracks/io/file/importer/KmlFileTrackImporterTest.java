@@ -20,6 +20,7 @@ import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointSeries;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.android.testing.mocking.AndroidMock;
@@ -78,9 +79,7 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
+    expectTrackPoints(location1, 1, TRACK_ID_0, TRACK_POINT_ID_1);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -88,9 +87,7 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
-    KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(
-        getContext(), TRACK_ID_0, myTracksProviderUtils);
-    long trackId = kmlFileTrackImporter.importFile(inputStream);
+    long trackId = createTrackImporter().importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
 
     long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
@@ -112,9 +109,10 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint((Location[]) AndroidMock.anyObject(),
+        eq(5), eq(TRACK_ID_0), (long[]) AndroidMock.anyObject(),
+        (TrackPointSeries) AndroidMock.anyObject()))
+        .andStubAnswer(new TrackPointIdsAnswer(TRACK_POINT_ID_1));
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -122,9 +120,7 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_TWO_SEGMENTS_GPX.getBytes());
-    KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(
-        getContext(), TRACK_ID_0, myTracksProviderUtils);
-    long trackId = kmlFileTrackImporter.importFile(inputStream);
+    long trackId = createTrackImporter().importFile(inputStream);
     assertEquals(TRACK_ID_0, trackId);
 
     long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
@@ -138,4 +134,11 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
         DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
   }
+
+  /**
+   * Creates the track importer to test.
+   */
+  protected TrackImporter createTrackImporter() {
+    return new KmlFileTrackImporter(getContext(), TRACK_ID_0, myTracksProviderUtils);
+  }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ParallelTrackImporter}.
+ */
+public class ParallelTrackImporterTest extends AndroidTestCase {
+
+  private static final int NUM_FILES = 6;
+  private static final long START_TIME = 1400000000000L;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private final List<File> files = new ArrayList<File>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider myTracksProvider = new MyTracksProvider();
+    myTracksProvider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, myTracksProvider);
+    setContext(context);
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    // Files from one track point to several transactions of track points
+    for (int i = 0; i < NUM_FILES; i++) {
+      files.add(createGpxFile(getNumPoints(i)));
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : files) {
+      file.delete();
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Tests the tracks are imported with all their track points, with the track
+   * ids in the order of the files.
+   */
+  public void testImportFiles() throws Exception {
+    final AtomicInteger progress = new AtomicInteger();
+    ParallelTrackImporter parallelTrackImporter = new ParallelTrackImporter(
+        myTracksProviderUtils, createFileImporter(), new ParallelTrackImporter.ImportListener() {
+
+            @Override
+          public void onProgressUpdate(int number, int max) {
+            assertEquals(NUM_FILES, max);
+            progress.incrementAndGet();
+          }
+        }, 2);
+
+    assertEquals(NUM_FILES, parallelTrackImporter.importFiles(files));
+    assertEquals(NUM_FILES, progress.get());
+
+    List<Track> tracks = myTracksProviderUtils.getAllTracks();
+    assertEquals(NUM_FILES, tracks.size());
+    long lastTrackId = -1L;
+    for (int i = 0; i < NUM_FILES; i++) {
+      Track track = tracks.get(i);
+      assertTrue(track.getId() > lastTrackId);
+      lastTrackId = track.getId();
+      assertEquals("Track " + i, track.getName());
+      assertEquals(getNumPoints(i), track.getNumberOfPoints());
+      assertEquals(getNumPoints(i), getTrackPointCount(track.getId()));
+    }
+    assertEquals(lastTrackId, parallelTrackImporter.getLastTrackId());
+  }
+
+  /**
+   * Tests a file failing to import is cleaned up, without affecting the other
+   * files.
+   */
+  public void testImportFiles_failure() throws Exception {
+    files.add(2, createFile("<gpx><trk><name>Invalid</name><trkseg>"
+        + "<trkpt lat=\"37.0\" lon=\"-122.0\"><time>invalid</time></trkpt>"
+        + "</trkseg></trk></gpx>"));
+    ParallelTrackImporter parallelTrackImporter = new ParallelTrackImporter(
+        myTracksProviderUtils, createFileImporter(), null, 2);
+
+    assertEquals(NUM_FILES, parallelTrackImporter.importFiles(files));
+    List<Track> tracks = myTracksProviderUtils.getAllTracks();
+    assertEquals(NUM_FILES, tracks.size());
+    for (int i = 0; i < NUM_FILES; i++) {
+      assertEquals("Track " + i, tracks.get(i).getName());
+      assertEquals(getNumPoints(i), getTrackPointCount(tracks.get(i).getId()));
+    }
+  }
+
+  /**
+   * Tests interrupting the calling thread cancels the import, leaving only
+   * complete tracks.
+   */
+  public void testImportFiles_interrupted() throws Exception {
+    ParallelTrackImporter parallelTrackImporter = new ParallelTrackImporter(
+        myTracksProviderUtils, createFileImporter(), null, 1);
+    Thread.currentThread().interrupt();
+    try {
+      parallelTrackImporter.importFiles(files);
+      fail("Expected InterruptedException");
+    } catch (InterruptedException e) {
+      List<Track> tracks = myTracksProviderUtils.getAllTracks();
+      assertEquals(parallelTrackImporter.getSuccessCount(), tracks.size());
+      for (int i = 0; i < tracks.size(); i++) {
+        assertEquals(getNumPoints(i), getTrackPointCount(tracks.get(i).getId()));
+      }
+    }
+  }
+
+  /**
+   * Creates a file importer importing GPX files.
+   */
+  private ParallelTrackImporter.FileImporter createFileImporter() {
+    return new ParallelTrackImporter.FileImporter() {
+
+        @Override
+      public long importFile(File file, MyTracksProviderUtils providerUtils) {
+        FileInputStream fileInputStream = null;
+        try {
+          fileInputStream = new FileInputStream(file);
+          return new GpxPullFileTrackImporter(getContext(), providerUtils).importFile(
+              fileInputStream);
+        } catch (FileNotFoundException e) {
+          fail(e.getMessage());
+          return -1L;
+        } finally {
+          if (fileInputStream != null) {
+            try {
+              fileInputStream.close();
+            } catch (IOException e) {
+              fail(e.getMessage());
+            }
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Gets the number of track points of a file.
+   *
+   * @param index the file index
+   */
+  private int getNumPoints(int index) {
+    return 1 + index * ParallelTrackImporter.MAX_TRANSACTION_POINTS / 2;
+  }
+
+  /**
+   * Gets the number of track points of a track in the database.
+   *
+   * @param trackId the track id
+   */
+  private int getTrackPointCount(long trackId) {
+    MyTracksProviderUtils.LocationIterator iterator = myTracksProviderUtils
+        .getTrackPointLocationIterator(
+            trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      int count = 0;
+      while (iterator.hasNext()) {
+        iterator.next();
+        count++;
+      }
+      return count;
+    } finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Creates a GPX file.
+   *
+   * @param numPoints the number of track points
+   */
+  private File createGpxFile(int numPoints) throws IOException {
+    StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<gpx><trk><name>Track " + files.size() + "</name><trkseg>\n");
+    for (int i = 0; i < numPoints; i++) {
+      builder.append("<trkpt lat=\"").append(37.0 + i * 0.00001).append("\" lon=\"-122.0\">")
+          .append("<time>").append(StringUtils.formatDateTimeIso8601(START_TIME + i * 1000L))
+          .append("</time></trkpt>\n");
+    }
+    builder.append("</trkseg></trk></gpx>\n");
+    return createFile(builder.toString());
+  }
+
+  /**
+   * Creates a file in the cache directory.
+   *
+   * @param content the file content
+   */
+  private File createFile(String content) throws IOException {
+    File file = File.createTempFile("import", ".gpx", getContext().getCacheDir());
+    FileOutputStream fileOutputStream = new FileOutputStream(file);
+    try {
+      fileOutputStream.write(content.getBytes("UTF-8"));
+    } finally {
+      fileOutputStream.close();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.apps.mytracks.util.UnitConversions;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests for the {@link LocationBuffer}.
+ */
+public class LocationBufferTest extends AndroidTestCase {
+
+  private LocationBuffer locationBuffer;
+  private LocationArray locations;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    locationBuffer = new LocationBuffer();
+    locations = new LocationArray();
+  }
+
+  /**
+   * Tests adding locations and segment splits.
+   */
+  public void testDrainTo() {
+    Location location = createLocation(0);
+    location.setSpeed(10f);
+    locationBuffer.add(location);
+    locationBuffer.add(createLocation(100));
+    locationBuffer.addSegmentSplit();
+
+    assertFalse(locationBuffer.drainTo(locations));
+    assertEquals(3, locations.size());
+    assertTrue(locations.isValid(0));
+    assertEquals(10.0 * UnitConversions.MS_TO_KMH, locations.getSpeed(0), 1e-6);
+    assertEquals(1.0, locations.getLongitude(1));
+    assertEquals(-1.0, locations.getSpeed(1));
+    assertFalse(locations.isValid(2));
+
+    // Drained entries are not drained again
+    assertFalse(locationBuffer.drainTo(locations));
+    assertEquals(3, locations.size());
+  }
+
+  /**
+   * Tests an invalid location is added as a segment split.
+   */
+  public void testDrainTo_invalid() {
+    Location location = createLocation(0);
+    location.setLatitude(100.0);
+    locationBuffer.add(location);
+
+    locationBuffer.drainTo(locations);
+    assertEquals(1, locations.size());
+    assertFalse(locations.isValid(0));
+  }
+
+  /**
+   * Tests no location is dropped when the locations don't fit in a chunk, and
+   * when the chunks are reused.
+   */
+  public void testDrainTo_chunks() {
+    int count = 0;
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < LocationBuffer.CHUNK_SIZE * 2 + 10; j++) {
+        locationBuffer.add(createLocation(count++));
+      }
+      locationBuffer.drainTo(locations);
+    }
+    assertEquals(count, locations.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(i * 0.01, locations.getLongitude(i), 1e-9);
+    }
+  }
+
+  /**
+   * Tests clearing and decimating apply to the locations added before.
+   */
+  public void testDrainTo_clearAndDecimate() {
+    locationBuffer.add(createLocation(0));
+    locationBuffer.clear();
+    for (int i = 1; i <= 5; i++) {
+      locationBuffer.add(createLocation(i));
+    }
+    locationBuffer.decimate();
+    locationBuffer.add(createLocation(6));
+
+    assertTrue(locationBuffer.drainTo(locations));
+    assertEquals(4, locations.size());
+    assertEquals(0.01, locations.getLongitude(0), 1e-9);
+    assertEquals(0.03, locations.getLongitude(1), 1e-9);
+    assertEquals(0.05, locations.getLongitude(2), 1e-9);
+    assertEquals(0.06, locations.getLongitude(3), 1e-9);
+  }
+
+  /**
+   * Tests a producer thread and a consumer thread.
+   */
+  public void testDrainTo_concurrent() throws Exception {
+    final int count = LocationBuffer.CHUNK_SIZE * 10;
+    Thread producer = new Thread() {
+        @Override
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          locationBuffer.add(createLocation(i));
+        }
+      }
+    };
+    producer.start();
+    while (producer.isAlive()) {
+      locationBuffer.drainTo(locations);
+    }
+    producer.join();
+    locationBuffer.drainTo(locations);
+
+    assertEquals(count, locations.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(i * 0.01, locations.getLongitude(i), 1e-9);
+    }
+  }
+
+  /**
+   * Creates a location with a longitude of one hundredth of an index.
+   *
+   * @param index the index
+   */
+  private Location createLocation(int index) {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(0.0);
+    location.setLongitude(index * 0.01);
+    return location;
+  }
+}
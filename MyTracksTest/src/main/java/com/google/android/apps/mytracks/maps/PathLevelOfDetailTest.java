@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.apps.mytracks.stats.TripStatistics;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for the {@link PathLevelOfDetail}.
+ */
+public class PathLevelOfDetailTest extends AndroidTestCase {
+
+  /**
+   * A track path breaking when the speed changes.
+   */
+  private static final TrackPath SPEED_TRACK_PATH = new TrackPath() {
+
+      @Override
+    public boolean updateState(TripStatistics tripStatistics) {
+      return false;
+    }
+
+      @Override
+    public void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
+        LocationArray locations) {}
+
+      @Override
+    public boolean hasBreak(LocationArray locations, int index) {
+      return locations.getSpeed(index - 1) != locations.getSpeed(index);
+    }
+  };
+
+  private PathLevelOfDetail pathLevelOfDetail;
+  private LocationArray locations;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    pathLevelOfDetail = new PathLevelOfDetail();
+    locations = new LocationArray();
+  }
+
+  /**
+   * Tests a location close to the path is removed at a low zoom and kept at a
+   * high zoom.
+   */
+  public void testGetLocations_zoom() {
+    for (int i = 0; i <= 10; i++) {
+      locations.add(i == 5 ? 0.05 : 0.0, i * 0.1, 0.0);
+    }
+
+    LocationArray result = pathLevelOfDetail.getLocations(
+        locations, SPEED_TRACK_PATH, 0f, null);
+    assertLocations(result, 0, 10);
+    assertEquals(10, pathLevelOfDetail.getLastIndex());
+
+    result = pathLevelOfDetail.getLocations(locations, SPEED_TRACK_PATH, 15f, null);
+    assertLocations(result, 0, 4, 5, 6, 10);
+    assertTrue(pathLevelOfDetail.getSignificance(5) <= PathLevelOfDetail.getTolerance(0f));
+    assertTrue(pathLevelOfDetail.getSignificance(5) > PathLevelOfDetail.getTolerance(15f));
+  }
+
+  /**
+   * Tests the locations at a color change are kept.
+   */
+  public void testGetLocations_break() {
+    for (int i = 0; i < 10; i++) {
+      locations.add(0.0, i * 0.1, i < 5 ? 1.0 : 2.0);
+    }
+
+    LocationArray result = pathLevelOfDetail.getLocations(
+        locations, SPEED_TRACK_PATH, 0f, null);
+    assertLocations(result, 0, 4, 5, 9);
+  }
+
+  /**
+   * Tests the segment splits are kept.
+   */
+  public void testGetLocations_segmentSplit() {
+    locations.add(0.0, 0.0, 0.0);
+    locations.add(0.0, 1.0, 0.0);
+    locations.addSegmentSplit();
+    locations.add(1.0, 0.0, 0.0);
+    locations.add(1.0, 1.0, 0.0);
+
+    LocationArray result = pathLevelOfDetail.getLocations(
+        locations, SPEED_TRACK_PATH, 0f, null);
+    assertEquals(5, result.size());
+    assertTrue(result.isValid(1));
+    assertFalse(result.isValid(2));
+    assertTrue(result.isValid(3));
+  }
+
+  /**
+   * Tests the segments outside the bounds are culled.
+   */
+  public void testGetLocations_cull() {
+    for (int i = 0; i < 10; i++) {
+      locations.add(i % 2 == 0 ? 0.0 : 0.5, i, 0.0);
+    }
+    LatLngBounds bounds = new LatLngBounds(new LatLng(-1.0, 1.5), new LatLng(1.0, 3.5));
+
+    LocationArray result = pathLevelOfDetail.getLocations(
+        locations, SPEED_TRACK_PATH, 10f, bounds);
+    assertLocations(result, 1, 2, 3, 4);
+    assertEquals(4, pathLevelOfDetail.getLastIndex());
+  }
+
+  /**
+   * Tests adding locations gives the same locations as simplifying all the
+   * locations at once.
+   */
+  public void testGetLocations_added() {
+    for (int i = 0; i < PathLevelOfDetail.MAX_RUN_SIZE + 100; i++) {
+      locations.add(Math.sin(i * 0.1), i * 0.01, 0.0);
+      if (i % 300 == 0) {
+        pathLevelOfDetail.getLocations(locations, SPEED_TRACK_PATH, 5f, null);
+      }
+    }
+
+    LocationArray result = pathLevelOfDetail.getLocations(
+        locations, SPEED_TRACK_PATH, 5f, null);
+    LocationArray expected = new PathLevelOfDetail().getLocations(
+        locations, SPEED_TRACK_PATH, 5f, null);
+    assertEquals(expected.size(), result.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getLongitude(i), result.getLongitude(i));
+    }
+  }
+
+  /**
+   * Tests the render bounds.
+   */
+  public void testGetRenderBounds() {
+    LatLngBounds bounds = PathLevelOfDetail.getRenderBounds(
+        new LatLngBounds(new LatLng(10.0, 20.0), new LatLng(12.0, 24.0)));
+    assertEquals(9.0, bounds.southwest.latitude, 1e-9);
+    assertEquals(18.0, bounds.southwest.longitude, 1e-9);
+    assertEquals(13.0, bounds.northeast.latitude, 1e-9);
+    assertEquals(26.0, bounds.northeast.longitude, 1e-9);
+
+    // Crossing the 180th meridian
+    assertNull(PathLevelOfDetail.getRenderBounds(
+        new LatLngBounds(new LatLng(10.0, 170.0), new LatLng(12.0, -170.0))));
+
+    // Empty
+    assertNull(PathLevelOfDetail.getRenderBounds(
+        new LatLngBounds(new LatLng(10.0, 20.0), new LatLng(10.0, 20.0))));
+  }
+
+  /**
+   * Asserts some locations are the test locations at some indexes, comparing
+   * their longitudes.
+   *
+   * @param result the locations
+   * @param indexes the indexes of the test locations
+   */
+  private void assertLocations(LocationArray result, int... indexes) {
+    assertEquals(indexes.length, result.size());
+    for (int i = 0; i < indexes.length; i++) {
+      assertEquals(locations.getLongitude(indexes[i]), result.getLongitude(i));
+    }
+  }
+}
@@ -506,6 +506,7 @@ public class TrackRecordingServiceTest extends ServiceTestCase<TestRecordingServ
     assertEquals(PreferencesUtils.RECORDING_TRACK_ID_DEFAULT,
         PreferencesUtils.getLong(context, R.string.recording_track_id_key));
     assertEquals(PreferencesUtils.RECORDING_TRACK_ID_DEFAULT, service.getRecordingTrackId());
+    assertEquals(0.0, service.getSavedTrackWritesPerHour());
   }
 
   @MediumTest
@@ -765,6 +766,9 @@ public class TrackRecordingServiceTest extends ServiceTestCase<TestRecordingServ
       }
     }
 
+    // The saved track writes are exposed while recording
+    assertTrue(service.getSavedTrackWritesPerHour() >= 0.0);
+
     // Stop the track. Validate if it has correct data.
     service.endCurrentTrack();
     assertFalse(service.isRecording());
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Tests {@link TrackRecordingSession}.
+ */
+public class TrackRecordingSessionTest extends AndroidTestCase {
+
+  private Context context;
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private Track track;
+  private TrackRecordingSession trackRecordingSession;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    track = new Track();
+    Uri uri = myTracksProviderUtils.insertTrack(track);
+    track.setId(Long.parseLong(uri.getLastPathSegment()));
+    trackRecordingSession = new TrackRecordingSession(myTracksProviderUtils, track);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    trackRecordingSession.close();
+    super.tearDown();
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#insertTrackPoint(Location)} keeps the
+   * track and the last valid track point in memory.
+   */
+  public void testInsertTrackPoint() {
+    assertFalse(trackRecordingSession.currentSegmentHasLocation());
+    assertNull(trackRecordingSession.getLastValidTrackPointInCurrentSegment());
+
+    Location first = createLocation(45.0, 1000L);
+    trackRecordingSession.insertTrackPoint(first);
+    Location second = createLocation(45.1, 2000L);
+    trackRecordingSession.insertTrackPoint(second);
+
+    assertTrue(trackRecordingSession.currentSegmentHasLocation());
+    assertSame(second, trackRecordingSession.getLastValidTrackPointInCurrentSegment());
+    assertEquals(2, track.getNumberOfPoints());
+    assertTrue(trackRecordingSession.hasPendingTrackPoints());
+
+    // Reading the track points flushes the buffered track points
+    long firstId = myTracksProviderUtils.getFirstTrackPointId(track.getId());
+    long secondId = myTracksProviderUtils.getLastTrackPointId(track.getId());
+    assertFalse(trackRecordingSession.hasPendingTrackPoints());
+    assertEquals(firstId + 1, secondId);
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#insertTrackPoint(Location)} with an
+   * invalid location, e.g., a pause marker.
+   */
+  public void testInsertTrackPoint_invalidLocation() {
+    Location location = createLocation(45.0, 1000L);
+    trackRecordingSession.insertTrackPoint(location);
+    trackRecordingSession.insertTrackPoint(
+        createLocation(TrackRecordingService.PAUSE_LATITUDE, 2000L));
+
+    assertSame(location, trackRecordingSession.getLastValidTrackPointInCurrentSegment());
+    assertEquals(1, track.getNumberOfPoints());
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#startSegment()}.
+   */
+  public void testStartSegment() {
+    trackRecordingSession.insertTrackPoint(createLocation(45.0, 1000L));
+    trackRecordingSession.startSegment();
+
+    assertFalse(trackRecordingSession.currentSegmentHasLocation());
+    assertNull(trackRecordingSession.getLastValidTrackPointInCurrentSegment());
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#flushTripStatistics()} writes the track
+   * statistics to the database without overwriting the track name.
+   */
+  public void testFlushTripStatistics() {
+    trackRecordingSession.insertTrackPoint(createLocation(45.0, 1000L));
+    trackRecordingSession.insertTrackPoint(createLocation(45.1, 2000L));
+    trackRecordingSession.flushTrackPoints();
+
+    Track editedTrack = myTracksProviderUtils.getTrack(track.getId());
+    editedTrack.setName("edited");
+    myTracksProviderUtils.updateTrack(editedTrack);
+
+    TripStatistics tripStatistics = new TripStatistics();
+    tripStatistics.setTotalDistance(100.0);
+    trackRecordingSession.updateTripStatistics(tripStatistics);
+    trackRecordingSession.flushTripStatistics();
+
+    Track result = myTracksProviderUtils.getTrack(track.getId());
+    assertEquals("edited", result.getName());
+    assertEquals(myTracksProviderUtils.getFirstTrackPointId(track.getId()), result.getStartId());
+    assertEquals(myTracksProviderUtils.getLastTrackPointId(track.getId()), result.getStopId());
+    assertEquals(2, result.getNumberOfPoints());
+    assertEquals(100.0, result.getTripStatistics().getTotalDistance());
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#updateTripStatistics(TripStatistics)}
+   * only updates the in-memory track within the statistics write interval.
+   */
+  public void testUpdateTripStatistics_throttled() {
+    for (int i = 1; i <= 3; i++) {
+      TripStatistics tripStatistics = new TripStatistics();
+      tripStatistics.setTotalDistance(i * 100.0);
+      trackRecordingSession.updateTripStatistics(tripStatistics);
+    }
+    assertEquals(300.0, track.getTripStatistics().getTotalDistance());
+    assertEquals(0.0, myTracksProviderUtils.getTrack(track.getId()).getTripStatistics()
+        .getTotalDistance());
+    assertEquals(3, trackRecordingSession.getStatisticsUpdateCount());
+    assertEquals(0, trackRecordingSession.getStatisticsWriteCount());
+
+    trackRecordingSession.flushTripStatistics();
+    assertEquals(300.0, myTracksProviderUtils.getTrack(track.getId()).getTripStatistics()
+        .getTotalDistance());
+    assertEquals(1, trackRecordingSession.getStatisticsWriteCount());
+
+    // Nothing to write
+    trackRecordingSession.flushTripStatistics();
+    assertEquals(1, trackRecordingSession.getStatisticsWriteCount());
+
+    // 2 saved writes in 30 minutes
+    assertEquals(4.0, trackRecordingSession.getSavedWritesPerHour(30 * 60 * 1000L));
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#updateTripStatistics(TripStatistics)}
+   * writes every update when the statistics write interval is 0.
+   */
+  public void testUpdateTripStatistics_noInterval() {
+    trackRecordingSession.close();
+    trackRecordingSession = new TrackRecordingSession(myTracksProviderUtils, track, 0L);
+
+    TripStatistics tripStatistics = new TripStatistics();
+    tripStatistics.setTotalDistance(100.0);
+    trackRecordingSession.updateTripStatistics(tripStatistics);
+    assertEquals(100.0, myTracksProviderUtils.getTrack(track.getId()).getTripStatistics()
+        .getTotalDistance());
+    assertEquals(1, trackRecordingSession.getStatisticsWriteCount());
+    assertEquals(0.0, trackRecordingSession.getSavedWritesPerHour(60 * 60 * 1000L));
+  }
+
+  /**
+   * Tests {@link TrackRecordingSession#close()} writes the track statistics.
+   */
+  public void testClose() {
+    TripStatistics tripStatistics = new TripStatistics();
+    tripStatistics.setTotalDistance(100.0);
+    trackRecordingSession.updateTripStatistics(tripStatistics);
+    trackRecordingSession.close();
+    assertEquals(100.0, myTracksProviderUtils.getTrack(track.getId()).getTripStatistics()
+        .getTotalDistance());
+  }
+
+  /**
+   * Creates a location.
+   *
+   * @param latitude the latitude
+   * @param time the time
+   */
+  private Location createLocation(double latitude, long time) {
+    Location location = new Location(LocationManager.GPS_PROVIDER);
+    location.setLatitude(latitude);
+    location.setLongitude(-122.0);
+    location.setTime(time);
+    return location;
+  }
+}
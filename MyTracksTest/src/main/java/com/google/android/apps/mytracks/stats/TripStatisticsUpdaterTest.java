@@ -78,6 +78,37 @@ public class TripStatisticsUpdaterTest extends TestCase {
     addLocations(5, startTime, tripStatistics, 15, 5);
   }
 
+  /**
+   * Tests adding a single reused location gives the same statistics as adding
+   * new locations.
+   */
+  public void testAddLocation_reusedLocation() {
+    long startTime = 1000;
+    TripStatisticsUpdater reusedUpdater = new TripStatisticsUpdater(startTime);
+    tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    Location reusedLocation = new Location("test");
+    for (int i = 0; i < 100; i++) {
+      // Moves for 50 locations, then waits
+      int position = Math.min(i, 50);
+      Location location = getLocation(
+          position, position * .001, i < 50 ? MOVING_SPEED : 0, startTime + i * TEN_SECONDS);
+      tripStatisticsUpdater.addLocation(location,
+          PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, ActivityType.WALKING,
+          DEFAULT_WEIGHT);
+      reusedLocation.set(location);
+      reusedUpdater.addLocation(reusedLocation,
+          PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, ActivityType.WALKING,
+          DEFAULT_WEIGHT);
+    }
+    TripStatistics expected = tripStatisticsUpdater.getTripStatistics();
+    TripStatistics actual = reusedUpdater.getTripStatistics();
+    assertTrue(expected.getTotalDistance() > 0.0);
+    assertEquals(expected.getTotalDistance(), actual.getTotalDistance());
+    assertEquals(expected.getMovingTime(), actual.getMovingTime());
+    assertEquals(expected.getMaxSpeed(), actual.getMaxSpeed());
+    assertEquals(expected.getCalorie(), actual.getCalorie());
+  }
+
   /**
    * Tests {@link TripStatisticsUpdater#updateElevation(double)} with constant
    * elevations.
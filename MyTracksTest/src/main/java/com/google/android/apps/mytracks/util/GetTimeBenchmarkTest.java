@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Measures the time per call, in nanoseconds, of
+ * {@link StringUtils#getTime(String)} and of
+ * {@link StringUtils#getTimeWithDateFormat(String)}, the path it falls back
+ * to. Runs warmup iterations before the measured iterations, and sums the
+ * parsed times so that the calls can't be optimized away.
+ */
+public class GetTimeBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = GetTimeBenchmarkTest.class.getSimpleName();
+
+  private static final int NUM_DATE_TIMES = 1000;
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  private String[] xmlDateTimes;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    // The forms written by the GPX, KML, and TCX writers, and by other apps
+    xmlDateTimes = new String[NUM_DATE_TIMES];
+    for (int i = 0; i < NUM_DATE_TIMES; i++) {
+      String dateTime = String.format(Locale.US, "2014-%02d-%02dT%02d:%02d:%02d", 1 + i % 12,
+          1 + i % 28, i % 24, i % 60, i * 7 % 60);
+      switch (i % 3) {
+        case 0:
+          xmlDateTimes[i] = dateTime + String.format(Locale.US, ".%03dZ", i);
+          break;
+        case 1:
+          xmlDateTimes[i] = dateTime + "Z";
+          break;
+        default:
+          xmlDateTimes[i] = dateTime + "+02:00";
+          break;
+      }
+    }
+  }
+
+  public void testGetTime() {
+    long fastSum = 0L;
+    long slowSum = 0L;
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      fastSum += getTime(false);
+      slowSum += getTime(true);
+    }
+    assertEquals(slowSum, fastSum);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      fastSum += getTime(false);
+    }
+    long fastTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      slowSum += getTime(true);
+    }
+    long slowTime = System.nanoTime() - start;
+    assertEquals(slowSum, fastSum);
+
+    int calls = MEASURED_ITERATIONS * NUM_DATE_TIMES;
+    Log.i(TAG, "getTime: " + fastTime / calls + " ns/op, getTimeWithDateFormat: "
+        + slowTime / calls + " ns/op");
+  }
+
+  /**
+   * Parses all the date times. Returns the sum of the times.
+   * 
+   * @param withDateFormat true to parse with the date format
+   */
+  private long getTime(boolean withDateFormat) {
+    long sum = 0L;
+    for (String xmlDateTime : xmlDateTimes) {
+      sum += withDateFormat ? StringUtils.getTimeWithDateFormat(xmlDateTime)
+          : StringUtils.getTime(xmlDateTime);
+    }
+    return sum;
+  }
+}
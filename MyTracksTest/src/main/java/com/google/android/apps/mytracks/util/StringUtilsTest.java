@@ -18,7 +18,10 @@ package com.google.android.apps.mytracks.util;
 
 import android.test.AndroidTestCase;
 
+import java.nio.CharBuffer;
 import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
 import java.util.TimeZone;
 
 /**
@@ -28,6 +31,10 @@ import java.util.TimeZone;
  */
 public class StringUtilsTest extends AndroidTestCase {
 
+  private static final int NUM_RANDOM_DATE_TIMES = 100000;
+  private static final int NUM_RANDOM_DOUBLES = 100000;
+  private static final String MUTATION_CHARS = "0123456789-+:.TZ x";
+
   /**
    * Tests {@link StringUtils#formatDateTimeIso8601(long)}.
    */
@@ -140,6 +147,115 @@ public class StringUtilsTest extends AndroidTestCase {
     assertGetTime("2010-05-04T03:02:01.8-05:30", 2010, 5, 4, 8, 32, 1, 800);
   }
 
+  /**
+   * Tests {@link StringUtils#getTime(String)} matches
+   * {@link StringUtils#getTimeWithDateFormat(String)} for the edge cases of
+   * its fast path.
+   */
+  public void testGetTime_edgeCases() {
+    String[] xmlDateTimes = { "2010-05-04T03:02:01.3525Z", "2010-05-04T03:02:01.0005Z",
+        "2010-05-04T03:02:01.9996Z", "2010-05-04T03:02:01.123456789123Z",
+        "2012-02-29T23:59:59.9995Z", "2011-02-29T00:00:00Z", "1582-10-15T00:00:00Z",
+        "1583-01-01T00:00:00Z", "9999-12-31T23:59:59.999Z", "2010-13-01T00:00:00Z",
+        "2010-05-04T24:00:00Z", "2010-05-04T03:60:00Z", "2010-05-04T03:02:60Z",
+        "2010-05-04T03:02:01.Z", "2010-05-04T03:02:01+14:59", "2010-05-04T03:02:01+15:00",
+        "2010-05-04T03:02:01-00:60", "2010-05-04T03:02:01+0100", "2010-05-04T03:02:01z",
+        "2010-5-4T3:2:1", " 2010-05-04T03:02:01Z", "2010-05-04T03:02:01Z ", "2010-05-04",
+        "" };
+    for (String xmlDateTime : xmlDateTimes) {
+      assertGetTimeEquivalent(xmlDateTime);
+    }
+  }
+
+  /**
+   * Tests {@link StringUtils#getTime(String)} matches
+   * {@link StringUtils#getTimeWithDateFormat(String)} for random date times,
+   * valid or not, in and around the forms of its fast path.
+   */
+  public void testGetTime_random() {
+    Random random = new Random(0);
+    for (int i = 0; i < NUM_RANDOM_DATE_TIMES; i++) {
+      String xmlDateTime = createRandomDateTime(random);
+      if (random.nextInt(4) == 0) {
+        char[] chars = xmlDateTime.toCharArray();
+        chars[random.nextInt(chars.length)] = MUTATION_CHARS.charAt(
+            random.nextInt(MUTATION_CHARS.length()));
+        xmlDateTime = new String(chars);
+      }
+      assertGetTimeEquivalent(xmlDateTime);
+    }
+  }
+
+  /**
+   * Creates a random XML date time, with fields mostly in range.
+   * 
+   * @param random the random
+   */
+  private String createRandomDateTime(Random random) {
+    int year = random.nextInt(10) == 0 ? random.nextInt(10000) : 1900 + random.nextInt(200);
+    StringBuilder builder = new StringBuilder(String.format(Locale.US,
+        "%04d-%02d-%02dT%02d:%02d:%02d", year, getRandomField(random, 1, 12),
+        getRandomField(random, 1, 31), getRandomField(random, 0, 23),
+        getRandomField(random, 0, 59), getRandomField(random, 0, 59)));
+    if (random.nextBoolean()) {
+      builder.append('.');
+      int digits = 1 + random.nextInt(10);
+      for (int i = 0; i < digits; i++) {
+        // Favors fractions close to a half millisecond
+        builder.append(i == 3 && random.nextBoolean() ? '5' : (char) ('0' + random.nextInt(10)));
+      }
+    }
+    switch (random.nextInt(3)) {
+      case 0:
+        break;
+      case 1:
+        builder.append('Z');
+        break;
+      default:
+        builder.append(String.format(Locale.US, "%c%02d:%02d", random.nextBoolean() ? '+' : '-',
+            getRandomField(random, 0, 14), getRandomField(random, 0, 59)));
+        break;
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Gets a random field value, sometimes just out of range.
+   * 
+   * @param random the random
+   * @param min the min value
+   * @param max the max value
+   */
+  private int getRandomField(Random random, int min, int max) {
+    if (random.nextInt(20) == 0) {
+      return random.nextBoolean() ? min - 1 : max + 1;
+    }
+    return min + random.nextInt(max - min + 1);
+  }
+
+  /**
+   * Asserts {@link StringUtils#getTime(String)} returns the same time as
+   * {@link StringUtils#getTimeWithDateFormat(String)}, or both throw an
+   * {@link IllegalArgumentException}.
+   * 
+   * @param xmlDateTime the XML date time
+   */
+  private void assertGetTimeEquivalent(String xmlDateTime) {
+    Long expected;
+    try {
+      expected = StringUtils.getTimeWithDateFormat(xmlDateTime);
+    } catch (IllegalArgumentException e) {
+      expected = null;
+    }
+    Long actual;
+    try {
+      actual = StringUtils.getTime(xmlDateTime);
+    } catch (IllegalArgumentException e) {
+      actual = null;
+    }
+    assertEquals(xmlDateTime, expected, actual);
+  }
+
   /**
    * Asserts the {@link StringUtils#getTime(String)} returns the expected
    * values.
@@ -161,6 +277,93 @@ public class StringUtilsTest extends AndroidTestCase {
     assertEquals(calendar.getTimeInMillis(), StringUtils.getTime(xmlDateTime));
   }
 
+  /**
+   * Tests {@link StringUtils#getTime(CharSequence)} with a view of a buffer.
+   */
+  public void testGetTime_charSequence() {
+    CharBuffer charBuffer = CharBuffer.wrap("<when>2010-05-04T03:02:01.352Z</when>");
+    charBuffer.position(6);
+    charBuffer.limit(30);
+    assertEquals(StringUtils.getTime("2010-05-04T03:02:01.352Z"), StringUtils.getTime(charBuffer));
+
+    // Falls back to the date format
+    charBuffer = CharBuffer.wrap("2010-05-04T03:02:01.0005Z");
+    assertEquals(StringUtils.getTime("2010-05-04T03:02:01.0005Z"), StringUtils.getTime(charBuffer));
+  }
+
+  /**
+   * Tests {@link StringUtils#parseDouble(CharSequence)}.
+   */
+  public void testParseDouble() {
+    String[] values = { "0", "-0", "+0", "0.0", "-0.0", "1", "-1", "48.768364", "-122.084095",
+        "9.177886", "324.0", "1.", ".5", "-.5", "0.1", "0.3", "123456789012345.6",
+        "9007199254740991", "9007199254740992", "9007199254740993", "0.0000000000000000000001",
+        "0.00000000000000000000001", "1.7976931348623157E308", "1e5", "4.9e-324", "NaN",
+        "-Infinity", "1.0d", "1.0f", "0x1p3", " 1.5", "1.5 ", "", "-", ".", "+.", "1.2.3", "--1",
+        "1,5", "abc" };
+    for (String value : values) {
+      assertParseDoubleEquivalent(value);
+    }
+
+    // A view of a buffer
+    CharBuffer charBuffer = CharBuffer.wrap("-122.084095,37.422006");
+    charBuffer.limit(11);
+    assertEquals(-122.084095, StringUtils.parseDouble(charBuffer));
+  }
+
+  /**
+   * Tests {@link StringUtils#parseDouble(CharSequence)} matches
+   * {@link Double#parseDouble(String)} for random decimals, valid or not.
+   */
+  public void testParseDouble_random() {
+    Random random = new Random(0);
+    for (int i = 0; i < NUM_RANDOM_DOUBLES; i++) {
+      StringBuilder builder = new StringBuilder();
+      if (random.nextBoolean()) {
+        builder.append(random.nextBoolean() ? '-' : '+');
+      }
+      int integerDigits = random.nextInt(12);
+      for (int j = 0; j < integerDigits; j++) {
+        builder.append((char) ('0' + random.nextInt(10)));
+      }
+      if (random.nextInt(4) != 0) {
+        builder.append('.');
+        int fractionDigits = random.nextInt(20);
+        for (int j = 0; j < fractionDigits; j++) {
+          builder.append((char) ('0' + random.nextInt(10)));
+        }
+      }
+      if (builder.length() > 0 && random.nextInt(20) == 0) {
+        builder.setCharAt(random.nextInt(builder.length()),
+            MUTATION_CHARS.charAt(random.nextInt(MUTATION_CHARS.length())));
+      }
+      assertParseDoubleEquivalent(builder.toString());
+    }
+  }
+
+  /**
+   * Asserts {@link StringUtils#parseDouble(CharSequence)} returns the same
+   * double as {@link Double#parseDouble(String)}, or both throw a
+   * {@link NumberFormatException}.
+   * 
+   * @param value the value
+   */
+  private void assertParseDoubleEquivalent(String value) {
+    Double expected;
+    try {
+      expected = Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      expected = null;
+    }
+    Double actual;
+    try {
+      actual = StringUtils.parseDouble(new StringBuilder(value));
+    } catch (NumberFormatException e) {
+      actual = null;
+    }
+    assertEquals(value, expected, actual);
+  }
+
   /**
    * Tests {@link StringUtils#getTimeParts(long)} with a positive number.
    */